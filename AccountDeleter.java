@@ -0,0 +1,324 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Background cleanup of deleted accounts. Database.deleteUser only
+ * tombstones the user; the deleter then removes the user's active listings
+ * batchSize at a time, each batch under one short hold of the database
+ * lock, and finally drops their conversations, messages and ratings
+ * through the per-user indexes.
+ *
+ * Pending deletions are listed in a file, one "userId,username" line
+ * each, so cleanup interrupted by a restart resumes. The thread runs only
+ * while there is work. Progress is kept for pending deletions and the
+ * last few finished ones.
+ */
+public class AccountDeleter implements AccountDeleterInterface, Runnable {
+    public static final int DEFAULT_BATCH_SIZE = 200;
+    private static final int FINISHED_KEPT = 256;
+
+    /**
+     * Stages of a deletion, in order.
+     */
+    public enum Phase {
+        QUEUED,
+        LISTINGS,       // removing active listings in batches
+        CONVERSATIONS,  // dropping conversations, messages and ratings
+        DONE
+    }
+
+    private final Database database;
+    private final String file;
+    private final int batchSize;
+    private final Object lock = new Object();
+    private final Map<CompactId, Progress> pending;   // queue order, oldest first
+    private final Map<CompactId, Progress> finished;  // finish order, eldest first
+    private boolean running;
+    private boolean stopping;
+    private Thread thread;
+
+    /**
+     * Creates a deleter that lists pending deletions in the given file.
+     */
+    public AccountDeleter(Database database, String file, int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batchSize must be positive");
+        }
+        this.database = database;
+        this.file = file;
+        this.batchSize = batchSize;
+        this.pending = new LinkedHashMap<>();
+        this.finished = new LinkedHashMap<CompactId, Progress>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<CompactId, Progress> eldest) {
+                return size() > FINISHED_KEPT;
+            }
+        };
+        this.running = false;
+        this.stopping = false;
+    }
+
+    /**
+     * Reads the deletions left pending by an earlier run and returns them,
+     * without starting them. Call submit for each one that should resume.
+     */
+    @Override
+    public List<Progress> readPending() {
+        List<Progress> deletions = new ArrayList<>();
+        File pendingFile = new File(file);
+        if (!pendingFile.exists()) {
+            return deletions;
+        }
+        try (BufferedReader reader = new BufferedReader(new FileReader(pendingFile))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int comma = line.indexOf(',');
+                if (comma > 0) {
+                    deletions.add(new Progress(line.substring(0, comma), line.substring(comma + 1),
+                            Phase.QUEUED, 0));
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Error reading pending deletions: " + e.getMessage());
+        }
+        return deletions;
+    }
+
+    /**
+     * Queues a tombstoned user for cleanup, records it in the pending file
+     * and starts the thread if it is idle. A user already queued is not
+     * queued again.
+     */
+    @Override
+    public void submit(String userId, String username) {
+        CompactId key = CompactId.of(userId);
+        synchronized (lock) {
+            if (pending.containsKey(key)) {
+                return;
+            }
+            pending.put(key, new Progress(userId, username, Phase.QUEUED, 0));
+            finished.remove(key);
+            writePending();
+            if (!running && !stopping) {
+                running = true;
+                thread = new Thread(this, "account-deleter");
+                thread.setDaemon(true);
+                thread.start();
+            }
+        }
+    }
+
+    /**
+     * Cleans up queued users one at a time until none are left or the deleter is stopped.
+     */
+    @Override
+    public void run() {
+        while (true) {
+            Progress next;
+            synchronized (lock) {
+                if (stopping || pending.isEmpty()) {
+                    running = false;
+                    lock.notifyAll();
+                    return;
+                }
+                next = pending.values().iterator().next();
+            }
+            try {
+                cleanUp(next);
+            } catch (RuntimeException e) {
+                // Left pending; it is retried on the next start
+                System.err.println("Error deleting account " + next.getUserId() + ": " + e.getMessage());
+                synchronized (lock) {
+                    running = false;
+                    lock.notifyAll();
+                    return;
+                }
+            }
+        }
+    }
+
+    private void cleanUp(Progress deletion) {
+        CompactId key = CompactId.of(deletion.getUserId());
+        int removed = 0;
+        int batch;
+        do {
+            if (isStopping()) {
+                return;
+            }
+            batch = database.removeListingsOf(key, batchSize);
+            removed += batch;
+            update(key, new Progress(deletion.getUserId(), deletion.getUsername(), Phase.LISTINGS, removed));
+        } while (batch == batchSize);
+
+        update(key, new Progress(deletion.getUserId(), deletion.getUsername(), Phase.CONVERSATIONS, removed));
+        database.purgeUserData(deletion.getUserId());
+        database.finishDeletion(key);
+
+        synchronized (lock) {
+            pending.remove(key);
+            finished.put(key, new Progress(deletion.getUserId(), deletion.getUsername(), Phase.DONE, removed));
+            writePending();
+            lock.notifyAll();
+        }
+        System.out.println("Deleted account " + deletion.getUsername() + " and " + removed + " listings");
+    }
+
+    private void update(CompactId key, Progress progress) {
+        synchronized (lock) {
+            if (pending.containsKey(key)) {
+                pending.put(key, progress);
+            }
+        }
+    }
+
+    private boolean isStopping() {
+        synchronized (lock) {
+            return stopping;
+        }
+    }
+
+    // Rewrites the pending file; called with the lock held
+    private void writePending() {
+        File pendingFile = new File(file);
+        if (pending.isEmpty()) {
+            if (pendingFile.exists() && !pendingFile.delete()) {
+                System.err.println("Could not delete " + file);
+            }
+            return;
+        }
+        File temp = new File(file + ".tmp");
+        try (PrintWriter writer = new PrintWriter(new FileWriter(temp))) {
+            for (Progress deletion : pending.values()) {
+                writer.println(deletion.getUserId() + "," + deletion.getUsername());
+            }
+        } catch (IOException e) {
+            System.err.println("Error writing pending deletions: " + e.getMessage());
+            return;
+        }
+        if (!temp.renameTo(pendingFile)) {
+            pendingFile.delete();
+            if (!temp.renameTo(pendingFile)) {
+                System.err.println("Could not replace " + file);
+            }
+        }
+    }
+
+    /**
+     * Gets the progress of a pending or recently finished deletion, or null.
+     */
+    @Override
+    public Progress getProgress(String userId) {
+        CompactId key = CompactId.of(userId);
+        synchronized (lock) {
+            Progress progress = pending.get(key);
+            return progress != null ? progress : finished.get(key);
+        }
+    }
+
+    /**
+     * Gets the number of deletions not finished yet.
+     */
+    @Override
+    public int getPendingCount() {
+        synchronized (lock) {
+            return pending.size();
+        }
+    }
+
+    /**
+     * Waits up to timeoutMillis for every queued deletion to finish, and
+     * returns whether they did.
+     */
+    @Override
+    public boolean awaitIdle(long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        synchronized (lock) {
+            long remaining = timeoutMillis;
+            while (running && remaining > 0) {
+                lock.wait(remaining);
+                remaining = deadline - System.currentTimeMillis();
+            }
+            return pending.isEmpty();
+        }
+    }
+
+    /**
+     * Stops the thread, letting a batch in progress finish. Unfinished
+     * deletions stay in the pending file.
+     */
+    @Override
+    public void stop() {
+        Thread current;
+        synchronized (lock) {
+            stopping = true;
+            current = thread;
+        }
+        if (current != null && current != Thread.currentThread()) {
+            try {
+                current.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Progress of one deletion.
+     */
+    public static class Progress {
+        private final String userId;
+        private final String username;
+        private final Phase phase;
+        private final int listingsRemoved;
+
+        Progress(String userId, String username, Phase phase, int listingsRemoved) {
+            this.userId = userId;
+            this.username = username;
+            this.phase = phase;
+            this.listingsRemoved = listingsRemoved;
+        }
+
+        /**
+         * Gets the deleted user's ID.
+         */
+        public String getUserId() {
+            return userId;
+        }
+
+        /**
+         * Gets the deleted user's username.
+         */
+        public String getUsername() {
+            return username;
+        }
+
+        /**
+         * Gets the stage the deletion has reached.
+         */
+        public Phase getPhase() {
+            return phase;
+        }
+
+        /**
+         * Gets the number of active listings removed so far.
+         */
+        public int getListingsRemoved() {
+            return listingsRemoved;
+        }
+
+        /**
+         * Checks whether the deletion has finished.
+         */
+        public boolean isDone() {
+            return phase == Phase.DONE;
+        }
+    }
+}
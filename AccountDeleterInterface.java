@@ -0,0 +1,13 @@
+import java.util.List;
+
+/**
+ * Interface for the AccountDeleter class
+ */
+public interface AccountDeleterInterface {
+    List<AccountDeleter.Progress> readPending();
+    void submit(String userId, String username);
+    AccountDeleter.Progress getProgress(String userId);
+    int getPendingCount();
+    boolean awaitIdle(long timeoutMillis) throws InterruptedException;
+    void stop();
+}
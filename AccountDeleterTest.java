@@ -0,0 +1,64 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests for the background account deleter
+ */
+public class AccountDeleterTest {
+
+	private static File tempFile() throws Exception {
+		File file = File.createTempFile("deletions", ".txt");
+		file.delete();
+		file.deleteOnExit();
+		return file;
+	}
+
+	/** Tests that a seller's listings are removed in batches and the deletion is reported done. */
+	@Test
+	public void testRemovesListingsInBatches() throws Exception {
+		Database database = new Database();
+		database.addUser("deleterseller", "pass", "bio");
+		String sellerId = database.getUserByUsername("deleterseller").getUserId();
+		for (int i = 0; i < 5; i++) {
+			database.addItem(new Item(sellerId, "Plate " + i, "Ceramic plate.", "Home", 4.0));
+		}
+		File file = tempFile();
+		AccountDeleter deleter = new AccountDeleter(database, file.getPath(), 2);
+		assertNull(deleter.getProgress(sellerId));
+
+		deleter.submit(sellerId, "deleterseller");
+		assertTrue(deleter.awaitIdle(10000));
+		AccountDeleter.Progress progress = deleter.getProgress(sellerId);
+		assertTrue(progress.isDone());
+		assertEquals(5, progress.getListingsRemoved());
+		assertEquals("deleterseller", progress.getUsername());
+		assertEquals(0, deleter.getPendingCount());
+		assertTrue(database.getActiveListingsBySeller(sellerId).isEmpty());
+		assertFalse(file.exists());
+		deleter.stop();
+	}
+
+	/** Tests that deletions left in the pending file are read back, and that a stopped deleter starts no work. */
+	@Test
+	public void testReadsPendingFile() throws Exception {
+		File file = tempFile();
+		Files.write(file.toPath(), Arrays.asList("user1,alice", "user2,bob", "garbage"), StandardCharsets.UTF_8);
+		AccountDeleter deleter = new AccountDeleter(new Database(), file.getPath(), 10);
+		List<AccountDeleter.Progress> pending = deleter.readPending();
+		assertEquals(2, pending.size());
+		assertEquals("user1", pending.get(0).getUserId());
+		assertEquals("bob", pending.get(1).getUsername());
+		assertEquals(AccountDeleter.Phase.QUEUED, pending.get(1).getPhase());
+
+		deleter.stop();
+		deleter.submit("user1", "alice");
+		assertFalse(deleter.awaitIdle(50));
+		assertEquals(AccountDeleter.Phase.QUEUED, deleter.getProgress("user1").getPhase());
+		assertTrue(Files.readAllLines(file.toPath()).contains("user1,alice"));
+	}
+}
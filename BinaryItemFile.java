@@ -0,0 +1,298 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Versioned binary item file that is read through a MappedByteBuffer.
+ *
+ * Layout (big-endian):
+ *   header  magic, version, itemCount, recordHeaderSize, indexOffset, dataOffset
+ *   index   per item: the high and low longs of its ID and the absolute
+ *           record offset (long); version 1 has only the offset
+ *   data    records: length, price, flags, rating, ratingCount, string field
+ *           offsets, then length-prefixed UTF-8 strings
+ *
+ * Strings are length-prefixed, so commas in titles and descriptions are safe.
+ * An ID that is not a UUID has zero ID longs and TEXT_ID set in its offset,
+ * and is read from its record. Since the index is fixed-width, readMap()
+ * keys every item without reading any record.
+ */
+public class BinaryItemFile implements BinaryItemFileInterface {
+    public static final int MAGIC = 0x4D4B4954; // "MKIT"
+    public static final int VERSION = 2; // version 2 added the ID longs to the index
+    public static final int FILE_HEADER_SIZE = 32;
+    static final int INDEX_ENTRY_SIZE = 24;
+    private static final long TEXT_ID = 1L << 62; // index offset flag: read the ID from the record
+
+    // Record header offsets, relative to the start of a record
+    static final int REC_LENGTH = 0;
+    static final int REC_PRICE = 4;
+    static final int REC_FLAGS = 12;
+    static final int REC_RATING = 13;
+    static final int REC_RATING_COUNT = 21;
+    static final int REC_FIELDS = 25;
+    static final int RECORD_HEADER_SIZE = 49;
+
+    // String fields, in the order of the offset table
+    static final int FIELD_ITEM_ID = 0;
+    static final int FIELD_SELLER_ID = 1;
+    static final int FIELD_BUYER_ID = 2;
+    static final int FIELD_TITLE = 3;
+    static final int FIELD_DESCRIPTION = 4;
+    static final int FIELD_CATEGORY = 5;
+    static final int FIELD_COUNT = 6;
+
+    private static final int FLAG_SOLD = 1;
+
+    private final String fileName;
+
+    /**
+     * Creates a handle for the binary item file with the given name.
+     */
+    public BinaryItemFile(String fileName) {
+        this.fileName = fileName;
+    }
+
+    /**
+     * Checks whether the file exists on disk.
+     */
+    @Override
+    public boolean exists() {
+        return new File(fileName).exists();
+    }
+
+    /**
+     * Encodes items into the binary file format.
+     */
+    @Override
+    public byte[] encode(Collection<Item> items) {
+        return encodeItems(items);
+    }
+
+    /**
+     * Encodes items into the binary file format, for callers without a file.
+     */
+    static byte[] encodeItems(Collection<Item> items) {
+        int count = items.size();
+        long dataOffset = FILE_HEADER_SIZE + (long) INDEX_ENTRY_SIZE * count;
+        long[] index = new long[3 * count];
+
+        ByteArrayOutputStream data = new ByteArrayOutputStream(Math.max(64, count * 128));
+        try {
+            DataOutputStream out = new DataOutputStream(data);
+            int i = 0;
+            for (Item item : items) {
+                CompactId itemId = item.getItemKey();
+                long offset = dataOffset + data.size();
+                index[i++] = itemId.getMostSignificantBits();
+                index[i++] = itemId.getLeastSignificantBits();
+                index[i++] = itemId.isCompact() ? offset : offset | TEXT_ID;
+                writeRecord(out, item);
+            }
+            out.flush();
+
+            ByteArrayOutputStream file = new ByteArrayOutputStream((int) dataOffset + data.size());
+            DataOutputStream fileOut = new DataOutputStream(file);
+            fileOut.writeInt(MAGIC);
+            fileOut.writeInt(VERSION);
+            fileOut.writeInt(count);
+            fileOut.writeInt(RECORD_HEADER_SIZE);
+            fileOut.writeLong(FILE_HEADER_SIZE);
+            fileOut.writeLong(dataOffset);
+            for (long entry : index) {
+                fileOut.writeLong(entry);
+            }
+            data.writeTo(fileOut);
+            fileOut.flush();
+            return file.toByteArray();
+        } catch (IOException e) {
+            // ByteArrayOutputStream never throws
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Writes an encoded file. The bytes go to a temporary file that is then
+     * renamed over the old one, so existing mappings keep reading the old inode.
+     */
+    @Override
+    public void write(byte[] encoded) throws IOException {
+        File target = new File(fileName);
+        File temp = new File(fileName + ".tmp");
+        Files.write(temp.toPath(), encoded);
+        try {
+            Files.move(temp.toPath(), target.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Maps the file and returns lazily decoded items. Only the item ID and the
+     * fixed-width fields are read here; every other field is decoded on first
+     * access.
+     */
+    @Override
+    public List<Item> read() throws IOException {
+        return decode(map(), fileName);
+    }
+
+    /**
+     * Maps the file and returns its items keyed by ID. Only the header and
+     * the fixed-width index are read here; a record is decoded into a
+     * MappedItem when its item is first looked up or the map is iterated.
+     */
+    @Override
+    public MappedItemMap readMap() throws IOException {
+        return index(map(), fileName);
+    }
+
+    private MappedByteBuffer map() throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(fileName, "r");
+             FileChannel channel = file.getChannel()) {
+            long size = channel.size();
+            if (size < FILE_HEADER_SIZE) {
+                throw new IOException("Item file too short: " + fileName);
+            }
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Item file larger than 2GB: " + fileName);
+            }
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+    }
+
+    /**
+     * Returns lazily decoded items over encoded bytes, mapped or not. The
+     * items keep reading from buffer. source names the bytes in errors.
+     */
+    static List<Item> decode(ByteBuffer buffer, String source) throws IOException {
+        int version = checkHeader(buffer, source);
+        int count = buffer.getInt(8);
+        int indexOffset = (int) buffer.getLong(16);
+
+        List<Item> result = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            result.add(new MappedItem(buffer, recordOffset(buffer, version, indexOffset, i)));
+        }
+        return result;
+    }
+
+    /**
+     * Keys the records of encoded bytes by item ID from the index alone,
+     * except for IDs that are not UUIDs and for version 1 files, whose IDs
+     * are read from the records.
+     */
+    static MappedItemMap index(ByteBuffer buffer, String source) throws IOException {
+        int version = checkHeader(buffer, source);
+        int count = buffer.getInt(8);
+        int indexOffset = (int) buffer.getLong(16);
+
+        MappedItemMap items = new MappedItemMap(buffer, count);
+        for (int i = 0; i < count; i++) {
+            int recordOffset = recordOffset(buffer, version, indexOffset, i);
+            if (version >= 2 && (buffer.getLong(indexOffset + INDEX_ENTRY_SIZE * i + 16) & TEXT_ID) == 0) {
+                int entry = indexOffset + INDEX_ENTRY_SIZE * i;
+                items.addRecord(buffer.getLong(entry), buffer.getLong(entry + 8), recordOffset);
+            } else {
+                items.addRecord(CompactId.of(readField(buffer, recordOffset, FIELD_ITEM_ID)), recordOffset);
+            }
+        }
+        return items;
+    }
+
+    // Checks the magic number and returns the file's version
+    private static int checkHeader(ByteBuffer buffer, String source) throws IOException {
+        if (buffer.capacity() < FILE_HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a binary item file: " + source);
+        }
+        int version = buffer.getInt(4);
+        if (version > VERSION) {
+            throw new IOException("Unsupported item file version " + version + " in " + source);
+        }
+        return version;
+    }
+
+    private static int recordOffset(ByteBuffer buffer, int version, int indexOffset, int i) {
+        if (version < 2) {
+            return (int) buffer.getLong(indexOffset + 8 * i);
+        }
+        return (int) (buffer.getLong(indexOffset + INDEX_ENTRY_SIZE * i + 16) & ~TEXT_ID);
+    }
+
+    /**
+     * Writes a single record: fixed header, field offset table, then strings.
+     */
+    private static void writeRecord(DataOutputStream out, Item item) throws IOException {
+        byte[][] fields = new byte[FIELD_COUNT][];
+        fields[FIELD_ITEM_ID] = utf8(item.getItemId());
+        fields[FIELD_SELLER_ID] = utf8(item.getSellerId());
+        fields[FIELD_BUYER_ID] = item.isSold() ? utf8(item.getBuyerId()) : null;
+        fields[FIELD_TITLE] = utf8(item.getTitle());
+        fields[FIELD_DESCRIPTION] = utf8(item.getDescription());
+        fields[FIELD_CATEGORY] = utf8(item.getCategory());
+
+        int[] fieldOffsets = new int[FIELD_COUNT];
+        int position = RECORD_HEADER_SIZE;
+        for (int f = 0; f < FIELD_COUNT; f++) {
+            fieldOffsets[f] = position;
+            position += 4 + (fields[f] == null ? 0 : fields[f].length);
+        }
+
+        out.writeInt(position);
+        out.writeDouble(item.getPrice());
+        out.writeByte(item.isSold() ? FLAG_SOLD : 0);
+        out.writeDouble(item.getRating());
+        out.writeInt(item.getRatingCount());
+        for (int fieldOffset : fieldOffsets) {
+            out.writeInt(fieldOffset);
+        }
+        for (byte[] field : fields) {
+            if (field == null) {
+                out.writeInt(-1);
+            } else {
+                out.writeInt(field.length);
+                out.write(field);
+            }
+        }
+    }
+
+    private static byte[] utf8(String value) {
+        return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Checks the sold flag of a record.
+     */
+    static boolean isSold(ByteBuffer buffer, int recordOffset) {
+        return (buffer.get(recordOffset + REC_FLAGS) & FLAG_SOLD) != 0;
+    }
+
+    /**
+     * Decodes one string field of a record using its fixed-offset table entry.
+     */
+    static String readField(ByteBuffer buffer, int recordOffset, int field) {
+        int position = recordOffset + buffer.getInt(recordOffset + REC_FIELDS + 4 * field);
+        int length = buffer.getInt(position);
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        int start = position + 4;
+        for (int i = 0; i < length; i++) {
+            bytes[i] = buffer.get(start + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
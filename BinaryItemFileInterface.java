@@ -0,0 +1,14 @@
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Interface for the BinaryItemFile class
+ */
+public interface BinaryItemFileInterface {
+    boolean exists();
+    byte[] encode(Collection<Item> items);
+    void write(byte[] encoded) throws IOException;
+    List<Item> read() throws IOException;
+    MappedItemMap readMap() throws IOException;
+}
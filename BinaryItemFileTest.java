@@ -0,0 +1,146 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests for the binary item file
+ */
+public class BinaryItemFileTest {
+
+	private BinaryItemFile tempFile() throws Exception {
+		File file = File.createTempFile("items", ".bin");
+		file.deleteOnExit();
+		return new BinaryItemFile(file.getPath());
+	}
+
+	/** Tests that items survive a write and read, including commas in text fields. */
+	@Test
+	public void testRoundTrip() throws Exception {
+		BinaryItemFile store = tempFile();
+		Item lamp = new Item("seller1", "Desk Lamp", "Warm light, adjustable arm, USB port", "Home", 24.5);
+		Item bike = new Item("seller2", "Road Bike", "Carbon frame", "Sports", 900.0);
+		bike.markAsSold("buyer9");
+		bike.updateRating(4.0);
+
+		List<Item> items = new ArrayList<>();
+		items.add(lamp);
+		items.add(bike);
+		store.write(store.encode(items));
+
+		List<Item> loaded = store.read();
+		assertEquals(2, loaded.size());
+
+		Item loadedLamp = loaded.get(0);
+		assertEquals(lamp.getItemId(), loadedLamp.getItemId());
+		assertEquals("Warm light, adjustable arm, USB port", loadedLamp.getDescription());
+		assertEquals("Home", loadedLamp.getCategory());
+		assertEquals(24.5, loadedLamp.getPrice(), 0.0001);
+		assertFalse(loadedLamp.isSold());
+		assertNull(loadedLamp.getBuyerId());
+
+		Item loadedBike = loaded.get(1);
+		assertTrue(loadedBike.isSold());
+		assertEquals("buyer9", loadedBike.getBuyerId());
+		assertEquals(4.0, loadedBike.getRating(), 0.0001);
+		assertEquals(1, loadedBike.getRatingCount());
+	}
+
+	/** Tests that tags are extracted lazily from the stored description. */
+	@Test
+	public void testLazyTags() throws Exception {
+		BinaryItemFile store = tempFile();
+		Item item = new Item("seller1", "Jacket", "Leather jacket", "Clothing", 80.0);
+		List<Item> items = new ArrayList<>();
+		items.add(item);
+		store.write(store.encode(items));
+
+		Item loaded = store.read().get(0);
+		assertTrue(loaded instanceof MappedItem);
+		assertEquals(item.getTags(), loaded.getTags());
+	}
+
+	/** Tests that readMap keys items from the index and reads each record on first lookup. */
+	@Test
+	public void testReadMapReadsRecordsOnLookup() throws Exception {
+		BinaryItemFile store = tempFile();
+		Item lamp = new Item("seller1", "Desk Lamp", "Warm light", "Home", 24.5);
+		Item legacy = new Item("item-7", "seller2", "Old Radio", "Valves", "Electronics", 35.0);
+		Item bike = new Item("seller2", "Road Bike", "Carbon frame", "Sports", 900.0);
+		List<Item> items = new ArrayList<>();
+		items.add(lamp);
+		items.add(legacy);
+		items.add(bike);
+		store.write(store.encode(items));
+
+		MappedItemMap loaded = store.readMap();
+		assertEquals(3, loaded.size());
+		assertEquals(3, loaded.getUnreadCount());
+		assertTrue(loaded.containsKey(bike.getItemKey()));
+		assertFalse(loaded.containsKey(CompactId.of("item-8")));
+		assertEquals(3, loaded.getUnreadCount());
+
+		assertEquals("Road Bike", loaded.get(bike.getItemKey()).getTitle());
+		assertEquals("Old Radio", loaded.get(CompactId.of("item-7")).getTitle());
+		assertEquals(1, loaded.getUnreadCount());
+		assertSame(loaded.get(bike.getItemKey()), loaded.get(bike.getItemKey()));
+
+		assertNotNull(loaded.remove(bike.getItemKey()));
+		assertFalse(loaded.containsKey(bike.getItemKey()));
+		assertEquals(2, loaded.size());
+		List<Item> all = new ArrayList<>(loaded.values());
+		assertEquals(2, all.size());
+		assertEquals(0, loaded.getUnreadCount());
+		assertEquals(lamp.getItemId(), loaded.get(lamp.getItemKey()).getItemId());
+	}
+
+	/** Tests that a version 1 file, whose index has only record offsets, still reads. */
+	@Test
+	public void testReadsVersion1File() throws Exception {
+		BinaryItemFile store = tempFile();
+		Item lamp = new Item("seller1", "Desk Lamp", "Warm light", "Home", 24.5);
+		Item legacy = new Item("item-7", "seller2", "Old Radio", "Valves", "Electronics", 35.0);
+		List<Item> items = new ArrayList<>();
+		items.add(lamp);
+		items.add(legacy);
+		ByteBuffer current = ByteBuffer.wrap(store.encode(items));
+
+		// Rewrite the index with offsets only, as version 1 wrote it
+		int count = current.getInt(8);
+		int shrink = (BinaryItemFile.INDEX_ENTRY_SIZE - 8) * count;
+		int dataOffset = (int) current.getLong(24);
+		ByteBuffer old = ByteBuffer.allocate(current.capacity() - shrink);
+		old.putInt(BinaryItemFile.MAGIC).putInt(1).putInt(count).putInt(current.getInt(12))
+				.putLong(BinaryItemFile.FILE_HEADER_SIZE).putLong(dataOffset - shrink);
+		for (int i = 0; i < count; i++) {
+			long offset = current.getLong(BinaryItemFile.FILE_HEADER_SIZE + BinaryItemFile.INDEX_ENTRY_SIZE * i + 16);
+			old.putLong((offset & 0xFFFFFFFFL) - shrink);
+		}
+		current.position(dataOffset);
+		old.put(current);
+		store.write(old.array());
+
+		assertEquals("Old Radio", store.read().get(1).getTitle());
+		MappedItemMap loaded = store.readMap();
+		assertEquals(2, loaded.size());
+		assertEquals("Desk Lamp", loaded.get(lamp.getItemKey()).getTitle());
+		assertEquals("Old Radio", loaded.get(CompactId.of("item-7")).getTitle());
+	}
+
+	/** Tests that a file with the wrong magic number is rejected. */
+	@Test
+	public void testRejectsForeignFile() throws Exception {
+		File file = File.createTempFile("items", ".bin");
+		file.deleteOnExit();
+		Files.write(file.toPath(), new byte[64]);
+		try {
+			new BinaryItemFile(file.getPath()).read();
+			fail("Expected IOException");
+		} catch (java.io.IOException e) {
+			assertTrue(e.getMessage().contains("Not a binary item file"));
+		}
+	}
+}
@@ -0,0 +1,128 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Bloom filter over string keys. mightContain() never answers false for a
+ * key that was added, and answers true for a missing key with a probability
+ * set by the bits spent per key: about 1% at 10 bits per key.
+ *
+ * The k probe positions come from two 32-bit hashes of the key's UTF-8
+ * bytes combined as h1 + i * h2, so each probe costs no extra hashing.
+ */
+public class BloomFilter implements BloomFilterInterface {
+    public static final int DEFAULT_BITS_PER_KEY = 10;
+
+    private final long[] bits;
+    private final int bitCount;
+    private final int hashCount;
+
+    /**
+     * Creates an empty filter sized for expectedKeys keys at bitsPerKey bits each.
+     */
+    public BloomFilter(int expectedKeys, int bitsPerKey) {
+        this(new long[(Math.max(64, Math.max(1, expectedKeys) * Math.max(1, bitsPerKey)) + 63) / 64],
+                optimalHashCount(bitsPerKey));
+    }
+
+    private BloomFilter(long[] bits, int hashCount) {
+        this.bits = bits;
+        this.bitCount = bits.length * 64;
+        this.hashCount = hashCount;
+    }
+
+    /**
+     * Restores a filter written by toBytes().
+     */
+    public static BloomFilter fromBytes(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        int hashCount = buffer.getInt();
+        long[] bits = new long[buffer.getInt()];
+        for (int i = 0; i < bits.length; i++) {
+            bits[i] = buffer.getLong();
+        }
+        return new BloomFilter(bits, hashCount);
+    }
+
+    // k = ln 2 * bits per key minimizes false positives
+    private static int optimalHashCount(int bitsPerKey) {
+        return Math.max(1, Math.min(30, (int) Math.round(bitsPerKey * 0.69)));
+    }
+
+    /**
+     * Adds a key to the filter.
+     */
+    @Override
+    public void add(String key) {
+        byte[] data = key.getBytes(StandardCharsets.UTF_8);
+        int h1 = murmurMix(fnv1a(data));
+        int h2 = murmurMix(h1 ^ data.length) | 1;
+        for (int i = 0; i < hashCount; i++) {
+            int bit = Math.floorMod(h1 + i * h2, bitCount);
+            bits[bit >>> 6] |= 1L << (bit & 63);
+        }
+    }
+
+    /**
+     * Checks whether a key may have been added. False means it certainly was not.
+     */
+    @Override
+    public boolean mightContain(String key) {
+        byte[] data = key.getBytes(StandardCharsets.UTF_8);
+        int h1 = murmurMix(fnv1a(data));
+        int h2 = murmurMix(h1 ^ data.length) | 1;
+        for (int i = 0; i < hashCount; i++) {
+            int bit = Math.floorMod(h1 + i * h2, bitCount);
+            if ((bits[bit >>> 6] & (1L << (bit & 63))) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Gets the size of the filter in bits.
+     */
+    @Override
+    public int getBitCount() {
+        return bitCount;
+    }
+
+    /**
+     * Gets the number of bits probed per key.
+     */
+    @Override
+    public int getHashCount() {
+        return hashCount;
+    }
+
+    /**
+     * Encodes the filter as hashCount, word count and the bit words.
+     */
+    @Override
+    public byte[] toBytes() {
+        ByteBuffer buffer = ByteBuffer.allocate(8 + 8 * bits.length);
+        buffer.putInt(hashCount).putInt(bits.length);
+        for (long word : bits) {
+            buffer.putLong(word);
+        }
+        return buffer.array();
+    }
+
+    private static int fnv1a(byte[] data) {
+        int hash = 0x811C9DC5;
+        for (byte b : data) {
+            hash ^= b & 0xFF;
+            hash *= 0x01000193;
+        }
+        return hash;
+    }
+
+    private static int murmurMix(int hash) {
+        hash ^= hash >>> 16;
+        hash *= 0x85EBCA6B;
+        hash ^= hash >>> 13;
+        hash *= 0xC2B2AE35;
+        hash ^= hash >>> 16;
+        return hash;
+    }
+}
@@ -0,0 +1,10 @@
+/**
+ * Interface for the BloomFilter class
+ */
+public interface BloomFilterInterface {
+    void add(String key);
+    boolean mightContain(String key);
+    int getBitCount();
+    int getHashCount();
+    byte[] toBytes();
+}
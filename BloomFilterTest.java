@@ -0,0 +1,40 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Tests for the Bloom filter
+ */
+public class BloomFilterTest {
+
+	/** Tests that added keys are always found and few missing keys are. */
+	@Test
+	public void testNoFalseNegativesAndFewFalsePositives() {
+		BloomFilter filter = new BloomFilter(1000, BloomFilter.DEFAULT_BITS_PER_KEY);
+		for (int i = 0; i < 1000; i++) {
+			filter.add("item/" + i);
+		}
+		for (int i = 0; i < 1000; i++) {
+			assertTrue(filter.mightContain("item/" + i));
+		}
+		int falsePositives = 0;
+		for (int i = 1000; i < 11000; i++) {
+			if (filter.mightContain("item/" + i)) {
+				falsePositives++;
+			}
+		}
+		assertTrue("False positives: " + falsePositives, falsePositives < 300);
+	}
+
+	/** Tests that a filter keeps its answers through toBytes and fromBytes. */
+	@Test
+	public void testBytesRoundTrip() {
+		BloomFilter filter = new BloomFilter(10, 8);
+		filter.add("alice");
+		filter.add("bob");
+		BloomFilter restored = BloomFilter.fromBytes(filter.toBytes());
+		assertEquals(filter.getBitCount(), restored.getBitCount());
+		assertEquals(filter.getHashCount(), restored.getHashCount());
+		assertTrue(restored.mightContain("alice"));
+		assertTrue(restored.mightContain("bob"));
+	}
+}
@@ -0,0 +1,461 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+/**
+ * Bulk loader for seeding or migrating a marketplace.
+ *
+ * Streams users and items from CSV (a header row naming the columns) or
+ * JSONL (one flat object per line), chosen by file extension. Lines are read
+ * in batches; each batch is parsed and turned into items, tags included, in
+ * parallel, then added with Database.addUsers or addItems, which take the
+ * database lock once and persist once per batch.
+ *
+ * User fields: username, password, bio, and optionally balance and userId.
+ * Item fields: seller (username or user ID), title, description, category,
+ * price, and optionally itemId, sold and buyer.
+ *
+ * Usage: java BulkImporter [--batch N] [--users FILE] [--items FILE]
+ */
+public class BulkImporter implements BulkImporterInterface {
+    public static final int DEFAULT_BATCH_SIZE = 10000;
+    private static final int MAX_REPORTED_ERRORS = 10;
+
+    private final Database database;
+    private final int batchSize;
+    private final ForkJoinPool pool;
+    private final Map<String, String> sellerIds;  // seller field -> user ID, cached across batches
+    private final AtomicInteger skipped;
+    private final AtomicInteger reportedErrors;
+
+    /**
+     * Creates an importer into database that uses one worker per available processor.
+     */
+    public BulkImporter(Database database, int batchSize) {
+        this(database, batchSize, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates an importer with the given parallelism.
+     */
+    public BulkImporter(Database database, int batchSize, int parallelism) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batchSize must be positive");
+        }
+        this.database = database;
+        this.batchSize = batchSize;
+        this.pool = new ForkJoinPool(Math.max(1, parallelism));
+        this.sellerIds = new ConcurrentHashMap<>();
+        this.skipped = new AtomicInteger();
+        this.reportedErrors = new AtomicInteger();
+    }
+
+    /**
+     * Imports the users in a CSV or JSONL file and returns the number added.
+     */
+    @Override
+    public int importUsers(String fileName) throws IOException {
+        return importFile(fileName, batch -> database.addUsers(parseBatch(batch, this::toUser)));
+    }
+
+    /**
+     * Imports the items in a CSV or JSONL file and returns the number added.
+     * Their sellers must already exist.
+     */
+    @Override
+    public int importItems(String fileName) throws IOException {
+        return importFile(fileName, batch -> database.addItems(parseBatch(batch, this::toItem)));
+    }
+
+    /**
+     * Gets the number of records skipped so far: malformed, or rejected by the database.
+     */
+    @Override
+    public int getSkippedCount() {
+        return skipped.get();
+    }
+
+    /**
+     * Stops the worker threads.
+     */
+    @Override
+    public void close() {
+        pool.shutdown();
+    }
+
+    // Streams a file in batches of records and passes each batch to insert
+    private int importFile(String fileName, BatchInserter insert) throws IOException {
+        boolean json = fileName.endsWith(".jsonl") || fileName.endsWith(".json");
+        int added = 0;
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get(fileName), StandardCharsets.UTF_8)) {
+            List<String> header = json ? null : parseCsvLine(reader.readLine());
+            List<String> lines = new ArrayList<>(batchSize);
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                lines.add(line);
+                if (lines.size() == batchSize) {
+                    added += insertLines(lines, header, insert);
+                    lines.clear();
+                }
+            }
+            if (!lines.isEmpty()) {
+                added += insertLines(lines, header, insert);
+            }
+        }
+        return added;
+    }
+
+    private int insertLines(List<String> lines, List<String> header, BatchInserter insert) {
+        List<Map<String, String>> records = pool.submit(() -> lines.parallelStream()
+                .map(line -> toRecord(line, header))
+                .collect(Collectors.toList())).join();
+        int added = insert.insert(records);
+        skipped.addAndGet(lines.size() - added);
+        return added;
+    }
+
+    // Parses one line into named fields, or returns null if it is malformed
+    private Map<String, String> toRecord(String line, List<String> header) {
+        try {
+            if (header == null) {
+                return parseJsonObject(line);
+            }
+            List<String> values = parseCsvLine(line);
+            Map<String, String> record = new HashMap<>();
+            for (int i = 0; i < header.size() && i < values.size(); i++) {
+                record.put(header.get(i), values.get(i));
+            }
+            return record;
+        } catch (IllegalArgumentException e) {
+            reportError(line, e.getMessage());
+            return null;
+        }
+    }
+
+    // Turns records into users or items in parallel, dropping those that cannot be
+    private <T> List<T> parseBatch(List<Map<String, String>> records, RecordParser<T> parser) {
+        return pool.submit(() -> records.parallelStream()
+                .filter(Objects::nonNull)
+                .map(record -> {
+                    try {
+                        return parser.parse(record);
+                    } catch (IllegalArgumentException e) {
+                        reportError(record.toString(), e.getMessage());
+                        return null;
+                    }
+                })
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList())).join();
+    }
+
+    private User toUser(Map<String, String> record) {
+        String username = required(record, "username");
+        String password = required(record, "password");
+        String bio = record.getOrDefault("bio", "");
+        String balance = record.get("balance");
+        String userId = record.get("userId");
+        if (balance == null && userId == null) {
+            return new User(username, password, bio, database);
+        }
+        return new User(username, password, bio, balance == null ? 0 : parseNumber(balance, "balance"),
+                userId, database);
+    }
+
+    private Item toItem(Map<String, String> record) {
+        String sellerId = resolveSeller(required(record, "seller"));
+        if (sellerId == null) {
+            throw new IllegalArgumentException("unknown seller " + record.get("seller"));
+        }
+        String title = required(record, "title");
+        String description = record.getOrDefault("description", "");
+        String category = record.getOrDefault("category", "");
+        double price = parseNumber(required(record, "price"), "price");
+        String itemId = record.get("itemId");
+        Item item = itemId == null
+                ? new Item(sellerId, title, description, category, price)
+                : new Item(itemId, sellerId, title, description, category, price);
+        if (Boolean.parseBoolean(record.get("sold")) && record.get("buyer") != null) {
+            item.markAsSold(record.get("buyer"));
+        }
+        return item;
+    }
+
+    // Maps a seller field, a username or a user ID, to the seller's user ID
+    private String resolveSeller(String seller) {
+        String cached = sellerIds.get(seller);
+        if (cached != null) {
+            return cached;
+        }
+        User user = database.getUserByUsername(seller);
+        if (user == null) {
+            user = database.getUserById(seller);
+        }
+        if (user == null) {
+            return null;
+        }
+        sellerIds.put(seller, user.getUserId());
+        return user.getUserId();
+    }
+
+    private static String required(Map<String, String> record, String field) {
+        String value = record.get(field);
+        if (value == null || value.isEmpty()) {
+            throw new IllegalArgumentException("missing " + field);
+        }
+        return value;
+    }
+
+    private static double parseNumber(String value, String field) {
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid " + field + " " + value);
+        }
+    }
+
+    private void reportError(String record, String message) {
+        if (reportedErrors.incrementAndGet() <= MAX_REPORTED_ERRORS) {
+            System.err.println("Skipping record (" + message + "): " + record);
+        }
+    }
+
+    /**
+     * Splits one CSV line into fields. Fields may be quoted with double quotes,
+     * with a doubled quote inside standing for one quote.
+     */
+    static List<String> parseCsvLine(String line) {
+        List<String> fields = new ArrayList<>();
+        if (line == null) {
+            return fields;
+        }
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        if (quoted) {
+            throw new IllegalArgumentException("unterminated quote");
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
+    /**
+     * Parses a flat JSON object. String values are unescaped; numbers and
+     * booleans are kept as their text, and null fields are left out.
+     */
+    static Map<String, String> parseJsonObject(String line) {
+        JsonCursor cursor = new JsonCursor(line);
+        Map<String, String> record = new HashMap<>();
+        cursor.expect('{');
+        if (cursor.peek() == '}') {
+            cursor.expect('}');
+            cursor.end();
+            return record;
+        }
+        while (true) {
+            String key = cursor.string();
+            cursor.expect(':');
+            String value = cursor.peek() == '"' ? cursor.string() : cursor.literal();
+            if (value != null) {
+                record.put(key, value);
+            }
+            if (cursor.peek() == ',') {
+                cursor.expect(',');
+            } else {
+                cursor.expect('}');
+                cursor.end();
+                return record;
+            }
+        }
+    }
+
+    // Reads the tokens of one flat JSON object
+    private static class JsonCursor {
+        private final String text;
+        private int position;
+
+        JsonCursor(String text) {
+            this.text = text;
+            this.position = 0;
+        }
+
+        char peek() {
+            skipSpace();
+            if (position >= text.length()) {
+                throw new IllegalArgumentException("unexpected end of line");
+            }
+            return text.charAt(position);
+        }
+
+        void expect(char c) {
+            if (peek() != c) {
+                throw new IllegalArgumentException("expected '" + c + "' at " + position);
+            }
+            position++;
+        }
+
+        void end() {
+            skipSpace();
+            if (position != text.length()) {
+                throw new IllegalArgumentException("unexpected text at " + position);
+            }
+        }
+
+        String string() {
+            expect('"');
+            StringBuilder value = new StringBuilder();
+            while (position < text.length()) {
+                char c = text.charAt(position++);
+                if (c == '"') {
+                    return value.toString();
+                }
+                if (c != '\\') {
+                    value.append(c);
+                    continue;
+                }
+                if (position >= text.length()) {
+                    break;
+                }
+                char escaped = text.charAt(position++);
+                switch (escaped) {
+                    case 'b': value.append('\b'); break;
+                    case 'f': value.append('\f'); break;
+                    case 'n': value.append('\n'); break;
+                    case 'r': value.append('\r'); break;
+                    case 't': value.append('\t'); break;
+                    case 'u':
+                        if (position + 4 > text.length()) {
+                            throw new IllegalArgumentException("bad unicode escape");
+                        }
+                        try {
+                            value.append((char) Integer.parseInt(text.substring(position, position + 4), 16));
+                        } catch (NumberFormatException e) {
+                            throw new IllegalArgumentException("bad unicode escape");
+                        }
+                        position += 4;
+                        break;
+                    default: value.append(escaped);
+                }
+            }
+            throw new IllegalArgumentException("unterminated string");
+        }
+
+        // A number, true, false or null; null comes back as null
+        String literal() {
+            skipSpace();
+            int start = position;
+            while (position < text.length() && ",}] \t".indexOf(text.charAt(position)) < 0) {
+                position++;
+            }
+            String value = text.substring(start, position);
+            if (value.isEmpty() || value.startsWith("{") || value.startsWith("[")) {
+                throw new IllegalArgumentException("unsupported value at " + start);
+            }
+            return value.equals("null") ? null : value;
+        }
+
+        private void skipSpace() {
+            while (position < text.length() && Character.isWhitespace(text.charAt(position))) {
+                position++;
+            }
+        }
+    }
+
+    // Adds one batch of parsed records to the database and returns how many were added
+    private interface BatchInserter {
+        int insert(List<Map<String, String>> records);
+    }
+
+    // Builds a user or item from one record
+    private interface RecordParser<T> {
+        T parse(Map<String, String> record);
+    }
+
+    /**
+     * Loads the marketplace in the working directory, imports the given
+     * files and writes the result.
+     */
+    public static void main(String[] args) throws IOException {
+        int batchSize = DEFAULT_BATCH_SIZE;
+        String usersFile = null;
+        String itemsFile = null;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--batch": batchSize = Integer.parseInt(args[i + 1]); break;
+                case "--users": usersFile = args[i + 1]; break;
+                case "--items": itemsFile = args[i + 1]; break;
+                default:
+                    System.err.println("Unknown option " + args[i]);
+                    return;
+            }
+        }
+        if (usersFile == null && itemsFile == null) {
+            System.err.println("Usage: java BulkImporter [--batch N] [--users FILE] [--items FILE]");
+            return;
+        }
+
+        Database database = new Database();
+        database.useBinaryItemStore("binary".equalsIgnoreCase(System.getProperty("marketplace.itemStore", "csv")));
+        new DatabaseLoader(database).load();
+        // Batches only mark changes; the flusher coalesces them and close() writes the rest
+        database.enableWriteBehind(60000, Integer.MAX_VALUE);
+
+        BulkImporter importer = new BulkImporter(database, batchSize);
+        try {
+            if (usersFile != null) {
+                long start = System.nanoTime();
+                int added = importer.importUsers(usersFile);
+                report("users", added, start);
+            }
+            if (itemsFile != null) {
+                long start = System.nanoTime();
+                int added = importer.importItems(itemsFile);
+                report("items", added, start);
+            }
+            System.out.println("Skipped " + importer.getSkippedCount() + " records");
+        } finally {
+            importer.close();
+            long start = System.nanoTime();
+            database.close();
+            System.out.println("Wrote data files in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+        }
+    }
+
+    private static void report(String kind, int added, long start) {
+        long millis = Math.max(1, (System.nanoTime() - start) / 1_000_000);
+        System.out.println("Imported " + added + " " + kind + " in " + millis + " ms ("
+                + added * 1000L / millis + "/s)");
+    }
+}
@@ -0,0 +1,11 @@
+import java.io.IOException;
+
+/**
+ * Interface for the BulkImporter class
+ */
+public interface BulkImporterInterface {
+    int importUsers(String fileName) throws IOException;
+    int importItems(String fileName) throws IOException;
+    int getSkippedCount();
+    void close();
+}
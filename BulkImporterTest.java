@@ -0,0 +1,90 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests for the bulk importer
+ */
+public class BulkImporterTest {
+
+	private static String tempFile(String suffix, String... lines) throws Exception {
+		File file = File.createTempFile("import", suffix);
+		file.deleteOnExit();
+		Files.write(file.toPath(), Arrays.asList(lines), StandardCharsets.UTF_8);
+		return file.getPath();
+	}
+
+	/** Tests that quoted CSV fields keep their commas and doubled quotes. */
+	@Test
+	public void testParseCsvLine() {
+		assertEquals(Arrays.asList("seller1", "Lamp, brass", "Says \"hi\"", "", "9.5"),
+				BulkImporter.parseCsvLine("seller1,\"Lamp, brass\",\"Says \"\"hi\"\"\",,9.5"));
+		try {
+			BulkImporter.parseCsvLine("a,\"unterminated");
+			fail("Expected an unterminated quote to be rejected");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	/** Tests that flat JSON objects are parsed with escapes, numbers, booleans and nulls. */
+	@Test
+	public void testParseJsonObject() {
+		Map<String, String> record = BulkImporter.parseJsonObject(
+				"{\"title\": \"Desk \\\"lamp\\\"\\n\\u00e9\", \"price\": 12.5, \"sold\": true, \"buyer\": null}");
+		assertEquals("Desk \"lamp\"\né", record.get("title"));
+		assertEquals("12.5", record.get("price"));
+		assertEquals("true", record.get("sold"));
+		assertFalse(record.containsKey("buyer"));
+		assertTrue(BulkImporter.parseJsonObject(" { } ").isEmpty());
+		try {
+			BulkImporter.parseJsonObject("{\"title\": \"Lamp\"");
+			fail("Expected a truncated object to be rejected");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	/** Tests that users and items import in batches, with bad and duplicate records skipped. */
+	@Test
+	public void testImportUsersAndItems() throws Exception {
+		Database database = new Database();
+		String users = tempFile(".csv",
+				"username,password,bio",
+				"bulkseller,pass,\"Sells lamps, mostly\"",
+				"bulkbuyer,pass,Buys things",
+				"bulkseller,pass,Duplicate",
+				",pass,No username");
+		String items = tempFile(".jsonl",
+				"{\"seller\": \"bulkseller\", \"title\": \"Lamp\", \"description\": \"Brass desk lamp\", \"category\": \"Home\", \"price\": 20}",
+				"{\"seller\": \"bulkseller\", \"title\": \"Rug\", \"description\": \"Wool rug\", \"category\": \"Home\", \"price\": 45.5}",
+				"{\"seller\": \"nobody\", \"title\": \"Ghost\", \"price\": 1}",
+				"{\"seller\": \"bulkseller\", \"title\": \"Broken\"",
+				"",
+				"{\"seller\": \"bulkseller\", \"title\": \"Chair\", \"description\": \"Oak chair\", \"category\": \"Home\", \"price\": 60}");
+
+		BulkImporter importer = new BulkImporter(database, 2, 2);
+		try {
+			assertEquals(2, importer.importUsers(users));
+			assertEquals(3, importer.importItems(items));
+			assertEquals(4, importer.getSkippedCount());
+		} finally {
+			importer.close();
+		}
+
+		String sellerId = database.getUserByUsername("bulkseller").getUserId();
+		assertEquals("Sells lamps, mostly", database.getUserByUsername("bulkseller").getBio());
+		List<Item> listings = database.getActiveListingsBySeller(sellerId);
+		assertEquals(3, listings.size());
+		Item lamp = database.getItemsByCategory("home").stream()
+				.filter(item -> item.getTitle().equals("Lamp")).findFirst().orElse(null);
+		assertNotNull(lamp);
+		assertTrue(lamp.getTags().contains("Brass"));
+		assertEquals(3, database.getUserByUsername("bulkseller").getActiveListings().size());
+	}
+}
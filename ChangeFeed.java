@@ -0,0 +1,212 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * In-process feed of committed Database changes. Every mutation is
+ * published as a Change with a version one higher than the last, so a
+ * consumer that remembers the last version it handled can ask for
+ * everything after it, or wait for the next change.
+ *
+ * The newest changes are kept in a fixed-size ring; nothing is persisted.
+ * Versions start at the creation time in microseconds, so they keep
+ * increasing across restarts. A consumer asking for changes from before
+ * the oldest one kept, or from another run, gets null and must
+ * reload whatever it derives from the database, then resume from the
+ * version it read before reloading.
+ */
+public class ChangeFeed implements ChangeFeedInterface {
+    public static final int DEFAULT_CAPACITY = 100000;
+
+    /**
+     * Kinds of change. The detail of a change depends on its kind.
+     */
+    public enum Type {
+        ITEM_ADDED,     // item ID; detail is the seller ID
+        ITEM_UPDATED,   // item ID; detail is the seller ID. Also sent when a sold item is rated
+        ITEM_SOLD,      // item ID; detail is the buyer ID. Sent once, when the item is sold
+        ITEM_REMOVED,   // item ID; detail is the seller ID
+        USER_UPDATED,   // user ID, also for new users; detail is the username
+        USER_DELETED,   // user ID; detail is the username
+        MESSAGE_ADDED,  // sender ID; detail is the receiver ID
+        RATING_ADDED    // seller ID; detail is the rating
+    }
+
+    private final long startVersion;  // version before the first change published here
+    private Change[] ring;            // change with version v at (v - startVersion - 1) % length
+    private long version;
+    private long oldestVersion;       // oldest change still in the ring, or version + 1
+
+    /**
+     * Creates an empty feed keeping the newest capacity changes.
+     */
+    public ChangeFeed(int capacity) {
+        this(capacity, System.currentTimeMillis() * 1000);
+    }
+
+    /**
+     * Creates an empty feed whose first change gets version startVersion + 1.
+     */
+    public ChangeFeed(int capacity, long startVersion) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.startVersion = startVersion;
+        this.ring = new Change[capacity];
+        this.version = startVersion;
+        this.oldestVersion = startVersion + 1;
+    }
+
+    /**
+     * Publishes a change, wakes waiting consumers and returns its version.
+     */
+    @Override
+    public synchronized long publish(Type type, CompactId id, String detail) {
+        version++;
+        ring[slot(version)] = new Change(version, type, id, detail);
+        if (version - oldestVersion >= ring.length) {
+            oldestVersion++;
+        }
+        notifyAll();
+        return version;
+    }
+
+    /**
+     * Gets up to limit changes after the given version, oldest first. Returns
+     * an empty list when there are none yet, or null when some of them are
+     * no longer kept or the version was never issued by this feed.
+     */
+    @Override
+    public synchronized List<Change> since(long afterVersion, int limit) {
+        if (afterVersion > version || afterVersion + 1 < oldestVersion) {
+            return null;
+        }
+        if (afterVersion == version || limit <= 0) {
+            return Collections.emptyList();
+        }
+        int count = (int) Math.min(limit, version - afterVersion);
+        List<Change> changes = new ArrayList<>(count);
+        for (long next = afterVersion + 1; next <= afterVersion + count; next++) {
+            changes.add(ring[slot(next)]);
+        }
+        return changes;
+    }
+
+    /**
+     * Like since, but first waits up to timeoutMillis for a change after the
+     * given version if there is none yet.
+     */
+    @Override
+    public synchronized List<Change> poll(long afterVersion, int limit, long timeoutMillis)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        long remaining = timeoutMillis;
+        while (version == afterVersion && remaining > 0) {
+            wait(remaining);
+            remaining = deadline - System.currentTimeMillis();
+        }
+        return since(afterVersion, limit);
+    }
+
+    /**
+     * Gets the version of the latest change, or the start version if there is none.
+     */
+    @Override
+    public synchronized long getVersion() {
+        return version;
+    }
+
+    /**
+     * Gets the version of the oldest change kept, or the next version if none is kept.
+     */
+    @Override
+    public synchronized long getOldestVersion() {
+        return oldestVersion;
+    }
+
+    /**
+     * Gets the number of changes kept.
+     */
+    @Override
+    public synchronized int size() {
+        return (int) (version - oldestVersion + 1);
+    }
+
+    /**
+     * Changes how many changes are kept, keeping the newest ones.
+     */
+    @Override
+    public synchronized void setCapacity(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        long keepFrom = Math.max(oldestVersion, version - capacity + 1);
+        Change[] old = ring;
+        ring = new Change[capacity];
+        for (long kept = keepFrom; kept <= version; kept++) {
+            ring[slot(kept)] = old[(int) ((kept - startVersion - 1) % old.length)];
+        }
+        oldestVersion = keepFrom;
+    }
+
+    private int slot(long changeVersion) {
+        return (int) ((changeVersion - startVersion - 1) % ring.length);
+    }
+
+    /**
+     * One committed change.
+     */
+    public static class Change {
+        private final long version;
+        private final Type type;
+        private final CompactId id;
+        private final String detail;
+
+        Change(long version, Type type, CompactId id, String detail) {
+            this.version = version;
+            this.type = type;
+            this.id = id;
+            this.detail = detail;
+        }
+
+        /**
+         * Gets the version the change was committed at.
+         */
+        public long getVersion() {
+            return version;
+        }
+
+        /**
+         * Gets the kind of change.
+         */
+        public Type getType() {
+            return type;
+        }
+
+        /**
+         * Gets the ID of the item, user or sender that changed.
+         */
+        public String getId() {
+            return id.toString();
+        }
+
+        /**
+         * Gets the changed ID in its compact form.
+         */
+        public CompactId getKey() {
+            return id;
+        }
+
+        /**
+         * Gets the kind-specific detail: a seller, buyer, username, receiver or rating.
+         */
+        public String getDetail() {
+            return detail;
+        }
+
+        @Override
+        public String toString() {
+            return version + "," + type + "," + id + "," + detail;
+        }
+    }
+}
@@ -0,0 +1,14 @@
+import java.util.List;
+
+/**
+ * Interface for the ChangeFeed class
+ */
+public interface ChangeFeedInterface {
+    long publish(ChangeFeed.Type type, CompactId id, String detail);
+    List<ChangeFeed.Change> since(long afterVersion, int limit);
+    List<ChangeFeed.Change> poll(long afterVersion, int limit, long timeoutMillis) throws InterruptedException;
+    long getVersion();
+    long getOldestVersion();
+    int size();
+    void setCapacity(int capacity);
+}
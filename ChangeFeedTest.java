@@ -0,0 +1,68 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+import java.util.List;
+
+/**
+ * Tests for the change feed
+ */
+public class ChangeFeedTest {
+
+	private static final CompactId ITEM = CompactId.of("item1");
+
+	/** Tests that consumers resume after any kept version and are told to resync when they fall behind. */
+	@Test
+	public void testResumeFromVersion() {
+		ChangeFeed feed = new ChangeFeed(3, 100);
+		assertEquals(100, feed.getVersion());
+		assertTrue(feed.since(100, 10).isEmpty());
+		for (int i = 0; i < 5; i++) {
+			assertEquals(101 + i, feed.publish(ChangeFeed.Type.ITEM_UPDATED, ITEM, "seller" + i));
+		}
+
+		assertEquals(103, feed.getOldestVersion());
+		assertEquals(3, feed.size());
+		List<ChangeFeed.Change> changes = feed.since(102, 10);
+		assertEquals(3, changes.size());
+		assertEquals(103, changes.get(0).getVersion());
+		assertEquals("seller2", changes.get(0).getDetail());
+		assertEquals("item1", changes.get(0).getId());
+		assertEquals(1, feed.since(103, 1).size());
+		assertEquals(104, feed.since(103, 1).get(0).getVersion());
+		assertTrue(feed.since(105, 10).isEmpty());
+
+		assertNull(feed.since(101, 10));
+		assertNull(feed.since(0, 10));
+		assertNull(feed.since(106, 10));
+
+		feed.setCapacity(2);
+		assertEquals(104, feed.getOldestVersion());
+		assertEquals("seller4", feed.since(104, 10).get(0).getDetail());
+		feed.setCapacity(8);
+		assertEquals(104, feed.getOldestVersion());
+		feed.publish(ChangeFeed.Type.ITEM_SOLD, ITEM, "buyer");
+		assertEquals(3, feed.since(103, 10).size());
+		assertEquals(ChangeFeed.Type.ITEM_SOLD, feed.since(105, 10).get(0).getType());
+	}
+
+	/** Tests that a poll waits for the next change and returns at once when changes are already there. */
+	@Test
+	public void testPollWaitsForChange() throws InterruptedException {
+		ChangeFeed feed = new ChangeFeed(10, 0);
+		assertTrue(feed.poll(0, 10, 20).isEmpty());
+
+		Thread publisher = new Thread(() -> {
+			try {
+				Thread.sleep(50);
+			} catch (InterruptedException e) {
+				return;
+			}
+			feed.publish(ChangeFeed.Type.RATING_ADDED, ITEM, "5.0");
+		});
+		publisher.start();
+		List<ChangeFeed.Change> changes = feed.poll(0, 10, 10000);
+		publisher.join();
+		assertEquals(1, changes.size());
+		assertEquals(1, changes.get(0).getVersion());
+		assertEquals(1, feed.poll(0, 10, 10000).size());
+	}
+}
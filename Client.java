@@ -195,6 +195,26 @@ public class Client {
         return sendMessage(message);
     }
 
+    /**
+     * Searches for items in a price band, in the given order.
+     * @param query The search query
+     * @param category The category to search in (optional)
+     * @param maxResults The maximum number of results to return
+     * @param minPrice The lowest price, or 0 for no lower bound
+     * @param maxPrice The highest price, or 0 for no upper bound
+     * @param sort "relevance", "price_asc" or "price_desc"
+     * @return The response from the server
+     */
+    public String searchItems(String query, String category, int maxResults,
+                              double minPrice, double maxPrice, String sort) {
+        System.out.println("Searching for items: " + query + " priced " + minPrice + " to " + maxPrice);
+        String message = "SEARCH_ITEMS," + query + "," + (category == null ? "" : category) + "," + maxResults
+                + "," + (minPrice > 0 ? String.valueOf(minPrice) : "")
+                + "," + (maxPrice > 0 ? String.valueOf(maxPrice) : "")
+                + "," + (sort == null ? "" : sort);
+        return sendMessage(message);
+    }
+
     /**
      * Gets user listings.
      * @param userId The ID of the user
@@ -207,6 +227,16 @@ public class Client {
         return sendMessage(message);
     }
 
+    /**
+     * Gets the items a user has bought.
+     * @param userId The ID of the buyer
+     * @return The response from the server
+     */
+    public String getPurchaseHistory(String userId) {
+        String message = "GET_PURCHASE_HISTORY," + userId;
+        return sendMessage(message);
+    }
+
     /**
      * Marks an item as sold.
      * @param itemId The ID of the item
@@ -257,6 +287,21 @@ public class Client {
         return sendMessage(message);
     }
 
+    /**
+     * Gets one page of the messages between two users.
+     * @param buyerId The ID of the buyer
+     * @param sellerId The ID of the seller
+     * @param since Only messages after this timestamp, or 0 for no lower bound
+     * @param before Only messages before this timestamp, or 0 for no upper bound
+     * @param limit The most messages to return, or 0 for all
+     * @return The response from the server
+     */
+    public String getMessages(String buyerId, String sellerId, long since, long before, int limit) {
+        System.out.println("Getting messages between " + buyerId + " and " + sellerId);
+        String message = "GET_MESSAGES," + buyerId + "," + sellerId + "," + since + "," + before + "," + limit;
+        return sendMessage(message);
+    }
+
     /**
      * Gets conversations for a user.
      * @param userId The ID of the user
@@ -374,6 +419,28 @@ public class Client {
         return sendMessage(message);
     }
 
+    /**
+     * Gets how far the background cleanup of a deleted account has got.
+     * @param userId The ID of the deleted user
+     * @return The response from the server: the phase and the number of listings removed
+     */
+    public String getDeletionStatus(String userId) {
+        String message = "DELETION_STATUS," + userId;
+        return sendMessage(message);
+    }
+
+    /**
+     * Gets the changes committed after a version, waiting for one if there are none yet.
+     * @param version The last version already seen; a version the server never issued asks for the current one
+     * @param limit The most changes to return
+     * @param waitMillis How long the server may wait for a first change
+     * @return The response from the server: the version to resume from and the changes, or RESYNC
+     */
+    public String getChangesSince(long version, int limit, long waitMillis) {
+        String message = "CHANGES_SINCE," + version + "," + limit + "," + waitMillis;
+        return sendMessage(message);
+    }
+
     /**
      * Runs the application in GUI mode.
      */
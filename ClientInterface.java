@@ -15,11 +15,15 @@ public interface ClientInterface {
 	String addItem(String sellerId, String title, String description, String category, double price);
 	String getItem(String itemId);
 	String searchItems(String query, String category, int maxResults);
+	String searchItems(String query, String category, int maxResults,
+			double minPrice, double maxPrice, String sort);
 	String getUserListings(String userId, boolean activeOnly);
+	String getPurchaseHistory(String userId);
 	String markSold(String itemId, String buyerId);
 	String removeItem(String itemId, String sellerId);
 	String sendMessageToUser(String senderId, String receiverId, String content, String itemId);
 	String getMessages(String buyerId, String sellerId);
+	String getMessages(String buyerId, String sellerId, long since, long before, int limit);
 	String getConversations(String userId);
 	String addFunds(String userId, double amount);
 	String withdrawFunds(String userId, double amount);
@@ -31,4 +35,6 @@ public interface ClientInterface {
 	String getCurrentUserId();
 	void setCurrentUserId(String userId);
 	String getMyRating(String userId);
+	String getChangesSince(long version, int limit, long waitMillis);
+	String getDeletionStatus(String userId);
 }
@@ -30,6 +30,7 @@ public class ClientTest {
 						case "GET_ITEM":
 						case "SEARCH_ITEMS":
 						case "GET_USER_LISTINGS":
+						case "GET_PURCHASE_HISTORY":
 						case "MARK_SOLD":
 						case "REMOVE_ITEM":
 						case "SEND_MESSAGE":
@@ -43,6 +44,8 @@ public class ClientTest {
 						case "GET_ALL_USERS":
 						case "GET_ACTIVE_SELLERS":
 						case "GET_MY_RATING":
+						case "CHANGES_SINCE":
+						case "DELETION_STATUS":
 							response = cmd + ",SUCCESS,ok";
 							break;
 
@@ -115,12 +118,24 @@ public class ClientTest {
 		assertEquals("SEARCH_ITEMS,SUCCESS,ok", resp);
 	}
 
+	@Test
+	public void testSearchItemsByPrice() {
+		String resp = client.searchItems("q","cat",5,10.0,0,"price_asc");
+		assertEquals("SEARCH_ITEMS,SUCCESS,ok", resp);
+	}
+
 	@Test
 	public void testGetUserListings() {
 		String resp = client.getUserListings("userId", true);
 		assertEquals("GET_USER_LISTINGS,SUCCESS,ok", resp);
 	}
 
+	@Test
+	public void testGetPurchaseHistory() {
+		String resp = client.getPurchaseHistory("userId");
+		assertEquals("GET_PURCHASE_HISTORY,SUCCESS,ok", resp);
+	}
+
 	@Test
 	public void testMarkSold() {
 		String resp = client.markSold("itemId","buyerId");
@@ -145,6 +160,12 @@ public class ClientTest {
 		assertEquals("GET_MESSAGES,SUCCESS,ok", resp);
 	}
 
+	@Test
+	public void testGetMessagesPage() {
+		String resp = client.getMessages("buyer","seller", 0, 1700000000000L, 50);
+		assertEquals("GET_MESSAGES,SUCCESS,ok", resp);
+	}
+
 	@Test
 	public void testGetConversations() {
 		String resp = client.getConversations("userId");
@@ -205,6 +226,18 @@ public class ClientTest {
 		assertEquals("GET_MY_RATING,SUCCESS,ok", resp);
 	}
 
+	@Test
+	public void testGetDeletionStatus() {
+		String resp = client.getDeletionStatus("userId");
+		assertEquals("DELETION_STATUS,SUCCESS,ok", resp);
+	}
+
+	@Test
+	public void testGetChangesSince() {
+		String resp = client.getChangesSince(0, 100, 0);
+		assertEquals("CHANGES_SINCE,SUCCESS,ok", resp);
+	}
+
 	@Test
 	public void testSetAndGetCurrentUserId() {
 		client.setCurrentUserId("abc");
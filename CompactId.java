@@ -0,0 +1,177 @@
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * Identifier of a user, item or message held as two longs instead of a
+ * 36-character UUID string. It is the key of the Database's maps and
+ * indexes; the string form is only produced at the protocol edge, by
+ * toString().
+ *
+ * An ID that is not a canonical lower-case UUID (older data and tests use
+ * IDs such as "item1") keeps its original string, so every ID converts
+ * back exactly as it came in.
+ */
+public final class CompactId implements CompactIdInterface, Comparable<CompactId> {
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private static final byte[] NIBBLES = new byte[128]; // hex digit value by character, -1 if none
+
+    static {
+        Arrays.fill(NIBBLES, (byte) -1);
+        for (int i = 0; i < HEX.length; i++) {
+            NIBBLES[HEX[i]] = (byte) i;
+        }
+    }
+
+    private final long high;
+    private final long low;
+    private final String text; // original form of a non-UUID ID, null for a UUID
+
+    private CompactId(long high, long low, String text) {
+        this.high = high;
+        this.low = low;
+        this.text = text;
+    }
+
+    /**
+     * Creates a new random (version 4) ID.
+     */
+    public static CompactId random() {
+        UUID uuid = UUID.randomUUID();
+        return new CompactId(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits(), null);
+    }
+
+    /**
+     * Creates the ID with the given bits.
+     */
+    public static CompactId of(long high, long low) {
+        return new CompactId(high, low, null);
+    }
+
+    /**
+     * Converts an ID from its string form, or returns null for null.
+     */
+    public static CompactId of(String id) {
+        if (id == null) {
+            return null;
+        }
+        if (id.length() != 36 || id.charAt(8) != '-' || id.charAt(13) != '-'
+                || id.charAt(18) != '-' || id.charAt(23) != '-') {
+            return new CompactId(0, 0, id);
+        }
+        long first = hex(id, 0, 8);
+        long second = hex(id, 9, 13);
+        long third = hex(id, 14, 18);
+        long fourth = hex(id, 19, 23);
+        long fifth = hex(id, 24, 36);
+        if ((first | second | third | fourth | fifth) < 0) {
+            return new CompactId(0, 0, id);
+        }
+        return new CompactId(first << 32 | second << 16 | third, fourth << 48 | fifth, null);
+    }
+
+    // Parses lower-case hex digits, or returns -1 if any other character is found
+    private static long hex(String id, int from, int to) {
+        long value = 0;
+        for (int i = from; i < to; i++) {
+            char c = id.charAt(i);
+            int digit = c < NIBBLES.length ? NIBBLES[c] : -1;
+            if (digit < 0) {
+                return -1;
+            }
+            value = value << 4 | digit;
+        }
+        return value;
+    }
+
+    /**
+     * Gets the high 64 bits, or 0 for an ID kept as a string.
+     */
+    @Override
+    public long getMostSignificantBits() {
+        return high;
+    }
+
+    /**
+     * Gets the low 64 bits, or 0 for an ID kept as a string.
+     */
+    @Override
+    public long getLeastSignificantBits() {
+        return low;
+    }
+
+    /**
+     * Checks whether the ID is held as two longs rather than as its string.
+     */
+    @Override
+    public boolean isCompact() {
+        return text == null;
+    }
+
+    /**
+     * Gets the string form: the canonical UUID, or the original string.
+     */
+    @Override
+    public String toString() {
+        if (text != null) {
+            return text;
+        }
+        char[] chars = new char[36];
+        digits(chars, 0, high >>> 32, 8);
+        chars[8] = '-';
+        digits(chars, 9, high >>> 16, 4);
+        chars[13] = '-';
+        digits(chars, 14, high, 4);
+        chars[18] = '-';
+        digits(chars, 19, low >>> 48, 4);
+        chars[23] = '-';
+        digits(chars, 24, low, 12);
+        return new String(chars);
+    }
+
+    private static void digits(char[] chars, int offset, long value, int count) {
+        for (int i = count - 1; i >= 0; i--) {
+            chars[offset + i] = HEX[(int) (value & 0xf)];
+            value >>>= 4;
+        }
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof CompactId)) {
+            return false;
+        }
+        CompactId id = (CompactId) other;
+        if (text != null || id.text != null) {
+            return text != null && text.equals(id.text);
+        }
+        return high == id.high && low == id.low;
+    }
+
+    @Override
+    public int hashCode() {
+        if (text != null) {
+            return text.hashCode();
+        }
+        long mixed = high ^ low;
+        return (int) (mixed ^ (mixed >>> 32));
+    }
+
+    /**
+     * Orders UUIDs by their unsigned bits, which matches their string order,
+     * and puts them before IDs kept as strings.
+     */
+    @Override
+    public int compareTo(CompactId other) {
+        if (text != null || other.text != null) {
+            if (text == null) {
+                return -1;
+            }
+            return other.text == null ? 1 : text.compareTo(other.text);
+        }
+        int compare = Long.compareUnsigned(high, other.high);
+        return compare != 0 ? compare : Long.compareUnsigned(low, other.low);
+    }
+}
@@ -0,0 +1,8 @@
+/**
+ * Interface for the CompactId class
+ */
+public interface CompactIdInterface {
+    long getMostSignificantBits();
+    long getLeastSignificantBits();
+    boolean isCompact();
+}
@@ -0,0 +1,58 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+import java.util.UUID;
+
+/**
+ * Tests for the compact ID representation
+ */
+public class CompactIdTest {
+
+	/** Tests that a UUID string is held as two longs and converts back exactly. */
+	@Test
+	public void testUuidRoundTrip() {
+		UUID uuid = UUID.randomUUID();
+		CompactId id = CompactId.of(uuid.toString());
+		assertTrue(id.isCompact());
+		assertEquals(uuid.getMostSignificantBits(), id.getMostSignificantBits());
+		assertEquals(uuid.getLeastSignificantBits(), id.getLeastSignificantBits());
+		assertEquals(uuid.toString(), id.toString());
+		assertEquals(id, CompactId.of(uuid.toString()));
+		assertEquals(id.hashCode(), CompactId.of(uuid.toString()).hashCode());
+
+		CompactId random = CompactId.random();
+		assertEquals(random, CompactId.of(random.toString()));
+	}
+
+	/** Tests that IDs which are not canonical UUIDs keep their exact string. */
+	@Test
+	public void testOtherIdsKeepTheirString() {
+		String upper = "123E4567-E89B-12D3-A456-426614174000";
+		assertFalse(CompactId.of(upper).isCompact());
+		assertEquals(upper, CompactId.of(upper).toString());
+		assertNotEquals(CompactId.of(upper), CompactId.of(upper.toLowerCase()));
+
+		assertEquals("item1", CompactId.of("item1").toString());
+		assertEquals(CompactId.of("item1"), CompactId.of("item1"));
+		assertNotEquals(CompactId.of("item1"), CompactId.of("item2"));
+		assertNotEquals(CompactId.of(""), CompactId.of(0, 0));
+		assertNull(CompactId.of(null));
+	}
+
+	/** Tests that UUIDs sort like their strings. */
+	@Test
+	public void testOrderMatchesStrings() {
+		String[] ids = {
+			"00000000-0000-0000-0000-000000000001",
+			"7fffffff-ffff-ffff-ffff-ffffffffffff",
+			"80000000-0000-0000-0000-000000000000",
+			"ffffffff-ffff-ffff-ffff-fffffffffffe"
+		};
+		for (int i = 0; i < ids.length; i++) {
+			for (int j = 0; j < ids.length; j++) {
+				assertEquals(Integer.signum(ids[i].compareTo(ids[j])),
+						Integer.signum(CompactId.of(ids[i]).compareTo(CompactId.of(ids[j]))));
+			}
+		}
+		assertTrue(CompactId.of(ids[3]).compareTo(CompactId.of("item1")) < 0);
+	}
+}
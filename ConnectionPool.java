@@ -0,0 +1,190 @@
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Bounded pool of JDBC connections to one database URL. Connections are
+ * opened on demand up to maxConnections and reused after release(), so a
+ * request does not pay for a new connection. A caller that finds the pool
+ * exhausted waits up to waitMillis for a connection to come back.
+ *
+ * Idle connections that the driver reports as broken are dropped and
+ * replaced. A released connection is rolled back if it was left inside a
+ * transaction.
+ */
+public class ConnectionPool implements ConnectionPoolInterface {
+    private static final int VALIDATION_TIMEOUT_SECONDS = 2;
+
+    /**
+     * Opens a new physical connection.
+     */
+    public interface Opener {
+        Connection open() throws SQLException;
+    }
+
+    private final Opener opener;
+    private final int maxConnections;
+    private final long waitMillis;
+    private final Deque<Connection> idle; // most recently released last
+    private int openCount;
+    private boolean closed;
+
+    /**
+     * Creates a pool of at most maxConnections connections to the given JDBC URL.
+     */
+    public ConnectionPool(String url, int maxConnections, long waitMillis) {
+        this(() -> DriverManager.getConnection(url), maxConnections, waitMillis);
+    }
+
+    /**
+     * Creates a pool of at most maxConnections connections made by opener.
+     */
+    public ConnectionPool(Opener opener, int maxConnections, long waitMillis) {
+        if (maxConnections <= 0) {
+            throw new IllegalArgumentException("maxConnections must be positive");
+        }
+        this.opener = opener;
+        this.maxConnections = maxConnections;
+        this.waitMillis = waitMillis;
+        this.idle = new ArrayDeque<>();
+        this.openCount = 0;
+        this.closed = false;
+    }
+
+    /**
+     * Takes a connection from the pool, opening one if none is idle and the
+     * pool is not full. Every connection taken must be given back with release().
+     */
+    @Override
+    public Connection acquire() throws SQLException {
+        long deadline = System.currentTimeMillis() + waitMillis;
+        synchronized (this) {
+            while (true) {
+                if (closed) {
+                    throw new SQLException("Connection pool is closed");
+                }
+                Connection connection = idle.pollLast();
+                if (connection != null) {
+                    if (isUsable(connection)) {
+                        return connection;
+                    }
+                    discard(connection);
+                    continue;
+                }
+                if (openCount < maxConnections) {
+                    openCount++;
+                    break;
+                }
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    throw new SQLException("Timed out waiting for a database connection");
+                }
+                try {
+                    wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new SQLException("Interrupted waiting for a database connection");
+                }
+            }
+        }
+
+        // Open outside the lock so a slow connect does not block releases
+        try {
+            Connection connection = opener.open();
+            connection.setAutoCommit(true);
+            return connection;
+        } catch (SQLException | RuntimeException e) {
+            synchronized (this) {
+                openCount--;
+                notifyAll();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Returns a connection to the pool.
+     */
+    @Override
+    public void release(Connection connection) {
+        if (connection == null) {
+            return;
+        }
+        try {
+            if (!connection.isClosed() && !connection.getAutoCommit()) {
+                connection.rollback();
+                connection.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            System.err.println("Error resetting pooled connection: " + e.getMessage());
+            synchronized (this) {
+                discard(connection);
+                notifyAll();
+            }
+            return;
+        }
+        synchronized (this) {
+            if (closed) {
+                discard(connection);
+            } else {
+                idle.addLast(connection);
+            }
+            notifyAll();
+        }
+    }
+
+    /**
+     * Gets the number of connections currently open, idle or in use.
+     */
+    @Override
+    public synchronized int getOpenCount() {
+        return openCount;
+    }
+
+    /**
+     * Gets the number of idle connections.
+     */
+    @Override
+    public synchronized int getIdleCount() {
+        return idle.size();
+    }
+
+    /**
+     * Gets the most connections the pool opens.
+     */
+    @Override
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    /**
+     * Closes every idle connection; connections in use are closed when released.
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        while (!idle.isEmpty()) {
+            discard(idle.pollLast());
+        }
+        notifyAll();
+    }
+
+    private boolean isUsable(Connection connection) {
+        try {
+            return !connection.isClosed() && connection.isValid(VALIDATION_TIMEOUT_SECONDS);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private void discard(Connection connection) {
+        openCount--;
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            System.err.println("Error closing pooled connection: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,14 @@
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Interface for the ConnectionPool class
+ */
+public interface ConnectionPoolInterface {
+    Connection acquire() throws SQLException;
+    void release(Connection connection);
+    int getOpenCount();
+    int getIdleCount();
+    int getMaxConnections();
+    void close();
+}
@@ -0,0 +1,88 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Tests for the JDBC connection pool, using stand-in connections
+ */
+public class ConnectionPoolTest {
+
+	/** A connection that only tracks whether it is closed. */
+	private Connection fakeConnection() {
+		boolean[] closed = {false};
+		return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] {Connection.class},
+				(proxy, method, args) -> {
+					switch (method.getName()) {
+						case "close":
+							closed[0] = true;
+							return null;
+						case "isClosed":
+							return closed[0];
+						case "isValid":
+						case "getAutoCommit":
+							return !closed[0];
+						case "hashCode":
+							return System.identityHashCode(proxy);
+						case "equals":
+							return proxy == args[0];
+						default:
+							return null;
+					}
+				});
+	}
+
+	/** Tests that a released connection is reused instead of opening another. */
+	@Test
+	public void testReleasedConnectionIsReused() throws Exception {
+		int[] opened = {0};
+		ConnectionPool pool = new ConnectionPool(() -> {
+			opened[0]++;
+			return fakeConnection();
+		}, 2, 100);
+		Connection first = pool.acquire();
+		pool.release(first);
+		Connection second = pool.acquire();
+		assertSame(first, second);
+		assertEquals(1, opened[0]);
+		assertEquals(1, pool.getOpenCount());
+	}
+
+	/** Tests that an exhausted pool times out and a broken idle connection is replaced. */
+	@Test
+	public void testExhaustedPoolAndBrokenConnection() throws Exception {
+		ConnectionPool pool = new ConnectionPool(this::fakeConnection, 1, 50);
+		Connection only = pool.acquire();
+		try {
+			pool.acquire();
+			fail("Expected a timeout");
+		} catch (SQLException e) {
+			assertTrue(e.getMessage().contains("Timed out"));
+		}
+
+		only.close();
+		pool.release(only);
+		Connection replacement = pool.acquire();
+		assertNotSame(only, replacement);
+		assertFalse(replacement.isClosed());
+		assertEquals(1, pool.getOpenCount());
+	}
+
+	/** Tests that closing the pool closes idle connections and refuses new ones. */
+	@Test
+	public void testClose() throws Exception {
+		ConnectionPool pool = new ConnectionPool(this::fakeConnection, 2, 50);
+		Connection connection = pool.acquire();
+		pool.release(connection);
+		pool.close();
+		assertTrue(connection.isClosed());
+		assertEquals(0, pool.getIdleCount());
+		try {
+			pool.acquire();
+			fail("Expected the pool to be closed");
+		} catch (SQLException e) {
+			assertTrue(e.getMessage().contains("closed"));
+		}
+	}
+}
@@ -0,0 +1,176 @@
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Size-bounded LRU cache of conversation histories, keyed by the unordered
+ * pair of participants. Each history is kept in timestamp order, so reading a
+ * conversation costs only its own size. A conversation is read from disk the
+ * first time it is requested and is evicted once more than maxConversations
+ * others have been used since, so conversations nobody opens take no heap.
+ * An eviction listener can drop whatever else was kept for the conversation,
+ * such as its seek index in the message log.
+ */
+public class ConversationCache implements ConversationCacheInterface {
+    private final Function<ConversationKey, List<Message>> loader;
+    private final Consumer<ConversationKey> onEvict;
+    private final LinkedHashMap<ConversationKey, List<Message>> conversations;
+    private int maxConversations;
+
+    /**
+     * Creates a cache that reads missing conversations with the given loader.
+     */
+    public ConversationCache(int maxConversations, Function<ConversationKey, List<Message>> loader) {
+        this(maxConversations, loader, key -> { });
+    }
+
+    /**
+     * Creates a cache that reads missing conversations with the given loader
+     * and tells onEvict about every conversation it evicts to stay in bounds.
+     */
+    public ConversationCache(int maxConversations, Function<ConversationKey, List<Message>> loader,
+                             Consumer<ConversationKey> onEvict) {
+        if (maxConversations <= 0) {
+            throw new IllegalArgumentException("maxConversations must be positive");
+        }
+        this.maxConversations = maxConversations;
+        this.loader = loader;
+        this.onEvict = onEvict;
+        // Access order makes iteration start at the least recently used entry
+        this.conversations = new LinkedHashMap<ConversationKey, List<Message>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ConversationKey, List<Message>> eldest) {
+                if (size() <= ConversationCache.this.maxConversations) {
+                    return false;
+                }
+                ConversationCache.this.onEvict.accept(eldest.getKey());
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Gets the messages of a conversation in timestamp order, loading them on a
+     * miss. The returned list is a copy and may be modified by the caller.
+     */
+    @Override
+    public synchronized List<Message> get(ConversationKey key) {
+        return new ArrayList<>(resident(key));
+    }
+
+    /**
+     * Adds a new message to a conversation, keeping timestamp order. The
+     * history is loaded first if needed, so callers must append before the
+     * message is written to disk or it would be read twice.
+     */
+    @Override
+    public synchronized void append(ConversationKey key, Message message) {
+        List<Message> cached = resident(key);
+        int index = cached.size();
+        // New messages almost always belong at the end; walk back only past later ones
+        while (index > 0 && cached.get(index - 1).getTimestamp() > message.getTimestamp()) {
+            index--;
+        }
+        cached.add(index, message);
+    }
+
+    /**
+     * Gets the cached list for a conversation, loading and sorting it on a miss.
+     */
+    private List<Message> resident(ConversationKey key) {
+        List<Message> cached = conversations.get(key);
+        if (cached == null) {
+            cached = new ArrayList<>(loader.apply(key));
+            cached.sort(Comparator.comparingLong(Message::getTimestamp));
+            conversations.put(key, cached);
+        }
+        return cached;
+    }
+
+    /**
+     * Drops a conversation from the cache.
+     */
+    @Override
+    public synchronized void invalidate(ConversationKey key) {
+        conversations.remove(key);
+    }
+
+    /**
+     * Drops every cached conversation the user takes part in.
+     */
+    @Override
+    public synchronized void invalidateUser(String userId) {
+        CompactId id = CompactId.of(userId);
+        conversations.keySet().removeIf(key -> key.involves(id));
+    }
+
+    /**
+     * Gets one page of a resident conversation (see MessageWindow), or null
+     * if it is not resident. Never loads from disk.
+     */
+    @Override
+    public synchronized List<Message> getWindowIfCached(ConversationKey key, long since, long before, int limit) {
+        List<Message> cached = conversations.get(key);
+        if (cached == null) {
+            return null;
+        }
+        int[] bounds = MessageWindow.bounds(cached.size(), i -> cached.get(i).getTimestamp(), since, before, limit);
+        return new ArrayList<>(cached.subList(bounds[0], bounds[1]));
+    }
+
+    /**
+     * Checks whether a conversation is currently resident.
+     */
+    @Override
+    public synchronized boolean isCached(ConversationKey key) {
+        return conversations.containsKey(key);
+    }
+
+    /**
+     * Gets the number of resident conversations.
+     */
+    @Override
+    public synchronized int size() {
+        return conversations.size();
+    }
+
+    /**
+     * Gets the maximum number of resident conversations.
+     */
+    @Override
+    public synchronized int getMaxConversations() {
+        return maxConversations;
+    }
+
+    /**
+     * Changes the bound, evicting least recently used conversations if needed.
+     */
+    @Override
+    public synchronized void setMaxConversations(int maxConversations) {
+        if (maxConversations <= 0) {
+            throw new IllegalArgumentException("maxConversations must be positive");
+        }
+        this.maxConversations = maxConversations;
+        while (conversations.size() > maxConversations) {
+            ConversationKey eldest = conversations.keySet().iterator().next();
+            conversations.remove(eldest);
+            onEvict.accept(eldest);
+        }
+    }
+
+    /**
+     * Gets copies of all resident conversations, least recently used first.
+     */
+    @Override
+    public synchronized List<List<Message>> snapshot() {
+        List<List<Message>> result = new ArrayList<>();
+        for (List<Message> conversation : conversations.values()) {
+            result.add(new ArrayList<>(conversation));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,17 @@
+import java.util.List;
+
+/**
+ * Interface for the ConversationCache class
+ */
+public interface ConversationCacheInterface {
+    List<Message> get(ConversationKey key);
+    void append(ConversationKey key, Message message);
+    void invalidate(ConversationKey key);
+    void invalidateUser(String userId);
+    List<Message> getWindowIfCached(ConversationKey key, long since, long before, int limit);
+    boolean isCached(ConversationKey key);
+    int size();
+    int getMaxConversations();
+    void setMaxConversations(int maxConversations);
+    List<List<Message>> snapshot();
+}
@@ -0,0 +1,120 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests for the conversation LRU cache
+ */
+public class ConversationCacheTest {
+
+	private int loads;
+
+	private ConversationCache newCache(int max) {
+		loads = 0;
+		return new ConversationCache(max, key -> {
+			loads++;
+			List<Message> messages = new ArrayList<>();
+			messages.add(new Message(key.getFirst(), key.getSecond(), "from " + key, 100, false));
+			return messages;
+		});
+	}
+
+	private ConversationKey key(String user) {
+		return new ConversationKey("me", user);
+	}
+
+	/** Tests that a conversation is loaded once and then served from memory. */
+	@Test
+	public void testLoadsOnFirstAccessOnly() {
+		ConversationCache cache = newCache(4);
+		assertFalse(cache.isCached(key("c1")));
+
+		assertEquals("from c1|me", cache.get(key("c1")).get(0).getContent());
+		cache.get(key("c1"));
+		assertEquals(1, loads);
+		assertTrue(cache.isCached(key("c1")));
+	}
+
+	/** Tests that the least recently used conversation is evicted. */
+	@Test
+	public void testEvictsLeastRecentlyUsed() {
+		ConversationCache cache = newCache(2);
+		cache.get(key("c1"));
+		cache.get(key("c2"));
+		cache.get(key("c1"));
+		cache.get(key("c3"));
+
+		assertEquals(2, cache.size());
+		assertTrue(cache.isCached(key("c1")));
+		assertFalse(cache.isCached(key("c2")));
+		assertTrue(cache.isCached(key("c3")));
+	}
+
+	/** Tests that the eviction listener hears about every conversation evicted to stay in bounds. */
+	@Test
+	public void testEvictionListener() {
+		List<ConversationKey> evicted = new ArrayList<>();
+		ConversationCache cache = new ConversationCache(2, key -> new ArrayList<>(), evicted::add);
+		cache.get(key("c1"));
+		cache.get(key("c2"));
+		cache.get(key("c3"));
+		assertEquals(1, evicted.size());
+		assertEquals(key("c1"), evicted.get(0));
+
+		cache.setMaxConversations(1);
+		assertEquals(2, evicted.size());
+		assertEquals(key("c2"), evicted.get(1));
+	}
+
+	/** Tests that appending to a cold conversation loads its history first. */
+	@Test
+	public void testAppendLoadsHistory() {
+		ConversationCache cache = newCache(4);
+		cache.append(key("c1"), new Message("me", "c1", "reply", 200, false));
+
+		List<Message> history = cache.get(key("c1"));
+		assertEquals(2, history.size());
+		assertEquals("reply", history.get(1).getContent());
+		assertEquals(1, loads);
+	}
+
+	/** Tests that a late message is inserted in timestamp order. */
+	@Test
+	public void testAppendKeepsTimestampOrder() {
+		ConversationCache cache = newCache(4);
+		cache.append(key("c1"), new Message("me", "c1", "third", 300, false));
+		cache.append(key("c1"), new Message("c1", "me", "second", 200, false));
+
+		List<Message> history = cache.get(key("c1"));
+		assertEquals(100, history.get(0).getTimestamp());
+		assertEquals("second", history.get(1).getContent());
+		assertEquals("third", history.get(2).getContent());
+	}
+
+	/** Tests that the key ignores participant order and that users can be evicted. */
+	@Test
+	public void testUnorderedKeyAndUserInvalidation() {
+		ConversationCache cache = newCache(4);
+		cache.get(new ConversationKey("alice", "bob"));
+		assertTrue(cache.isCached(new ConversationKey("bob", "alice")));
+
+		cache.get(new ConversationKey("alice", "carol"));
+		cache.invalidateUser("bob");
+		assertFalse(cache.isCached(new ConversationKey("alice", "bob")));
+		assertTrue(cache.isCached(new ConversationKey("alice", "carol")));
+	}
+
+	/** Tests that shrinking the bound evicts immediately. */
+	@Test
+	public void testShrinkEvicts() {
+		ConversationCache cache = newCache(3);
+		cache.get(key("c1"));
+		cache.get(key("c2"));
+		cache.get(key("c3"));
+		cache.setMaxConversations(1);
+
+		assertEquals(1, cache.size());
+		assertTrue(cache.isCached(key("c3")));
+	}
+}
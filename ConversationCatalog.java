@@ -0,0 +1,377 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Persistent catalog of conversations, indexed by user. For every user it
+ * records each conversation partner, the user's role in it, where it is
+ * stored (a legacy per-pair file or the message log directory) and the time
+ * of its last message.
+ *
+ * The catalog file is an append-only log with one buyerId,sellerId,fileName,
+ * lastActivity line per update and one -,userId line per removed user;
+ * later lines win when it is loaded. Once superseded lines outnumber the
+ * live conversations by more than two to one, the file is compacted. A header
+ * line marks a file that covers every conversation on disk. Without it, the
+ * next load scans the working directory once and rewrites the file.
+ *
+ * In memory, each side of a conversation is filed under the user and then
+ * the partner, both as CompactIds, once in the buyer map and once in the
+ * seller map.
+ */
+public class ConversationCatalog implements ConversationCatalogInterface {
+    public static final String ROLE_BUYER = "buyer";
+    public static final String ROLE_SELLER = "seller";
+    private static final String HEADER = "#conversation-catalog,v1,complete";
+    private static final String REMOVED = "-";
+
+    private final String catalogFile;
+    private final FileHandlePool handles;
+    private final Map<CompactId, Map<CompactId, Entry>> asBuyer;  // buyerId -> (sellerId -> entry)
+    private final Map<CompactId, Map<CompactId, Entry>> asSeller; // sellerId -> (buyerId -> entry)
+    private int conversationCount;
+    private int logLines;
+
+    /**
+     * Creates an empty catalog backed by the given file.
+     */
+    public ConversationCatalog(String catalogFile) {
+        this(catalogFile, new FileHandlePool(1, 0, FileHandlePool.Durability.NONE, 0));
+    }
+
+    /**
+     * Creates an empty catalog backed by the given file, appending through the given pool.
+     */
+    public ConversationCatalog(String catalogFile, FileHandlePool handles) {
+        this.catalogFile = catalogFile;
+        this.handles = handles;
+        this.asBuyer = new HashMap<>();
+        this.asSeller = new HashMap<>();
+        this.conversationCount = 0;
+        this.logLines = 0;
+    }
+
+    /**
+     * Reads the catalog file. Returns false when the file is missing or does
+     * not cover every conversation, in which case importFiles should be called.
+     */
+    @Override
+    public synchronized boolean load() {
+        asBuyer.clear();
+        asSeller.clear();
+        conversationCount = 0;
+        logLines = 0;
+
+        File file = new File(catalogFile);
+        if (!file.exists()) {
+            return false;
+        }
+
+        boolean complete = false;
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.equals(HEADER)) {
+                    complete = true;
+                    continue;
+                }
+                String[] parts = line.split(",");
+                if (parts.length == 2 && parts[0].equals(REMOVED)) {
+                    unapply(parts[1]);
+                    logLines++;
+                    continue;
+                }
+                if (parts.length < 4) {
+                    continue;
+                }
+                try {
+                    apply(parts[0], parts[1], parts[2], Long.parseLong(parts[3]));
+                    logLines++;
+                } catch (NumberFormatException e) {
+                    // Skip lines with an invalid timestamp
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Error reading conversation catalog: " + e.getMessage());
+            return false;
+        }
+
+        // Drop superseded lines once they outnumber live entries
+        if (complete && logLines > 2 * conversationCount + 64) {
+            compact();
+        }
+        return complete;
+    }
+
+    /**
+     * Adds conversation files found on disk that the catalog does not know yet,
+     * then rewrites the catalog so later loads need no directory scan.
+     */
+    @Override
+    public synchronized void importFiles(File[] conversationFiles) {
+        for (File file : conversationFiles) {
+            String[] participants = Database.parseConversationFileName(file.getName());
+            if (participants != null && getFileName(participants[0], participants[1]) == null) {
+                apply(participants[0], participants[1], file.getName(), file.lastModified());
+            }
+        }
+        compact();
+    }
+
+    /**
+     * Records activity in a conversation and appends it to the catalog file.
+     */
+    @Override
+    public synchronized void record(String buyerId, String sellerId, String fileName, long timestamp) {
+        apply(buyerId, sellerId, fileName, timestamp);
+        String line = buyerId + "," + sellerId + "," + fileName + "," + timestamp + System.lineSeparator();
+        try {
+            // The catalog stays open in the pool, so a busy chat does not reopen it per message
+            handles.append(new File(catalogFile), ByteBuffer.wrap(line.getBytes(StandardCharsets.UTF_8)));
+            logLines++;
+        } catch (IOException e) {
+            System.err.println("Error writing conversation catalog: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Gets where a buyer/seller conversation is stored, or null if there is none.
+     */
+    @Override
+    public synchronized String getFileName(String buyerId, String sellerId) {
+        Map<CompactId, Entry> conversations = asBuyer.get(CompactId.of(buyerId));
+        if (conversations == null) {
+            return null;
+        }
+        Entry entry = conversations.get(CompactId.of(sellerId));
+        return entry == null ? null : entry.fileName;
+    }
+
+    /**
+     * Gets a user's conversations, most recently active first.
+     */
+    @Override
+    public synchronized List<Entry> getConversations(String userId) {
+        CompactId id = CompactId.of(userId);
+        List<Entry> result = new ArrayList<>();
+        for (Map<CompactId, Map<CompactId, Entry>> side : Arrays.asList(asBuyer, asSeller)) {
+            Map<CompactId, Entry> conversations = side.get(id);
+            if (conversations != null) {
+                for (Entry entry : conversations.values()) {
+                    // Copies, so callers never see an entry change under them
+                    result.add(new Entry(entry.partner, entry.role, entry.fileName, entry.lastActivity));
+                }
+            }
+        }
+        result.sort(Comparator.comparingLong(Entry::getLastActivity).reversed());
+        return result;
+    }
+
+    /**
+     * Gets a user's distinct conversation partners, most recently active first.
+     */
+    @Override
+    public synchronized List<String> getPartners(String userId) {
+        Set<String> partners = new LinkedHashSet<>();
+        for (Entry entry : getConversations(userId)) {
+            partners.add(entry.getPartnerId());
+        }
+        return new ArrayList<>(partners);
+    }
+
+    /**
+     * Removes a user and their conversations from every partner's index, and
+     * returns the files of the removed conversations. The removal is appended
+     * to the catalog file like any update, so the file is rewritten only when
+     * enough superseded lines have piled up.
+     */
+    @Override
+    public synchronized List<String> removeUser(String userId) {
+        List<String> fileNames = unapply(userId);
+        if (fileNames.isEmpty()) {
+            return fileNames;
+        }
+        String line = REMOVED + "," + userId + System.lineSeparator();
+        try {
+            handles.append(new File(catalogFile), ByteBuffer.wrap(line.getBytes(StandardCharsets.UTF_8)));
+            logLines++;
+        } catch (IOException e) {
+            System.err.println("Error writing conversation catalog: " + e.getMessage());
+            compact(); // the removal must not be lost
+            return fileNames;
+        }
+        if (logLines > 2 * conversationCount + 64) {
+            compact();
+        }
+        return fileNames;
+    }
+
+    /**
+     * Drops a user and their conversations from the in-memory index and
+     * returns the files of the dropped conversations.
+     */
+    private List<String> unapply(String userId) {
+        CompactId id = CompactId.of(userId);
+        List<String> fileNames = new ArrayList<>();
+        unapply(id, asBuyer, asSeller, fileNames);
+        unapply(id, asSeller, asBuyer, fileNames);
+        return fileNames;
+    }
+
+    /**
+     * Drops one side of a user's conversations and the matching partner sides.
+     */
+    private void unapply(CompactId userId, Map<CompactId, Map<CompactId, Entry>> side,
+                         Map<CompactId, Map<CompactId, Entry>> partnerSide, List<String> fileNames) {
+        Map<CompactId, Entry> conversations = side.remove(userId);
+        if (conversations == null) {
+            return;
+        }
+        for (Entry entry : conversations.values()) {
+            fileNames.add(entry.fileName);
+            conversationCount--;
+
+            Map<CompactId, Entry> partnerConversations = partnerSide.get(entry.partner);
+            if (partnerConversations != null) {
+                partnerConversations.remove(userId);
+                if (partnerConversations.isEmpty()) {
+                    partnerSide.remove(entry.partner);
+                }
+            }
+        }
+    }
+
+    /**
+     * Rewrites the catalog file with one line per live conversation.
+     */
+    @Override
+    public synchronized void compact() {
+        File temp = new File(catalogFile + ".tmp");
+        int lines = 0;
+        try (PrintWriter writer = new PrintWriter(new FileWriter(temp))) {
+            writer.println(HEADER);
+            // Each conversation appears under both users; write it from the buyer's side only
+            for (Map.Entry<CompactId, Map<CompactId, Entry>> user : asBuyer.entrySet()) {
+                for (Entry entry : user.getValue().values()) {
+                    writer.println(user.getKey() + "," + entry.partner + "," + entry.fileName + ","
+                            + entry.lastActivity);
+                    lines++;
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Error compacting conversation catalog: " + e.getMessage());
+            return;
+        }
+
+        File target = new File(catalogFile);
+        try {
+            handles.release(target);
+        } catch (IOException e) {
+            System.err.println("Error closing conversation catalog: " + e.getMessage());
+        }
+        if (target.exists() && !target.delete()) {
+            System.err.println("Error replacing conversation catalog " + catalogFile);
+            return;
+        }
+        if (!temp.renameTo(target)) {
+            System.err.println("Error replacing conversation catalog " + catalogFile);
+            return;
+        }
+        logLines = lines;
+    }
+
+    /**
+     * Gets the number of conversations in the catalog.
+     */
+    @Override
+    public synchronized int size() {
+        return conversationCount;
+    }
+
+    /**
+     * Updates the in-memory index for both participants.
+     */
+    private void apply(String buyerId, String sellerId, String fileName, long timestamp) {
+        CompactId buyer = CompactId.of(buyerId);
+        CompactId seller = CompactId.of(sellerId);
+        Map<CompactId, Entry> buyerConversations = asBuyer.computeIfAbsent(buyer, id -> new HashMap<>());
+        Entry buyerSide = buyerConversations.get(seller);
+        if (buyerSide == null) {
+            conversationCount++;
+            buyerConversations.put(seller, new Entry(seller, ROLE_BUYER, fileName, timestamp));
+            asSeller.computeIfAbsent(seller, id -> new HashMap<>())
+                    .put(buyer, new Entry(buyer, ROLE_SELLER, fileName, timestamp));
+            return;
+        }
+
+        long lastActivity = Math.max(buyerSide.lastActivity, timestamp);
+        buyerSide.lastActivity = lastActivity;
+        buyerSide.fileName = fileName;
+        Map<CompactId, Entry> sellerConversations = asSeller.computeIfAbsent(seller, id -> new HashMap<>());
+        Entry sellerSide = sellerConversations.get(buyer);
+        if (sellerSide == null) {
+            sellerConversations.put(buyer, new Entry(buyer, ROLE_SELLER, fileName, lastActivity));
+        } else {
+            sellerSide.lastActivity = lastActivity;
+            sellerSide.fileName = fileName;
+        }
+    }
+
+    /**
+     * One conversation as seen by one of its participants.
+     */
+    public static class Entry {
+        private final CompactId partner;
+        private final String role;
+        private String fileName;
+        private long lastActivity;
+
+        Entry(CompactId partner, String role, String fileName, long lastActivity) {
+            this.partner = partner;
+            this.role = role;
+            this.fileName = fileName;
+            this.lastActivity = lastActivity;
+        }
+
+        /**
+         * Gets the other participant.
+         */
+        public String getPartnerId() {
+            return partner.toString();
+        }
+
+        /**
+         * Gets this user's role: ROLE_BUYER or ROLE_SELLER.
+         */
+        public String getRole() {
+            return role;
+        }
+
+        /**
+         * Gets the file that stores the conversation.
+         */
+        public String getFileName() {
+            return fileName;
+        }
+
+        /**
+         * Gets the timestamp of the latest message.
+         */
+        public long getLastActivity() {
+            return lastActivity;
+        }
+    }
+}
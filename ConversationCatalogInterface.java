@@ -0,0 +1,17 @@
+import java.io.File;
+import java.util.List;
+
+/**
+ * Interface for the ConversationCatalog class
+ */
+public interface ConversationCatalogInterface {
+    boolean load();
+    void importFiles(File[] conversationFiles);
+    void record(String buyerId, String sellerId, String fileName, long timestamp);
+    String getFileName(String buyerId, String sellerId);
+    List<ConversationCatalog.Entry> getConversations(String userId);
+    List<String> getPartners(String userId);
+    List<String> removeUser(String userId);
+    void compact();
+    int size();
+}
@@ -0,0 +1,125 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+import java.io.File;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.List;
+
+/**
+ * Tests for the conversation catalog
+ */
+public class ConversationCatalogTest {
+
+	private File tempCatalog() throws Exception {
+		File file = File.createTempFile("conversations", ".idx");
+		file.delete();
+		file.deleteOnExit();
+		return file;
+	}
+
+	/** Tests that recorded conversations survive a reload with roles and recency order. */
+	@Test
+	public void testRecordAndReload() throws Exception {
+		File file = tempCatalog();
+		ConversationCatalog catalog = new ConversationCatalog(file.getPath());
+		assertFalse(catalog.load());
+		catalog.importFiles(new File[0]);
+
+		catalog.record("alice", "bob", "buyer_alice_seller_bob.txt", 100);
+		catalog.record("carol", "alice", "buyer_carol_seller_alice.txt", 200);
+		catalog.record("alice", "bob", "buyer_alice_seller_bob.txt", 300);
+
+		ConversationCatalog reloaded = new ConversationCatalog(file.getPath());
+		assertTrue(reloaded.load());
+		assertEquals(2, reloaded.size());
+		assertEquals("buyer_alice_seller_bob.txt", reloaded.getFileName("alice", "bob"));
+		assertNull(reloaded.getFileName("bob", "alice"));
+
+		List<ConversationCatalog.Entry> conversations = reloaded.getConversations("alice");
+		assertEquals(2, conversations.size());
+		assertEquals("bob", conversations.get(0).getPartnerId());
+		assertEquals(ConversationCatalog.ROLE_BUYER, conversations.get(0).getRole());
+		assertEquals(300, conversations.get(0).getLastActivity());
+		assertEquals("carol", conversations.get(1).getPartnerId());
+		assertEquals(ConversationCatalog.ROLE_SELLER, conversations.get(1).getRole());
+	}
+
+	/** Tests that UUID users on both sides of two conversations keep their roles and string IDs. */
+	@Test
+	public void testUuidUsersInBothRoles() throws Exception {
+		File file = tempCatalog();
+		ConversationCatalog catalog = new ConversationCatalog(file.getPath());
+		String alice = "0b6e8c1a-3f2d-4c5e-9a7b-1d2e3f405162";
+		String bob = "f1e2d3c4-b5a6-4978-8a9b-0c1d2e3f4a5b";
+		catalog.record(alice, bob, "one.txt", 100);
+		catalog.record(bob, alice, "two.txt", 200);
+
+		assertEquals(2, catalog.size());
+		assertEquals("one.txt", catalog.getFileName(alice, bob));
+		assertEquals("two.txt", catalog.getFileName(bob, alice));
+		List<ConversationCatalog.Entry> conversations = catalog.getConversations(alice);
+		assertEquals(2, conversations.size());
+		assertEquals(bob, conversations.get(0).getPartnerId());
+		assertEquals(ConversationCatalog.ROLE_SELLER, conversations.get(0).getRole());
+		assertEquals(ConversationCatalog.ROLE_BUYER, conversations.get(1).getRole());
+
+		assertEquals(2, catalog.removeUser(bob).size());
+		assertEquals(0, catalog.size());
+		assertTrue(catalog.getConversations(alice).isEmpty());
+	}
+
+	/** Tests that existing conversation files are imported when there is no catalog. */
+	@Test
+	public void testImportFiles() throws Exception {
+		File dir = Files.createTempDirectory("conversations").toFile();
+		dir.deleteOnExit();
+		File conversation = new File(dir, "buyer_dan_seller_erin.txt");
+		try (PrintWriter writer = new PrintWriter(conversation)) {
+			writer.println("dan:hello");
+		}
+		conversation.deleteOnExit();
+		File ignored = new File(dir, "notes.txt");
+		ignored.createNewFile();
+		ignored.deleteOnExit();
+
+		File file = tempCatalog();
+		ConversationCatalog catalog = new ConversationCatalog(file.getPath());
+		assertFalse(catalog.load());
+		catalog.importFiles(new File[] {conversation, ignored});
+		assertEquals(1, catalog.size());
+		assertEquals("buyer_dan_seller_erin.txt", catalog.getFileName("dan", "erin"));
+
+		ConversationCatalog reloaded = new ConversationCatalog(file.getPath());
+		assertTrue(reloaded.load());
+		assertEquals(1, reloaded.getPartners("erin").size());
+		assertEquals("dan", reloaded.getPartners("erin").get(0));
+	}
+
+	/** Tests that removing a user drops their conversations from every partner, by appending one line. */
+	@Test
+	public void testRemoveUser() throws Exception {
+		File file = tempCatalog();
+		ConversationCatalog catalog = new ConversationCatalog(file.getPath());
+		assertFalse(catalog.load());
+		catalog.importFiles(new File[0]);
+		catalog.record("alice", "bob", "buyer_alice_seller_bob.txt", 100);
+		catalog.record("bob", "carol", "buyer_bob_seller_carol.txt", 200);
+		catalog.record("dave", "carol", "buyer_dave_seller_carol.txt", 300);
+
+		List<String> removed = catalog.removeUser("bob");
+		assertEquals(2, removed.size());
+		assertTrue(removed.contains("buyer_alice_seller_bob.txt"));
+		assertTrue(removed.contains("buyer_bob_seller_carol.txt"));
+		assertTrue(catalog.getPartners("alice").isEmpty());
+		assertEquals(1, catalog.getPartners("carol").size());
+		assertEquals(1, catalog.size());
+		List<String> lines = Files.readAllLines(file.toPath());
+		assertEquals(5, lines.size());
+		assertEquals("-,bob", lines.get(4));
+
+		ConversationCatalog reloaded = new ConversationCatalog(file.getPath());
+		assertTrue(reloaded.load());
+		assertEquals(1, reloaded.size());
+		assertNull(reloaded.getFileName("alice", "bob"));
+	}
+}
@@ -0,0 +1,96 @@
+/**
+ * Unordered pair of user IDs identifying a conversation. The same two users
+ * produce the same key regardless of who is the buyer or the sender.
+ *
+ * The IDs are held as CompactIds, so a key of two UUIDs is four longs
+ * rather than two strings.
+ */
+public final class ConversationKey {
+    private final CompactId first;
+    private final CompactId second;
+
+    /**
+     * Creates the key for the conversation between two users.
+     */
+    public ConversationKey(String userA, String userB) {
+        this(CompactId.of(userA), CompactId.of(userB));
+    }
+
+    /**
+     * Creates the key for the conversation between two users.
+     */
+    public ConversationKey(CompactId userA, CompactId userB) {
+        if (order(userA, userB) <= 0) {
+            this.first = userA;
+            this.second = userB;
+        } else {
+            this.first = userB;
+            this.second = userA;
+        }
+    }
+
+    // Sorts like the string forms, which fix the order of stored pairs
+    private static int order(CompactId a, CompactId b) {
+        if (a.isCompact() && b.isCompact()) {
+            return a.compareTo(b);
+        }
+        return a.toString().compareTo(b.toString());
+    }
+
+    /**
+     * Gets the participant whose ID sorts first.
+     */
+    public String getFirst() {
+        return first.toString();
+    }
+
+    /**
+     * Gets the participant whose ID sorts second.
+     */
+    public String getSecond() {
+        return second.toString();
+    }
+
+    /**
+     * Gets the ID of the participant that sorts first.
+     */
+    public CompactId getFirstId() {
+        return first;
+    }
+
+    /**
+     * Gets the ID of the participant that sorts second.
+     */
+    public CompactId getSecondId() {
+        return second;
+    }
+
+    /**
+     * Checks whether a user takes part in this conversation.
+     */
+    public boolean involves(CompactId userId) {
+        return first.equals(userId) || second.equals(userId);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ConversationKey)) {
+            return false;
+        }
+        ConversationKey other = (ConversationKey) o;
+        return first.equals(other.first) && second.equals(other.second);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * first.hashCode() + second.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return first + "|" + second;
+    }
+}
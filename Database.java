@@ -3,47 +3,721 @@ import java.util.*;
 import java.util.stream.Collectors;
 
 public class Database implements DatabaseInterface {
-    private Map<String, User> usersByUsername;
-    private Map<String, User> usersById;
-    private Map<String, Item> items;
-    private List<Message> messages;
-    private Map<String, Map<String, String>> userConversations; // userId -> (conversationKey -> fileName)
-    private Map<String, List<Double>> ratings;
-
-    private static final String USER_FILE = "users.txt";
-    private static final String ITEM_FILE = "items.txt";
+    private UserCache users; // by compact ID and username; every user unless a cache budget is set
+    private UserFileInterface userFile; // users read from disk when not in memory, null when all are resident
+    private Map<CompactId, Item> items;
+    private ItemIndex itemIndex; // by seller, buyer, category and sold state
+    private boolean itemIndexBuilt; // built on first query so loading stays lazy
+    private volatile ItemCatalog catalog; // the index's versioned catalog, set once it is built
+    private ConversationCache conversationCache; // user pair -> messages in timestamp order, loaded on first access
+    private ConversationCatalog conversationCatalog; // userId -> partners, roles, files and last activity
+    private MessageLog messageLog; // segmented append-only log holding every conversation
+    private FileHandlePool fileHandles; // open message log segments and the conversation catalog
+    private int messageSegmentBytes;
+    private SellerRatings ratings; // running count, sum and histogram per seller
+
+    // Write-behind state: ids changed since the last flush, and the flusher (null in write-through mode)
+    private Set<CompactId> dirtyUserIds;
+    private Set<CompactId> dirtyItemIds;
+    private Map<CompactId, Long> unwrittenUserIds; // users in a snapshot not yet on disk -> its version
+    private WriteBehindFlusher flusher;
+    private int maxPendingWrites;
+
+    // Snapshot versions so an older snapshot never overwrites a newer one on disk
+    private final Object persistLock = new Object();
+    private long userSnapshotVersion;
+    private long userWrittenVersion;
+    private long itemSnapshotVersion;
+    private long itemWrittenVersion;
+
+    static final String USER_FILE = "users.txt";
+    static final String ITEM_FILE = "items.txt";
+    private static final String USER_INDEX_FILE = "users.idx";
     private static final String MESSAGE_FILE = "messages.txt";
     private static final String RATING_FILE = "ratings.txt";
+    private static final String ITEM_STORE_FILE = "items.bin";
+    private static final String CONVERSATION_CATALOG_FILE = "conversations.idx";
+    private static final String DELETIONS_FILE = "deletions.txt";
+    static final String MESSAGE_LOG_DIR = "messages";
+    static final String ARCHIVE_DIR = "archive";
+    private static final int DEFAULT_CONVERSATION_CACHE_SIZE = 256;
+    private static final int DEFAULT_MESSAGE_SEGMENT_BYTES = 8 * 1024 * 1024;
+    private static final int DEFAULT_FILE_HANDLES = 64;
+    private static final long DEFAULT_FILE_IDLE_MILLIS = 30000;
+    private static final long DEFAULT_MESSAGE_SYNC_MILLIS = 1000;
+
+    // When set, items are persisted to and loaded from the mapped binary store instead of items.txt
+    private boolean binaryItemStore;
+    private BinaryItemFile itemStore;
+    private volatile OffHeapItemStore offHeapItems; // holds loaded items' fields outside the heap, null if off
+    private ItemArchiveInterface archive; // cold tier for old sold items, null when archiving is off
+    private ItemArchiver archiver; // moves items into the archive in the background, null if not started
+    private ListingExpiry expiry; // ends unsold listings after their TTL, null if not started
+    private final ChangeFeed changes; // every committed mutation, in order, for consumers to follow
+    private final AccountDeleter deleter; // cleans up deleted accounts in the background
+    private final Map<CompactId, List<Item>> hiddenListings; // tombstoned sellers' unsold listings, gone from memory but not yet from storage
 
     /**
      * Creates a new Database instance.
      */
     public Database() {
-        usersByUsername = new HashMap<>();
-        usersById = new HashMap<>();
+        users = new UserCache(UserCache.UNLIMITED, this::isUserPinned);
+        userFile = null;
         items = new HashMap<>();
-        messages = new ArrayList<>();
-        userConversations = new HashMap<>(); // Initialize the userConversations map
-        ratings = new HashMap<>();
+        itemIndex = new ItemIndex();
+        itemIndexBuilt = false;
+        conversationCache = new ConversationCache(DEFAULT_CONVERSATION_CACHE_SIZE, this::loadConversation,
+                key -> messageLog.evict(key));
+        messageSegmentBytes = DEFAULT_MESSAGE_SEGMENT_BYTES;
+        fileHandles = new FileHandlePool(DEFAULT_FILE_HANDLES, DEFAULT_FILE_IDLE_MILLIS,
+                FileHandlePool.Durability.BATCHED, DEFAULT_MESSAGE_SYNC_MILLIS);
+        conversationCatalog = new ConversationCatalog(CONVERSATION_CATALOG_FILE, fileHandles);
+        messageLog = new MessageLog(MESSAGE_LOG_DIR, messageSegmentBytes, fileHandles);
+        messageLog.setMaxResidentConversations(DEFAULT_CONVERSATION_CACHE_SIZE);
+        ratings = new SellerRatings(RATING_FILE, fileHandles);
+        dirtyUserIds = new HashSet<>();
+        dirtyItemIds = new HashSet<>();
+        unwrittenUserIds = new HashMap<>();
+        flusher = null;
+        maxPendingWrites = Integer.MAX_VALUE;
+        binaryItemStore = false;
+        itemStore = new BinaryItemFile(ITEM_STORE_FILE);
+        changes = new ChangeFeed(ChangeFeed.DEFAULT_CAPACITY);
+        deleter = new AccountDeleter(this, DELETIONS_FILE, AccountDeleter.DEFAULT_BATCH_SIZE);
+        hiddenListings = new HashMap<>();
+    }
+
+    /**
+     * Gets the feed every mutation is published to, in commit order.
+     */
+    public ChangeFeed getChangeFeed() {
+        return changes;
+    }
+
+    /**
+     * Sets how many of the newest changes the change feed keeps.
+     */
+    public void setChangeFeedCapacity(int capacity) {
+        changes.setCapacity(capacity);
+    }
+
+    /**
+     * Selects the binary, memory-mapped item store instead of items.txt.
+     * When the binary file does not exist yet, readItemFile falls back to
+     * items.txt and the next write migrates the catalog.
+     */
+    public synchronized void useBinaryItemStore(boolean enabled) {
+        this.binaryItemStore = enabled;
+    }
+
+    /**
+     * Keeps the fields of loaded items in direct buffers outside the heap, so
+     * a large catalog adds little for the garbage collector to trace. Items
+     * loaded afterwards become OffHeapItem flyweights; items added at runtime
+     * stay ordinary objects until the next load. Must be called before loading.
+     */
+    public synchronized void useOffHeapItems(boolean enabled) {
+        this.offHeapItems = enabled ? new OffHeapItemStore() : null;
+    }
+
+    /**
+     * Moves old sold items out of the items map and data files into
+     * compressed archive segments. Archived items are still found by
+     * getItemById and in purchase and sales histories, but no longer in
+     * searches or the active catalog. Must be called before loading.
+     */
+    public synchronized void useItemArchive(boolean enabled) {
+        this.archive = enabled ? createItemArchive() : null;
+    }
+
+    /**
+     * Creates the archive useItemArchive enables. Storage backends that keep
+     * archived items elsewhere override it.
+     */
+    ItemArchiveInterface createItemArchive() {
+        return new ItemArchive(ARCHIVE_DIR, ItemArchive.DEFAULT_SEGMENT_BYTES);
+    }
+
+    /**
+     * Starts a background archiver that moves sold items listed more than
+     * minAgeMillis ago into the archive every intervalMillis. Does nothing
+     * unless the archive is enabled.
+     */
+    public synchronized void startArchiver(long minAgeMillis, long intervalMillis) {
+        if (archive == null || archiver != null) {
+            return;
+        }
+        archiver = new ItemArchiver(this, minAgeMillis, intervalMillis, ItemArchiver.DEFAULT_BATCH_SIZE);
+        archiver.start();
+    }
+
+    /**
+     * Ends unsold listings ttlMillis after they were listed. Every current
+     * listing is scheduled on a timing wheel from the listing time in its ID,
+     * and new ones as they are added; a background thread removes those due
+     * every tickMillis, or archives them if the action is ARCHIVE and the
+     * archive is on. Listings whose IDs carry no listing time get a full TTL
+     * from now. Must be called after loading.
+     */
+    public synchronized void startListingExpiry(long ttlMillis, long tickMillis, ListingExpiry.Action action) {
+        if (expiry != null) {
+            return;
+        }
+        expiry = new ListingExpiry(this, ttlMillis, tickMillis, action);
+        expiry.scheduleAll(items.values());
+        expiry.start();
+    }
+
+    /**
+     * Gets the listing expiry, or null if it was not started.
+     */
+    synchronized ListingExpiry getListingExpiry() {
+        return expiry;
+    }
+
+    /**
+     * Ends the given listings that are still listed and unsold: each is
+     * removed, after being written to the archive when toArchive is set and
+     * the archive is on. The archive is written outside the database lock; a listing bought or
+     * removed meanwhile is left alone. Returns the number that ended.
+     */
+    int expireListings(List<CompactId> itemIds, boolean toArchive) {
+        ItemArchiveInterface target;
+        ListingExpiry currentExpiry;
+        List<Item> batch = new ArrayList<>();
+        synchronized (this) {
+            target = toArchive ? archive : null;
+            currentExpiry = expiry;
+            for (CompactId key : itemIds) {
+                Item item = items.get(key);
+                if (item != null && !item.isSold()) {
+                    batch.add(item);
+                }
+            }
+        }
+        if (batch.isEmpty()) {
+            return 0;
+        }
+
+        if (target != null) {
+            try {
+                target.append(batch);
+            } catch (IOException e) {
+                System.err.println("Error writing item archive: " + e.getMessage());
+                if (currentExpiry != null) {
+                    currentExpiry.scheduleAll(batch); // already due, so retried on the next tick
+                }
+                return 0;
+            }
+        }
+
+        synchronized (this) {
+            List<Item> expired = new ArrayList<>(batch.size());
+            for (Item item : batch) {
+                if (items.get(item.getItemKey()) != item || item.isSold()) {
+                    continue;
+                }
+                unlistItem(item);
+                expired.add(item);
+            }
+            if (!expired.isEmpty()) {
+                persistItems(expired);
+            }
+            return expired.size();
+        }
+    }
+
+    /**
+     * Gets the item archive, or null if archiving is off.
+     */
+    synchronized ItemArchiveInterface getItemArchive() {
+        return archive;
+    }
+
+    /**
+     * Indexes the archive segments if archiving is enabled and returns the
+     * number of archived items. Safe to call from loader threads.
+     */
+    int readItemArchive() {
+        ItemArchiveInterface current;
+        synchronized (this) {
+            current = archive;
+        }
+        if (current == null) {
+            return 0;
+        }
+        try {
+            current.open();
+        } catch (IOException e) {
+            System.err.println("Error opening item archive: " + e.getMessage());
+        }
+        return current.size();
+    }
+
+    /**
+     * Moves up to limit sold items listed before listedBeforeMillis into the
+     * archive and returns how many moved. Items whose IDs carry no listing
+     * time count as old. Candidates come from the sold index, oldest first,
+     * so a pass never visits unsold or recent items. The archive is written
+     * outside the database lock; an item rated meanwhile stays in the items
+     * map until the next pass.
+     */
+    public int archiveSoldItems(long listedBeforeMillis, int limit) {
+        ItemArchiveInterface target;
+        List<Item> batch = new ArrayList<>();
+        List<Integer> ratingCounts = new ArrayList<>();
+        synchronized (this) {
+            target = archive;
+            if (target == null) {
+                return 0;
+            }
+            for (Item item : indexedItems().getSoldListedBefore(listedBeforeMillis, limit)) {
+                batch.add(item);
+                ratingCounts.add(item.getRatingCount());
+            }
+        }
+        if (batch.isEmpty()) {
+            return 0;
+        }
+
+        try {
+            target.append(batch);
+        } catch (IOException e) {
+            System.err.println("Error writing item archive: " + e.getMessage());
+            return 0;
+        }
+
+        synchronized (this) {
+            int moved = 0;
+            for (int i = 0; i < batch.size(); i++) {
+                Item item = batch.get(i);
+                CompactId key = item.getItemKey();
+                if (items.get(key) != item || item.getRatingCount() != ratingCounts.get(i)) {
+                    continue;
+                }
+                items.remove(key);
+                if (itemIndexBuilt) {
+                    itemIndex.remove(item);
+                }
+                if (item instanceof OffHeapItem && offHeapItems != null) {
+                    offHeapItems.remove((OffHeapItem) item);
+                }
+                dirtyItemIds.add(key);
+                moved++;
+            }
+            if (moved > 0 && flusher == null) {
+                writeItemFile();
+            }
+            return moved;
+        }
+    }
+
+    // Gets an item from the items map, or from the archive if it was sold and moved there
+    private Item findItem(CompactId itemId) {
+        Item item = items.get(itemId);
+        if (item == null && archive != null) {
+            item = archive.get(itemId);
+            if (item != null && !item.isSold()) {
+                item = null; // an expired listing, kept only as a record
+            }
+        }
+        return item;
+    }
+
+    /**
+     * Checks whether an item is in the items map, whatever getItemById would
+     * show. Storage backends use it to choose between writing and deleting.
+     */
+    synchronized boolean hasItem(CompactId itemId) {
+        return items.containsKey(itemId);
+    }
+
+    /**
+     * Checks whether a user exists, for storage backends choosing between
+     * writing and deleting.
+     */
+    synchronized boolean hasUser(CompactId userId) {
+        return findUser(userId) != null;
+    }
+
+    // Adds archived sold items that are not also in the items map to an index result
+    private List<Item> withArchived(List<Item> hot, List<Item> archived) {
+        if (archived.isEmpty()) {
+            return hot;
+        }
+        List<Item> all = new ArrayList<>(hot);
+        for (Item item : archived) {
+            if (item.isSold() && !items.containsKey(item.getItemKey())) {
+                all.add(item);
+            }
+        }
+        return Collections.unmodifiableList(all);
+    }
+
+    /**
+     * Gets the off-heap item store, or null if items are kept on the heap.
+     */
+    public OffHeapItemStore getOffHeapItems() {
+        return offHeapItems;
+    }
+
+    /**
+     * Moves a loaded item's fields off the heap if that is enabled and
+     * returns the item to keep. Safe to call from loader threads.
+     */
+    Item toStoredItem(Item item) {
+        OffHeapItemStore store = offHeapItems;
+        if (store == null || item instanceof OffHeapItem) {
+            return item;
+        }
+        return store.add(item);
+    }
+
+    /**
+     * Keeps about budgetBytes of users in memory, evicting the least recently
+     * used, and reads the others from users.txt through its index when they
+     * are needed. Users with changes not yet on disk are never evicted. A
+     * budget of 0 keeps every user in memory. Must be called before loading.
+     */
+    public synchronized void useUserCache(long budgetBytes) {
+        users.setBudgetBytes(budgetBytes > 0 ? budgetBytes : UserCache.UNLIMITED);
+        userFile = budgetBytes > 0 ? createUserFile() : null;
+    }
+
+    /**
+     * Creates the on-disk users the user cache reads from. Storage backends
+     * that keep users elsewhere override it.
+     */
+    UserFileInterface createUserFile() {
+        return new UserFile(USER_FILE, USER_INDEX_FILE);
+    }
+
+    /**
+     * Checks whether users are read from disk on demand instead of all being loaded.
+     */
+    public synchronized boolean isUserCacheEnabled() {
+        return userFile != null;
+    }
+
+    /**
+     * Gets the users kept in memory.
+     */
+    synchronized UserCache getUserCache() {
+        return users;
+    }
+
+    /**
+     * Gets the on-disk users, or null if every user is kept in memory.
+     */
+    synchronized UserFileInterface getUserFile() {
+        return userFile;
+    }
+
+    /**
+     * Gets the number of users: those in users.txt as of the last write when
+     * the user cache is enabled, otherwise those in memory.
+     */
+    public synchronized int getUserCount() {
+        return userFile != null ? userFile.size() : users.size();
+    }
+
+    // A user the cache must keep: changed since the last snapshot, or in one still being written
+    private boolean isUserPinned(CompactId userId) {
+        return dirtyUserIds.contains(userId) || unwrittenUserIds.containsKey(userId);
+    }
+
+    // Gets a user by ID, reading it into the cache from users.txt if it is not in memory
+    private User findUser(CompactId userId) {
+        User user = users.get(userId);
+        if (user == null && userFile != null) {
+            user = admitUser(userFile.findById(userId));
+        }
+        return user;
+    }
+
+    // Gets a user by username, reading it into the cache from users.txt if it is not in memory
+    private User findUserByUsername(String username) {
+        User user = users.getByUsername(username);
+        if (user == null && userFile != null) {
+            user = admitUser(userFile.findByUsername(username));
+        }
+        return user;
+    }
+
+    private User admitUser(String line) {
+        User user = line == null ? null : parseUserLine(line);
+        if (user != null) {
+            users.put(user);
+        }
+        return user;
+    }
+
+    /**
+     * Checks whether items are stored in the binary item file.
+     */
+    public synchronized boolean isBinaryItemStore() {
+        return binaryItemStore;
+    }
+
+    /**
+     * Switches the database to write-behind mode. Mutations only mark users and
+     * items dirty; a background flusher persists them at least every
+     * maxStalenessMillis, or sooner once maxPendingWrites changes are queued.
+     */
+    public synchronized void enableWriteBehind(long maxStalenessMillis, int maxPendingWrites) {
+        if (flusher != null) {
+            return;
+        }
+        this.maxPendingWrites = maxPendingWrites > 0 ? maxPendingWrites : Integer.MAX_VALUE;
+        flusher = new WriteBehindFlusher(this, maxStalenessMillis);
+        flusher.start();
+    }
+
+    /**
+     * Checks whether writes are deferred to the background flusher.
+     */
+    public synchronized boolean isWriteBehindEnabled() {
+        return flusher != null;
+    }
+
+    /**
+     * Records that a user changed and publishes the change.
+     */
+    public synchronized void markUserDirty(User user) {
+        changes.publish(ChangeFeed.Type.USER_UPDATED, user.getUserKey(), user.getUsername());
+        persistUser(user);
+    }
+
+    /**
+     * Persists a changed or deleted user. Writes immediately in write-through
+     * mode. A user evicted from the cache while a caller held it is taken
+     * back in, unless it was deleted.
+     */
+    void persistUser(User user) {
+        if (userFile != null && users.get(user.getUserKey()) != user && !userFile.isDeleted(user.getUserKey())) {
+            dirtyUserIds.add(user.getUserKey());
+            users.put(user);
+        }
+        if (flusher == null) {
+            writeUserFile();
+            return;
+        }
+        dirtyUserIds.add(user.getUserKey());
+        if (getPendingWriteCount() >= maxPendingWrites) {
+            flusher.requestFlush();
+        }
+    }
+
+    /**
+     * Records that an item changed, such as a new rating, and publishes the
+     * change. Use markItemSold for the sale itself.
+     */
+    public synchronized void markItemDirty(Item item) {
+        changes.publish(ChangeFeed.Type.ITEM_UPDATED, item.getItemKey(), item.getSellerId());
+        persistItem(item);
+    }
+
+    /**
+     * Records that an item was just marked as sold and publishes the sale.
+     * Call once per sale, so change feed consumers count each sale once.
+     */
+    public synchronized void markItemSold(Item item) {
+        changes.publish(ChangeFeed.Type.ITEM_SOLD, item.getItemKey(), item.getBuyerId());
+        persistItem(item);
+    }
+
+    /**
+     * Persists a changed, added or removed item. Writes immediately in
+     * write-through mode. A changed archived item is archived again.
+     */
+    void persistItem(Item item) {
+        if (archive != null && !items.containsKey(item.getItemKey()) && archive.contains(item.getItemKey())) {
+            try {
+                archive.append(Collections.singletonList(item));
+            } catch (IOException e) {
+                System.err.println("Error writing item archive: " + e.getMessage());
+            }
+            return;
+        }
+        if (flusher == null) {
+            writeItemFile();
+            return;
+        }
+        dirtyItemIds.add(item.getItemKey());
+        if (getPendingWriteCount() >= maxPendingWrites) {
+            flusher.requestFlush();
+        }
+    }
+
+    /**
+     * Gets the number of users and items changed since the last flush.
+     */
+    public synchronized int getPendingWriteCount() {
+        return dirtyUserIds.size() + dirtyItemIds.size();
+    }
+
+    /**
+     * Persists every dirty user and item. The snapshot is taken under the
+     * database lock, but the disk write happens after the lock is released so
+     * request threads are not blocked on I/O.
+     */
+    public void flush() {
+        List<String> userLines = null;
+        byte[] itemSnapshot = null;
+        long userVersion = 0;
+        long itemVersion = 0;
+
+        synchronized (this) {
+            if (!dirtyUserIds.isEmpty()) {
+                userLines = serializeUsers();
+                userVersion = ++userSnapshotVersion;
+                for (CompactId userId : dirtyUserIds) {
+                    unwrittenUserIds.put(userId, userVersion);
+                }
+                dirtyUserIds.clear();
+            }
+            if (!dirtyItemIds.isEmpty()) {
+                itemSnapshot = snapshotItems();
+                itemVersion = ++itemSnapshotVersion;
+                dirtyItemIds.clear();
+            }
+        }
+
+        synchronized (persistLock) {
+            if (userLines != null && userVersion > userWrittenVersion) {
+                persistUsers(userLines);
+                userWrittenVersion = userVersion;
+            }
+            if (itemSnapshot != null && itemVersion > itemWrittenVersion) {
+                writeItemSnapshot(itemSnapshot);
+                itemWrittenVersion = itemVersion;
+            }
+        }
+        if (userLines != null) {
+            // The written users can be evicted now that users.txt has them
+            long written = userVersion;
+            synchronized (this) {
+                unwrittenUserIds.values().removeIf(version -> version <= written);
+                users.evict();
+            }
+        }
+
+        // Force batched message writes now; the pool closes idle handles on its own schedule
+        FileHandlePool pool;
+        synchronized (this) {
+            pool = fileHandles;
+        }
+        try {
+            pool.syncAll();
+        } catch (IOException e) {
+            System.err.println("Error syncing message files: " + e.getMessage());
+        }
+    }
 
+    /**
+     * Stops the background flusher, if any, after persisting all pending changes.
+     */
+    public void close() {
+        WriteBehindFlusher current;
+        ItemArchiver currentArchiver;
+        ListingExpiry currentExpiry;
+        synchronized (this) {
+            current = flusher;
+            flusher = null;
+            currentArchiver = archiver;
+            archiver = null;
+            currentExpiry = expiry;
+            expiry = null;
+        }
+        if (currentArchiver != null) {
+            currentArchiver.stop();
+        }
+        if (currentExpiry != null) {
+            currentExpiry.stop();
+        }
+        deleter.stop();
+        if (current != null) {
+            current.stop();
+        }
+        flush();
+        synchronized (this) {
+            try {
+                messageLog.close();
+            } catch (IOException e) {
+                System.err.println("Error closing message log: " + e.getMessage());
+            }
+            fileHandles.close();
+        }
+    }
+
+    /**
+     * Replaces the pool that keeps message log segments and the conversation
+     * catalog open. Must be called before any conversation is read or written.
+     */
+    public synchronized void setFileHandlePool(FileHandlePool pool) {
+        fileHandles.close();
+        fileHandles = pool;
+        conversationCatalog = new ConversationCatalog(CONVERSATION_CATALOG_FILE, fileHandles);
+        messageLog = new MessageLog(MESSAGE_LOG_DIR, messageSegmentBytes, fileHandles);
+        messageLog.setMaxResidentConversations(conversationCache.getMaxConversations());
+        ratings = new SellerRatings(RATING_FILE, fileHandles);
     }
 
     /**
      * Adds a new user to the database.
      */
     public synchronized boolean addUser(String username, String password, String bio) {
-        if (usersByUsername.containsKey(username)) {
+        if (findUserByUsername(username) != null) {
             return false;
         }
 
         User newUser = new User(username, password, bio, this);
-        usersByUsername.put(username, newUser);
-        usersById.put(newUser.getUserId(), newUser);
+        users.put(newUser);
 
-        writeUserFile();
+        markUserDirty(newUser);
         return true;
     }
 
+    /**
+     * Adds many users under one lock acquisition and persists them once.
+     * Users whose username or ID is taken are skipped. Returns the number added.
+     */
+    public synchronized int addUsers(Collection<User> newUsers) {
+        List<User> added = new ArrayList<>(newUsers.size());
+        for (User user : newUsers) {
+            if (findUserByUsername(user.getUsername()) != null || findUser(user.getUserKey()) != null) {
+                continue;
+            }
+            if (userFile != null) {
+                dirtyUserIds.add(user.getUserKey()); // pinned until written
+            }
+            users.put(user);
+            changes.publish(ChangeFeed.Type.USER_UPDATED, user.getUserKey(), user.getUsername());
+            added.add(user);
+        }
+        if (!added.isEmpty()) {
+            persistAddedUsers(added);
+        }
+        return added.size();
+    }
+
+    /**
+     * Persists users added by addUsers. In write-through mode users.txt is
+     * rewritten once for the batch; in write-behind mode the flusher does it.
+     */
+    void persistAddedUsers(List<User> added) {
+        if (flusher == null) {
+            writeUserFile();
+            return;
+        }
+        for (User user : added) {
+            dirtyUserIds.add(user.getUserKey());
+        }
+        if (getPendingWriteCount() >= maxPendingWrites) {
+            flusher.requestFlush();
+        }
+    }
+
     /**
      * Validates user login credentials.
      */
@@ -56,7 +730,7 @@ public class Database implements DatabaseInterface {
         String username = parts[0];
         String password = parts[1];
 
-        User user = usersByUsername.get(username);
+        User user = findUserByUsername(username);
         return user != null && user.validatePassword(password);
     }
 
@@ -64,14 +738,14 @@ public class Database implements DatabaseInterface {
      * Finds a user by username.
      */
     public synchronized User getUserByUsername(String username) {
-        return usersByUsername.get(username);
+        return findUserByUsername(username);
     }
 
     /**
      * Finds a user by ID.
      */
     public synchronized User getUserById(String userId) {
-        return usersById.get(userId);
+        return findUser(CompactId.of(userId));
     }
 
     /**
@@ -82,57 +756,212 @@ public class Database implements DatabaseInterface {
     }
 
     /**
-     * Gets all available users.
+     * Gets all available users. With the user cache enabled, users not in
+     * memory are parsed from users.txt for this call only.
      */
     public synchronized List<User> getAllUsers() {
-        return new ArrayList<>(usersByUsername.values());
+        List<User> all = new ArrayList<>(users.values());
+        if (userFile != null) {
+            try {
+                userFile.forEachLine(line -> {
+                    User user = parseUserLine(line);
+                    if (user != null && !users.contains(user.getUserKey())) {
+                        all.add(user);
+                    }
+                });
+            } catch (IOException e) {
+                System.err.println("Error reading user file: " + e.getMessage());
+            }
+        }
+        return all;
     }
 
     /**
      * Adds a new item to the database.
      */
     public synchronized boolean addItem(Item item) {
-        if (items.containsKey(item.getItemId())) {
+        if (items.containsKey(item.getItemKey())) {
             return false;
         }
 
 
-        User seller = usersById.get(item.getSellerId());
-        if (seller == null) {
+        if (findUser(item.getSellerKey()) == null) {
             return false;
         }
 
-        items.put(item.getItemId(), item);
-        seller.addListing(item);
-        writeItemFile();
+        items.put(item.getItemKey(), item);
+        if (itemIndexBuilt) {
+            itemIndex.add(item);
+        }
+        if (expiry != null) {
+            expiry.schedule(item);
+        }
+        changes.publish(ChangeFeed.Type.ITEM_ADDED, item.getItemKey(), item.getSellerId());
+        persistItem(item);
         return true;
     }
 
+    /**
+     * Adds many items under one lock acquisition and persists them once.
+     * Items whose ID is taken or whose seller is unknown are skipped. If the
+     * item indexes are not built yet, they are built on the first query
+     * after the import rather than item by item. Returns the number added.
+     */
+    public synchronized int addItems(Collection<Item> newItems) {
+        List<Item> added = new ArrayList<>(newItems.size());
+        for (Item item : newItems) {
+            if (items.containsKey(item.getItemKey()) || findUser(item.getSellerKey()) == null) {
+                continue;
+            }
+            items.put(item.getItemKey(), item);
+            if (itemIndexBuilt) {
+                itemIndex.add(item);
+            }
+            if (expiry != null) {
+                expiry.schedule(item);
+            }
+            changes.publish(ChangeFeed.Type.ITEM_ADDED, item.getItemKey(), item.getSellerId());
+            added.add(item);
+        }
+        if (!added.isEmpty()) {
+            persistItems(added);
+        }
+        return added.size();
+    }
+
+    /**
+     * Persists a batch of added or removed items. In write-through mode the
+     * item file is rewritten once for the batch; in write-behind mode the
+     * flusher does it.
+     */
+    void persistItems(List<Item> batch) {
+        if (flusher == null) {
+            writeItemFile();
+            return;
+        }
+        for (Item item : batch) {
+            dirtyItemIds.add(item.getItemKey());
+        }
+        if (getPendingWriteCount() >= maxPendingWrites) {
+            flusher.requestFlush();
+        }
+    }
+
     /**
      * Finds an item by ID.
      */
     public synchronized Item getItemById(String itemId) {
-        return items.get(itemId);
+        return findItem(CompactId.of(itemId));
     }
 
     /**
-     * Gets all available items.
+     * Gets all available items, not counting archived ones.
      */
     public synchronized List<Item> getAllItems() {
         return new ArrayList<>(items.values());
     }
 
     /**
-     * Gets all active (unsold) items.
+     * Gets all active (unsold) items as an unmodifiable snapshot.
      */
     public synchronized List<Item> getActiveItems() {
-        List<Item> activeItems = new ArrayList<>();
-        for (Item item : items.values()) {
-            if (!item.isSold()) {
-                activeItems.add(item);
+        return indexedItems().getActive();
+    }
+
+    /**
+     * Gets a seller's unsold listings as an unmodifiable snapshot.
+     */
+    public synchronized List<Item> getActiveListingsBySeller(String sellerId) {
+        return getActiveListingsBySeller(CompactId.of(sellerId));
+    }
+
+    synchronized List<Item> getActiveListingsBySeller(CompactId sellerId) {
+        return indexedItems().getActiveBySeller(sellerId);
+    }
+
+    /**
+     * Gets a seller's sold listings, archived ones included, as an unmodifiable snapshot.
+     */
+    public synchronized List<Item> getSoldItemsBySeller(String sellerId) {
+        return getSoldItemsBySeller(CompactId.of(sellerId));
+    }
+
+    synchronized List<Item> getSoldItemsBySeller(CompactId sellerId) {
+        List<Item> sold = indexedItems().getSoldBySeller(sellerId);
+        return archive == null ? sold : withArchived(sold, archive.getBySeller(sellerId));
+    }
+
+    /**
+     * Gets the items a user has bought, archived ones included, as an unmodifiable snapshot.
+     */
+    public synchronized List<Item> getItemsByBuyer(String buyerId) {
+        return getItemsByBuyer(CompactId.of(buyerId));
+    }
+
+    synchronized List<Item> getItemsByBuyer(CompactId buyerId) {
+        List<Item> bought = indexedItems().getByBuyer(buyerId);
+        return archive == null ? bought : withArchived(bought, archive.getByBuyer(buyerId));
+    }
+
+    /**
+     * Gets the items in a category, ignoring case, as an unmodifiable snapshot.
+     */
+    public synchronized List<Item> getItemsByCategory(String category) {
+        return indexedItems().getByCategory(category);
+    }
+
+    /**
+     * Gets the items listed from fromMillis to toMillis, inclusive, oldest
+     * first. Items whose IDs are not time-ordered are left out.
+     */
+    public synchronized List<Item> getItemsListedBetween(long fromMillis, long toMillis) {
+        return indexedItems().getListedBetween(fromMillis, toMillis);
+    }
+
+    /**
+     * Gets up to limit of the most recently listed items, newest first.
+     */
+    public synchronized List<Item> getNewestItems(int limit) {
+        return indexedItems().getNewest(limit);
+    }
+
+    /**
+     * Gets the items priced from minPrice to maxPrice, sold or not, cheapest
+     * first or most expensive first. The band is copied under the lock, so
+     * later sales and removals never change the returned list.
+     */
+    public synchronized List<Item> getItemsByPrice(double minPrice, double maxPrice, boolean descending) {
+        return new ArrayList<>(indexedItems().getByPrice(minPrice, maxPrice, descending));
+    }
+
+    /**
+     * Gets the secondary item indexes, building them on first use. After
+     * that they are kept up to date by addItem, removeItem and item sales.
+     */
+    private ItemIndex indexedItems() {
+        if (!itemIndexBuilt) {
+            for (Item item : items.values()) {
+                itemIndex.add(item);
+            }
+            itemIndexBuilt = true;
+            catalog = itemIndex.getCatalog();
+        }
+        return itemIndex;
+    }
+
+    /**
+     * Pins a consistent snapshot of every item and its sold state. Only the
+     * first call takes the database lock, to build the indexes; after that
+     * readers never block writers. Close the snapshot when done.
+     */
+    public ItemCatalog.Snapshot getCatalogSnapshot() {
+        ItemCatalog current = catalog;
+        if (current == null) {
+            synchronized (this) {
+                current = indexedItems().getCatalog();
             }
         }
-        return activeItems;
+        return current.snapshot();
     }
 
 
@@ -141,15 +970,15 @@ public class Database implements DatabaseInterface {
      * Adds a message with buyer/seller role identification.
      */
     public synchronized boolean addMessage(Message message, String itemId) {
-        User sender = usersById.get(message.getSenderId());
-        User receiver = usersById.get(message.getReceiverId());
+        User sender = findUser(message.getSenderKey());
+        User receiver = findUser(message.getReceiverKey());
 
         if (sender == null || receiver == null) {
             return false;
         }
 
         // Determine buyer and seller based on the item
-        Item item = items.get(itemId);
+        Item item = findItem(CompactId.of(itemId));
         if (item == null) {
             return false;
         }
@@ -157,7 +986,7 @@ public class Database implements DatabaseInterface {
         String buyerId, sellerId;
 
         // If sender is seller, receiver is buyer
-        if (item.getSellerId().equals(message.getSenderId())) {
+        if (item.getSellerKey().equals(message.getSenderKey())) {
             sellerId = message.getSenderId();
             buyerId = message.getReceiverId();
         } else {
@@ -166,221 +995,290 @@ public class Database implements DatabaseInterface {
             sellerId = message.getReceiverId();
         }
 
-        // Add to messages list
-        messages.add(message);
+        return appendToConversation(buyerId, sellerId, message);
+    }
+
+    /**
+     * Adds a message to the pair's in-memory history and persists it.
+     */
+    private boolean appendToConversation(String buyerId, String sellerId, Message message) {
+        ConversationKey key = new ConversationKey(buyerId, sellerId);
+        // Append before writing: on a cache miss the history is loaded from disk first
+        conversationCache.append(key, message);
 
-        // Save to conversation file
-        String fileName = getConversationFile(buyerId, sellerId);
+        if (!persistMessage(buyerId, sellerId, message)) {
+            conversationCache.invalidate(key);
+            return false;
+        }
+        changes.publish(ChangeFeed.Type.MESSAGE_ADDED, message.getSenderKey(), message.getReceiverId());
+        return true;
+    }
 
-        try (PrintWriter writer = new PrintWriter(new FileWriter(fileName, true))) {
-            // Format: userID:message
-            writer.println(message.getSenderId() + ":" + message.getContent());
-            return true;
+    /**
+     * Appends a message to the message log and records it in the conversation catalog.
+     */
+    boolean persistMessage(String buyerId, String sellerId, Message message) {
+        try {
+            messageLog.append(buyerId, sellerId, message);
         } catch (IOException e) {
-            System.err.println("Error writing to conversation file: " + e.getMessage());
+            System.err.println("Error writing to message log: " + e.getMessage());
             return false;
         }
+
+        conversationCatalog.record(buyerId, sellerId, MESSAGE_LOG_DIR, message.getTimestamp());
+        return true;
+    }
+
+    /**
+     * Reads every stored message between two users from the message log,
+     * covering both directions of buyer and seller.
+     */
+    List<Message> loadConversation(ConversationKey key) {
+        try {
+            return messageLog.read(key);
+        } catch (IOException e) {
+            System.err.println("Error reading message log: " + e.getMessage());
+            return new ArrayList<>();
+        }
+    }
+
+    /**
+     * Sets the size at which the active message log segment is sealed and a new one started.
+     */
+    public synchronized void setMessageSegmentBytes(int maxSegmentBytes) {
+        messageLog.setMaxSegmentBytes(maxSegmentBytes);
+        messageSegmentBytes = maxSegmentBytes;
+    }
+
+    /**
+     * Sets how many conversation histories, and how many message log seek
+     * indexes, may stay in memory at once.
+     */
+    public synchronized void setConversationCacheSize(int maxConversations) {
+        conversationCache.setMaxConversations(maxConversations);
+        messageLog.setMaxResidentConversations(maxConversations);
     }
 
+    /**
+     * Gets the number of conversation histories currently in memory.
+     */
+    public synchronized int getCachedConversationCount() {
+        return conversationCache.size();
+    }
+
+    /**
+     * Deletes a user. The user is tombstoned at once: they can no longer log
+     * in or be found, their username is free again and their unsold listings
+     * leave the items map, the indexes, the catalog and so every query and
+     * search, with an ITEM_REMOVED change each. Their listings are then
+     * removed from storage, and their conversations, messages and ratings
+     * dropped, in the background by the AccountDeleter.
+     */
     public synchronized boolean deleteUser(String username) {
-        User user = usersByUsername.get(username);
+        User user = findUserByUsername(username);
         if (user == null) {
             return false;
         }
+        tombstone(user);
+        deleter.submit(user.getUserId(), user.getUsername());
+        return true;
+    }
 
-        String userId = user.getUserId();
-
-        // Remove user's active listings
-        List<Item> activeListings = new ArrayList<>(user.getActiveListings());
-        for (Item item : activeListings) {
-            removeItem(item.getItemId(), userId);
+    // Removes a user from memory and the user file and publishes the deletion
+    private void tombstone(User user) {
+        users.remove(user);
+        if (userFile != null) {
+            userFile.markDeleted(user.getUserKey());
         }
+        hideListingsOf(user.getUserKey());
+        changes.publish(ChangeFeed.Type.USER_DELETED, user.getUserKey(), user.getUsername());
+        persistUser(user);
+    }
 
-        // Remove references to this user in conversations
-        List<Message> messagesToRemove = new ArrayList<>();
-        for (Message message : messages) {
-            if (message.getSenderId().equals(userId) || message.getReceiverId().equals(userId)) {
-                messagesToRemove.add(message);
+    /**
+     * Resumes the cleanup of accounts whose deletion a restart interrupted.
+     * Call once the users and items are loaded.
+     */
+    public void resumeAccountDeletions() {
+        for (AccountDeleter.Progress deletion : deleter.readPending()) {
+            synchronized (this) {
+                CompactId userId = CompactId.of(deletion.getUserId());
+                User user = findUser(userId);
+                if (user != null) {
+                    tombstone(user); // the tombstone had not reached the user file yet
+                } else {
+                    hideListingsOf(userId);
+                }
             }
+            deleter.submit(deletion.getUserId(), deletion.getUsername());
         }
-        messages.removeAll(messagesToRemove);
+    }
 
-        // Remove user from maps
-        usersByUsername.remove(username);
-        usersById.remove(userId);
+    /**
+     * Gets the progress of a pending or recently finished account deletion, or null.
+     */
+    public AccountDeleter.Progress getDeletionProgress(String userId) {
+        return deleter.getProgress(userId);
+    }
 
-        // Remove user's conversations
-        Map<String, String> userConvs = userConversations.get(userId);
-        if (userConvs != null) {
-            // Delete conversation files
-            for (String fileName : userConvs.values()) {
-                File file = new File(fileName);
-                if (file.exists()) {
-                    file.delete();
-                }
-            }
-            userConversations.remove(userId);
+    /**
+     * Waits up to timeoutMillis for every pending account deletion to finish,
+     * and returns whether they did.
+     */
+    public boolean awaitAccountDeletions(long timeoutMillis) throws InterruptedException {
+        return deleter.awaitIdle(timeoutMillis);
+    }
+
+    /**
+     * Drops a deleted user's stored data and cached histories. Called by the
+     * AccountDeleter without the database lock, which is only taken briefly.
+     */
+    void purgeUserData(String userId) {
+        removeStoredUserData(userId);
+        synchronized (this) {
+            conversationCache.invalidateUser(userId);
         }
+    }
 
-        // Update other users' conversation maps
-        for (Map<String, String> convMap : userConversations.values()) {
-            List<String> keysToRemove = new ArrayList<>();
-            for (String key : convMap.keySet()) {
-                if (key.contains("_" + userId)) {
-                    keysToRemove.add(key);
-                }
+    /**
+     * Forgets a deleted user's hidden listings once all of them are gone from storage.
+     */
+    synchronized void finishDeletion(CompactId userId) {
+        hiddenListings.remove(userId);
+    }
+
+    // Drops a tombstoned seller's unsold listings from memory, leaving their storage to removeListingsOf
+    private void hideListingsOf(CompactId sellerId) {
+        if (hiddenListings.containsKey(sellerId)) {
+            return;
+        }
+        List<Item> listings = new ArrayList<>(indexedItems().getActiveBySeller(sellerId));
+        for (Item item : listings) {
+            dropItem(item);
+        }
+        hiddenListings.put(sellerId, listings);
+    }
+
+    /**
+     * Drops a deleted user's conversations and ratings from storage. The
+     * catalog also drops the conversations from every partner's index, and
+     * only the conversations it lists for the user are visited in the log.
+     */
+    void removeStoredUserData(String userId) {
+        ConversationCatalog catalog;
+        MessageLog log;
+        SellerRatings sellerRatings;
+        synchronized (this) {
+            catalog = conversationCatalog;
+            log = messageLog;
+            sellerRatings = ratings;
+        }
+        List<ConversationKey> conversations = new ArrayList<>();
+        for (String partnerId : catalog.getPartners(userId)) {
+            conversations.add(new ConversationKey(userId, partnerId));
+        }
+        for (String fileName : catalog.removeUser(userId)) {
+            File file = new File(fileName);
+            if (!fileName.equals(MESSAGE_LOG_DIR) && file.exists()) {
+                file.delete();
             }
-            for (String key : keysToRemove) {
-                convMap.remove(key);
+        }
+        try {
+            // Records stay in the log until enough of it belongs to deleted users
+            log.removeUser(userId, conversations);
+            if (log.needsCompaction()) {
+                log.compact();
             }
+        } catch (IOException e) {
+            System.err.println("Error removing messages from log: " + e.getMessage());
         }
 
-        // Write changes to files
-        writeUserFile();
-        writeItemFile();
         // Delete any ratings associated with this user
-        if (ratings.containsKey(userId)) {
-            ratings.remove(userId);
-            writeRatingsFile(ratings);
-        }
-
-        return true;
+        sellerRatings.remove(userId);
     }
 
     /**
      * Adds a rating for a seller.
-     * Ratings are stored in a separate ratings file.
+     * Ratings are kept as running aggregates and appended to the ratings file.
      */
     public synchronized boolean addSellerRating(String sellerId, double rating) {
         if (rating < 1 || rating > 5) {
             return false;
         }
 
-        User seller = usersById.get(sellerId);
+        User seller = findUser(CompactId.of(sellerId));
         if (seller == null) {
             return false;
         }
 
-        try {
-            // Load existing ratings
-            Map<String, List<Double>> ratings = readRatingsFile();
-
-            // Add or update the seller's ratings
-            List<Double> sellerRatings = ratings.getOrDefault(sellerId, new ArrayList<>());
-            sellerRatings.add(rating);
-            ratings.put(sellerId, sellerRatings);
-
-            // Write ratings back to file
-            writeRatingsFile(ratings);
-
-            return true;
-        } catch (Exception e) {
-            System.err.println("Error adding seller rating: " + e.getMessage());
+        if (!persistRating(sellerId, rating)) {
             return false;
         }
+        changes.publish(ChangeFeed.Type.RATING_ADDED, seller.getUserKey(), String.valueOf(rating));
+        return true;
+    }
+
+    /**
+     * Adds a rating to the seller's aggregate and appends it to the ratings file.
+     */
+    boolean persistRating(String sellerId, double rating) {
+        ratings.add(sellerId, rating);
+        return true;
     }
 
     /**
      * Gets a seller's average rating.
      */
     public synchronized double getSellerRating(String sellerId) {
-        try {
-            // Load ratings
-            Map<String, List<Double>> ratings = readRatingsFile();
-
-            // Get seller's ratings
-            List<Double> sellerRatings = ratings.getOrDefault(sellerId, new ArrayList<>());
-            if (sellerRatings.isEmpty()) {
-                return 0.0;
-            }
-
-            // Calculate average
-            double sum = 0.0;
-            for (Double r : sellerRatings) {
-                sum += r;
-            }
-            return sum / sellerRatings.size();
-        } catch (Exception e) {
-            System.err.println("Error getting seller rating: " + e.getMessage());
-            return 0.0;
-        }
+        return ratings.getAverage(sellerId);
     }
 
     /**
-     * Reads the ratings file.
+     * Gets the number of ratings a seller has received.
      */
+    public synchronized int getSellerRatingCount(String sellerId) {
+        return ratings.getCount(sellerId);
+    }
 
-    public Map<String, List<Double>> readRatingsFile() {
-
-        File file = new File("ratings.txt");
-
-        if (!file.exists()) {
-            return ratings;
-        }
-
-        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                String[] parts = line.split(",");
-                if (parts.length >= 2) {
-                    String sellerId = parts[0];
-                    List<Double> sellerRatings = new ArrayList<>();
-
-                    for (int i = 1; i < parts.length; i++) {
-                        try {
-                            double rating = Double.parseDouble(parts[i]);
-                            sellerRatings.add(rating);
-                        } catch (NumberFormatException e) {
-                            // Skip invalid ratings
-                        }
-                    }
-
-                    ratings.put(sellerId, sellerRatings);
-                }
-            }
-        } catch (IOException e) {
-            System.err.println("Error reading ratings file: " + e.getMessage());
-        }
-
-        return ratings;
+    /**
+     * Gets a copy of a seller's rating count, sum and star histogram.
+     */
+    public synchronized SellerRatings.Aggregate getSellerRatingAggregate(String sellerId) {
+        return ratings.get(sellerId);
     }
 
     /**
-     * Writes the ratings file.
+     * Reads the ratings file. The ratings lock their own state, so the file is
+     * read without holding the database lock.
      */
-    private void writeRatingsFile(Map<String, List<Double>> ratings) {
-        try (PrintWriter writer = new PrintWriter(new FileWriter("ratings.txt"))) {
-            for (Map.Entry<String, List<Double>> entry : ratings.entrySet()) {
-                StringBuilder line = new StringBuilder(entry.getKey());
-                for (Double rating : entry.getValue()) {
-                    line.append(",").append(rating);
-                }
-                writer.println(line.toString());
-            }
-        } catch (IOException e) {
-            System.err.println("Error writing ratings file: " + e.getMessage());
+    public void readRatingsFile() {
+        SellerRatings current;
+        synchronized (this) {
+            current = ratings;
         }
+        current.load();
     }
 
     /**
-     * Reads the ratings file.
-     * This method should be called during database initialization.
+     * Gets the number of sellers with ratings.
      */
-
+    public synchronized int getRatedSellerCount() {
+        return ratings.size();
+    }
 
     /**
      * Writes the ratings file.
-     * This method should be called during database shutdown.
+     * Every rating is appended when it is added, so this only compacts the file.
      */
     public synchronized void writeRatingsFile() {
-        // No implementation needed as writeRatingsFile(Map) is called directly when ratings are modified
+        ratings.compact();
     }
     /**
      * For backward compatibility - use when item ID is not known
      */
     public synchronized boolean addMessage(Message message) {
-        User sender = usersById.get(message.getSenderId());
-        User receiver = usersById.get(message.getReceiverId());
+        User sender = findUser(message.getSenderKey());
+        User receiver = findUser(message.getReceiverKey());
 
         if (sender == null || receiver == null) {
             return false;
@@ -390,61 +1288,18 @@ public class Database implements DatabaseInterface {
         String buyerId = message.getSenderId();
         String sellerId = message.getReceiverId();
 
-        // Add to messages list
-        messages.add(message);
-
-        // Save to conversation file
-        String fileName = getConversationFile(buyerId, sellerId);
-
-        try (PrintWriter writer = new PrintWriter(new FileWriter(fileName, true))) {
-            // Format: userID:message
-            writer.println(message.getSenderId() + ":" + message.getContent());
-            return true;
-        } catch (IOException e) {
-            System.err.println("Error writing to conversation file: " + e.getMessage());
-            return false;
-        }
+        return appendToConversation(buyerId, sellerId, message);
     }
 
     /**
      * Gets messages between a buyer and seller.
      */
     public synchronized List<Message> getMessagesBetweenBuyerAndSeller(String buyerId, String sellerId) {
-        List<Message> conversation = new ArrayList<>();
-
-        // Get conversation file
-        String fileName = getConversationFile(buyerId, sellerId);
-        File file = new File(fileName);
-
-        if (!file.exists()) {
-            return conversation;
-        }
-
-        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
-            String line;
-            long timestamp = System.currentTimeMillis() - 10000; // Base timestamp
-
-            while ((line = reader.readLine()) != null) {
-                int colonIndex = line.indexOf(':');
-                if (colonIndex > 0) {
-                    String senderId = line.substring(0, colonIndex);
-                    String content = line.substring(colonIndex + 1);
-
-                    // Determine receiver
-                    String receiverId = senderId.equals(buyerId) ? sellerId : buyerId;
-
-                    // Create message object
-                    Message message = new Message(senderId, receiverId, content, timestamp, false);
-                    timestamp += 1; // Increment for order
-
-                    conversation.add(message);
-                }
-            }
-
-            return conversation;
+        try {
+            return messageLog.read(buyerId, sellerId);
         } catch (IOException e) {
-            System.err.println("Error reading conversation file: " + e.getMessage());
-            return conversation;
+            System.err.println("Error reading message log: " + e.getMessage());
+            return new ArrayList<>();
         }
     }
 
@@ -456,15 +1311,11 @@ public class Database implements DatabaseInterface {
         List<String> buyingFrom = new ArrayList<>();
         List<String> sellingTo = new ArrayList<>();
 
-        Map<String, String> userConvs = userConversations.get(userId);
-        if (userConvs != null) {
-            for (Map.Entry<String, String> entry : userConvs.entrySet()) {
-                String key = entry.getKey();
-                if (key.startsWith("buying_from_")) {
-                    buyingFrom.add(key.substring("buying_from_".length()));
-                } else if (key.startsWith("selling_to_")) {
-                    sellingTo.add(key.substring("selling_to_".length()));
-                }
+        for (ConversationCatalog.Entry entry : conversationCatalog.getConversations(userId)) {
+            if (entry.getRole().equals(ConversationCatalog.ROLE_BUYER)) {
+                buyingFrom.add(entry.getPartnerId());
+            } else {
+                sellingTo.add(entry.getPartnerId());
             }
         }
 
@@ -475,67 +1326,26 @@ public class Database implements DatabaseInterface {
 
 
     /**
-     * Gets all conversation partners regardless of role.
+     * Gets all conversation partners regardless of role, most recently active first.
      */
     public synchronized List<String> getAllConversationPartners(String userId) {
-        Set<String> partners = new HashSet<>();
-
-        Map<String, String> userConvs = userConversations.get(userId);
-        if (userConvs != null) {
-            for (String key : userConvs.keySet()) {
-                if (key.startsWith("buying_from_")) {
-                    partners.add(key.substring("buying_from_".length()));
-                } else if (key.startsWith("selling_to_")) {
-                    partners.add(key.substring("selling_to_".length()));
-                }
-            }
-        }
-
-        return new ArrayList<>(partners);
+        return conversationCatalog.getPartners(userId);
     }
 
     /**
      * Reads user data from file.
      */
     public synchronized void readUserFile() {
+        if (userFile != null) {
+            openUserFile();
+            return;
+        }
         try (BufferedReader reader = new BufferedReader(new FileReader(USER_FILE))) {
             String line;
             while ((line = reader.readLine()) != null) {
-                String[] parts = line.split(",");
-                if (parts.length >= 3) {
-                    String username = parts[0];
-                    String password = parts[1];
-                    String bio = parts[2];
-
-                    // Parse balance
-                    double balance = 0;
-                    try {
-                        balance = Double.parseDouble(parts[3]);
-                    } catch (NumberFormatException e) {
-                        System.err.println("Invalid balance for user: " + username);
-                    }
-
-                    // Existing user ID
-                    String existingUserId = parts[4];
-
-                    // Deserialize item lists
-                    ArrayList<Item> activeListings = deserializeItemIds(parts.length > 5 ? parts[5] : "");
-                    ArrayList<Item> purchaseHistory = deserializeItemIds(parts.length > 6 ? parts[6] : "");
-                    ArrayList<Item> soldItems = deserializeItemIds(parts.length > 7 ? parts[7] : "");
-
-                    User user = new User(
-                            username,
-                            password,
-                            bio,
-                            balance,
-                            activeListings,
-                            purchaseHistory,
-                            soldItems,
-                            existingUserId,this
-                    );
-
-                    usersByUsername.put(username, user);
-                    usersById.put(user.getUserId(), user);
+                User user = parseUserLine(line);
+                if (user != null) {
+                    users.put(user);
                 }
             }
         } catch (IOException e) {
@@ -544,42 +1354,148 @@ public class Database implements DatabaseInterface {
         }
     }
 
+    /**
+     * Opens the on-disk users, such as users.txt through its index, instead
+     * of loading every user. Used when the user cache is enabled.
+     */
+    synchronized void openUserFile() {
+        try {
+            userFile.open();
+        } catch (IOException e) {
+            System.err.println("Error opening user file: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Parses one users.txt line. It needs no items, so users and items can
+     * load in any order. Returns null for malformed lines.
+     */
+    User parseUserLine(String line) {
+        String[] parts = line.split(",");
+        if (parts.length < 5) {
+            return null;
+        }
+
+        String username = parts[0];
+        String password = parts[1];
+        String bio = parts[2];
 
-    // Helper method to deserialize item IDs
-    private ArrayList<Item> deserializeItemIds(String itemIdsString) {
-        ArrayList<Item> items = new ArrayList<>();
-        if (itemIdsString == null || itemIdsString.isEmpty()) {
-            return items;
+        // Parse balance
+        double balance = 0;
+        try {
+            balance = Double.parseDouble(parts[3]);
+        } catch (NumberFormatException e) {
+            System.err.println("Invalid balance for user: " + username);
         }
 
-        String[] itemIds = itemIdsString.split(";");
-        for (String itemId : itemIds) {
-            Item item = getItemById(itemId);
-            if (item != null) {
-                items.add(item);
-            }
+        // Existing user ID
+        String existingUserId = parts[4];
+
+        // The item ID lists that follow are derived from the items, so they are not read back
+        return new User(username, password, bio, balance, existingUserId, this);
+    }
+
+    /**
+     * Builds an unbounded user cache from parsed users without taking the
+     * lock, for installUsers to publish in one swap.
+     */
+    UserCache buildUserCache(Collection<User> loadedUsers) {
+        UserCache loaded = new UserCache(UserCache.UNLIMITED, this::isUserPinned);
+        for (User user : loadedUsers) {
+            loaded.put(user);
+        }
+        return loaded;
+    }
+
+    /**
+     * Publishes users a loader cached outside the lock. Without a user cache
+     * budget an empty database adopts them in one swap; otherwise they are added.
+     */
+    synchronized void installUsers(UserCache loadedUsers) {
+        if (userFile == null && users.size() == 0) {
+            users = loadedUsers;
+            return;
+        }
+        installUsers(loadedUsers.values());
+    }
+
+    /**
+     * Adds users parsed by a loader to the in-memory maps.
+     */
+    synchronized void installUsers(Collection<User> loadedUsers) {
+        for (User user : loadedUsers) {
+            users.put(user);
         }
-        return items;
     }
 
+
     /**
      * Writes user data to file.
      */
     public synchronized void writeUserFile() {
-        try (PrintWriter writer = new PrintWriter(new FileWriter(USER_FILE))) {
-            for (User user : usersByUsername.values()) {
-                writer.println(user.getUsername() + "," +
-                        user.getPassword() + "," +
-                        user.getBio() + "," +
-                        user.getBalance() + ","+
-                        user.getUserId() + "," +
-                        serializeItemIds(user.getActiveListings()) + ","+
-                        serializeItemIds(user.getPurchaseHistory()) + ","+
-                        serializeItemIds(user.getSoldItems()));
+        List<String> lines = serializeUsers();
+        long version = ++userSnapshotVersion;
+        dirtyUserIds.clear();
+        synchronized (persistLock) {
+            if (version > userWrittenVersion) {
+                persistUsers(lines);
+                userWrittenVersion = version;
+            }
+        }
+        users.evict();
+    }
+
+    /**
+     * Serializes every user in memory into one users.txt line each.
+     */
+    private List<String> serializeUsers() {
+        List<String> lines = new ArrayList<>(users.size());
+        for (User user : users.values()) {
+            lines.add(serializeUser(user));
+        }
+        return lines;
+    }
+
+    /**
+     * Writes serialized users: as the whole of users.txt, or with the user
+     * cache enabled, merged over the users already in the indexed file.
+     */
+    private void persistUsers(List<String> lines) {
+        if (userFile == null) {
+            writeLines(USER_FILE, lines);
+            return;
+        }
+        try {
+            userFile.rewrite(lines);
+        } catch (IOException e) {
+            System.err.println("Error writing " + USER_FILE + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Serializes one user as a users.txt line.
+     */
+    String serializeUser(User user) {
+        return user.getUsername() + "," +
+                user.getPassword() + "," +
+                user.getBio() + "," +
+                user.getBalance() + ","+
+                user.getUserId() + "," +
+                serializeItemIds(user.viewActiveListings()) + ","+
+                serializeItemIds(user.viewPurchaseHistory()) + ","+
+                serializeItemIds(user.viewSoldItems());
+    }
 
+    /**
+     * Replaces the contents of a data file with the given lines.
+     */
+    private void writeLines(String fileName, List<String> lines) {
+        try (PrintWriter writer = new PrintWriter(new FileWriter(fileName))) {
+            for (String line : lines) {
+                writer.println(line);
             }
         } catch (IOException e) {
-            System.err.println("Error writing user file: " + e.getMessage());
+            System.err.println("Error writing " + fileName + ": " + e.getMessage());
         }
     }
 
@@ -598,104 +1514,179 @@ public class Database implements DatabaseInterface {
      * Writes item data to file.
      */
     public synchronized void writeItemFile() {
-        try (PrintWriter writer = new PrintWriter(new FileWriter(ITEM_FILE))) {
-            for (Item item : items.values()) {
-                writer.println(item.getItemId() + "," +
-                        item.getSellerId() + "," +
-                        item.getTitle() + "," +
-                        item.getDescription() + "," +
-                        item.getCategory() + "," +
-                        item.getPrice() + "," +
-                        item.isSold() + "," +
-                        (item.isSold() ? item.getBuyerId() : ""));
+        byte[] snapshot = snapshotItems();
+        long version = ++itemSnapshotVersion;
+        dirtyItemIds.clear();
+        synchronized (persistLock) {
+            if (version > itemWrittenVersion) {
+                writeItemSnapshot(snapshot);
+                itemWrittenVersion = version;
             }
-        } catch (IOException e) {
-            System.err.println("Error writing item file: " + e.getMessage());
         }
     }
 
     /**
-     * Reads message data from file.
+     * Encodes every item in the configured item file format.
      */
-    public synchronized void readMessageFiles() {
-        // Clear existing map
-        userConversations.clear();
-
-        // Find all conversation files
-        File directory = new File(".");
-        File[] files = directory.listFiles((dir, name) -> name.startsWith("buyer_") && name.endsWith(".txt"));
-
-        if (files != null) {
-            for (File file : files) {
-                String fileName = file.getName();
-                // Parse "buyer_[buyerId]_seller_[sellerId].txt"
-                if (fileName.contains("_seller_")) {
-                    try {
-                        String buyerPart = fileName.substring(fileName.indexOf("buyer_") + 6, fileName.indexOf("_seller_"));
-                        String sellerPart = fileName.substring(fileName.indexOf("_seller_") + 8, fileName.lastIndexOf(".txt"));
-
-                        String buyerId = buyerPart;
-                        String sellerId = sellerPart;
-
-                        // Add to buyer's conversations
-                        ensureUserMap(buyerId);
-                        userConversations.get(buyerId).put("buying_from_" + sellerId, fileName);
-
-                        // Add to seller's conversations
-                        ensureUserMap(sellerId);
-                        userConversations.get(sellerId).put("selling_to_" + buyerId, fileName);
-
-                        // Read messages into memory if needed
-                        readMessagesFromFile(fileName);
+    private byte[] snapshotItems() {
+        if (binaryItemStore) {
+            return itemStore.encode(items.values());
+        }
+        StringBuilder text = new StringBuilder();
+        for (String line : serializeItems()) {
+            text.append(line).append(System.lineSeparator());
+        }
+        return text.toString().getBytes();
+    }
 
-                    } catch (Exception e) {
-                        System.err.println("Error parsing filename: " + fileName + " - " + e.getMessage());
-                    }
+    /**
+     * Writes an item snapshot produced by snapshotItems.
+     */
+    private void writeItemSnapshot(byte[] snapshot) {
+        try {
+            if (binaryItemStore) {
+                itemStore.write(snapshot);
+            } else {
+                try (FileOutputStream out = new FileOutputStream(ITEM_FILE)) {
+                    out.write(snapshot);
                 }
             }
+        } catch (IOException e) {
+            System.err.println("Error writing item file: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Serializes every item into one items.txt line each.
+     */
+    private List<String> serializeItems() {
+        List<String> lines = new ArrayList<>(items.size());
+        for (Item item : items.values()) {
+            lines.add(serializeItem(item));
         }
+        return lines;
     }
 
+    /**
+     * Serializes one item as an items.txt line.
+     */
+    static String serializeItem(Item item) {
+        return item.getItemId() + "," +
+                item.getSellerId() + "," +
+                item.getTitle() + "," +
+                item.getDescription() + "," +
+                item.getCategory() + "," +
+                item.getPrice() + "," +
+                item.isSold() + "," +
+                (item.isSold() ? item.getBuyerId() : "");
+    }
 
     /**
-     * Ensures a user has a map entry in userConversations.
+     * Reads message data from file. The catalog and the message log lock
+     * their own state, so loading them and migrating old conversation files
+     * happen without holding the database lock.
      */
-    private void ensureUserMap(String userId) {
-        if (!userConversations.containsKey(userId)) {
-            userConversations.put(userId, new HashMap<>());
+    public void readMessageFiles() {
+        ConversationCatalog catalog;
+        MessageLog log;
+        synchronized (this) {
+            catalog = conversationCatalog;
+            log = messageLog;
+        }
+        // Histories are read lazily by the conversation cache; only the catalog is loaded.
+        // A missing or incomplete catalog is rebuilt from one directory scan.
+        if (!catalog.load()) {
+            catalog.importFiles(listConversationFiles());
         }
+        try {
+            log.open();
+        } catch (IOException e) {
+            System.err.println("Error opening message log: " + e.getMessage());
+            return;
+        }
+        migrateConversationFiles(catalog, log);
     }
 
     /**
-     * Gets the conversation file for a specific buyer-seller interaction.
+     * Moves the per-pair buyer_[buyerId]_seller_[sellerId].txt files into the
+     * message log. A file is deleted only after its messages are synced and
+     * the catalog points at the log, so an interrupted migration resumes.
      */
-    private String getConversationFile(String buyerId, String sellerId) {
-        // Check if this specific buyer-seller conversation exists
-        Map<String, String> buyerConversations = userConversations.get(buyerId);
-        if (buyerConversations != null) {
-            String key = "buying_from_" + sellerId;
-            if (buyerConversations.containsKey(key)) {
-                return buyerConversations.get(key);
+    private void migrateConversationFiles(ConversationCatalog catalog, MessageLog log) {
+        for (File file : listConversationFiles()) {
+            String[] participants = parseConversationFileName(file.getName());
+            if (participants == null) {
+                continue;
+            }
+            String buyerId = participants[0];
+            String sellerId = participants[1];
+
+            if (!MESSAGE_LOG_DIR.equals(catalog.getFileName(buyerId, sellerId))) {
+                List<Message> fileMessages = readMessagesFromFile(file.getName());
+                // The old format has no timestamps; keep file order, ending at the file's last change
+                long lastActivity = file.lastModified();
+                long timestamp = lastActivity - fileMessages.size();
+                try {
+                    for (Message message : fileMessages) {
+                        log.append(buyerId, sellerId, new Message(message.getSenderId(),
+                                message.getReceiverId(), message.getContent(), ++timestamp, false));
+                    }
+                    log.sync();
+                } catch (IOException e) {
+                    System.err.println("Error migrating conversation file: " + e.getMessage());
+                    continue;
+                }
+                catalog.record(buyerId, sellerId, MESSAGE_LOG_DIR, lastActivity);
             }
-        }
 
-        // Create new file name with buyer first, seller second
-        String fileName = "buyer_" + buyerId + "_seller_" + sellerId + ".txt";
+            if (!file.delete()) {
+                System.err.println("Could not delete migrated conversation file " + file.getName());
+            }
+        }
+    }
 
-        // Update maps for both users with role-specific keys
-        ensureUserMap(buyerId);
-        userConversations.get(buyerId).put("buying_from_" + sellerId, fileName);
+    /**
+     * Gets the number of conversations in the catalog.
+     */
+    public synchronized int getConversationCount() {
+        return conversationCatalog.size();
+    }
 
-        ensureUserMap(sellerId);
-        userConversations.get(sellerId).put("selling_to_" + buyerId, fileName);
+    /**
+     * Lists the buyer_[buyerId]_seller_[sellerId].txt files in the working directory.
+     */
+    File[] listConversationFiles() {
+        File directory = new File(".");
+        File[] files = directory.listFiles((dir, name) ->
+                name.startsWith("buyer_") && name.contains("_seller_") && name.endsWith(".txt"));
+        return files != null ? files : new File[0];
+    }
 
-        return fileName;
+    /**
+     * Extracts {buyerId, sellerId} from a conversation file name, or null if it does not match.
+     */
+    static String[] parseConversationFileName(String fileName) {
+        int sellerIndex = fileName.indexOf("_seller_");
+        if (!fileName.startsWith("buyer_") || sellerIndex < 0 || !fileName.endsWith(".txt")) {
+            return null;
+        }
+        String buyerId = fileName.substring("buyer_".length(), sellerIndex);
+        String sellerId = fileName.substring(sellerIndex + "_seller_".length(), fileName.length() - ".txt".length());
+        return new String[] {buyerId, sellerId};
     }
 
     /**
-     * Reads messages from a file into the in-memory messages list
+     * Reads the messages stored in one conversation file.
      */
-    private void readMessagesFromFile(String fileName) {
+    List<Message> readMessagesFromFile(String fileName) {
+        List<Message> fileMessages = new ArrayList<>();
+        String[] participants = parseConversationFileName(fileName);
+        if (participants == null) {
+            return fileMessages;
+        }
+        String buyerId = participants[0];
+        String sellerId = participants[1];
+
         try (BufferedReader reader = new BufferedReader(new FileReader(fileName))) {
             String line;
             long timestamp = System.currentTimeMillis() - 10000; // Base timestamp
@@ -706,12 +1697,6 @@ public class Database implements DatabaseInterface {
                     String senderId = line.substring(0, colonIndex);
                     String content = line.substring(colonIndex + 1);
 
-                    // Find the buyer and seller IDs from the filename
-                    String fileNameWithoutExt = fileName.substring(0, fileName.lastIndexOf('.'));
-                    String buyerId = fileNameWithoutExt.substring(fileNameWithoutExt.indexOf("buyer_") + 6,
-                            fileNameWithoutExt.indexOf("_seller_"));
-                    String sellerId = fileNameWithoutExt.substring(fileNameWithoutExt.indexOf("_seller_") + 8);
-
                     // Determine receiver based on sender
                     String receiverId = senderId.equals(buyerId) ? sellerId : buyerId;
 
@@ -719,12 +1704,13 @@ public class Database implements DatabaseInterface {
                     Message message = new Message(senderId, receiverId, content, timestamp, false);
                     timestamp += 1; // Increment for order
 
-                    messages.add(message);
+                    fileMessages.add(message);
                 }
             }
         } catch (IOException e) {
             System.err.println("Error reading message file: " + e.getMessage());
         }
+        return fileMessages;
     }
 
 
@@ -733,12 +1719,15 @@ public class Database implements DatabaseInterface {
      */
     public synchronized void writeMessageFile() {
         try (PrintWriter writer = new PrintWriter(new FileWriter(MESSAGE_FILE, true))) {
-            for (Message message : messages) {
-                writer.println(message.getMessageId() + "," +
-                        message.getSenderId() + "," +
-                        message.getReceiverId() + "," +
-                        message.getTimestamp() + "," +
-                        message.getContent());
+            // Only conversations currently in memory; the rest are already on disk
+            for (List<Message> conversation : conversationCache.snapshot()) {
+                for (Message message : conversation) {
+                    writer.println(message.getMessageId() + "," +
+                            message.getSenderId() + "," +
+                            message.getReceiverId() + "," +
+                            message.getTimestamp() + "," +
+                            message.getContent());
+                }
             }
         } catch (IOException e) {
             System.err.println("Error writing message file: " + e.getMessage());
@@ -749,44 +1738,17 @@ public class Database implements DatabaseInterface {
      * Reads item data from file.
      */
     public synchronized void readItemFile() {
+        if (binaryItemStore && itemStore.exists()) {
+            readBinaryItemFile();
+            return;
+        }
+
         try (BufferedReader reader = new BufferedReader(new FileReader(ITEM_FILE))) {
             String line;
             while ((line = reader.readLine()) != null) {
-                String[] parts = line.split(",");
-                if (parts.length >= 6) {
-                    String itemId = parts[0];
-                    String sellerId = parts[1];
-                    String title = parts[2];
-                    String description = parts[3];
-                    String category = parts[4];
-
-                    try {
-                        double price = Double.parseDouble(parts[5]);
-
-                        // Use the constructor that takes an itemId, or use setItemId method
-                        Item item = new Item(sellerId, title, description, category, price);
-                        item.setItemId(itemId); // Use the ID from the file instead of generating a new one
-
-                        // If file contains sold status and buyer info (optional)
-                        if (parts.length > 6) {
-                            boolean sold = Boolean.parseBoolean(parts[6]);
-                            if (sold && parts.length > 7) {
-                                String buyerId = parts[7];
-                                item.markAsSold(buyerId);
-                            }
-                        }
-
-                        items.put(itemId, item);
-
-                        // Add to seller's listings if seller exists
-                        User seller = usersById.get(sellerId);
-                        if (seller != null) {
-                            seller.addListing(item);
-                        }
-                    } catch (NumberFormatException e) {
-                        // Skip invalid price
-                        System.err.println("Error parsing price for item: " + itemId);
-                    }
+                Item item = parseItemLine(line);
+                if (item != null) {
+                    installItem(item);
                 }
             }
         } catch (IOException e) {
@@ -795,49 +1757,208 @@ public class Database implements DatabaseInterface {
         }
     }
 
+    /**
+     * Parses one items.txt line. Returns null for malformed lines.
+     */
+    static Item parseItemLine(String line) {
+        String[] parts = line.split(",");
+        if (parts.length < 6) {
+            return null;
+        }
+
+        String itemId = parts[0];
+        String sellerId = parts[1];
+        String title = parts[2];
+        String description = parts[3];
+        String category = parts[4];
+
+        try {
+            double price = Double.parseDouble(parts[5]);
+
+            // Use the constructor that takes an itemId, or use setItemId method
+            Item item = new Item(sellerId, title, description, category, price);
+            item.setItemId(itemId); // Use the ID from the file instead of generating a new one
+
+            // If file contains sold status and buyer info (optional)
+            if (parts.length > 6) {
+                boolean sold = Boolean.parseBoolean(parts[6]);
+                if (sold && parts.length > 7) {
+                    String buyerId = parts[7];
+                    item.markAsSold(buyerId);
+                }
+            }
+            return item;
+        } catch (NumberFormatException e) {
+            // Skip invalid price
+            System.err.println("Error parsing price for item: " + itemId);
+            return null;
+        }
+    }
+
+    /**
+     * Adds a loaded item to the items map.
+     */
+    private void installItem(Item item) {
+        item = toStoredItem(item);
+        items.put(item.getItemKey(), item);
+        if (itemIndexBuilt) {
+            itemIndex.add(item);
+        }
+    }
+
+    /**
+     * Publishes an items map a loader built outside the lock. An empty
+     * database adopts the map in one swap; otherwise its items are added.
+     */
+    synchronized void installItems(Map<CompactId, Item> loadedItems) {
+        if (items.isEmpty() && !itemIndexBuilt) {
+            items = loadedItems;
+            return;
+        }
+        installItems(loadedItems.values());
+    }
+
+    /**
+     * Adds items parsed by a loader to the in-memory map.
+     */
+    synchronized void installItems(Collection<Item> loadedItems) {
+        for (Item item : loadedItems) {
+            installItem(item);
+        }
+    }
+
+    /**
+     * Reads the binary item store if it is selected and present, keyed by
+     * item ID. Returns null when items should be read from items.txt instead.
+     * Only the file's index is read unless items go off the heap; records
+     * are then read as their items are first looked up.
+     */
+    Map<CompactId, Item> readBinaryItemsIfSelected() throws IOException {
+        synchronized (this) {
+            if (!binaryItemStore || !itemStore.exists()) {
+                return null;
+            }
+        }
+        MappedItemMap mapped = itemStore.readMap();
+        if (offHeapItems == null) {
+            return mapped;
+        }
+        Map<CompactId, Item> stored = new HashMap<>();
+        for (Item item : mapped.values()) {
+            item = toStoredItem(item);
+            stored.put(item.getItemKey(), item);
+        }
+        return stored;
+    }
+
+    /**
+     * Loads items from the mapped binary item file, reading only its index.
+     */
+    private void readBinaryItemFile() {
+        try {
+            installItems(readBinaryItemsIfSelected());
+        } catch (IOException e) {
+            System.err.println("Error reading binary item file: " + e.getMessage());
+        }
+    }
+
     /**
      * Removes an item from the database.
      */
     public synchronized boolean removeItem(String itemId, String requesterId) {
-        Item item = items.get(itemId);
+        CompactId itemKey = CompactId.of(itemId);
+        CompactId requesterKey = CompactId.of(requesterId);
+        Item item = items.get(itemKey);
         if (item == null) {
             return false;
         }
 
 
-        if (!item.getSellerId().equals(requesterId)) {
+        if (!item.getSellerKey().equals(requesterKey)) {
             return false;
         }
 
-        User seller = usersById.get(requesterId);
-        if (seller != null) {
-            seller.removeListing(itemId);
-        }
-
-        items.remove(itemId);
-        writeItemFile();
+        unlistItem(item);
+        persistItem(item);
         return true;
     }
 
     /**
-     * Gets messages between two users.
+     * Removes up to limit of a deleted seller's hidden listings from storage
+     * under one hold of the lock, as one batch, hiding them first if no
+     * tombstone has. Returns the number removed.
      */
-    public synchronized List<Message> getMessagesBetweenUsers(String user1Id, String user2Id) {
-        List<Message> userMessages = new ArrayList<>();
+    synchronized int removeListingsOf(CompactId sellerId, int limit) {
+        hideListingsOf(sellerId);
+        List<Item> listings = hiddenListings.get(sellerId);
+        if (listings.isEmpty()) {
+            return 0;
+        }
+        List<Item> tail = listings.subList(Math.max(0, listings.size() - limit), listings.size());
+        List<Item> batch = new ArrayList<>(tail);
+        tail.clear();
+        for (Item item : batch) {
+            releaseOffHeap(item);
+        }
+        persistItems(batch);
+        return batch.size();
+    }
 
-        for (Message message : messages) {
-            String senderId = message.getSenderId();
-            String receiverId = message.getReceiverId();
+    // Drops an item from memory and publishes the removal
+    private void unlistItem(Item item) {
+        dropItem(item);
+        releaseOffHeap(item);
+    }
 
-            if ((senderId.equals(user1Id) && receiverId.equals(user2Id)) ||
-                    (senderId.equals(user2Id) && receiverId.equals(user1Id))) {
-                userMessages.add(message);
-            }
+    // Drops an item from the items map and indexes and publishes the removal
+    private void dropItem(Item item) {
+        items.remove(item.getItemKey());
+        if (itemIndexBuilt) {
+            itemIndex.remove(item);
+        }
+        changes.publish(ChangeFeed.Type.ITEM_REMOVED, item.getItemKey(), item.getSellerId());
+    }
+
+    private void releaseOffHeap(Item item) {
+        if (item instanceof OffHeapItem && offHeapItems != null) {
+            offHeapItems.remove((OffHeapItem) item);
         }
+    }
 
+    /**
+     * Gets messages between two users.
+     */
+    public synchronized List<Message> getMessagesBetweenUsers(String user1Id, String user2Id) {
+        // Already in timestamp order; cost depends only on this conversation's size
+        return conversationCache.get(new ConversationKey(user1Id, user2Id));
+    }
 
-        userMessages.sort(Comparator.comparingLong(Message::getTimestamp));
+    /**
+     * Gets one page of the messages between two users, in timestamp order.
+     * Only messages with since < timestamp < before are returned; 0 leaves a
+     * bound open. With a limit, the newest messages of the window are kept,
+     * unless only since is given, in which case the oldest are.
+     */
+    public synchronized List<Message> getMessagesBetweenUsers(String user1Id, String user2Id,
+                                                              long since, long before, int limit) {
+        ConversationKey key = new ConversationKey(user1Id, user2Id);
+        List<Message> page = conversationCache.getWindowIfCached(key, since, before, limit);
+        if (page != null) {
+            return page;
+        }
+        // Not resident: read just this page, without caching the history
+        return readMessagePage(key, since, before, limit);
+    }
 
-        return userMessages;
+    /**
+     * Reads one page of a conversation through the message log's time index.
+     */
+    List<Message> readMessagePage(ConversationKey key, long since, long before, int limit) {
+        try {
+            return messageLog.read(key, since, before, limit);
+        } catch (IOException e) {
+            System.err.println("Error reading message log: " + e.getMessage());
+            return new ArrayList<>();
+        }
     }
 }
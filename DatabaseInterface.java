@@ -1,3 +1,4 @@
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
@@ -8,6 +9,7 @@ import java.util.Map;
  */
 public interface DatabaseInterface {
     boolean addUser(String username, String password, String bio);
+    int addUsers(Collection<User> users);
     boolean login(String data);
     User userExists(String username);
     void readUserFile();
@@ -16,11 +18,20 @@ public interface DatabaseInterface {
     void readMessageFiles();
     List<User> getAllUsers();
     boolean addItem(Item item);
+    int addItems(Collection<Item> items);
     User getUserByUsername(String username);
     User getUserById(String userId);
     Item getItemById(String itemId);
     List<Item> getAllItems();
     List<Item> getActiveItems();
+    List<Item> getActiveListingsBySeller(String sellerId);
+    List<Item> getSoldItemsBySeller(String sellerId);
+    List<Item> getItemsByBuyer(String buyerId);
+    List<Item> getItemsByCategory(String category);
+    List<Item> getItemsListedBetween(long fromMillis, long toMillis);
+    List<Item> getNewestItems(int limit);
+    List<Item> getItemsByPrice(double minPrice, double maxPrice, boolean descending);
+    ItemCatalog.Snapshot getCatalogSnapshot();
     boolean addMessage(Message message, String itemId);
     boolean addMessage(Message message);
     List<Message> getMessagesBetweenBuyerAndSeller(String buyerId, String sellerId);
@@ -30,8 +41,34 @@ public interface DatabaseInterface {
     void readItemFile();
     boolean removeItem(String itemId, String requesterId);
     List<Message> getMessagesBetweenUsers(String user1Id, String user2Id);
+    List<Message> getMessagesBetweenUsers(String user1Id, String user2Id, long since, long before, int limit);
     boolean deleteUser(String username);
+    void resumeAccountDeletions();
+    AccountDeleter.Progress getDeletionProgress(String userId);
+    boolean awaitAccountDeletions(long timeoutMillis) throws InterruptedException;
     boolean addSellerRating(String sellerId, double rating);
     double getSellerRating(String sellerId);
-    Map<String, List<Double>> readRatingsFile();
+    int getSellerRatingCount(String sellerId);
+    SellerRatings.Aggregate getSellerRatingAggregate(String sellerId);
+    void readRatingsFile();
+    int getRatedSellerCount();
+    void writeRatingsFile();
+    void enableWriteBehind(long maxStalenessMillis, int maxPendingWrites);
+    boolean isWriteBehindEnabled();
+    void markUserDirty(User user);
+    void markItemDirty(Item item);
+    void markItemSold(Item item);
+    int getPendingWriteCount();
+    void flush();
+    void close();
+    void useBinaryItemStore(boolean enabled);
+    void useOffHeapItems(boolean enabled);
+    boolean isBinaryItemStore();
+    void setConversationCacheSize(int maxConversations);
+    int getCachedConversationCount();
+    int getConversationCount();
+    void setMessageSegmentBytes(int maxSegmentBytes);
+    void setFileHandlePool(FileHandlePool pool);
+    ChangeFeed getChangeFeed();
+    void setChangeFeedCapacity(int capacity);
 }
@@ -0,0 +1,199 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Loads a Database at startup by parsing its files on a ForkJoinPool.
+ *
+ * No phase depends on another: a user's listings and purchases are read
+ * from the item indexes when asked for, not resolved at load time. Users,
+ * ratings, the conversation catalog and the item archive's index are
+ * therefore loaded in the background while items load. Conversation
+ * histories themselves are not read; the Database loads them on first
+ * access. Each phase builds its map on the pool, outside the database
+ * lock, and publishes it with one short locked swap; the time taken by
+ * each phase is logged. With the user cache
+ * enabled, users are not parsed at all; only the users.txt index is opened.
+ */
+public class DatabaseLoader implements DatabaseLoaderInterface {
+    private final Database database;
+    private final ForkJoinPool pool;
+    private final Map<String, Long> phaseTimings;
+
+    /**
+     * Creates a loader that uses one worker per available processor.
+     */
+    public DatabaseLoader(Database database) {
+        this(database, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a loader with the given parallelism.
+     */
+    public DatabaseLoader(Database database, int parallelism) {
+        this.database = database;
+        this.pool = new ForkJoinPool(Math.max(1, parallelism));
+        this.phaseTimings = Collections.synchronizedMap(new LinkedHashMap<>());
+    }
+
+    /**
+     * Loads items, users, ratings and conversations into the database.
+     */
+    @Override
+    public void load() {
+        long start = System.nanoTime();
+        try {
+            // Independent of each other and of items: start them first
+            ForkJoinTask<Integer> usersTask = pool.submit(this::loadUsers);
+            ForkJoinTask<Integer> ratingsTask =
+                    pool.submit(() -> timed("ratings.load", this::loadRatings));
+            ForkJoinTask<Integer> conversationsTask =
+                    pool.submit(() -> timed("conversations.index", this::loadConversationCatalog));
+            ForkJoinTask<Integer> archiveTask =
+                    pool.submit(() -> timed("archive.index", database::readItemArchive));
+
+            Map<CompactId, Item> items = timed("items.parse", this::parseItems);
+            timed("items.merge", () -> {
+                database.installItems(items);
+                return null;
+            });
+
+            int userCount = usersTask.join();
+            int ratings = ratingsTask.join();
+            int conversations = conversationsTask.join();
+            int archived = archiveTask.join();
+
+            System.out.println("Loaded " + items.size() + " items, " + userCount + " users, "
+                    + archived + " archived items, " + ratings + " seller ratings and " + conversations
+                    + " conversations in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Gets the duration of each phase in milliseconds, in completion order.
+     */
+    @Override
+    public Map<String, Long> getPhaseTimings() {
+        synchronized (phaseTimings) {
+            return new LinkedHashMap<>(phaseTimings);
+        }
+    }
+
+    /**
+     * Parses items.txt in parallel, or reads the binary item store if it is
+     * selected, into a map keyed by item ID. A later line for the same ID wins.
+     */
+    private Map<CompactId, Item> parseItems() {
+        try {
+            Map<CompactId, Item> binaryItems = database.readBinaryItemsIfSelected();
+            if (binaryItems != null) {
+                return binaryItems;
+            }
+        } catch (IOException e) {
+            System.err.println("Error reading binary item file, falling back to " + Database.ITEM_FILE
+                    + ": " + e.getMessage());
+        }
+        List<String> lines = readLines(Database.ITEM_FILE);
+        return pool.submit(() -> lines.parallelStream()
+                .map(Database::parseItemLine)
+                .filter(Objects::nonNull)
+                .map(database::toStoredItem)
+                .collect(Collectors.toMap(Item::getItemKey, item -> item, (earlier, later) -> later,
+                        HashMap::new))).join();
+    }
+
+    /**
+     * Loads the users, or with the user cache enabled only opens the users.txt
+     * index, and returns how many there are.
+     */
+    private Integer loadUsers() {
+        if (database.isUserCacheEnabled()) {
+            // Users are read on demand; only the index is opened
+            return timed("users.index", this::openUserIndex);
+        }
+        UserCache users = timed("users.parse", () -> database.buildUserCache(parseUsers()));
+        timed("users.merge", () -> {
+            database.installUsers(users);
+            return null;
+        });
+        return users.size();
+    }
+
+    /**
+     * Parses users.txt in parallel.
+     */
+    private List<User> parseUsers() {
+        List<String> lines = readLines(Database.USER_FILE);
+        return pool.submit(() -> lines.parallelStream()
+                .map(database::parseUserLine)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toList())).join();
+    }
+
+    /**
+     * Opens the indexed users.txt when the user cache is enabled.
+     */
+    private Integer openUserIndex() {
+        database.openUserFile();
+        return database.getUserCount();
+    }
+
+    /**
+     * Loads the per-seller rating aggregates.
+     */
+    private Integer loadRatings() {
+        database.readRatingsFile();
+        return database.getRatedSellerCount();
+    }
+
+    /**
+     * Loads the conversation catalog; histories are read later, on demand.
+     */
+    private Integer loadConversationCatalog() {
+        database.readMessageFiles();
+        return database.getConversationCount();
+    }
+
+    /**
+     * Reads all lines of a data file, treating a missing file as empty.
+     */
+    private static List<String> readLines(String fileName) {
+        try {
+            return Files.readAllLines(Paths.get(fileName), StandardCharsets.UTF_8);
+        } catch (NoSuchFileException e) {
+            System.err.println("Data file not found: " + fileName);
+        } catch (IOException e) {
+            System.err.println("Error reading " + fileName + ": " + e.getMessage());
+        }
+        return new ArrayList<>();
+    }
+
+    /**
+     * Runs one phase, records its duration and logs it.
+     */
+    private <T> T timed(String phase, Supplier<T> body) {
+        long start = System.nanoTime();
+        try {
+            return body.get();
+        } finally {
+            long millis = (System.nanoTime() - start) / 1_000_000;
+            phaseTimings.put(phase, millis);
+            System.out.println("Load phase " + phase + " took " + millis + " ms");
+        }
+    }
+}
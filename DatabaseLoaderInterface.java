@@ -0,0 +1,9 @@
+import java.util.Map;
+
+/**
+ * Interface for the DatabaseLoader class
+ */
+public interface DatabaseLoaderInterface {
+    void load();
+    Map<String, Long> getPhaseTimings();
+}
@@ -0,0 +1,45 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+import java.util.Map;
+
+/**
+ * Tests for the parallel database loader
+ */
+public class DatabaseLoaderTest {
+
+	/** Tests that a parallel load produces the same state as a sequential one. */
+	@Test
+	public void testMatchesSequentialLoad() {
+		Database sequential = new Database();
+		sequential.readItemFile();
+		sequential.readUserFile();
+		sequential.readRatingsFile();
+
+		Database parallel = new Database();
+		new DatabaseLoader(parallel, 4).load();
+
+		assertEquals(sequential.getAllItems().size(), parallel.getAllItems().size());
+		assertEquals(sequential.getAllUsers().size(), parallel.getAllUsers().size());
+		for (Item item : sequential.getAllItems()) {
+			assertNotNull(parallel.getItemById(item.getItemId()));
+		}
+		for (User user : sequential.getAllUsers()) {
+			assertNotNull(parallel.getUserById(user.getUserId()));
+		}
+	}
+
+	/** Tests that every phase is timed, users included now that they load alongside items. */
+	@Test
+	public void testPhaseTimings() {
+		DatabaseLoader loader = new DatabaseLoader(new Database(), 2);
+		loader.load();
+
+		Map<String, Long> timings = loader.getPhaseTimings();
+		assertTrue(timings.containsKey("items.parse"));
+		assertTrue(timings.containsKey("users.merge"));
+		assertTrue(timings.containsKey("ratings.load"));
+		assertTrue(timings.containsKey("conversations.index"));
+		assertTrue(timings.containsKey("items.merge"));
+		assertTrue(timings.containsKey("users.parse"));
+	}
+}
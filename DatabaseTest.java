@@ -1,6 +1,9 @@
 import static org.junit.Assert.*;
 import org.junit.Before;
 import org.junit.Test;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
@@ -238,5 +241,355 @@ public class DatabaseTest {
     
 		assertTrue(allPartners.contains(aditya.getUserId()));
 	}
-  
+
+	/**
+	 * Tests that write-behind mode defers persistence until a flush.
+	 */
+	@Test
+	public void testWriteBehindDefersUntilFlush() {
+		database.enableWriteBehind(60000, 1000);
+		assertTrue(database.isWriteBehindEnabled());
+
+		database.addUser("sena", "senaPass", "Collects vintage film cameras.");
+		assertEquals(1, database.getPendingWriteCount());
+
+		database.flush();
+		assertEquals(0, database.getPendingWriteCount());
+
+		database.close();
+		assertFalse(database.isWriteBehindEnabled());
+	}
+
+	/**
+	 * Tests that conversation histories are only loaded when requested.
+	 */
+	@Test
+	public void testConversationsLoadLazily() {
+		database.addUser("ayush", "ayushPass", "Resells board games.");
+		database.addUser("fayiz", "fayizPass", "Collects retro consoles.");
+		User ayush = database.getUserByUsername("ayush");
+		User fayiz = database.getUserByUsername("fayiz");
+		database.addMessage(new Message(ayush.getUserId(), fayiz.getUserId(), "Is the console boxed?"));
+
+		Database reloaded = new Database();
+		reloaded.readMessageFiles();
+		assertEquals(0, reloaded.getCachedConversationCount());
+
+		List<Message> history = reloaded.getMessagesBetweenUsers(fayiz.getUserId(), ayush.getUserId());
+		assertEquals(1, history.size());
+		assertEquals(1, reloaded.getCachedConversationCount());
+	}
+
+	/**
+	 * Tests that per-pair conversation files are moved into the message log.
+	 */
+	@Test
+	public void testConversationFilesMigrateToMessageLog() throws Exception {
+		java.io.File legacy = new java.io.File("buyer_legacyBuyer_seller_legacySeller.txt");
+		try (java.io.PrintWriter writer = new java.io.PrintWriter(legacy)) {
+			writer.println("legacyBuyer:Still for sale?");
+			writer.println("legacySeller:Yes, pick up only.");
+		}
+
+		database.readMessageFiles();
+		assertFalse(legacy.exists());
+
+		List<Message> history = database.getMessagesBetweenBuyerAndSeller("legacyBuyer", "legacySeller");
+		assertEquals(2, history.size());
+		assertEquals("Still for sale?", history.get(0).getContent());
+		assertEquals("legacySeller", history.get(1).getSenderId());
+		assertTrue(database.getAllConversationPartners("legacyBuyer").contains("legacySeller"));
+	}
+
+	/**
+	 * Tests that a page of messages is served with or without the history in memory.
+	 */
+	@Test
+	public void testGetMessagesBetweenUsersPage() {
+		database.addUser("pagebuyer", "pagePass", "Buys in bulk.");
+		database.addUser("pageseller", "pagePass", "Sells in bulk.");
+		String buyerId = database.getUserByUsername("pagebuyer").getUserId();
+		String sellerId = database.getUserByUsername("pageseller").getUserId();
+		for (int i = 1; i <= 6; i++) {
+			database.addMessage(new Message(buyerId, sellerId, "offer " + i, i * 1000, false));
+		}
+
+		List<Message> cachedPage = database.getMessagesBetweenUsers(buyerId, sellerId, 0, 5000, 2);
+		assertEquals(2, cachedPage.size());
+		assertEquals("offer 3", cachedPage.get(0).getContent());
+
+		Database reloaded = new Database();
+		reloaded.readMessageFiles();
+		List<Message> diskPage = reloaded.getMessagesBetweenUsers(sellerId, buyerId, 0, 5000, 2);
+		assertEquals(0, reloaded.getCachedConversationCount());
+		assertEquals(2, diskPage.size());
+		assertEquals(cachedPage.get(0).getMessageId(), diskPage.get(0).getMessageId());
+		assertEquals(4000, diskPage.get(1).getTimestamp());
+	}
+
+	/**
+	 * Tests that the item indexes follow sales and removals once built.
+	 */
+	@Test
+	public void testItemIndexesFollowSalesAndRemovals() {
+		database.addUser("indexseller", "indexPass", "Lists a lot.");
+		String sellerId = database.getUserByUsername("indexseller").getUserId();
+		Item kettle = new Item(sellerId, "Kettle", "Electric kettle.", "Kitchen", 25.0);
+		database.addItem(kettle);
+		assertEquals(1, database.getActiveListingsBySeller(sellerId).size());
+
+		Item toaster = new Item(sellerId, "Toaster", "Two slices.", "kitchen", 30.0);
+		database.addItem(toaster);
+		kettle.markAsSold("indexbuyer");
+		assertEquals(1, database.getActiveListingsBySeller(sellerId).size());
+		assertEquals(1, database.getSoldItemsBySeller(sellerId).size());
+		assertEquals(1, database.getItemsByBuyer("indexbuyer").size());
+		assertEquals(2, database.getItemsByCategory("KITCHEN").size());
+
+		database.removeItem(toaster.getItemId(), sellerId);
+		assertTrue(database.getActiveListingsBySeller(sellerId).isEmpty());
+		assertEquals(1, database.getItemsByCategory("kitchen").size());
+	}
+
+	/**
+	 * Tests that with a small user cache, evicted users are read back from disk, changed and deleted.
+	 */
+	@Test
+	public void testUserCacheReadsEvictedUsers() {
+		database.useUserCache(1);
+		database.readUserFile();
+		for (int i = 0; i < 5; i++) {
+			assertTrue(database.addUser("cached" + i, "cachedPass", "Rarely online."));
+		}
+		assertFalse(database.addUser("cached0", "cachedPass", "Taken."));
+		assertTrue(database.getUserCache().size() <= 1);
+
+		User first = database.getUserByUsername("cached0");
+		assertNotNull(first);
+		assertTrue(database.login("cached0,cachedPass"));
+		first.depositFunds(25);
+		database.markUserDirty(first);
+		database.getUserByUsername("cached1");
+		assertEquals(25, database.getUserById(first.getUserId()).getBalance(), 0.001);
+
+		assertTrue(database.deleteUser("cached2"));
+		assertNull(database.getUserByUsername("cached2"));
+		int cachedUsers = 0;
+		for (User user : database.getAllUsers()) {
+			if (user.getUsername().startsWith("cached")) {
+				cachedUsers++;
+			}
+		}
+		assertEquals(4, cachedUsers);
+	}
+
+	/**
+	 * Tests that a deleted user is gone at once and their data is cleaned up in the background.
+	 */
+	@Test
+	public void testDeleteUserTombstonesThenCleansUp() throws InterruptedException {
+		database.addUser("leavingSeller", "leavingPass", "Closing shop.");
+		database.addUser("stayingBuyer", "stayingPass", "Still shopping.");
+		User seller = database.getUserByUsername("leavingSeller");
+		User buyer = database.getUserByUsername("stayingBuyer");
+		String sellerId = seller.getUserId();
+		Item vase = new Item(sellerId, "Vase", "Glass vase.", "Home", 12.0);
+		Item bowl = new Item(sellerId, "Bowl", "Wooden bowl.", "Home", 8.0);
+		database.addItem(vase);
+		database.addItem(bowl);
+		database.addSellerRating(sellerId, 5.0);
+		database.addMessage(new Message(buyer.getUserId(), sellerId, "Is the vase available?"), vase.getItemId());
+
+		long start = database.getChangeFeed().getVersion();
+		assertTrue(database.deleteUser("leavingSeller"));
+		assertNull(database.getUserById(sellerId));
+		assertFalse(database.login("leavingSeller,leavingPass"));
+		assertNull(database.getItemById(vase.getItemId()));
+		assertFalse(database.deleteUser("leavingSeller"));
+		assertTrue(database.getActiveItems().isEmpty());
+		assertTrue(database.getItemsByCategory("Home").isEmpty());
+		assertTrue(database.getItemsByPrice(0.0, 100.0, false).isEmpty());
+		assertTrue(new SearchService(database).search("vase").isEmpty());
+		List<ChangeFeed.Change> changes = database.getChangeFeed().since(start, 10);
+		assertEquals(3, changes.size());
+		assertEquals(ChangeFeed.Type.ITEM_REMOVED, changes.get(0).getType());
+		assertEquals(ChangeFeed.Type.ITEM_REMOVED, changes.get(1).getType());
+
+		assertTrue(database.awaitAccountDeletions(10000));
+		AccountDeleter.Progress progress = database.getDeletionProgress(sellerId);
+		assertTrue(progress.isDone());
+		assertEquals(2, progress.getListingsRemoved());
+		assertTrue(database.getActiveListingsBySeller(sellerId).isEmpty());
+		assertNull(database.getItemById(bowl.getItemId()));
+		assertEquals(0, database.getSellerRatingCount(sellerId));
+		assertTrue(database.getAllConversationPartners(buyer.getUserId()).isEmpty());
+		assertTrue(database.addUser("leavingSeller", "newPass", "Back again."));
+	}
+
+	/**
+	 * Tests that deletions interrupted by a restart are resumed from the pending file.
+	 */
+	@Test
+	public void testResumesPendingDeletions() throws Exception {
+		database.addUser("interruptedSeller", "pass", "Was being deleted.");
+		String sellerId = database.getUserByUsername("interruptedSeller").getUserId();
+		Item lamp = new Item(sellerId, "Lamp", "Floor lamp.", "Home", 30.0);
+		database.addItem(lamp);
+		Files.write(new File("deletions.txt").toPath(), Collections.singletonList(sellerId + ",interruptedSeller"));
+
+		database.resumeAccountDeletions();
+		assertNull(database.getUserByUsername("interruptedSeller"));
+		assertTrue(database.awaitAccountDeletions(10000));
+		assertNull(database.getItemById(lamp.getItemId()));
+		assertTrue(database.getDeletionProgress(sellerId).isDone());
+		assertFalse(new File("deletions.txt").exists());
+	}
+
+	/**
+	 * Tests that listing expiry schedules existing listings when it starts and new ones as they are added.
+	 */
+	@Test
+	public void testListingExpiryEndsExistingAndNewListings() throws Exception {
+		database.addUser("expiringSeller", "pass", "Lists and forgets.");
+		String sellerId = database.getUserByUsername("expiringSeller").getUserId();
+		Item loaded = new Item(sellerId, "Kettle", "Stovetop kettle.", "Home", 15.0);
+		database.addItem(loaded);
+
+		database.startListingExpiry(300, 10, ListingExpiry.Action.REMOVE);
+		Item added = new Item(sellerId, "Teapot", "Cast iron teapot.", "Home", 25.0);
+		database.addItem(added);
+		assertEquals(2, database.getListingExpiry().getScheduledCount());
+
+		long deadline = System.currentTimeMillis() + 10000;
+		while (!database.getActiveListingsBySeller(sellerId).isEmpty() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(20);
+		}
+		database.close();
+		assertNull(database.getItemById(loaded.getItemId()));
+		assertNull(database.getItemById(added.getItemId()));
+		assertTrue(database.getUserById(sellerId).viewActiveListings().isEmpty());
+	}
+
+	/**
+	 * Tests that a price band is a copy that later removals do not change.
+	 */
+	@Test
+	public void testItemsByPriceIsACopy() {
+		assertTrue(database.addUser("priceSeller", "pass", "Sells rugs."));
+		String sellerId = database.getUserByUsername("priceSeller").getUserId();
+		Item rug = new Item(sellerId, "Rug", "Wool rug.", "Home", 45.0);
+		Item mat = new Item(sellerId, "Mat", "Door mat.", "Home", 10.0);
+		database.addItem(rug);
+		database.addItem(mat);
+
+		List<Item> band = database.getItemsByPrice(0.0, 50.0, false);
+		assertTrue(database.removeItem(mat.getItemId(), sellerId));
+		assertEquals(2, band.size());
+		assertSame(mat, band.get(0));
+		assertEquals(1, database.getItemsByPrice(0.0, 50.0, false).size());
+	}
+
+	/**
+	 * Tests that rating a sold item publishes an update, not a second sale.
+	 */
+	@Test
+	public void testRatingSoldItemIsNotASecondSale() {
+		ChangeFeed feed = database.getChangeFeed();
+		assertTrue(database.addUser("ratedSeller", "pass", "Sells clocks."));
+		assertTrue(database.addUser("ratingBuyer", "pass", "Buys clocks."));
+		String sellerId = database.getUserByUsername("ratedSeller").getUserId();
+		String buyerId = database.getUserByUsername("ratingBuyer").getUserId();
+		Item clock = new Item(sellerId, "Clock", "Wall clock.", "Home", 15.0);
+		assertTrue(database.addItem(clock));
+		long start = feed.getVersion();
+
+		clock.markAsSold(buyerId);
+		database.markItemSold(clock);
+		clock.updateRating(4.0);
+		database.markItemDirty(clock);
+
+		List<ChangeFeed.Change> changes = feed.since(start, 10);
+		assertEquals(2, changes.size());
+		assertEquals(ChangeFeed.Type.ITEM_SOLD, changes.get(0).getType());
+		assertEquals(ChangeFeed.Type.ITEM_UPDATED, changes.get(1).getType());
+	}
+
+	/**
+	 * Tests that each kind of mutation is published to the change feed in commit order.
+	 */
+	@Test
+	public void testMutationsArePublishedInOrder() {
+		ChangeFeed feed = database.getChangeFeed();
+		long start = feed.getVersion();
+		assertTrue(database.addUser("feedSeller", "feedPass", "Sells lamps."));
+		assertTrue(database.addUser("feedBuyer", "feedPass", "Buys lamps."));
+		User seller = database.getUserByUsername("feedSeller");
+		User buyer = database.getUserByUsername("feedBuyer");
+		Item lamp = new Item(seller.getUserId(), "Lamp", "Brass desk lamp.", "Home", 20.0);
+		Item rug = new Item(seller.getUserId(), "Rug", "Wool rug.", "Home", 45.0);
+		assertTrue(database.addItem(lamp));
+		assertTrue(database.addItem(rug));
+		lamp.markAsSold(buyer.getUserId());
+		database.markItemSold(lamp);
+		assertTrue(database.addSellerRating(seller.getUserId(), 4.0));
+		assertTrue(database.addMessage(new Message(buyer.getUserId(), seller.getUserId(), "Thanks!"), lamp.getItemId()));
+		assertTrue(database.removeItem(rug.getItemId(), seller.getUserId()));
+		assertTrue(database.deleteUser("feedBuyer"));
+		assertFalse(database.addSellerRating(seller.getUserId(), 9.0));
+
+		List<ChangeFeed.Change> changes = feed.since(start, 100);
+		String[] expected = {
+				"USER_UPDATED," + seller.getUserId() + ",feedSeller",
+				"USER_UPDATED," + buyer.getUserId() + ",feedBuyer",
+				"ITEM_ADDED," + lamp.getItemId() + "," + seller.getUserId(),
+				"ITEM_ADDED," + rug.getItemId() + "," + seller.getUserId(),
+				"ITEM_SOLD," + lamp.getItemId() + "," + buyer.getUserId(),
+				"RATING_ADDED," + seller.getUserId() + ",4.0",
+				"MESSAGE_ADDED," + buyer.getUserId() + "," + seller.getUserId(),
+				"ITEM_REMOVED," + rug.getItemId() + "," + seller.getUserId(),
+				"USER_DELETED," + buyer.getUserId() + ",feedBuyer"
+		};
+		assertEquals(expected.length, changes.size());
+		for (int i = 0; i < expected.length; i++) {
+			assertEquals(start + i + 1, changes.get(i).getVersion());
+			assertEquals((start + i + 1) + "," + expected[i], changes.get(i).toString());
+		}
+		assertEquals(start + expected.length, feed.getVersion());
+	}
+
+	/**
+	 * Tests that archived sold items leave the items map but stay reachable by ID and in histories.
+	 */
+	@Test
+	public void testArchivedItemsStayReachable() {
+		database.useItemArchive(true);
+		database.readItemArchive();
+		database.addUser("archiveseller", "archivePass", "Sells old things.");
+		database.addUser("archivebuyer", "archivePass", "Buys old things.");
+		String sellerId = database.getUserByUsername("archiveseller").getUserId();
+		String buyerId = database.getUserByUsername("archivebuyer").getUserId();
+		Item clock = new Item(sellerId, "Clock", "Wall clock.", "Home", 15.0);
+		Item vase = new Item(sellerId, "Vase", "Glass vase.", "Home", 9.0);
+		database.addItem(clock);
+		database.addItem(vase);
+		assertEquals(2, database.getActiveListingsBySeller(sellerId).size());
+		clock.markAsSold(buyerId);
+		database.markItemDirty(clock);
+
+		assertEquals(0, database.archiveSoldItems(0, 100));
+		assertEquals(1, database.archiveSoldItems(Long.MAX_VALUE, 100));
+		assertNull(database.getAllItems().stream().filter(item -> item.getItemId().equals(clock.getItemId()))
+				.findFirst().orElse(null));
+		assertEquals("Clock", database.getItemById(clock.getItemId()).getTitle());
+		assertEquals(1, database.getItemsByBuyer(buyerId).size());
+		assertEquals(1, database.getSoldItemsBySeller(sellerId).size());
+		assertEquals(1, database.getActiveListingsBySeller(sellerId).size());
+
+		// Rating an archived item archives its new state
+		Item archived = database.getSoldItemsBySeller(sellerId).get(0);
+		archived.updateRating(5.0);
+		database.markItemDirty(archived);
+		assertEquals(5.0, database.getItemById(clock.getItemId()).getRating(), 0.001);
+	}
+
 }
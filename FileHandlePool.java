@@ -0,0 +1,375 @@
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounded LRU pool of open FileChannels, keyed by file. Hot files such as the
+ * active message log segment and the conversation catalog stay open between
+ * writes instead of being opened and closed for every message.
+ *
+ * While any handle is open, a shared daemon thread closes the handles
+ * unused for idleMillis and, under the BATCHED policy, forces writes left
+ * unforced for syncIntervalMillis, so neither waits for another write or
+ * for a caller to ask. closeIdle() and syncAll() do the same on demand.
+ *
+ * The pool never holds more than a quarter of the file descriptors the
+ * process has left at startup, and it sheds handles when the process gets
+ * close to its limit.
+ *
+ * Every read and write goes through the pool, so a handle is never closed
+ * while another thread is using it.
+ */
+public class FileHandlePool implements FileHandlePoolInterface {
+
+    /**
+     * When written data is forced to the storage device.
+     */
+    public enum Durability {
+        /** Left to the operating system; forced only on sync() and close(). */
+        NONE,
+        /** Forced within syncIntervalMillis of a write, and on sync() and close(). */
+        BATCHED,
+        /** Forced after every write. */
+        ALWAYS
+    }
+
+    private static final int MIN_HANDLES = 4;
+    private static final double FD_HIGH_WATER = 0.9;
+    private static final ScheduledExecutorService MAINTENANCE = Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread thread = new Thread(task, "file-handle-maintenance");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final int maxHandles;
+    private final long idleMillis;
+    private final Durability durability;
+    private final long syncIntervalMillis;
+    private final long maintenanceMillis; // 0 when neither idle closing nor batched syncs apply
+    private final LinkedHashMap<String, Handle> handles; // access order: least recently used first
+    private long lastSync;
+    private ScheduledFuture<?> maintenance; // scheduled only while handles are open
+
+    /**
+     * Creates a pool of at most maxHandles open files, capped by the descriptor limit.
+     */
+    public FileHandlePool(int maxHandles, long idleMillis, Durability durability, long syncIntervalMillis) {
+        if (maxHandles <= 0) {
+            throw new IllegalArgumentException("maxHandles must be positive");
+        }
+        this.maxHandles = Math.min(maxHandles, descriptorBudget());
+        this.idleMillis = idleMillis;
+        this.durability = durability;
+        this.syncIntervalMillis = syncIntervalMillis;
+        long every = idleMillis > 0 ? idleMillis : Long.MAX_VALUE;
+        if (durability == Durability.BATCHED && syncIntervalMillis > 0) {
+            every = Math.min(every, syncIntervalMillis);
+        }
+        this.maintenanceMillis = every == Long.MAX_VALUE ? 0 : every;
+        this.handles = new LinkedHashMap<>(16, 0.75f, true);
+        this.lastSync = System.currentTimeMillis();
+    }
+
+    /**
+     * Reads until buffer is full, starting at position.
+     */
+    @Override
+    public synchronized void read(File file, ByteBuffer buffer, long position) throws IOException {
+        FileChannel channel = acquire(file).channel;
+        long start = position - buffer.position();
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, start + buffer.position()) < 0) {
+                throw new EOFException("Unexpected end of " + file.getName());
+            }
+        }
+    }
+
+    /**
+     * Writes the whole buffer at position.
+     */
+    @Override
+    public synchronized void write(File file, ByteBuffer buffer, long position) throws IOException {
+        Handle handle = acquire(file);
+        long start = position - buffer.position();
+        while (buffer.hasRemaining()) {
+            handle.channel.write(buffer, start + buffer.position());
+        }
+        handle.dirty = true;
+        applyDurability(handle);
+    }
+
+    /**
+     * Writes the whole buffer at the end of the file.
+     */
+    @Override
+    public synchronized void append(File file, ByteBuffer buffer) throws IOException {
+        write(file, buffer, acquire(file).channel.size());
+    }
+
+    /**
+     * Gets the current size of the file.
+     */
+    @Override
+    public synchronized long size(File file) throws IOException {
+        return acquire(file).channel.size();
+    }
+
+    /**
+     * Truncates the file to the given length.
+     */
+    @Override
+    public synchronized void truncate(File file, long length) throws IOException {
+        Handle handle = acquire(file);
+        handle.channel.truncate(length);
+        handle.dirty = true;
+    }
+
+    /**
+     * Forces pending writes of one file to the storage device.
+     */
+    @Override
+    public synchronized void sync(File file) throws IOException {
+        Handle handle = handles.get(key(file));
+        if (handle != null) {
+            force(handle);
+        }
+    }
+
+    /**
+     * Forces pending writes of every open file to the storage device.
+     */
+    @Override
+    public synchronized void syncAll() throws IOException {
+        for (Handle handle : handles.values()) {
+            force(handle);
+        }
+        lastSync = System.currentTimeMillis();
+    }
+
+    /**
+     * Closes the handle of a file, if open. Must be called before the file is
+     * renamed or deleted so the pool does not keep writing to the old inode.
+     */
+    @Override
+    public synchronized void release(File file) throws IOException {
+        Handle handle = handles.remove(key(file));
+        if (handle != null) {
+            closeHandle(handle);
+        }
+    }
+
+    /**
+     * Closes handles unused for idleMillis and returns how many were closed.
+     */
+    @Override
+    public synchronized int closeIdle() {
+        if (idleMillis <= 0) {
+            return 0;
+        }
+        long cutoff = System.currentTimeMillis() - idleMillis;
+        int closed = 0;
+        Iterator<Handle> iterator = handles.values().iterator();
+        while (iterator.hasNext()) {
+            Handle handle = iterator.next();
+            if (handle.lastUsed < cutoff) {
+                iterator.remove();
+                closeQuietly(handle);
+                closed++;
+            }
+        }
+        return closed;
+    }
+
+    /**
+     * Gets the number of open handles.
+     */
+    @Override
+    public synchronized int size() {
+        return handles.size();
+    }
+
+    /**
+     * Gets the most handles the pool keeps open.
+     */
+    @Override
+    public int getMaxHandles() {
+        return maxHandles;
+    }
+
+    /**
+     * Gets the durability policy.
+     */
+    @Override
+    public Durability getDurability() {
+        return durability;
+    }
+
+    /**
+     * Forces and closes every handle.
+     */
+    @Override
+    public synchronized void close() {
+        for (Handle handle : handles.values()) {
+            closeQuietly(handle);
+        }
+        handles.clear();
+        stopMaintenance();
+    }
+
+    /**
+     * Forces batched writes that are due and closes idle handles. Runs on
+     * the maintenance thread until no handle is left open.
+     */
+    private synchronized void maintain() {
+        if (durability == Durability.BATCHED && System.currentTimeMillis() - lastSync >= syncIntervalMillis) {
+            try {
+                syncAll();
+            } catch (IOException e) {
+                System.err.println("Error syncing pooled files: " + e.getMessage());
+            }
+        }
+        closeIdle();
+        if (handles.isEmpty()) {
+            stopMaintenance();
+        }
+    }
+
+    private void startMaintenance() {
+        if (maintenance == null && maintenanceMillis > 0) {
+            maintenance = MAINTENANCE.scheduleWithFixedDelay(this::maintain, maintenanceMillis, maintenanceMillis,
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void stopMaintenance() {
+        if (maintenance != null) {
+            maintenance.cancel(false);
+            maintenance = null;
+        }
+    }
+
+    /**
+     * Gets the open handle of a file, opening it and evicting the least
+     * recently used handles when the pool is full.
+     */
+    private Handle acquire(File file) throws IOException {
+        String key = key(file);
+        Handle handle = handles.get(key);
+        if (handle == null || !handle.channel.isOpen()) {
+            evict(nearDescriptorLimit() ? handles.size() / 2 : maxHandles - 1);
+            FileChannel channel = FileChannel.open(file.toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            handle = new Handle(channel);
+            handles.put(key, handle);
+            startMaintenance();
+        }
+        handle.lastUsed = System.currentTimeMillis();
+        return handle;
+    }
+
+    /**
+     * Closes least recently used handles until at most keep remain.
+     */
+    private void evict(int keep) {
+        List<Handle> evicted = new ArrayList<>();
+        Iterator<Map.Entry<String, Handle>> iterator = handles.entrySet().iterator();
+        while (handles.size() - evicted.size() > keep && iterator.hasNext()) {
+            evicted.add(iterator.next().getValue());
+            iterator.remove();
+        }
+        for (Handle handle : evicted) {
+            closeQuietly(handle);
+        }
+    }
+
+    private void applyDurability(Handle handle) throws IOException {
+        if (durability == Durability.ALWAYS) {
+            force(handle);
+        } else if (durability == Durability.BATCHED
+                && System.currentTimeMillis() - lastSync >= syncIntervalMillis) {
+            syncAll();
+        }
+    }
+
+    private void force(Handle handle) throws IOException {
+        if (handle.dirty && handle.channel.isOpen()) {
+            handle.channel.force(false);
+            handle.dirty = false;
+        }
+    }
+
+    private void closeHandle(Handle handle) throws IOException {
+        try {
+            if (durability != Durability.NONE) {
+                force(handle);
+            }
+        } finally {
+            handle.channel.close();
+        }
+    }
+
+    private void closeQuietly(Handle handle) {
+        try {
+            closeHandle(handle);
+        } catch (IOException e) {
+            System.err.println("Error closing pooled file handle: " + e.getMessage());
+        }
+    }
+
+    private static String key(File file) {
+        return file.getAbsolutePath();
+    }
+
+    /**
+     * Gets a quarter of the file descriptors still free when the pool is
+     * created, or Integer.MAX_VALUE where the platform does not report them.
+     */
+    private static int descriptorBudget() {
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.UnixOperatingSystemMXBean) {
+            com.sun.management.UnixOperatingSystemMXBean unix = (com.sun.management.UnixOperatingSystemMXBean) os;
+            long free = unix.getMaxFileDescriptorCount() - unix.getOpenFileDescriptorCount();
+            return (int) Math.max(MIN_HANDLES, Math.min(Integer.MAX_VALUE, free / 4));
+        }
+        return Integer.MAX_VALUE;
+    }
+
+    /**
+     * Checks whether the process uses more than 90% of its file descriptors.
+     */
+    private static boolean nearDescriptorLimit() {
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.UnixOperatingSystemMXBean) {
+            com.sun.management.UnixOperatingSystemMXBean unix = (com.sun.management.UnixOperatingSystemMXBean) os;
+            return unix.getOpenFileDescriptorCount() > unix.getMaxFileDescriptorCount() * FD_HIGH_WATER;
+        }
+        return false;
+    }
+
+    /**
+     * An open channel and its bookkeeping.
+     */
+    private static class Handle {
+        final FileChannel channel;
+        long lastUsed;
+        boolean dirty;
+
+        Handle(FileChannel channel) {
+            this.channel = channel;
+        }
+    }
+}
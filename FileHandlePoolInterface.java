@@ -0,0 +1,22 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Interface for the FileHandlePool class
+ */
+public interface FileHandlePoolInterface {
+    void read(File file, ByteBuffer buffer, long position) throws IOException;
+    void write(File file, ByteBuffer buffer, long position) throws IOException;
+    void append(File file, ByteBuffer buffer) throws IOException;
+    long size(File file) throws IOException;
+    void truncate(File file, long length) throws IOException;
+    void sync(File file) throws IOException;
+    void syncAll() throws IOException;
+    void release(File file) throws IOException;
+    int closeIdle();
+    int size();
+    int getMaxHandles();
+    FileHandlePool.Durability getDurability();
+    void close();
+}
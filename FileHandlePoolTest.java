@@ -0,0 +1,79 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/**
+ * Tests for the pool of open file handles
+ */
+public class FileHandlePoolTest {
+
+	private File tempFile() throws Exception {
+		File file = File.createTempFile("pooled", ".log");
+		file.deleteOnExit();
+		return file;
+	}
+
+	private ByteBuffer bytes(String text) {
+		return ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/** Tests that repeated appends reuse one handle and land in order. */
+	@Test
+	public void testAppendsReuseHandle() throws Exception {
+		FileHandlePool pool = new FileHandlePool(4, 0, FileHandlePool.Durability.ALWAYS, 0);
+		File file = tempFile();
+		pool.append(file, bytes("first\n"));
+		pool.append(file, bytes("second\n"));
+		assertEquals(1, pool.size());
+
+		ByteBuffer head = ByteBuffer.allocate(5);
+		pool.read(file, head, 0);
+		assertEquals("first", new String(head.array(), StandardCharsets.UTF_8));
+		pool.close();
+		assertEquals("first\nsecond\n", new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8));
+	}
+
+	/** Tests that the pool never keeps more than its maximum number of files open. */
+	@Test
+	public void testLeastRecentlyUsedHandlesAreClosed() throws Exception {
+		FileHandlePool pool = new FileHandlePool(2, 0, FileHandlePool.Durability.NONE, 0);
+		File a = tempFile();
+		File b = tempFile();
+		File c = tempFile();
+		pool.append(a, bytes("a"));
+		pool.append(b, bytes("b"));
+		pool.append(a, bytes("a"));
+		pool.append(c, bytes("c"));
+		assertEquals(2, pool.size());
+
+		// b was evicted; writing to it again reopens it
+		pool.append(b, bytes("b"));
+		assertEquals(2, pool.size());
+		pool.close();
+		assertEquals("bb", new String(Files.readAllBytes(b.toPath()), StandardCharsets.UTF_8));
+		assertEquals("aa", new String(Files.readAllBytes(a.toPath()), StandardCharsets.UTF_8));
+	}
+
+	/** Tests that released handles are closed at once and idle ones without being asked. */
+	@Test
+	public void testIdleAndReleasedHandlesAreClosed() throws Exception {
+		FileHandlePool pool = new FileHandlePool(4, 50, FileHandlePool.Durability.BATCHED, 10);
+		File a = tempFile();
+		File b = tempFile();
+		pool.append(a, bytes("a"));
+		pool.append(b, bytes("b"));
+		pool.release(a);
+		assertEquals(1, pool.size());
+
+		long deadline = System.currentTimeMillis() + 5000;
+		while (pool.size() > 0 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(0, pool.size());
+		assertEquals(0, pool.closeIdle());
+		assertTrue(pool.getMaxHandles() <= 4);
+	}
+}
@@ -0,0 +1,238 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Measures what an ID costs: the heap taken per user, item and message, the
+ * heap taken per map entry keyed by a UUID string and by a CompactId, and
+ * the time of a hash lookup with each kind of key. It also times making
+ * IDs with UUID.randomUUID() and with the time-ordered IdGenerator from
+ * several threads at once.
+ *
+ * Usage: java -Xms1g -Xmx1g IdBenchmark [count] [lookups]
+ *
+ * Give it a fixed heap size so every measurement runs against the same heap.
+ */
+public class IdBenchmark {
+    private final int count;
+    private final int lookups;
+
+    /**
+     * Creates a benchmark of the given size.
+     */
+    public IdBenchmark(int count, int lookups) {
+        this.count = count;
+        this.lookups = lookups;
+    }
+
+    /**
+     * Gets the heap retained per user, created with a fresh ID.
+     */
+    public double heapPerUser() {
+        long before = usedHeapAfterGc();
+        List<User> users = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            users.add(new User("user" + i, "password", "bio", null));
+        }
+        return perEntity(before, users);
+    }
+
+    /**
+     * Gets the heap retained per item with a seller and a buyer. The item is
+     * built from stored state, so no tags are extracted, and each ID arrives
+     * as its own string, as when items.txt is parsed.
+     */
+    public double heapPerItem() {
+        List<String> sellers = randomIds(count);
+        long before = usedHeapAfterGc();
+        List<Item> items = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            items.add(new Item(UUID.randomUUID().toString(), copy(sellers.get(i)), 10.0, true,
+                    copy(sellers.get(count - 1 - i)), 0, 0));
+        }
+        return perEntity(before, items);
+    }
+
+    /**
+     * Gets the heap retained per message between two users, each ID arriving
+     * as its own string, as when the message log is read.
+     */
+    public double heapPerMessage() {
+        List<String> users = randomIds(count);
+        long before = usedHeapAfterGc();
+        List<Message> messages = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            messages.add(new Message(copy(users.get(i)), copy(users.get(count - 1 - i)), "hi"));
+        }
+        return perEntity(before, messages);
+    }
+
+    /**
+     * Gets the heap retained per entry of a map keyed by UUID strings.
+     */
+    public double heapPerStringKey() {
+        long before = usedHeapAfterGc();
+        Map<String, Object> map = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            map.put(UUID.randomUUID().toString(), Boolean.TRUE);
+        }
+        return perEntity(before, map);
+    }
+
+    /**
+     * Gets the heap retained per entry of a map keyed by compact IDs.
+     */
+    public double heapPerCompactKey() {
+        long before = usedHeapAfterGc();
+        Map<CompactId, Object> map = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            map.put(CompactId.random(), Boolean.TRUE);
+        }
+        return perEntity(before, map);
+    }
+
+    /**
+     * Gets the nanoseconds per lookup of a map keyed by UUID strings, with
+     * keys that arrive as new strings, so each is hashed once.
+     */
+    public double lookupStringKey() {
+        List<String> ids = randomIds(count);
+        Map<String, Object> map = new HashMap<>();
+        for (String id : ids) {
+            map.put(new String(id.toCharArray()), Boolean.TRUE);
+        }
+        usedHeapAfterGc(); // settle the map so young collections do not copy it while timing
+        long start = System.nanoTime();
+        int found = 0;
+        for (int i = 0; i < lookups; i++) {
+            if (map.get(new String(ids.get(i % count))) != null) {
+                found++;
+            }
+        }
+        return elapsedPerLookup(start, found);
+    }
+
+    /**
+     * Gets the nanoseconds per lookup of a map keyed by compact IDs. When
+     * parse is set, each key arrives as a string and is converted first, as
+     * at the protocol edge.
+     */
+    public double lookupCompactKey(boolean parse) {
+        List<String> ids = randomIds(count);
+        Map<CompactId, Object> map = new HashMap<>();
+        CompactId[] probes = new CompactId[count];
+        for (int i = 0; i < count; i++) {
+            map.put(CompactId.of(ids.get(i)), Boolean.TRUE);
+            probes[i] = CompactId.of(ids.get(i));
+        }
+        usedHeapAfterGc();
+        long start = System.nanoTime();
+        int found = 0;
+        for (int i = 0; i < lookups; i++) {
+            CompactId probe = parse ? CompactId.of(ids.get(i % count)) : probes[i % count];
+            if (map.get(probe) != null) {
+                found++;
+            }
+        }
+        return elapsedPerLookup(start, found);
+    }
+
+    /**
+     * Gets the nanoseconds per ID, in wall time, for threads making count IDs
+     * each at once, either as random UUIDs or from the time-ordered generator.
+     */
+    public double generate(boolean timeOrdered, int threads) throws InterruptedException {
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            workers.add(new Thread(() -> {
+                long checksum = 0;
+                for (int i = 0; i < count; i++) {
+                    checksum += timeOrdered ? IdGenerator.DEFAULT.next().getLeastSignificantBits()
+                            : UUID.randomUUID().getLeastSignificantBits();
+                }
+                sink = checksum;
+            }));
+        }
+        long start = System.nanoTime();
+        for (Thread worker : workers) {
+            worker.start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        return (double) (System.nanoTime() - start) / ((long) count * threads);
+    }
+
+    private double elapsedPerLookup(long startNanos, int found) {
+        double nanos = System.nanoTime() - startNanos;
+        if (found != lookups) {
+            System.err.println("Only " + found + " of " + lookups + " lookups found their key");
+        }
+        return nanos / lookups;
+    }
+
+    private static String copy(String id) {
+        return new String(id.toCharArray());
+    }
+
+    private static List<String> randomIds(int count) {
+        List<String> ids = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            ids.add(UUID.randomUUID().toString());
+        }
+        return ids;
+    }
+
+    private static volatile Object sink;
+
+    private double perEntity(long heapBefore, Object retained) {
+        double perEntity = (double) (usedHeapAfterGc() - heapBefore) / count;
+        sink = retained;
+        sink = null;
+        return perEntity;
+    }
+
+    // A dead object can survive the first few explicit collections, so run several
+    private static long usedHeapAfterGc() {
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+        }
+        return used;
+    }
+
+    /**
+     * Runs every measurement and prints the results.
+     */
+    public static void main(String[] args) throws InterruptedException {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 500000;
+        int lookups = args.length > 1 ? Integer.parseInt(args[1]) : 5000000;
+        IdBenchmark benchmark = new IdBenchmark(count, lookups);
+
+        // Warm up the lookup paths before timing them
+        for (int i = 0; i < 3; i++) {
+            benchmark.lookupStringKey();
+            benchmark.lookupCompactKey(false);
+            benchmark.lookupCompactKey(true);
+        }
+
+        System.out.printf("%-32s %10.1f%n", "user (bytes)", benchmark.heapPerUser());
+        System.out.printf("%-32s %10.1f%n", "item (bytes)", benchmark.heapPerItem());
+        System.out.printf("%-32s %10.1f%n", "message (bytes)", benchmark.heapPerMessage());
+        System.out.printf("%-32s %10.1f%n", "map entry, string key (bytes)", benchmark.heapPerStringKey());
+        System.out.printf("%-32s %10.1f%n", "map entry, compact key (bytes)", benchmark.heapPerCompactKey());
+        System.out.printf("%-32s %10.1f%n", "lookup, string key (ns)", benchmark.lookupStringKey());
+        System.out.printf("%-32s %10.1f%n", "lookup, compact key (ns)", benchmark.lookupCompactKey(false));
+        System.out.printf("%-32s %10.1f%n", "lookup, parsed compact key (ns)", benchmark.lookupCompactKey(true));
+
+        int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+        benchmark.generate(false, threads);
+        benchmark.generate(true, threads);
+        System.out.printf("%-32s %10.1f%n", "random UUID, " + threads + " threads (ns)", benchmark.generate(false, threads));
+        System.out.printf("%-32s %10.1f%n", "time-ordered, " + threads + " threads (ns)", benchmark.generate(true, threads));
+    }
+}
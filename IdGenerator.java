@@ -0,0 +1,94 @@
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.LongSupplier;
+
+/**
+ * Time-ordered ID generator in the layout of a version 7 UUID: 48 bits of
+ * Unix milliseconds, the version, a 12-bit sequence, the variant and 62
+ * random bits. IDs therefore sort by creation time, both as CompactIds and
+ * as strings.
+ *
+ * Each thread keeps its own last timestamp and sequence, and draws random
+ * bits from ThreadLocalRandom, so threads never contend. IDs from one
+ * thread always increase: the sequence orders IDs made in the same
+ * millisecond, and a clock that steps back is ignored until it catches up.
+ * IDs from different threads are ordered to the millisecond. The random
+ * bits keep IDs unique but are not secret.
+ */
+public class IdGenerator implements IdGeneratorInterface {
+    public static final IdGenerator DEFAULT = new IdGenerator(System::currentTimeMillis);
+
+    private static final int SEQUENCE_BITS = 12;
+    private static final int MAX_SEQUENCE = (1 << SEQUENCE_BITS) - 1;
+    private static final long VERSION = 7;
+
+    private final LongSupplier clock;
+    private final ThreadLocal<State> state;
+
+    /**
+     * Creates a generator that reads the time from clock, in milliseconds.
+     */
+    public IdGenerator(LongSupplier clock) {
+        this.clock = clock;
+        this.state = ThreadLocal.withInitial(State::new);
+    }
+
+    /**
+     * Creates a new ID later than every ID this thread made before.
+     */
+    @Override
+    public CompactId next() {
+        State current = state.get();
+        long now = clock.getAsLong();
+        if (now > current.millis) {
+            current.millis = now;
+            // Start low in the range so a burst has room before it borrows the next millisecond
+            current.sequence = ThreadLocalRandom.current().nextInt(MAX_SEQUENCE / 2);
+        } else if (current.sequence < MAX_SEQUENCE) {
+            current.sequence++;
+        } else {
+            current.millis++;
+            current.sequence = 0;
+        }
+        long high = (current.millis & 0xFFFFFFFFFFFFL) << 16 | VERSION << 12 | current.sequence;
+        long low = ThreadLocalRandom.current().nextLong() >>> 2 | 1L << 63; // variant 10
+        return CompactId.of(high, low);
+    }
+
+    /**
+     * Gets the Unix milliseconds an ID was made at, or -1 if it is not time-ordered.
+     */
+    public static long timestampOf(CompactId id) {
+        if (!isTimeOrdered(id)) {
+            return -1;
+        }
+        return id.getMostSignificantBits() >>> 16;
+    }
+
+    /**
+     * Checks whether an ID was made by a time-ordered generator.
+     */
+    public static boolean isTimeOrdered(CompactId id) {
+        return id != null && id.isCompact() && (id.getMostSignificantBits() >>> 12 & 0xF) == VERSION
+                && id.getLeastSignificantBits() >>> 62 == 2;
+    }
+
+    /**
+     * Gets the lowest ID that could be made at the given millisecond.
+     */
+    public static CompactId lowestAt(long millis) {
+        return CompactId.of((millis & 0xFFFFFFFFFFFFL) << 16 | VERSION << 12, 1L << 63);
+    }
+
+    /**
+     * Gets the highest ID that could be made at the given millisecond.
+     */
+    public static CompactId highestAt(long millis) {
+        return CompactId.of((millis & 0xFFFFFFFFFFFFL) << 16 | VERSION << 12 | MAX_SEQUENCE, -1L >>> 2 | 1L << 63);
+    }
+
+    // Per-thread generator state
+    private static class State {
+        long millis = Long.MIN_VALUE;
+        int sequence;
+    }
+}
@@ -0,0 +1,6 @@
+/**
+ * Interface for the IdGenerator class
+ */
+public interface IdGeneratorInterface {
+    CompactId next();
+}
@@ -0,0 +1,83 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tests for the time-ordered ID generator
+ */
+public class IdGeneratorTest {
+
+	/** Tests that IDs carry their creation time and sort by it, as IDs and as strings. */
+	@Test
+	public void testIdsSortByTime() {
+		AtomicLong clock = new AtomicLong(1700000000000L);
+		IdGenerator generator = new IdGenerator(clock::get);
+		CompactId first = generator.next();
+		clock.addAndGet(5);
+		CompactId second = generator.next();
+
+		assertTrue(IdGenerator.isTimeOrdered(first));
+		assertEquals(1700000000000L, IdGenerator.timestampOf(first));
+		assertEquals(1700000000005L, IdGenerator.timestampOf(second));
+		assertTrue(first.compareTo(second) < 0);
+		assertTrue(first.toString().compareTo(second.toString()) < 0);
+		assertEquals('7', first.toString().charAt(14));
+		assertEquals(first, CompactId.of(first.toString()));
+
+		assertTrue(IdGenerator.lowestAt(1700000000005L).compareTo(second) <= 0);
+		assertTrue(IdGenerator.highestAt(1700000000005L).compareTo(second) >= 0);
+		assertTrue(IdGenerator.highestAt(1700000000004L).compareTo(second) < 0);
+		assertEquals(-1, IdGenerator.timestampOf(CompactId.of("item1")));
+		assertFalse(IdGenerator.isTimeOrdered(CompactId.random()));
+	}
+
+	/** Tests that one thread's IDs keep increasing within a millisecond, past the sequence and when the clock steps back. */
+	@Test
+	public void testMonotonicWithinThread() {
+		AtomicLong clock = new AtomicLong(1700000000000L);
+		IdGenerator generator = new IdGenerator(clock::get);
+		CompactId previous = generator.next();
+		for (int i = 0; i < 10000; i++) {
+			if (i == 5000) {
+				clock.addAndGet(-1000);
+			}
+			CompactId next = generator.next();
+			assertTrue(previous.compareTo(next) < 0);
+			previous = next;
+		}
+		// 10000 IDs in one millisecond borrowed the next few
+		assertTrue(IdGenerator.timestampOf(previous) > 1700000000000L);
+	}
+
+	/** Tests that threads generating at once never make the same ID. */
+	@Test
+	public void testUniqueAcrossThreads() throws InterruptedException {
+		IdGenerator generator = new IdGenerator(() -> 1700000000000L);
+		List<Set<CompactId>> perThread = new ArrayList<>();
+		List<Thread> threads = new ArrayList<>();
+		for (int t = 0; t < 4; t++) {
+			Set<CompactId> ids = new HashSet<>();
+			perThread.add(ids);
+			threads.add(new Thread(() -> {
+				for (int i = 0; i < 5000; i++) {
+					ids.add(generator.next());
+				}
+			}));
+		}
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		Set<CompactId> all = new HashSet<>();
+		for (Set<CompactId> ids : perThread) {
+			all.addAll(ids);
+		}
+		assertEquals(20000, all.size());
+	}
+}
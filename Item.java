@@ -3,7 +3,11 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
 
 /*
  * This is the item class where the user can create a items
@@ -16,8 +20,8 @@ import java.util.List;
  */
 public class Item implements ItemInterface{
 
-    private String itemId;
-    private String sellerId;
+    private CompactId itemId;   // IDs are kept compact; strings are made on request
+    private CompactId sellerId;
     private String title;
     private String description;
     private String category;
@@ -26,8 +30,16 @@ public class Item implements ItemInterface{
     private double rating;
     private int ratingCount;
     private boolean sold;
-    private String buyerId;
+    private CompactId buyerId;
     private List<String> specialCharacters;
+    private ItemIndex index; // secondary indexes to notify when sold, null if not indexed
+
+    // stopword.txt and special_characters.txt, read once and shared by every item; loaded under Item.class
+    private static volatile List<String> stopwords;
+    private static volatile Set<String> stopwordSet;
+    private static volatile List<String> specialCharacterList;
+    private static volatile Pattern specialCharacterPattern;
+    private static volatile String specialCharacterChars; // the characters when each is one char, else null
 
     /**
      * Creates a new item listing with the specified details.
@@ -37,7 +49,7 @@ public class Item implements ItemInterface{
         // Generate a simple ID
         // Set sold to false and buyerId to null
         // Extract tags from description
-        this.sellerId = sellerId;
+        this.sellerId = CompactId.of(sellerId);
         this.title = title;
         this.category = category;
         this.price = price;
@@ -45,9 +57,9 @@ public class Item implements ItemInterface{
         this.buyerId = null;
         this.ratingCount = 0;
         getSpecialCharacters();
-        this.itemId = java.util.UUID.randomUUID().toString();
+        this.itemId = IdGenerator.DEFAULT.next();
         this.description = (description == null) ? ("") : (description);
-        this.tags = this.extractTags(this.getStopwords());
+        this.tags = this.extractTags(stopwordSet());
     }
 
     /**
@@ -55,14 +67,48 @@ public class Item implements ItemInterface{
      */
     public Item(String itemId, String sellerId, String title, String description, String category, double price) {
         this(sellerId, title, description, category, price);
-        this.itemId = itemId;  // Override the generated UUID with the provided ID
+        this.itemId = CompactId.of(itemId);  // Override the generated UUID with the provided ID
+    }
+
+    /**
+     * Creates an item from already-persisted state without reading the stopword
+     * and special character files. Used by subclasses that decode the remaining
+     * fields lazily.
+     */
+    protected Item(String itemId, String sellerId, double price, boolean sold, String buyerId,
+                   double rating, int ratingCount) {
+        this.itemId = CompactId.of(itemId);
+        this.sellerId = CompactId.of(sellerId);
+        this.price = price;
+        this.sold = sold;
+        this.buyerId = CompactId.of(buyerId);
+        this.rating = rating;
+        this.ratingCount = ratingCount;
+    }
+
+    /**
+     * Creates a detached copy of an item with the given sold state. The copy
+     * is not indexed, so nothing done to it reaches the database.
+     */
+    Item(Item source, boolean sold, CompactId buyerId) {
+        this.itemId = source.getItemKey();
+        this.sellerId = source.getSellerKey();
+        this.title = source.getTitle();
+        this.description = source.getDescription();
+        this.category = source.getCategory();
+        this.tags = source.getTags();
+        this.price = source.getPrice();
+        this.rating = source.getRating();
+        this.ratingCount = source.getRatingCount();
+        this.sold = sold;
+        this.buyerId = buyerId;
     }
 
     /**
      * Sets the item ID (used when loading from database).
      */
     public void setItemId(String itemId) {
-        this.itemId = itemId;
+        this.itemId = CompactId.of(itemId);
     }
 
     /**
@@ -71,6 +117,14 @@ public class Item implements ItemInterface{
     @Override
     public String getItemId() {
         // Return itemId
+        return this.itemId == null ? null : this.itemId.toString();
+    }
+
+    /**
+     * Gets the item's identifier in its compact form, as used for map keys.
+     */
+    @Override
+    public CompactId getItemKey() {
         return this.itemId;
     }
 
@@ -80,6 +134,14 @@ public class Item implements ItemInterface{
     @Override
     public String getSellerId() {
         // Return sellerId
+        return this.sellerId == null ? null : this.sellerId.toString();
+    }
+
+    /**
+     * Gets the seller's identifier in its compact form.
+     */
+    @Override
+    public CompactId getSellerKey() {
         return this.sellerId;
     }
 
@@ -138,6 +200,13 @@ public class Item implements ItemInterface{
     }
 
 
+    /**
+     * Gets the number of ratings that make up the current rating.
+     */
+    public int getRatingCount() {
+        return this.ratingCount;
+    }
+
     /**
      * Updates the item's rating with a new user rating.
      */
@@ -174,41 +243,87 @@ public class Item implements ItemInterface{
         // Return success/failure
         if (this.sold == false) {
             this.sold = true;
-            this.buyerId = buyerId;
+            this.buyerId = CompactId.of(buyerId);
+            if (index != null) {
+                index.sold(this);
+            }
             return true; // Marks successfull
         }
         return false; // Marks unsuccessfull
     }
 
+    /**
+     * Sets the secondary indexes to notify when this item is sold.
+     */
+    void setIndex(ItemIndex index) {
+        this.index = index;
+    }
+
     /**
      * Gets the ID of the user who purchased this item.
      */
     @Override
     public String getBuyerId() {
         // Return buyerId
+        return this.buyerId == null ? null : this.buyerId.toString();
+    }
+
+    /**
+     * Gets the buyer's identifier in its compact form, or null if unsold.
+     */
+    @Override
+    public CompactId getBuyerKey() {
         return this.buyerId;
     }
 
     /*
-     * Gets the stop words from reading the stopwords.txt file
+     * Gets the stop words from the stopwords.txt file, which is read once
      */
     @Override
     public List<String> getStopwords() {
+        return loadStopwords();
+    }
+
+    private static List<String> loadStopwords() {
+        List<String> loaded = stopwords;
+        return loaded != null ? loaded : readStopwords();
+    }
+
+    private static synchronized List<String> readStopwords() {
+        if (stopwords != null) {
+            return stopwords;
+        }
         try (BufferedReader br = new BufferedReader(new FileReader("stopword.txt"))) {
             String stopWordsRaw = br.readLine(); // Gets the uncleaned version of all the stop words
-            return Arrays.asList(stopWordsRaw.split(",")); // Splits and returns an array containing the stop words
+            List<String> loaded = Arrays.asList(stopWordsRaw.split(",")); // Splits the stop words into an array
+            stopwordSet = new HashSet<>(loaded);
+            stopwords = loaded; // published last, so a reader that sees it also sees the set
+            return loaded;
         } catch (IOException e) {
             e.printStackTrace();
-            return new ArrayList<>(); // Return empty list instead of null
+            return new ArrayList<>(); // Return empty list instead of null; the file is tried again next time
         }
     }
 
+    /*
+     * Gets the stop words as a set, for lookups while extracting tags
+     */
+    static Set<String> stopwordSet() {
+        loadStopwords();
+        Set<String> loaded = stopwordSet;
+        return loaded != null ? loaded : new HashSet<>();
+    }
+
     /*
      * Extracts the tags from the description and cleans each word
      */
 
     public List<String> extractTags(List<String> stopwords) {
-        List<String> descriptionWords = Arrays.asList(this.description.split("[- ]")); // Splits description to words
+        return extractTags((Collection<String>) stopwords);
+    }
+
+    List<String> extractTags(Collection<String> stopwords) {
+        List<String> descriptionWords = Arrays.asList(this.getDescription().split("[- ]")); // Splits description to words
         List<String> finalTagList = new ArrayList<>(); // Tracks the final list of tags
         for (String word : descriptionWords) {
             if (stopwords != null && !stopwords.contains(word.toLowerCase())) {
@@ -219,15 +334,39 @@ public class Item implements ItemInterface{
     }
 
     /*
-     * Gets the special characters from the specialCharacters.txt file
+     * Gets the special characters from the specialCharacters.txt file, which is read once
      */
     public void getSpecialCharacters() {
+        this.specialCharacters = loadSpecialCharacters();
+    }
+
+    private static List<String> loadSpecialCharacters() {
+        List<String> loaded = specialCharacterList;
+        return loaded != null ? loaded : readSpecialCharacters();
+    }
+
+    private static synchronized List<String> readSpecialCharacters() {
+        if (specialCharacterList != null) {
+            return specialCharacterList;
+        }
         try (BufferedReader br = new BufferedReader(new FileReader("special_characters.txt"))) {
             String characters = br.readLine(); // Gets the uncleaned version of all the stop words
-            this.specialCharacters = Arrays.asList(characters.split(" ")); // returns array with special characters
+            List<String> loaded = Arrays.asList(characters.split(" ")); // array with special characters
+            List<String> quoted = new ArrayList<>();
+            StringBuilder chars = new StringBuilder();
+            for (String character : loaded) {
+                if (!character.isEmpty()) {
+                    quoted.add(Pattern.quote(character));
+                    chars.append(character.length() == 1 ? character : "");
+                }
+            }
+            specialCharacterPattern = quoted.isEmpty() ? null : Pattern.compile(String.join("|", quoted));
+            specialCharacterChars = chars.length() == quoted.size() ? chars.toString() : null;
+            specialCharacterList = loaded; // published last, so a reader that sees it also sees the pattern
+            return loaded;
         } catch (IOException e) {
             e.printStackTrace();
-            this.specialCharacters = new ArrayList<>(); // Initialize to empty list on error
+            return new ArrayList<>(); // Empty list on error; the file is tried again next time
         }
     }
 
@@ -240,12 +379,24 @@ public class Item implements ItemInterface{
             return word;
         }
 
-        for (String character : this.specialCharacters) {
-            int count = word.indexOf(character); // Tracks the index to see if the word contain special character
-            if (count != -1) {
-                word = word.replaceAll("\\".concat(character), "");
+        // Most words have no special characters; only those go through the precompiled pattern
+        Pattern pattern = specialCharacterPattern;
+        if (pattern == null || !mayContainSpecialCharacter(word)) {
+            return word;
+        }
+        return pattern.matcher(word).replaceAll("");
+    }
+
+    private static boolean mayContainSpecialCharacter(String word) {
+        String chars = specialCharacterChars;
+        if (chars == null) {
+            return true;
+        }
+        for (int i = 0; i < word.length(); i++) {
+            if (chars.indexOf(word.charAt(i)) >= 0) {
+                return true;
             }
         }
-        return word;
+        return false;
     }
 }
@@ -0,0 +1,343 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Cold tier for sold items: append-only, compressed segment files that
+ * items are moved to once they no longer need to sit in the hot map.
+ *
+ * Each append writes blocks of up to 128 items:
+ *   header  magic, item count, raw length, compressed length, keys length
+ *   keys    item, seller and buyer ID of each item, uncompressed
+ *   data    the items in BinaryItemFile's format, deflated
+ *
+ * Opening the archive reads only block headers and keys, to index archived
+ * items by ID, seller and buyer; item contents are inflated on access and
+ * the last few blocks read are kept decoded. An item archived again (after
+ * a change) is found in its newest block. A block torn by a crash is cut
+ * off when the archive is opened.
+ */
+public class ItemArchive implements ItemArchiveInterface {
+    public static final int BLOCK_MAGIC = 0x4D4B4152; // "MKAR"
+    public static final int DEFAULT_SEGMENT_BYTES = 16 * 1024 * 1024;
+    private static final int BLOCK_HEADER_SIZE = 20;
+    private static final int DECODED_BLOCKS = 8;
+    private static final int BLOCK_ITEMS = 128; // small blocks keep a cold lookup to one short inflate
+    private static final int SEGMENT_SHIFT = 40; // location = segment << 40 | offset
+
+    private final File directory;
+    private final int segmentBytes;
+    private final Map<CompactId, Long> locations;
+    private final Map<CompactId, Set<CompactId>> bySeller;
+    private final Map<CompactId, Set<CompactId>> byBuyer;
+    private final Map<Long, Map<CompactId, Item>> decoded; // access order, eldest first
+    private int segment;
+    private long segmentLength;
+    private long archivedBytes;
+
+    /**
+     * Creates an archive in the given directory whose segments are sealed at segmentBytes.
+     */
+    public ItemArchive(String directory, int segmentBytes) {
+        this.directory = new File(directory);
+        this.segmentBytes = segmentBytes;
+        this.locations = new HashMap<>();
+        this.bySeller = new HashMap<>();
+        this.byBuyer = new HashMap<>();
+        this.decoded = new LinkedHashMap<Long, Map<CompactId, Item>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Map<CompactId, Item>> eldest) {
+                return size() > DECODED_BLOCKS;
+            }
+        };
+        this.segment = 1;
+        this.segmentLength = 0;
+        this.archivedBytes = 0;
+    }
+
+    /**
+     * Indexes the existing segments from their block keys.
+     */
+    @Override
+    public synchronized void open() throws IOException {
+        locations.clear();
+        bySeller.clear();
+        byBuyer.clear();
+        decoded.clear();
+        archivedBytes = 0;
+        segment = 1;
+        segmentLength = 0;
+        if (!directory.exists()) {
+            return;
+        }
+        for (int number = 1; segmentFile(number).exists(); number++) {
+            segment = number;
+            segmentLength = scan(number);
+            archivedBytes += segmentLength;
+        }
+    }
+
+    // Indexes one segment's blocks and returns the length of its intact part
+    private long scan(int number) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(segmentFile(number), "rw")) {
+            long offset = 0;
+            long length = file.length();
+            while (offset + BLOCK_HEADER_SIZE <= length) {
+                file.seek(offset);
+                if (file.readInt() != BLOCK_MAGIC) {
+                    break;
+                }
+                int count = file.readInt();
+                file.readInt();
+                int compressedLength = file.readInt();
+                int keysLength = file.readInt();
+                long end = offset + BLOCK_HEADER_SIZE + keysLength + (long) compressedLength;
+                if (end > length) {
+                    break;
+                }
+                byte[] keys = new byte[keysLength];
+                file.readFully(keys);
+                indexKeys(keys, count, (long) number << SEGMENT_SHIFT | offset);
+                offset = end;
+            }
+            if (offset < length) {
+                System.err.println("Truncating torn archive block in " + segmentFile(number));
+                file.setLength(offset);
+            }
+            return offset;
+        }
+    }
+
+    private void indexKeys(byte[] keys, int count, long location) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(keys));
+        for (int i = 0; i < count; i++) {
+            CompactId itemId = CompactId.of(in.readUTF());
+            CompactId sellerId = CompactId.of(in.readUTF());
+            String buyer = in.readUTF();
+            locations.put(itemId, location);
+            bySeller.computeIfAbsent(sellerId, id -> new LinkedHashSet<>()).add(itemId);
+            if (!buyer.isEmpty()) {
+                byBuyer.computeIfAbsent(CompactId.of(buyer), id -> new LinkedHashSet<>()).add(itemId);
+            }
+        }
+    }
+
+    /**
+     * Appends items and forces them to disk before returning, so the items
+     * can then be dropped from the hot data files.
+     */
+    @Override
+    public synchronized void append(Collection<Item> items) throws IOException {
+        List<Item> all = new ArrayList<>(items);
+        for (int start = 0; start < all.size(); start += BLOCK_ITEMS) {
+            appendBlock(all.subList(start, Math.min(all.size(), start + BLOCK_ITEMS)));
+        }
+    }
+
+    private void appendBlock(List<Item> items) throws IOException {
+        ByteArrayOutputStream keyBytes = new ByteArrayOutputStream(items.size() * 96);
+        DataOutputStream keys = new DataOutputStream(keyBytes);
+        for (Item item : items) {
+            keys.writeUTF(item.getItemId());
+            keys.writeUTF(item.getSellerId());
+            keys.writeUTF(item.getBuyerId() == null ? "" : item.getBuyerId());
+        }
+        keys.flush();
+        byte[] raw = BinaryItemFile.encodeItems(items);
+        byte[] compressed = deflate(raw);
+
+        ByteBuffer block = ByteBuffer.allocate(BLOCK_HEADER_SIZE + keyBytes.size() + compressed.length);
+        block.putInt(BLOCK_MAGIC);
+        block.putInt(items.size());
+        block.putInt(raw.length);
+        block.putInt(compressed.length);
+        block.putInt(keyBytes.size());
+        block.put(keyBytes.toByteArray());
+        block.put(compressed);
+        block.flip();
+
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Could not create archive directory " + directory);
+        }
+        if (segmentLength > 0 && segmentLength + block.remaining() > segmentBytes) {
+            segment++;
+            segmentLength = 0;
+        }
+        long offset = segmentLength;
+        try (FileChannel channel = FileChannel.open(segmentFile(segment).toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            long position = offset;
+            while (block.hasRemaining()) {
+                position += channel.write(block, position);
+            }
+            channel.force(false);
+            segmentLength = position;
+        }
+        archivedBytes += segmentLength - offset;
+        indexKeys(keyBytes.toByteArray(), items.size(), (long) segment << SEGMENT_SHIFT | offset);
+    }
+
+    private static byte[] deflate(byte[] raw) {
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try {
+            deflater.setInput(raw);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, raw.length / 4));
+            byte[] chunk = new byte[8192];
+            while (!deflater.finished()) {
+                out.write(chunk, 0, deflater.deflate(chunk));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Checks whether an item is archived.
+     */
+    @Override
+    public synchronized boolean contains(CompactId itemId) {
+        return locations.containsKey(itemId);
+    }
+
+    /**
+     * Reads an archived item, or returns null if it is not archived.
+     */
+    @Override
+    public synchronized Item get(CompactId itemId) {
+        Long location = locations.get(itemId);
+        if (location == null) {
+            return null;
+        }
+        try {
+            return block(location).get(itemId);
+        } catch (IOException e) {
+            System.err.println("Error reading item archive: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Reads the archived items a seller sold, oldest archived first.
+     */
+    @Override
+    public synchronized List<Item> getBySeller(CompactId sellerId) {
+        return read(bySeller.get(sellerId));
+    }
+
+    /**
+     * Reads the archived items a user bought, oldest archived first.
+     */
+    @Override
+    public synchronized List<Item> getByBuyer(CompactId buyerId) {
+        return read(byBuyer.get(buyerId));
+    }
+
+    private List<Item> read(Set<CompactId> itemIds) {
+        if (itemIds == null) {
+            return Collections.emptyList();
+        }
+        List<Item> result = new ArrayList<>(itemIds.size());
+        for (CompactId itemId : itemIds) {
+            Item item = get(itemId);
+            if (item != null) {
+                result.add(item);
+            }
+        }
+        return result;
+    }
+
+    // Gets a block's items by ID, inflating it unless it was read recently
+    private Map<CompactId, Item> block(long location) throws IOException {
+        Map<CompactId, Item> items = decoded.get(location);
+        if (items != null) {
+            return items;
+        }
+        int number = (int) (location >>> SEGMENT_SHIFT);
+        long offset = location & ((1L << SEGMENT_SHIFT) - 1);
+        byte[] raw;
+        try (RandomAccessFile file = new RandomAccessFile(segmentFile(number), "r")) {
+            file.seek(offset);
+            if (file.readInt() != BLOCK_MAGIC) {
+                throw new IOException("No archive block at " + offset + " in " + segmentFile(number));
+            }
+            file.readInt();
+            raw = new byte[file.readInt()];
+            byte[] compressed = new byte[file.readInt()];
+            file.skipBytes(file.readInt());
+            file.readFully(compressed);
+            inflate(compressed, raw);
+        } catch (EOFException e) {
+            throw new IOException("Archive block cut short in " + segmentFile(number));
+        }
+        items = new HashMap<>();
+        for (Item item : BinaryItemFile.decode(ByteBuffer.wrap(raw), segmentFile(number).getPath())) {
+            items.put(item.getItemKey(), item);
+        }
+        decoded.put(location, items);
+        return items;
+    }
+
+    private static void inflate(byte[] compressed, byte[] raw) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            int length = 0;
+            while (length < raw.length && !inflater.finished()) {
+                int read = inflater.inflate(raw, length, raw.length - length);
+                if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                length += read;
+            }
+            if (length != raw.length) {
+                throw new IOException("Archive block inflated to " + length + " of " + raw.length + " bytes");
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt archive block: " + e.getMessage());
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private File segmentFile(int number) {
+        return new File(directory, String.format("segment-%06d.arc", number));
+    }
+
+    /**
+     * Gets the number of archived items.
+     */
+    @Override
+    public synchronized int size() {
+        return locations.size();
+    }
+
+    /**
+     * Gets the bytes the archive segments take on disk.
+     */
+    @Override
+    public synchronized long getArchivedBytes() {
+        return archivedBytes;
+    }
+}
@@ -0,0 +1,17 @@
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Interface for the ItemArchive class
+ */
+public interface ItemArchiveInterface {
+    void open() throws IOException;
+    void append(Collection<Item> items) throws IOException;
+    boolean contains(CompactId itemId);
+    Item get(CompactId itemId);
+    List<Item> getBySeller(CompactId sellerId);
+    List<Item> getByBuyer(CompactId buyerId);
+    int size();
+    long getArchivedBytes();
+}
@@ -0,0 +1,95 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests for the compressed item archive
+ */
+public class ItemArchiveTest {
+
+	private String tempDir() throws Exception {
+		File dir = Files.createTempDirectory("archive").toFile();
+		dir.deleteOnExit();
+		return dir.getPath();
+	}
+
+	private static Item sold(String itemId, String sellerId, String buyerId) {
+		Item item = new Item(itemId, sellerId, "Title " + itemId, "Description, with a comma", "Home", 12.5);
+		item.markAsSold(buyerId);
+		return item;
+	}
+
+	/** Tests that archived items are found by ID, seller and buyer, and again after reopening. */
+	@Test
+	public void testAppendAndFind() throws Exception {
+		String dir = tempDir();
+		ItemArchive archive = new ItemArchive(dir, ItemArchive.DEFAULT_SEGMENT_BYTES);
+		archive.open();
+		Item lamp = sold("item1", "seller1", "buyer1");
+		lamp.updateRating(4.0);
+		archive.append(Arrays.asList(lamp, sold("item2", "seller1", "buyer2")));
+		archive.append(Arrays.asList(sold("item3", "seller2", "buyer1")));
+
+		assertEquals(3, archive.size());
+		Item found = archive.get(CompactId.of("item1"));
+		assertEquals("Description, with a comma", found.getDescription());
+		assertEquals("buyer1", found.getBuyerId());
+		assertTrue(found.isSold());
+		assertEquals(4.0, found.getRating(), 0.001);
+		assertNull(archive.get(CompactId.of("item4")));
+		assertEquals(2, archive.getBySeller(CompactId.of("seller1")).size());
+		assertEquals(2, archive.getByBuyer(CompactId.of("buyer1")).size());
+
+		ItemArchive reopened = new ItemArchive(dir, ItemArchive.DEFAULT_SEGMENT_BYTES);
+		reopened.open();
+		assertEquals(3, reopened.size());
+		assertEquals(archive.getArchivedBytes(), reopened.getArchivedBytes());
+		assertEquals("Title item3", reopened.get(CompactId.of("item3")).getTitle());
+	}
+
+	/** Tests that an item archived again is read from its newest block, across segments. */
+	@Test
+	public void testNewestBlockWins() throws Exception {
+		String dir = tempDir();
+		ItemArchive archive = new ItemArchive(dir, 64);
+		archive.open();
+		Item chair = sold("item1", "seller1", "buyer1");
+		archive.append(Arrays.asList(chair));
+		chair.updateRating(5.0);
+		archive.append(Arrays.asList(chair));
+
+		assertTrue(new File(dir, "segment-000002.arc").exists());
+		ItemArchive reopened = new ItemArchive(dir, 64);
+		reopened.open();
+		assertEquals(1, reopened.size());
+		assertEquals(1, reopened.get(CompactId.of("item1")).getRatingCount());
+		List<Item> sold = reopened.getBySeller(CompactId.of("seller1"));
+		assertEquals(1, sold.size());
+	}
+
+	/** Tests that a block torn by a crash is cut off and appending continues after the intact blocks. */
+	@Test
+	public void testTornBlockIsTruncated() throws Exception {
+		String dir = tempDir();
+		ItemArchive archive = new ItemArchive(dir, ItemArchive.DEFAULT_SEGMENT_BYTES);
+		archive.open();
+		archive.append(Arrays.asList(sold("item1", "seller1", "buyer1")));
+		long intact = archive.getArchivedBytes();
+		archive.append(Arrays.asList(sold("item2", "seller1", "buyer1")));
+		try (RandomAccessFile file = new RandomAccessFile(new File(dir, "segment-000001.arc"), "rw")) {
+			file.setLength(file.length() - 5);
+		}
+
+		ItemArchive reopened = new ItemArchive(dir, ItemArchive.DEFAULT_SEGMENT_BYTES);
+		reopened.open();
+		assertEquals(1, reopened.size());
+		assertEquals(intact, reopened.getArchivedBytes());
+		reopened.append(Arrays.asList(sold("item3", "seller1", "buyer1")));
+		assertEquals("Title item3", reopened.get(CompactId.of("item3")).getTitle());
+		assertEquals("Title item1", reopened.get(CompactId.of("item1")).getTitle());
+	}
+}
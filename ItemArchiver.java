@@ -0,0 +1,142 @@
+import java.util.function.LongSupplier;
+
+/**
+ * Background thread that applies the archive policy of a Database: every
+ * interval, sold items listed more than minAgeMillis ago are moved into the
+ * item archive, batchSize at a time, until none are left.
+ */
+public class ItemArchiver implements ItemArchiverInterface, Runnable {
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+
+    private final Database database;
+    private final long minAgeMillis;
+    private final long intervalMillis;
+    private final int batchSize;
+    private final LongSupplier clock;
+    private final Object lock = new Object();
+    private boolean running;
+    private Thread thread;
+
+    /**
+     * Creates an archiver for items listed more than minAgeMillis ago that runs every intervalMillis.
+     */
+    public ItemArchiver(Database database, long minAgeMillis, long intervalMillis, int batchSize) {
+        this(database, minAgeMillis, intervalMillis, batchSize, System::currentTimeMillis);
+    }
+
+    /**
+     * Creates an archiver that reads the time from clock, in milliseconds.
+     */
+    public ItemArchiver(Database database, long minAgeMillis, long intervalMillis, int batchSize, LongSupplier clock) {
+        if (intervalMillis <= 0 || batchSize <= 0) {
+            throw new IllegalArgumentException("intervalMillis and batchSize must be positive");
+        }
+        this.database = database;
+        this.minAgeMillis = minAgeMillis;
+        this.intervalMillis = intervalMillis;
+        this.batchSize = batchSize;
+        this.clock = clock;
+        this.running = false;
+    }
+
+    /**
+     * Starts the archiver thread.
+     */
+    @Override
+    public void start() {
+        synchronized (lock) {
+            if (running) {
+                return;
+            }
+            running = true;
+        }
+        thread = new Thread(this, "item-archiver");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops the archiver thread, letting a batch in progress finish.
+     */
+    @Override
+    public void stop() {
+        synchronized (lock) {
+            if (!running) {
+                return;
+            }
+            running = false;
+            lock.notifyAll();
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Checks whether the archiver thread is running.
+     */
+    @Override
+    public boolean isRunning() {
+        synchronized (lock) {
+            return running;
+        }
+    }
+
+    /**
+     * Archives every item the policy selects now and returns how many moved.
+     */
+    @Override
+    public int archiveNow() {
+        long cutoff = clock.getAsLong() - minAgeMillis;
+        int total = 0;
+        int moved;
+        do {
+            moved = database.archiveSoldItems(cutoff, batchSize);
+            total += moved;
+        } while (moved == batchSize && isRunningOrIdle());
+        if (total > 0) {
+            System.out.println("Archived " + total + " sold items");
+        }
+        return total;
+    }
+
+    // Keeps a pass going unless the archiver was stopped while it ran
+    private boolean isRunningOrIdle() {
+        synchronized (lock) {
+            return running || thread == null;
+        }
+    }
+
+    /**
+     * Archive loop: waits for the interval, then archives.
+     */
+    @Override
+    public void run() {
+        while (true) {
+            synchronized (lock) {
+                long deadline = System.currentTimeMillis() + intervalMillis;
+                long remaining = intervalMillis;
+                while (running && remaining > 0) {
+                    try {
+                        lock.wait(remaining);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                    remaining = deadline - System.currentTimeMillis();
+                }
+                if (!running) {
+                    return;
+                }
+            }
+
+            try {
+                archiveNow();
+            } catch (RuntimeException e) {
+                System.err.println("Error archiving items: " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,9 @@
+/**
+ * Interface for the ItemArchiver class
+ */
+public interface ItemArchiverInterface {
+    void start();
+    void stop();
+    boolean isRunning();
+    int archiveNow();
+}
@@ -0,0 +1,48 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tests for the background item archiver
+ */
+public class ItemArchiverTest {
+
+	/** Tests that only sold items older than the policy's age are archived, in batches. */
+	@Test
+	public void testArchivesOldSoldItems() {
+		Database database = new Database();
+		database.useItemArchive(true);
+		database.readItemArchive();
+		database.addUser("archiverseller", "pass", "bio");
+		String sellerId = database.getUserByUsername("archiverseller").getUserId();
+		for (int i = 0; i < 5; i++) {
+			Item item = new Item(sellerId, "Book " + i, "Paperback.", "Books", 3.0);
+			database.addItem(item);
+			if (i < 4) {
+				item.markAsSold("archiverbuyer");
+			}
+		}
+
+		long day = 24 * 60 * 60 * 1000L;
+		AtomicLong clock = new AtomicLong(System.currentTimeMillis());
+		ItemArchiver archiver = new ItemArchiver(database, 30 * day, 60000, 3, clock::get);
+		assertEquals(0, archiver.archiveNow());
+		clock.addAndGet(31 * day);
+		assertEquals(4, archiver.archiveNow());
+		assertEquals(0, archiver.archiveNow());
+		assertEquals(1, database.getActiveListingsBySeller(sellerId).size());
+		assertEquals(4, database.getSoldItemsBySeller(sellerId).size());
+	}
+
+	/** Tests that the archiver thread starts and stops. */
+	@Test
+	public void testStartStop() {
+		Database database = new Database();
+		ItemArchiver archiver = new ItemArchiver(database, 0, 60000, 10);
+		assertFalse(archiver.isRunning());
+		archiver.start();
+		assertTrue(archiver.isRunning());
+		archiver.stop();
+		assertFalse(archiver.isRunning());
+	}
+}
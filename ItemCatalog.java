@@ -0,0 +1,405 @@
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Multi-version view of the item catalog. Every change to an item is
+ * committed as a new immutable ItemVersion stamped with a catalog version
+ * number and linked to the item's older versions. A reader pins the latest
+ * committed version with snapshot() and then sees exactly the items, and
+ * the sold state of each, as of that version, however long it reads and
+ * whatever writers commit meanwhile. Readers never hold a lock while they
+ * read, and writers never wait for readers.
+ *
+ * Versions no snapshot can see any more are unlinked when their item is
+ * written again and when the last snapshot that needed them is closed.
+ *
+ * Every item any snapshot can still see is also kept in a PriceIndex, so a
+ * snapshot walks a price band in price order without visiting the rest of
+ * the catalog. A removed item leaves the price index only once its removal
+ * is the oldest version any snapshot can see.
+ */
+public class ItemCatalog implements ItemCatalogInterface {
+    private final Map<CompactId, ItemVersion> heads;  // itemId -> newest version, older ones linked behind it
+    private final Set<CompactId> stale;               // items with versions or a removal to clean up
+    private final PriceIndex byPrice;                 // every item with a version a snapshot may see
+    private final TreeMap<Long, Integer> pins;     // pinned version -> open snapshots, guarded by itself
+    private volatile long committed;
+    private long nextVersion;                      // guarded by this
+
+    /**
+     * Creates an empty catalog at version 0.
+     */
+    public ItemCatalog() {
+        this.heads = new ConcurrentHashMap<>();
+        this.stale = ConcurrentHashMap.newKeySet();
+        this.byPrice = new PriceIndex();
+        this.pins = new TreeMap<>();
+        this.committed = 0;
+        this.nextVersion = 0;
+    }
+
+    /**
+     * Commits the current state of an item, adding it if it is new.
+     */
+    @Override
+    public synchronized long publish(Item item) {
+        return commit(item.getItemKey(), item, item.isSold(), item.getBuyerKey());
+    }
+
+    /**
+     * Commits the removal of an item. Snapshots pinned before it still see the item.
+     */
+    @Override
+    public synchronized long remove(String itemId) {
+        CompactId key = CompactId.of(itemId);
+        if (!heads.containsKey(key)) {
+            return committed;
+        }
+        return commit(key, null, false, null);
+    }
+
+    private long commit(CompactId itemId, Item item, boolean sold, CompactId buyerId) {
+        long version = ++nextVersion;
+        ItemVersion older = heads.get(itemId);
+        if (item != null && (older == null || older.isRemoved())) {
+            byPrice.add(item);
+        }
+        heads.put(itemId, new ItemVersion(item, itemId, sold, buyerId, version, older));
+        // Publish only after the version is linked, so a snapshot of it sees it
+        committed = version;
+        if (older != null) {
+            stale.add(itemId);
+            trim(itemId, oldestPinned());
+        }
+        return version;
+    }
+
+    /**
+     * Pins the latest committed version. Close the snapshot when done so
+     * superseded versions can be dropped.
+     */
+    @Override
+    public Snapshot snapshot() {
+        synchronized (pins) {
+            long version = committed;
+            pins.merge(version, 1, Integer::sum);
+            return new Snapshot(version);
+        }
+    }
+
+    /**
+     * Gets the latest committed version number.
+     */
+    @Override
+    public long getVersion() {
+        return committed;
+    }
+
+    /**
+     * Gets the number of snapshots that are still open.
+     */
+    @Override
+    public int getOpenSnapshotCount() {
+        synchronized (pins) {
+            int open = 0;
+            for (int count : pins.values()) {
+                open += count;
+            }
+            return open;
+        }
+    }
+
+    /**
+     * Gets the number of item versions held, including superseded ones.
+     */
+    @Override
+    public int getVersionCount() {
+        int count = 0;
+        for (ItemVersion head : heads.values()) {
+            for (ItemVersion version = head; version != null; version = version.older) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Drops every version that no open snapshot can see.
+     */
+    @Override
+    public synchronized void vacuum() {
+        long floor = oldestPinned();
+        for (CompactId itemId : new ArrayList<>(stale)) {
+            trim(itemId, floor);
+        }
+    }
+
+    /**
+     * Empties the catalog. Open snapshots keep what they see.
+     */
+    @Override
+    public synchronized void clear() {
+        for (CompactId itemId : new ArrayList<>(heads.keySet())) {
+            commit(itemId, null, false, null);
+        }
+        vacuum();
+    }
+
+    // Caller holds this. Keeps the newest version visible at floor and everything newer.
+    private void trim(CompactId itemId, long floor) {
+        ItemVersion head = heads.get(itemId);
+        ItemVersion visible = head;
+        while (visible != null && visible.version > floor) {
+            visible = visible.older;
+        }
+        if (visible == null) {
+            return;
+        }
+        visible.older = null;
+        if (visible == head) {
+            stale.remove(itemId);
+            if (head.isRemoved()) {
+                heads.remove(itemId);
+                byPrice.remove(head.removed);
+            }
+        }
+    }
+
+    private long oldestPinned() {
+        synchronized (pins) {
+            return pins.isEmpty() ? committed : Math.min(committed, pins.firstKey());
+        }
+    }
+
+    private void unpin(long version) {
+        synchronized (pins) {
+            Integer count = pins.get(version);
+            if (count == null) {
+                return;
+            }
+            if (count == 1) {
+                pins.remove(version);
+            } else {
+                pins.put(version, count - 1);
+            }
+        }
+        vacuum();
+    }
+
+    /**
+     * The state of one item as of one catalog version. Title, description,
+     * category, tags and price never change once an item exists, so they are
+     * read from the item; the sold state is captured here.
+     */
+    public static class ItemVersion {
+        private final Item item;
+        private final Item removed; // the item a removal takes away, so it can leave the price index
+        private final CompactId itemId;
+        private final boolean sold;
+        private final CompactId buyerId;
+        private final long version;
+        private volatile ItemVersion older; // cut by trim() once no snapshot can reach it
+
+        ItemVersion(Item item, CompactId itemId, boolean sold, CompactId buyerId, long version, ItemVersion older) {
+            this.item = item;
+            this.removed = item != null || older == null ? null : older.item != null ? older.item : older.removed;
+            this.itemId = itemId;
+            this.sold = sold;
+            this.buyerId = buyerId;
+            this.version = version;
+            this.older = older;
+        }
+
+        /**
+         * Gets the live item this version belongs to.
+         */
+        public Item getItem() {
+            return item;
+        }
+
+        /**
+         * Gets the item as of this version: the live item while its sold
+         * state still matches this version's, otherwise a detached copy
+         * carrying this version's sold state and buyer.
+         */
+        public Item toItem() {
+            if (item.isSold() == sold && Objects.equals(item.getBuyerKey(), buyerId)) {
+                return item;
+            }
+            return new Item(item, sold, buyerId);
+        }
+
+        /**
+         * Gets the item ID.
+         */
+        public String getItemId() {
+            return itemId.toString();
+        }
+
+        /**
+         * Checks whether the item was sold as of this version.
+         */
+        public boolean isSold() {
+            return sold;
+        }
+
+        /**
+         * Gets the buyer as of this version, or null if unsold.
+         */
+        public String getBuyerId() {
+            return buyerId == null ? null : buyerId.toString();
+        }
+
+        /**
+         * Gets the catalog version that committed this state.
+         */
+        public long getVersion() {
+            return version;
+        }
+
+        boolean isRemoved() {
+            return item == null;
+        }
+    }
+
+    /**
+     * A consistent, read-only view of the catalog as of one version.
+     */
+    public class Snapshot implements AutoCloseable, Iterable<ItemVersion> {
+        private final long version;
+        private boolean closed;
+
+        private Snapshot(long version) {
+            this.version = version;
+            this.closed = false;
+        }
+
+        /**
+         * Gets the catalog version this snapshot sees.
+         */
+        public long getVersion() {
+            return version;
+        }
+
+        /**
+         * Gets an item as of this snapshot, or null if it did not exist then.
+         */
+        public ItemVersion get(String itemId) {
+            return visible(heads.get(CompactId.of(itemId)));
+        }
+
+        /**
+         * Gets every item that existed as of this snapshot.
+         */
+        public List<ItemVersion> getItems() {
+            List<ItemVersion> items = new ArrayList<>();
+            for (ItemVersion version : this) {
+                items.add(version);
+            }
+            return items;
+        }
+
+        /**
+         * Iterates over the items priced from minPrice to maxPrice, inclusive,
+         * that existed as of this snapshot, cheapest first or most expensive
+         * first. Only items in the band are visited, and an iteration that
+         * stops early reads no further.
+         */
+        public Iterable<ItemVersion> byPrice(double minPrice, double maxPrice, boolean descending) {
+            return () -> new Iterator<ItemVersion>() {
+                private final Iterator<Item> band = byPrice.range(minPrice, maxPrice, descending).iterator();
+                private ItemVersion next = advance();
+
+                private ItemVersion advance() {
+                    while (band.hasNext()) {
+                        ItemVersion found = visible(heads.get(band.next().getItemKey()));
+                        if (found != null) {
+                            return found;
+                        }
+                    }
+                    return null;
+                }
+
+                @Override
+                public boolean hasNext() {
+                    return next != null;
+                }
+
+                @Override
+                public ItemVersion next() {
+                    if (next == null) {
+                        throw new NoSuchElementException();
+                    }
+                    ItemVersion current = next;
+                    next = advance();
+                    return current;
+                }
+            };
+        }
+
+        /**
+         * Iterates over every item that existed as of this snapshot, in no particular order.
+         */
+        @Override
+        public Iterator<ItemVersion> iterator() {
+            Iterator<ItemVersion> newest = heads.values().iterator();
+            return new Iterator<ItemVersion>() {
+                private ItemVersion next = advance();
+
+                private ItemVersion advance() {
+                    while (newest.hasNext()) {
+                        ItemVersion found = visible(newest.next());
+                        if (found != null) {
+                            return found;
+                        }
+                    }
+                    return null;
+                }
+
+                @Override
+                public boolean hasNext() {
+                    return next != null;
+                }
+
+                @Override
+                public ItemVersion next() {
+                    if (next == null) {
+                        throw new NoSuchElementException();
+                    }
+                    ItemVersion current = next;
+                    next = advance();
+                    return current;
+                }
+            };
+        }
+
+        private ItemVersion visible(ItemVersion head) {
+            ItemVersion candidate = head;
+            while (candidate != null && candidate.version > version) {
+                candidate = candidate.older;
+            }
+            return candidate == null || candidate.isRemoved() ? null : candidate;
+        }
+
+        /**
+         * Releases the snapshot. Closing it twice has no effect.
+         */
+        @Override
+        public void close() {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+            }
+            unpin(version);
+        }
+    }
+}
@@ -0,0 +1,13 @@
+/**
+ * Interface for the ItemCatalog class
+ */
+public interface ItemCatalogInterface {
+    long publish(Item item);
+    long remove(String itemId);
+    ItemCatalog.Snapshot snapshot();
+    long getVersion();
+    int getOpenSnapshotCount();
+    int getVersionCount();
+    void vacuum();
+    void clear();
+}
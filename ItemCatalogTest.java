@@ -0,0 +1,151 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Tests for the multi-version item catalog
+ */
+public class ItemCatalogTest {
+
+	/** Tests that a snapshot keeps seeing the catalog as of when it was taken. */
+	@Test
+	public void testSnapshotIsolation() {
+		ItemCatalog catalog = new ItemCatalog();
+		Item lamp = new Item("item1", "seller1", "Lamp", "Desk lamp", "Home", 20.0);
+		Item rug = new Item("item2", "seller1", "Rug", "Wool rug", "Home", 45.0);
+		catalog.publish(lamp);
+		catalog.publish(rug);
+
+		ItemCatalog.Snapshot before = catalog.snapshot();
+		lamp.markAsSold("buyer1");
+		catalog.publish(lamp);
+		catalog.remove("item2");
+		catalog.publish(new Item("item3", "seller2", "Chair", "Office chair", "Home", 60.0));
+
+		assertEquals(2, before.getItems().size());
+		assertFalse(before.get("item1").isSold());
+		assertNotNull(before.get("item2"));
+		assertNull(before.get("item3"));
+
+		try (ItemCatalog.Snapshot after = catalog.snapshot()) {
+			assertEquals(2, after.getItems().size());
+			assertTrue(after.get("item1").isSold());
+			assertEquals("buyer1", after.get("item1").getBuyerId());
+			assertNull(after.get("item2"));
+		}
+		before.close();
+	}
+
+	/** Tests that an item read through an old version shows that version's sold state. */
+	@Test
+	public void testToItemUsesVersionState() {
+		ItemCatalog catalog = new ItemCatalog();
+		Item lamp = new Item("item1", "seller1", "Lamp", "Desk lamp", "Home", 20.0);
+		catalog.publish(lamp);
+
+		try (ItemCatalog.Snapshot before = catalog.snapshot()) {
+			assertSame(lamp, before.get("item1").toItem());
+			lamp.markAsSold("buyer1");
+			catalog.publish(lamp);
+
+			Item asOfSnapshot = before.get("item1").toItem();
+			assertNotSame(lamp, asOfSnapshot);
+			assertFalse(asOfSnapshot.isSold());
+			assertNull(asOfSnapshot.getBuyerId());
+			assertEquals("Lamp", asOfSnapshot.getTitle());
+			assertEquals(lamp.getItemKey(), asOfSnapshot.getItemKey());
+		}
+	}
+
+	/** Tests that a snapshot walks a price band in order and still sees items removed after it was pinned. */
+	@Test
+	public void testByPriceFollowsSnapshot() {
+		ItemCatalog catalog = new ItemCatalog();
+		catalog.publish(new Item("item1", "seller1", "Lamp", "Desk lamp", "Home", 20.0));
+		catalog.publish(new Item("item2", "seller1", "Rug", "Wool rug", "Home", 45.0));
+		catalog.publish(new Item("item3", "seller1", "Desk", "Oak desk", "Home", 90.0));
+
+		ItemCatalog.Snapshot before = catalog.snapshot();
+		catalog.remove("item2");
+		catalog.publish(new Item("item4", "seller2", "Chair", "Office chair", "Home", 30.0));
+
+		List<String> band = new ArrayList<>();
+		for (ItemCatalog.ItemVersion version : before.byPrice(10.0, 50.0, true)) {
+			band.add(version.getItemId());
+		}
+		assertEquals(Arrays.asList("item2", "item1"), band);
+		before.close();
+
+		try (ItemCatalog.Snapshot after = catalog.snapshot()) {
+			band.clear();
+			for (ItemCatalog.ItemVersion version : after.byPrice(10.0, 50.0, false)) {
+				band.add(version.getItemId());
+			}
+			assertEquals(Arrays.asList("item1", "item4"), band);
+		}
+	}
+
+	/** Tests that superseded versions are dropped once no snapshot needs them. */
+	@Test
+	public void testVersionsDroppedAfterClose() {
+		ItemCatalog catalog = new ItemCatalog();
+		Item lamp = new Item("item1", "seller1", "Lamp", "Desk lamp", "Home", 20.0);
+		catalog.publish(lamp);
+		catalog.publish(new Item("item2", "seller1", "Rug", "Wool rug", "Home", 45.0));
+
+		ItemCatalog.Snapshot snapshot = catalog.snapshot();
+		lamp.markAsSold("buyer1");
+		catalog.publish(lamp);
+		catalog.remove("item2");
+		assertEquals(4, catalog.getVersionCount());
+		assertEquals(1, catalog.getOpenSnapshotCount());
+
+		snapshot.close();
+		snapshot.close();
+		assertEquals(0, catalog.getOpenSnapshotCount());
+		assertEquals(1, catalog.getVersionCount());
+	}
+
+	/** Tests that scans stay consistent while another thread keeps selling and relisting. */
+	@Test
+	public void testConsistentScansUnderWrites() throws Exception {
+		ItemCatalog catalog = new ItemCatalog();
+		for (int i = 0; i < 200; i++) {
+			catalog.publish(new Item("item" + i, "seller1", "Item " + i, "Thing", "Other", i));
+		}
+		AtomicBoolean running = new AtomicBoolean(true);
+		AtomicReference<Throwable> failure = new AtomicReference<>();
+		Thread writer = new Thread(() -> {
+			int next = 200;
+			while (running.get()) {
+				// Replace one item by another, so every version holds exactly 200 items
+				catalog.remove("item" + (next - 200));
+				catalog.publish(new Item("item" + next, "seller1", "Item " + next, "Thing", "Other", next));
+				next++;
+			}
+		});
+		writer.start();
+		try {
+			for (int scan = 0; scan < 200; scan++) {
+				try (ItemCatalog.Snapshot snapshot = catalog.snapshot()) {
+					int count = snapshot.getItems().size();
+					// A scan between a removal and its replacement sees 199
+					assertTrue("Saw " + count, count == 200 || count == 199);
+					assertEquals(count, snapshot.getItems().size());
+				}
+			}
+		} catch (Throwable e) {
+			failure.set(e);
+		} finally {
+			running.set(false);
+			writer.join();
+		}
+		if (failure.get() != null) {
+			throw new AssertionError(failure.get());
+		}
+	}
+}
@@ -0,0 +1,343 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Secondary indexes over the items of a Database: by seller (split into
+ * active and sold), by buyer, by category, by sold state, by price, by ID
+ * and, for sold items, by listing time. Every index is
+ * updated when an item is added, removed or sold, so each query costs only
+ * the size of its result instead of a scan of every item. Time-ordered IDs
+ * sort by listing time, so the ID index also answers recency queries.
+ *
+ * Indexed items notify the index themselves when they are marked as sold,
+ * so a sale is indexed no matter which code path performs it. Every change
+ * is also committed to an ItemCatalog, so readers can scan a consistent
+ * snapshot without holding any lock.
+ *
+ * Queries return unmodifiable snapshot lists that later changes never
+ * touch, so callers can iterate them without locking or copying. A bucket
+ * builds its snapshot on the first read after a change and shares it with
+ * every reader until the next change.
+ */
+public class ItemIndex implements ItemIndexInterface {
+    private final Map<CompactId, Bucket> activeBySeller; // sellerId -> unsold listings
+    private final Map<CompactId, Bucket> soldBySeller;   // sellerId -> sold listings
+    private final Map<CompactId, Bucket> byBuyer;        // buyerId -> purchases
+    private final Map<String, Bucket> byCategory;        // lower-case category -> items
+    private final Bucket active;                      // every unsold item
+    private final NavigableMap<CompactId, Item> byId; // every item in ID order, listing order for time-ordered IDs
+    private final NavigableMap<CompactId, Item> soldByTime; // sold items with time-ordered IDs, in listing order
+    private final Map<CompactId, Item> soldUntimed;       // sold items whose IDs carry no listing time
+    private final PriceIndex byPrice;                            // every item, in price order
+    private final ItemCatalog catalog;                           // versioned snapshots of every item
+
+    /**
+     * Creates empty indexes.
+     */
+    public ItemIndex() {
+        this.activeBySeller = new HashMap<>();
+        this.soldBySeller = new HashMap<>();
+        this.byBuyer = new HashMap<>();
+        this.byCategory = new HashMap<>();
+        this.active = new Bucket();
+        this.byId = new TreeMap<>();
+        this.soldByTime = new TreeMap<>();
+        this.soldUntimed = new LinkedHashMap<>();
+        this.byPrice = new PriceIndex();
+        this.catalog = new ItemCatalog();
+    }
+
+    /**
+     * Adds an item to every index and subscribes to its sale.
+     */
+    @Override
+    public synchronized void add(Item item) {
+        CompactId itemId = item.getItemKey();
+        if (item.isSold()) {
+            bucket(soldBySeller, item.getSellerKey()).put(itemId, item);
+            if (item.getBuyerKey() != null) {
+                bucket(byBuyer, item.getBuyerKey()).put(itemId, item);
+            }
+            soldByListingTime(itemId).put(itemId, item);
+        } else {
+            bucket(activeBySeller, item.getSellerKey()).put(itemId, item);
+            active.put(itemId, item);
+        }
+        if (item.getCategory() != null) {
+            bucket(byCategory, categoryKey(item.getCategory())).put(itemId, item);
+        }
+        byId.put(itemId, item);
+        byPrice.add(item);
+        catalog.publish(item);
+        item.setIndex(this);
+    }
+
+    /**
+     * Removes an item from every index.
+     */
+    @Override
+    public synchronized void remove(Item item) {
+        CompactId itemId = item.getItemKey();
+        item.setIndex(null);
+        active.remove(itemId);
+        unbucket(activeBySeller, item.getSellerKey(), itemId);
+        unbucket(soldBySeller, item.getSellerKey(), itemId);
+        if (item.getBuyerKey() != null) {
+            unbucket(byBuyer, item.getBuyerKey(), itemId);
+        }
+        if (item.getCategory() != null) {
+            unbucket(byCategory, categoryKey(item.getCategory()), itemId);
+        }
+        byId.remove(itemId);
+        soldByListingTime(itemId).remove(itemId);
+        byPrice.remove(item);
+        catalog.remove(item.getItemId());
+    }
+
+    /**
+     * Moves an item that was just sold from the active indexes to the sold ones.
+     */
+    @Override
+    public synchronized void sold(Item item) {
+        CompactId itemId = item.getItemKey();
+        if (active.remove(itemId) == null) {
+            return;
+        }
+        unbucket(activeBySeller, item.getSellerKey(), itemId);
+        bucket(soldBySeller, item.getSellerKey()).put(itemId, item);
+        if (item.getBuyerKey() != null) {
+            bucket(byBuyer, item.getBuyerKey()).put(itemId, item);
+        }
+        soldByListingTime(itemId).put(itemId, item);
+        catalog.publish(item);
+    }
+
+    /**
+     * Gets every unsold item.
+     */
+    @Override
+    public synchronized List<Item> getActive() {
+        return active.view();
+    }
+
+    /**
+     * Gets a seller's unsold listings.
+     */
+    @Override
+    public synchronized List<Item> getActiveBySeller(CompactId sellerId) {
+        return view(activeBySeller.get(sellerId));
+    }
+
+    /**
+     * Gets a seller's sold listings.
+     */
+    @Override
+    public synchronized List<Item> getSoldBySeller(CompactId sellerId) {
+        return view(soldBySeller.get(sellerId));
+    }
+
+    /**
+     * Gets the items a user has bought.
+     */
+    @Override
+    public synchronized List<Item> getByBuyer(CompactId buyerId) {
+        return view(byBuyer.get(buyerId));
+    }
+
+    /**
+     * Gets the items in a category, ignoring case.
+     */
+    @Override
+    public synchronized List<Item> getByCategory(String category) {
+        return view(byCategory.get(categoryKey(category)));
+    }
+
+    /**
+     * Gets the items listed from fromMillis to toMillis, inclusive, oldest
+     * first. Only items with time-ordered IDs can be placed in time, so
+     * items with other IDs are left out.
+     */
+    @Override
+    public synchronized List<Item> getListedBetween(long fromMillis, long toMillis) {
+        List<Item> listed = new ArrayList<>();
+        if (fromMillis > toMillis) {
+            return listed;
+        }
+        for (Map.Entry<CompactId, Item> entry : byId.subMap(IdGenerator.lowestAt(fromMillis), true,
+                IdGenerator.highestAt(toMillis), true).entrySet()) {
+            if (IdGenerator.isTimeOrdered(entry.getKey())) {
+                listed.add(entry.getValue());
+            }
+        }
+        return listed;
+    }
+
+    /**
+     * Gets up to limit of the most recently listed items, newest first.
+     * Items without time-ordered IDs are left out.
+     */
+    @Override
+    public synchronized List<Item> getNewest(int limit) {
+        List<Item> newest = new ArrayList<>();
+        // IDs kept as strings sort after every UUID, so start below them
+        NavigableMap<CompactId, Item> uuids = byId.headMap(IdGenerator.highestAt(-1L), true);
+        for (Map.Entry<CompactId, Item> entry : uuids.descendingMap().entrySet()) {
+            if (newest.size() >= limit) {
+                break;
+            }
+            if (IdGenerator.isTimeOrdered(entry.getKey())) {
+                newest.add(entry.getValue());
+            }
+        }
+        return newest;
+    }
+
+    /**
+     * Gets up to limit sold items listed before beforeMillis, oldest first.
+     * Items whose IDs carry no listing time count as old and come first.
+     */
+    @Override
+    public synchronized List<Item> getSoldListedBefore(long beforeMillis, int limit) {
+        List<Item> old = new ArrayList<>();
+        for (Item item : soldUntimed.values()) {
+            if (old.size() >= limit) {
+                return old;
+            }
+            old.add(item);
+        }
+        for (Item item : soldByTime.headMap(IdGenerator.lowestAt(beforeMillis), false).values()) {
+            if (old.size() >= limit) {
+                break;
+            }
+            old.add(item);
+        }
+        return old;
+    }
+
+    /**
+     * Gets a live view of the items priced from minPrice to maxPrice, sold or
+     * not, in price order. It is safe to read without holding this index.
+     */
+    @Override
+    public Collection<Item> getByPrice(double minPrice, double maxPrice, boolean descending) {
+        return byPrice.range(minPrice, maxPrice, descending);
+    }
+
+    /**
+     * Gets the versioned catalog of every indexed item.
+     */
+    @Override
+    public ItemCatalog getCatalog() {
+        return catalog;
+    }
+
+    /**
+     * Gets the number of unsold items.
+     */
+    @Override
+    public synchronized int getActiveCount() {
+        return active.size();
+    }
+
+    /**
+     * Empties every index.
+     */
+    @Override
+    public synchronized void clear() {
+        for (Bucket items : activeBySeller.values()) {
+            for (Item item : items.items.values()) {
+                item.setIndex(null);
+            }
+        }
+        for (Bucket items : soldBySeller.values()) {
+            for (Item item : items.items.values()) {
+                item.setIndex(null);
+            }
+        }
+        activeBySeller.clear();
+        soldBySeller.clear();
+        byBuyer.clear();
+        byCategory.clear();
+        active.clear();
+        byId.clear();
+        soldByTime.clear();
+        soldUntimed.clear();
+        byPrice.clear();
+        catalog.clear();
+    }
+
+    private static <K> Bucket bucket(Map<K, Bucket> index, K key) {
+        return index.computeIfAbsent(key, k -> new Bucket());
+    }
+
+    private static <K> void unbucket(Map<K, Bucket> index, K key, CompactId itemId) {
+        Bucket items = index.get(key);
+        if (items != null) {
+            items.remove(itemId);
+            if (items.isEmpty()) {
+                index.remove(key);
+            }
+        }
+    }
+
+    private static List<Item> view(Bucket items) {
+        return items == null ? Collections.emptyList() : items.view();
+    }
+
+    private Map<CompactId, Item> soldByListingTime(CompactId itemId) {
+        return IdGenerator.isTimeOrdered(itemId) ? soldByTime : soldUntimed;
+    }
+
+    private static String categoryKey(String category) {
+        return category.toLowerCase();
+    }
+
+    /**
+     * Items in insertion order with a cached snapshot list for readers.
+     */
+    private static class Bucket {
+        final Map<CompactId, Item> items = new LinkedHashMap<>();
+        private List<Item> snapshot; // null after a change until the next read
+
+        void put(CompactId itemId, Item item) {
+            if (items.put(itemId, item) != item) {
+                snapshot = null;
+            }
+        }
+
+        Item remove(CompactId itemId) {
+            Item removed = items.remove(itemId);
+            if (removed != null) {
+                snapshot = null;
+            }
+            return removed;
+        }
+
+        boolean isEmpty() {
+            return items.isEmpty();
+        }
+
+        int size() {
+            return items.size();
+        }
+
+        void clear() {
+            items.clear();
+            snapshot = null;
+        }
+
+        List<Item> view() {
+            if (snapshot == null) {
+                snapshot = Collections.unmodifiableList(new ArrayList<>(items.values()));
+            }
+            return snapshot;
+        }
+    }
+}
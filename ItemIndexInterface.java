@@ -0,0 +1,23 @@
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Interface for the ItemIndex class
+ */
+public interface ItemIndexInterface {
+    void add(Item item);
+    void remove(Item item);
+    void sold(Item item);
+    List<Item> getActive();
+    List<Item> getActiveBySeller(CompactId sellerId);
+    List<Item> getSoldBySeller(CompactId sellerId);
+    List<Item> getByBuyer(CompactId buyerId);
+    List<Item> getListedBetween(long fromMillis, long toMillis);
+    List<Item> getNewest(int limit);
+    List<Item> getSoldListedBefore(long beforeMillis, int limit);
+    List<Item> getByCategory(String category);
+    Collection<Item> getByPrice(double minPrice, double maxPrice, boolean descending);
+    ItemCatalog getCatalog();
+    int getActiveCount();
+    void clear();
+}
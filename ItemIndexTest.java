@@ -0,0 +1,139 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+import java.util.List;
+
+/**
+ * Tests for the secondary item indexes
+ */
+public class ItemIndexTest {
+
+	private ItemIndex indexOf(Item... items) {
+		ItemIndex index = new ItemIndex();
+		for (Item item : items) {
+			index.add(item);
+		}
+		return index;
+	}
+
+	/** Tests that added items show up as active listings of their seller. */
+	@Test
+	public void testAddIndexesActiveListings() {
+		Item lamp = new Item("item1", "seller1", "Lamp", "Desk lamp", "Home", 12.5);
+		Item chair = new Item("item2", "seller1", "Chair", "Office chair", "home", 40.0);
+		ItemIndex index = indexOf(lamp, chair);
+		assertEquals(2, index.getActiveCount());
+		assertEquals(2, index.getActiveBySeller(CompactId.of("seller1")).size());
+		assertTrue(index.getSoldBySeller(CompactId.of("seller1")).isEmpty());
+		assertTrue(index.getActiveBySeller(CompactId.of("seller2")).isEmpty());
+	}
+
+	/** Tests that marking an item as sold moves it to the sold and buyer indexes. */
+	@Test
+	public void testMarkAsSoldMovesItem() {
+		Item lamp = new Item("item1", "seller1", "Lamp", "Desk lamp", "Home", 12.5);
+		Item chair = new Item("item2", "seller1", "Chair", "Office chair", "home", 40.0);
+		ItemIndex index = indexOf(lamp, chair);
+		assertTrue(lamp.markAsSold("buyer1"));
+
+		assertEquals(1, index.getActiveCount());
+		List<Item> sold = index.getSoldBySeller(CompactId.of("seller1"));
+		assertEquals(1, sold.size());
+		assertSame(lamp, sold.get(0));
+		assertEquals(1, index.getByBuyer(CompactId.of("buyer1")).size());
+		assertEquals(1, index.getActiveBySeller(CompactId.of("seller1")).size());
+	}
+
+	/** Tests that a removed item disappears from every index. */
+	@Test
+	public void testRemoveDropsItemEverywhere() {
+		Item lamp = new Item("item1", "seller1", "Lamp", "Desk lamp", "Home", 12.5);
+		Item chair = new Item("item2", "seller1", "Chair", "Office chair", "home", 40.0);
+		ItemIndex index = indexOf(lamp, chair);
+		chair.markAsSold("buyer1");
+		index.remove(chair);
+
+		assertTrue(index.getByBuyer(CompactId.of("buyer1")).isEmpty());
+		assertTrue(index.getSoldBySeller(CompactId.of("seller1")).isEmpty());
+		assertEquals(1, index.getByCategory("home").size());
+	}
+
+	/** Tests that category lookups ignore case. */
+	@Test
+	public void testCategoryIgnoresCase() {
+		Item lamp = new Item("item1", "seller1", "Lamp", "Desk lamp", "Home", 12.5);
+		Item chair = new Item("item2", "seller1", "Chair", "Office chair", "home", 40.0);
+		ItemIndex index = indexOf(lamp, chair);
+		assertEquals(2, index.getByCategory("HOME").size());
+		assertTrue(index.getByCategory("Garden").isEmpty());
+	}
+
+	/** Tests that query results are shared snapshots that later changes do not touch. */
+	@Test
+	public void testResultsAreSnapshots() {
+		Item lamp = new Item("item1", "seller1", "Lamp", "Desk lamp", "Home", 12.5);
+		ItemIndex index = indexOf(lamp);
+		java.util.List<Item> before = index.getActiveBySeller(CompactId.of("seller1"));
+		assertSame(before, index.getActiveBySeller(CompactId.of("seller1")));
+
+		index.add(new Item("item2", "seller1", "Chair", "Office chair", "Home", 40.0));
+		lamp.markAsSold("buyer1");
+		assertEquals(1, before.size());
+		assertEquals(1, index.getActiveBySeller(CompactId.of("seller1")).size());
+		assertNotSame(before, index.getActiveBySeller(CompactId.of("seller1")));
+		try {
+			before.add(lamp);
+			fail("Expected an unmodifiable list");
+		} catch (UnsupportedOperationException e) {
+			// expected
+		}
+	}
+
+	/** Tests that items with time-ordered IDs can be found by listing time and newest first. */
+	@Test
+	public void testListedBetweenAndNewest() {
+		IdGenerator generator = new IdGenerator(() -> 1000L);
+		Item older = new Item(generator.next().toString(), "seller1", "Lamp", "Desk lamp", "Home", 12.5);
+		Item newer = new Item(IdGenerator.lowestAt(2000L).toString(), "seller1", "Rug", "Wool rug", "Home", 30.0);
+		Item legacy = new Item("item1", "seller1", "Chair", "Office chair", "Home", 40.0);
+		ItemIndex index = indexOf(newer, legacy, older);
+
+		assertEquals(2, index.getListedBetween(0, 5000).size());
+		assertSame(older, index.getListedBetween(0, 5000).get(0));
+		assertEquals(1, index.getListedBetween(1000, 1999).size());
+		assertTrue(index.getListedBetween(3000, 4000).isEmpty());
+
+		List<Item> newest = index.getNewest(5);
+		assertEquals(2, newest.size());
+		assertSame(newer, newest.get(0));
+		assertSame(older, newest.get(1));
+		assertEquals(1, index.getNewest(1).size());
+
+		index.remove(newer);
+		assertSame(older, index.getNewest(5).get(0));
+	}
+
+	/** Tests that old sold items come back oldest first, legacy IDs counted as old, and leave when archived. */
+	@Test
+	public void testSoldListedBefore() {
+		IdGenerator generator = new IdGenerator(() -> 1000L);
+		Item older = new Item(generator.next().toString(), "seller1", "Lamp", "Desk lamp", "Home", 12.5);
+		Item newer = new Item(IdGenerator.lowestAt(2000L).toString(), "seller1", "Rug", "Wool rug", "Home", 30.0);
+		Item legacy = new Item("item1", "seller1", "Chair", "Office chair", "Home", 40.0);
+		Item unsold = new Item(IdGenerator.lowestAt(500L).toString(), "seller1", "Desk", "Oak desk", "Home", 90.0);
+		ItemIndex index = indexOf(newer, legacy, older, unsold);
+		assertTrue(index.getSoldListedBefore(5000, 10).isEmpty());
+
+		newer.markAsSold("buyer1");
+		older.markAsSold("buyer1");
+		legacy.markAsSold("buyer1");
+		List<Item> old = index.getSoldListedBefore(2000, 10);
+		assertEquals(2, old.size());
+		assertSame(legacy, old.get(0));
+		assertSame(older, old.get(1));
+		assertEquals(1, index.getSoldListedBefore(5000, 1).size());
+		assertEquals(3, index.getSoldListedBefore(5000, 10).size());
+
+		index.remove(legacy);
+		assertSame(older, index.getSoldListedBefore(2000, 10).get(0));
+	}
+}
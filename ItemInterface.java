@@ -2,7 +2,9 @@ import java.util.List;
 
 public interface ItemInterface {
     String getItemId();
+    CompactId getItemKey();
     String getSellerId();
+    CompactId getSellerKey();
     String getTitle();
     String getDescription();
     String getCategory();
@@ -13,6 +15,7 @@ public interface ItemInterface {
     boolean isSold();
     boolean markAsSold(String buyerId);
     String getBuyerId();
+    CompactId getBuyerKey();
     List<String> getStopwords();
     List<String> extractTags(List<String> stopwords);
     void getSpecialCharacters();
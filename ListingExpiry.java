@@ -0,0 +1,187 @@
+import java.util.Collection;
+import java.util.List;
+import java.util.function.LongSupplier;
+
+/**
+ * Background thread that ends unsold listings ttlMillis after they were
+ * listed. Each listing is put on a TimingWheel once, when it is added or
+ * loaded, at the listing time in its ID plus the TTL; every tick the thread
+ * takes only the listings that just became due and has the Database remove
+ * or archive them, batchSize at a time. No pass ever scans the catalog.
+ *
+ * Sold and removed listings stay on the wheel and are skipped when they
+ * come due. Listings whose IDs carry no listing time are given a full TTL
+ * from the moment they are scheduled.
+ */
+public class ListingExpiry implements ListingExpiryInterface, Runnable {
+    public static final long DEFAULT_TICK_MILLIS = 1000;
+    public static final int DEFAULT_BATCH_SIZE = 1000;
+
+    /**
+     * What happens to a listing when it expires.
+     */
+    public enum Action {
+        REMOVE,   // dropped like a listing its seller removed
+        ARCHIVE   // moved into the item archive, or removed when archiving is off
+    }
+
+    private final Database database;
+    private final long ttlMillis;
+    private final Action action;
+    private final int batchSize;
+    private final LongSupplier clock;
+    private final TimingWheel<CompactId> wheel;
+    private final Object lock = new Object();
+    private boolean running;
+    private Thread thread;
+
+    /**
+     * Creates an expiry for listings older than ttlMillis that checks every tickMillis.
+     */
+    public ListingExpiry(Database database, long ttlMillis, long tickMillis, Action action) {
+        this(database, ttlMillis, tickMillis, action, System::currentTimeMillis);
+    }
+
+    /**
+     * Creates an expiry that reads the time from clock, in milliseconds.
+     */
+    public ListingExpiry(Database database, long ttlMillis, long tickMillis, Action action, LongSupplier clock) {
+        if (ttlMillis <= 0 || tickMillis <= 0) {
+            throw new IllegalArgumentException("ttlMillis and tickMillis must be positive");
+        }
+        this.database = database;
+        this.ttlMillis = ttlMillis;
+        this.action = action;
+        this.batchSize = DEFAULT_BATCH_SIZE;
+        this.clock = clock;
+        this.wheel = new TimingWheel<>(tickMillis, clock.getAsLong());
+        this.running = false;
+    }
+
+    /**
+     * Schedules a listing to expire ttlMillis after its listing time.
+     */
+    @Override
+    public void schedule(Item item) {
+        long listedAt = IdGenerator.timestampOf(item.getItemKey());
+        if (listedAt < 0) {
+            listedAt = clock.getAsLong();
+        }
+        wheel.schedule(item.getItemKey(), listedAt + ttlMillis);
+    }
+
+    /**
+     * Schedules every unsold listing in the collection.
+     */
+    @Override
+    public void scheduleAll(Collection<Item> listings) {
+        for (Item item : listings) {
+            if (!item.isSold()) {
+                schedule(item);
+            }
+        }
+    }
+
+    /**
+     * Ends every listing due by now and returns how many ended.
+     */
+    @Override
+    public int expireNow() {
+        List<CompactId> due = wheel.advance(clock.getAsLong());
+        int total = 0;
+        for (int from = 0; from < due.size(); from += batchSize) {
+            List<CompactId> batch = due.subList(from, Math.min(from + batchSize, due.size()));
+            total += database.expireListings(batch, action == Action.ARCHIVE);
+        }
+        if (total > 0) {
+            System.out.println("Expired " + total + " listings");
+        }
+        return total;
+    }
+
+    /**
+     * Gets the number of listings on the wheel, including sold and removed
+     * ones that have not come due yet.
+     */
+    @Override
+    public int getScheduledCount() {
+        return wheel.size();
+    }
+
+    /**
+     * Starts the expiry thread.
+     */
+    @Override
+    public void start() {
+        synchronized (lock) {
+            if (running) {
+                return;
+            }
+            running = true;
+        }
+        thread = new Thread(this, "listing-expiry");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops the expiry thread, letting a pass in progress finish.
+     */
+    @Override
+    public void stop() {
+        synchronized (lock) {
+            if (!running) {
+                return;
+            }
+            running = false;
+            lock.notifyAll();
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Checks whether the expiry thread is running.
+     */
+    @Override
+    public boolean isRunning() {
+        synchronized (lock) {
+            return running;
+        }
+    }
+
+    /**
+     * Expiry loop: waits for the next tick, then ends the listings due.
+     */
+    @Override
+    public void run() {
+        long tickMillis = wheel.getTickMillis();
+        while (true) {
+            synchronized (lock) {
+                long deadline = System.currentTimeMillis() + tickMillis;
+                long remaining = tickMillis;
+                while (running && remaining > 0) {
+                    try {
+                        lock.wait(remaining);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                    remaining = deadline - System.currentTimeMillis();
+                }
+                if (!running) {
+                    return;
+                }
+            }
+
+            try {
+                expireNow();
+            } catch (RuntimeException e) {
+                System.err.println("Error expiring listings: " + e.getMessage());
+            }
+        }
+    }
+}
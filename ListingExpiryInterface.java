@@ -0,0 +1,14 @@
+import java.util.Collection;
+
+/**
+ * Interface for the ListingExpiry class
+ */
+public interface ListingExpiryInterface {
+    void schedule(Item item);
+    void scheduleAll(Collection<Item> listings);
+    int expireNow();
+    int getScheduledCount();
+    void start();
+    void stop();
+    boolean isRunning();
+}
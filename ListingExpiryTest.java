@@ -0,0 +1,61 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tests for listing expiry
+ */
+public class ListingExpiryTest {
+
+	/** Tests that unsold listings are removed once their TTL passes, and sold ones are left alone. */
+	@Test
+	public void testRemovesExpiredListings() {
+		Database database = new Database();
+		database.addUser("expiryseller", "pass", "bio");
+		String sellerId = database.getUserByUsername("expiryseller").getUserId();
+		Item sold = new Item(sellerId, "Lamp", "Brass.", "Home", 12.0);
+		Item stale = new Item(sellerId, "Rug", "Wool.", "Home", 40.0);
+		database.addItem(sold);
+		database.addItem(stale);
+		sold.markAsSold("expirybuyer");
+
+		long day = 24 * 60 * 60 * 1000L;
+		AtomicLong clock = new AtomicLong(System.currentTimeMillis());
+		ListingExpiry expiry = new ListingExpiry(database, 30 * day, 1000, ListingExpiry.Action.REMOVE, clock::get);
+		expiry.scheduleAll(database.getAllItems());
+		assertEquals(1, expiry.getScheduledCount());
+		clock.addAndGet(29 * day);
+		assertEquals(0, expiry.expireNow());
+		clock.addAndGet(2 * day);
+		assertEquals(1, expiry.expireNow());
+		assertEquals(0, expiry.getScheduledCount());
+
+		assertNull(database.getItemById(stale.getItemId()));
+		assertNotNull(database.getItemById(sold.getItemId()));
+		assertTrue(database.getActiveListingsBySeller(sellerId).isEmpty());
+		assertTrue(database.getUserById(sellerId).viewActiveListings().isEmpty());
+	}
+
+	/** Tests that an archived listing leaves the catalog and is not shown as sold. */
+	@Test
+	public void testArchivesExpiredListings() {
+		Database database = new Database();
+		database.useItemArchive(true);
+		database.readItemArchive();
+		database.addUser("expiryarchiver", "pass", "bio");
+		String sellerId = database.getUserByUsername("expiryarchiver").getUserId();
+		Item stale = new Item(sellerId, "Vase", "Glass.", "Home", 8.0);
+		database.addItem(stale);
+
+		long day = 24 * 60 * 60 * 1000L;
+		AtomicLong clock = new AtomicLong(System.currentTimeMillis());
+		ListingExpiry expiry = new ListingExpiry(database, day, 1000, ListingExpiry.Action.ARCHIVE, clock::get);
+		expiry.schedule(stale);
+		clock.addAndGet(2 * day);
+		assertEquals(1, expiry.expireNow());
+
+		assertTrue(database.getItemArchive().contains(stale.getItemKey()));
+		assertNull(database.getItemById(stale.getItemId()));
+		assertTrue(database.getSoldItemsBySeller(sellerId).isEmpty());
+	}
+}
@@ -0,0 +1,356 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Database whose users and items are kept in an LsmStore instead of
+ * users.txt and items.txt. Each change is one put of the record under
+ * "user/" + userId or "item/" + itemId, so a burst of listings or sales
+ * costs a log append per record rather than a rewrite of a whole file.
+ *
+ * Values are length-prefixed fields (see encodeFields), so titles,
+ * descriptions and bios may hold commas and newlines. Values written as
+ * CSV lines by earlier versions are still read.
+ *
+ * With the user cache enabled, users are read from the store one at a
+ * time (see LsmUserFile) instead of all being loaded; with the archive
+ * enabled, old sold items move to the store's archive keys (see
+ * LsmItemArchive) and are read back by ID. Both are point lookups served
+ * through the store's Bloom filters and sparse indexes. Listed items stay
+ * in memory, since searches and the catalog indexes need all of them.
+ * Messages and ratings use the file backend unchanged.
+ */
+public class LsmDatabase extends Database implements LsmDatabaseInterface {
+    static final String USER_PREFIX = LsmUserFile.USER_PREFIX;
+    static final String ITEM_PREFIX = "item/";
+    private static final int USER_FIELDS = 5;
+    private static final int ITEM_FIELDS = 8;
+
+    private final LsmStore store;
+    private final LsmUserFile userTable;
+
+    /**
+     * Creates a database on the given store.
+     */
+    public LsmDatabase(LsmStore store) {
+        super();
+        this.store = store;
+        this.userTable = new LsmUserFile(store);
+    }
+
+    /**
+     * Gets the store that holds users and items.
+     */
+    @Override
+    public LsmStore getStore() {
+        return store;
+    }
+
+    /**
+     * Reads users from the store through the user cache when it is enabled.
+     */
+    @Override
+    UserFileInterface createUserFile() {
+        return userTable;
+    }
+
+    /**
+     * Archives sold items in the store.
+     */
+    @Override
+    ItemArchiveInterface createItemArchive() {
+        return new LsmItemArchive(store);
+    }
+
+    /**
+     * Loads every user from the store, or with the user cache enabled only
+     * counts them; they are then read by point lookup when needed.
+     */
+    @Override
+    public synchronized void readUserFile() {
+        if (isUserCacheEnabled()) {
+            openUserFile();
+            return;
+        }
+        List<User> users = new ArrayList<>();
+        try {
+            for (String line : store.scan(USER_PREFIX).values()) {
+                User user = parseUserLine(line);
+                if (user != null) {
+                    users.add(user);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Error reading users from store: " + e.getMessage());
+        }
+        installUsers(users);
+    }
+
+    /**
+     * Loads every item from the store, except archived ones.
+     */
+    @Override
+    public synchronized void readItemFile() {
+        List<Item> items = new ArrayList<>();
+        try {
+            for (String value : store.scan(ITEM_PREFIX).values()) {
+                Item item = decodeItem(value);
+                if (item != null) {
+                    items.add(item);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Error reading items from store: " + e.getMessage());
+        }
+        installItems(items);
+    }
+
+    /**
+     * Puts every user in memory into the store; the others are already there.
+     */
+    @Override
+    public synchronized void writeUserFile() {
+        for (User user : getUserCache().values()) {
+            putUser(user);
+        }
+    }
+
+    /**
+     * Puts every item into the store.
+     */
+    @Override
+    public synchronized void writeItemFile() {
+        for (Item item : getAllItems()) {
+            put(ITEM_PREFIX + item.getItemId(), encodeItem(item));
+        }
+    }
+
+    /**
+     * Puts each user of a batch; the store's log makes that one append each.
+     */
+    @Override
+    void persistAddedUsers(List<User> added) {
+        for (User user : added) {
+            putUser(user);
+        }
+    }
+
+    /**
+     * Puts each item of a batch, or deletes it if it was removed.
+     */
+    @Override
+    void persistItems(List<Item> batch) {
+        for (Item item : batch) {
+            persistItem(item);
+        }
+    }
+
+    /**
+     * Puts are already cheap appends, so write-behind does not apply. The
+     * store forces its write-ahead log to disk on its own schedule.
+     */
+    @Override
+    public synchronized void enableWriteBehind(long maxStalenessMillis, int maxPendingWrites) {
+    }
+
+    /**
+     * Puts one user, or deletes it if the user was removed.
+     */
+    @Override
+    void persistUser(User user) {
+        if (hasUser(user.getUserKey())) {
+            putUser(user);
+            return;
+        }
+        try {
+            userTable.remove(user);
+        } catch (IOException e) {
+            System.err.println("Error deleting user " + user.getUserId() + " from store: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Puts one item, or deletes it if the item was removed. A changed
+     * archived item is archived again.
+     */
+    @Override
+    void persistItem(Item item) {
+        String key = ITEM_PREFIX + item.getItemId();
+        if (hasItem(item.getItemKey())) {
+            put(key, encodeItem(item));
+            return;
+        }
+        ItemArchiveInterface archive = getItemArchive();
+        if (archive != null && archive.contains(item.getItemKey())) {
+            try {
+                archive.append(Collections.singletonList(item));
+            } catch (IOException e) {
+                System.err.println("Error writing item archive: " + e.getMessage());
+            }
+            return;
+        }
+        delete(key);
+    }
+
+    /**
+     * Encodes a user as its stored value.
+     */
+    @Override
+    String serializeUser(User user) {
+        return encodeFields(user.getUsername(), user.getPassword(), user.getBio(),
+                String.valueOf(user.getBalance()), user.getUserId());
+    }
+
+    /**
+     * Decodes a stored user, or a users.txt line stored by an earlier
+     * version. Returns null for malformed values.
+     */
+    @Override
+    User parseUserLine(String value) {
+        String[] fields = decodeUser(value);
+        if (fields == null) {
+            return super.parseUserLine(value);
+        }
+        double balance = 0;
+        try {
+            balance = Double.parseDouble(fields[3]);
+        } catch (NumberFormatException e) {
+            System.err.println("Invalid balance for user: " + fields[0]);
+        }
+        return new User(fields[0], fields[1], fields[2], balance, fields[4], this);
+    }
+
+    /**
+     * Splits a stored user into username, password, bio, balance and ID, or
+     * returns null if it is not in the encoded format.
+     */
+    static String[] decodeUser(String value) {
+        return decodeFields(value, USER_FIELDS);
+    }
+
+    /**
+     * Encodes an item as its stored value.
+     */
+    static String encodeItem(Item item) {
+        return encodeFields(item.getItemId(), item.getSellerId(), item.getTitle(), item.getDescription(),
+                item.getCategory(), String.valueOf(item.getPrice()), String.valueOf(item.isSold()),
+                item.isSold() ? item.getBuyerId() : "");
+    }
+
+    /**
+     * Decodes a stored item, or an items.txt line stored by an earlier
+     * version. Returns null for malformed values.
+     */
+    static Item decodeItem(String value) {
+        String[] fields = decodeFields(value, ITEM_FIELDS);
+        if (fields == null) {
+            return parseItemLine(value);
+        }
+        double price;
+        try {
+            price = Double.parseDouble(fields[5]);
+        } catch (NumberFormatException e) {
+            System.err.println("Error parsing price for item: " + fields[0]);
+            return null;
+        }
+        Item item = new Item(fields[1], fields[2], fields[3], fields[4], price);
+        item.setItemId(fields[0]);
+        if (Boolean.parseBoolean(fields[6]) && !fields[7].isEmpty()) {
+            item.markAsSold(fields[7]);
+        }
+        return item;
+    }
+
+    /**
+     * Encodes fields as a sequence of length:field, so a field may contain
+     * any character, commas and newlines included. A null field is stored
+     * as an empty one.
+     */
+    static String encodeFields(String... fields) {
+        StringBuilder value = new StringBuilder();
+        for (String field : fields) {
+            String text = field == null ? "" : field;
+            value.append(text.length()).append(':').append(text);
+        }
+        return value.toString();
+    }
+
+    /**
+     * Decodes exactly count fields written by encodeFields, or returns null
+     * if the value is not in that format.
+     */
+    static String[] decodeFields(String value, int count) {
+        String[] fields = new String[count];
+        int position = 0;
+        for (int i = 0; i < count; i++) {
+            int colon = value.indexOf(':', position);
+            if (colon <= position) {
+                return null;
+            }
+            int length;
+            try {
+                length = Integer.parseInt(value.substring(position, colon));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            int end = colon + 1 + length;
+            if (length < 0 || end > value.length()) {
+                return null;
+            }
+            fields[i] = value.substring(colon + 1, end);
+            position = end;
+        }
+        return position == value.length() ? fields : null;
+    }
+
+    /**
+     * Flushes message files and forces the store's write-ahead log to disk.
+     */
+    @Override
+    public void flush() {
+        super.flush();
+        try {
+            store.sync();
+        } catch (IOException e) {
+            System.err.println("Error syncing store: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Closes the message files and then the store.
+     */
+    @Override
+    public void close() {
+        super.close();
+        try {
+            store.close();
+        } catch (IOException e) {
+            System.err.println("Error closing store: " + e.getMessage());
+        }
+    }
+
+    private void putUser(User user) {
+        try {
+            userTable.put(serializeUser(user));
+        } catch (IOException e) {
+            System.err.println("Error writing user " + user.getUserId() + " to store: " + e.getMessage());
+        }
+    }
+
+    private void put(String key, String value) {
+        try {
+            store.put(key, value);
+        } catch (IOException e) {
+            System.err.println("Error writing " + key + " to store: " + e.getMessage());
+        }
+    }
+
+    private void delete(String key) {
+        try {
+            store.delete(key);
+        } catch (IOException e) {
+            System.err.println("Error deleting " + key + " from store: " + e.getMessage());
+        }
+    }
+}
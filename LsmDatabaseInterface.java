@@ -0,0 +1,6 @@
+/**
+ * Interface for the LsmDatabase class
+ */
+public interface LsmDatabaseInterface extends DatabaseInterface {
+    LsmStore getStore();
+}
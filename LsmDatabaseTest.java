@@ -0,0 +1,179 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+import java.io.File;
+import java.nio.file.Files;
+
+/**
+ * Tests for the Database backed by the log-structured merge store
+ */
+public class LsmDatabaseTest {
+
+	/** Tests that users, items, sales and removals survive a reopen of the store. */
+	@Test
+	public void testUsersAndItemsReload() throws Exception {
+		File dir = Files.createTempDirectory("lsmdb").toFile();
+		dir.deleteOnExit();
+		LsmDatabase database = new LsmDatabase(new LsmStore(dir.getPath(), 4096, 3));
+		database.addUser("lsmseller", "sellerPass", "Sells lamps.");
+		database.addUser("lsmbuyer", "buyerPass", "Buys lamps.");
+		String sellerId = database.getUserByUsername("lsmseller").getUserId();
+		String buyerId = database.getUserByUsername("lsmbuyer").getUserId();
+		Item lamp = new Item(sellerId, "Lamp", "Desk lamp", "Home", 20.0);
+		database.addItem(lamp);
+		for (int i = 0; i < 50; i++) {
+			database.addItem(new Item(sellerId, "Rug " + i, "Wool rug", "Home", 45.0));
+		}
+		lamp.markAsSold(buyerId);
+		database.markItemDirty(lamp);
+		database.removeItem(database.getItemsByCategory("home").get(1).getItemId(), sellerId);
+		database.getStore().close();
+
+		LsmDatabase reloaded = new LsmDatabase(new LsmStore(dir.getPath(), 4096, 3));
+		reloaded.readItemFile();
+		reloaded.readUserFile();
+		assertEquals(2, reloaded.getAllUsers().size());
+		assertEquals(50, reloaded.getAllItems().size());
+		assertEquals(buyerId, reloaded.getItemById(lamp.getItemId()).getBuyerId());
+		assertEquals(49, reloaded.getUserByUsername("lsmseller").getActiveListings().size());
+		reloaded.getStore().close();
+	}
+
+	/** Tests that an item hidden from getItemById is still written while it is listed. */
+	@Test
+	public void testPersistsItemsHiddenFromQueries() throws Exception {
+		File dir = Files.createTempDirectory("lsmdb").toFile();
+		dir.deleteOnExit();
+		LsmDatabase database = new LsmDatabase(new LsmStore(dir.getPath(), 4096, 3)) {
+			@Override
+			public synchronized Item getItemById(String itemId) {
+				return null; // as for the listings of a seller being deleted
+			}
+		};
+		database.addUser("hiddenseller", "sellerPass", "Sells lamps.");
+		String sellerId = database.getUserByUsername("hiddenseller").getUserId();
+		Item lamp = new Item(sellerId, "Lamp", "Desk lamp", "Home", 20.0);
+		database.addItem(lamp);
+		database.markItemDirty(lamp);
+		assertNotNull(database.getStore().get(LsmDatabase.ITEM_PREFIX + lamp.getItemId()));
+
+		database.removeItem(lamp.getItemId(), sellerId);
+		assertNull(database.getStore().get(LsmDatabase.ITEM_PREFIX + lamp.getItemId()));
+		database.getStore().close();
+	}
+	/** Tests that titles, descriptions and bios holding commas and newlines survive a reopen. */
+	@Test
+	public void testFieldsWithCommasAndNewlines() throws Exception {
+		File dir = Files.createTempDirectory("lsmdb").toFile();
+		dir.deleteOnExit();
+		LsmDatabase database = new LsmDatabase(new LsmStore(dir.getPath(), 4096, 3));
+		database.addUser("commaseller", "sellerPass", "Sells lamps, rugs\nand clocks.");
+		String sellerId = database.getUserByUsername("commaseller").getUserId();
+		Item lamp = new Item(sellerId, "Lamp, brass", "Desk lamp,\nbarely used: 2 bulbs", "Home", 20.0);
+		database.addItem(lamp);
+		database.getStore().close();
+
+		LsmDatabase reloaded = new LsmDatabase(new LsmStore(dir.getPath(), 4096, 3));
+		reloaded.readItemFile();
+		reloaded.readUserFile();
+		Item item = reloaded.getItemById(lamp.getItemId());
+		assertEquals("Lamp, brass", item.getTitle());
+		assertEquals("Desk lamp,\nbarely used: 2 bulbs", item.getDescription());
+		assertEquals(20.0, item.getPrice(), 0.001);
+		assertEquals("Sells lamps, rugs\nand clocks.", reloaded.getUserByUsername("commaseller").getBio());
+		reloaded.getStore().close();
+	}
+
+	/** Tests that values stored as CSV lines by an earlier version are still read. */
+	@Test
+	public void testReadsCsvValues() throws Exception {
+		File dir = Files.createTempDirectory("lsmdb").toFile();
+		dir.deleteOnExit();
+		LsmStore store = new LsmStore(dir.getPath(), 4096, 3);
+		store.put(LsmDatabase.USER_PREFIX + "olduser1", "olduser,oldPass,Old bio,12.5,olduser1,,,");
+		store.put(LsmDatabase.ITEM_PREFIX + "olditem1", "olditem1,olduser1,Chair,Oak chair,Home,30.0,false,");
+		LsmDatabase database = new LsmDatabase(store);
+		database.readItemFile();
+		database.readUserFile();
+		assertEquals(12.5, database.getUserById("olduser1").getBalance(), 0.001);
+		assertEquals("Chair", database.getItemById("olditem1").getTitle());
+		store.close();
+	}
+
+	/** Tests that with the user cache users are read from the store by point lookup, not loaded. */
+	@Test
+	public void testUsersAreReadThroughTheStore() throws Exception {
+		File dir = Files.createTempDirectory("lsmdb").toFile();
+		dir.deleteOnExit();
+		LsmDatabase database = new LsmDatabase(new LsmStore(dir.getPath(), 4096, 3));
+		for (int i = 0; i < 40; i++) {
+			database.addUser("lazy" + i, "pass" + i, "Bio " + i);
+		}
+		String userId = database.getUserByUsername("lazy7").getUserId();
+		database.getStore().flush();
+		database.getStore().close();
+
+		LsmDatabase reloaded = new LsmDatabase(new LsmStore(dir.getPath(), 4096, 3));
+		reloaded.useUserCache(1);
+		reloaded.readItemFile();
+		reloaded.readUserFile();
+		assertEquals(0, reloaded.getUserCache().size());
+		assertEquals(40, reloaded.getUserCount());
+		assertEquals("lazy7", reloaded.getUserById(userId).getUsername());
+		assertTrue(reloaded.login("lazy8,pass8"));
+		assertTrue(reloaded.getUserFile().getDiskReads() > 0);
+
+		long skips = reloaded.getStore().getBloomSkips();
+		for (int i = 0; i < 10; i++) {
+			assertNull(reloaded.getUserByUsername("nobody" + i));
+		}
+		assertTrue(reloaded.getStore().getBloomSkips() > skips);
+
+		assertTrue(reloaded.addUser("lazy40", "pass40", "New."));
+		assertTrue(reloaded.deleteUser("lazy7"));
+		assertEquals(40, reloaded.getUserCount());
+		assertNull(reloaded.getStore().get(LsmUserFile.USERNAME_PREFIX + "lazy7"));
+		reloaded.getStore().close();
+	}
+
+	/** Tests that archived sold items leave the item keys and are read back from the store by ID. */
+	@Test
+	public void testArchivedItemsAreReadThroughTheStore() throws Exception {
+		File dir = Files.createTempDirectory("lsmdb").toFile();
+		dir.deleteOnExit();
+		LsmDatabase database = new LsmDatabase(new LsmStore(dir.getPath(), 4096, 3));
+		database.useItemArchive(true);
+		database.readItemArchive();
+		database.addUser("archseller", "sellerPass", "Sells clocks.");
+		database.addUser("archbuyer", "buyerPass", "Buys clocks.");
+		String sellerId = database.getUserByUsername("archseller").getUserId();
+		String buyerId = database.getUserByUsername("archbuyer").getUserId();
+		Item clock = new Item(sellerId, "Clock, wall", "Old clock.", "Home", 15.0);
+		database.addItem(clock);
+		database.addItem(new Item(sellerId, "Vase", "Glass vase.", "Home", 9.0));
+		clock.markAsSold(buyerId);
+		database.markItemSold(clock);
+
+		assertEquals(1, database.archiveSoldItems(Long.MAX_VALUE, 100));
+		assertNull(database.getStore().get(LsmDatabase.ITEM_PREFIX + clock.getItemId()));
+		assertNotNull(database.getStore().get(LsmItemArchive.ARCHIVE_PREFIX + clock.getItemId()));
+		database.getStore().close();
+
+		LsmDatabase reloaded = new LsmDatabase(new LsmStore(dir.getPath(), 4096, 3));
+		reloaded.useItemArchive(true);
+		reloaded.readItemFile();
+		reloaded.readItemArchive();
+		reloaded.readUserFile();
+		assertEquals(1, reloaded.getAllItems().size());
+		assertEquals("Clock, wall", reloaded.getItemById(clock.getItemId()).getTitle());
+		assertEquals(1, reloaded.getItemsByBuyer(buyerId).size());
+		assertEquals(1, reloaded.getSoldItemsBySeller(sellerId).size());
+
+		// Rating an archived item archives its new state
+		Item archived = reloaded.getSoldItemsBySeller(sellerId).get(0);
+		archived.updateRating(4.0);
+		reloaded.markItemDirty(archived);
+		assertEquals(4.0, reloaded.getItemById(clock.getItemId()).getRating(), 0.001);
+		assertNull(reloaded.getStore().get(LsmDatabase.ITEM_PREFIX + clock.getItemId()));
+		reloaded.getStore().close();
+	}
+}
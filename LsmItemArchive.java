@@ -0,0 +1,176 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Cold tier for the sold items of an LsmDatabase, kept in its store instead
+ * of in archive segment files.
+ *
+ * Archiving moves an item from "item/" + itemId to "archive/" + itemId as a
+ * Base64 BinaryItemFile record, the format ItemArchive keeps (rating
+ * included), and puts its seller, buyer and size under "archived/" + itemId.
+ * Opening the archive scans only those small keys to index archived items
+ * by seller and buyer, so loading the database never reads an archived
+ * item. An archived item is read with one point lookup, which the store's
+ * Bloom filters and sparse indexes keep to one block read per run that may
+ * hold it.
+ */
+public class LsmItemArchive implements ItemArchiveInterface {
+    static final String ARCHIVE_PREFIX = "archive/";
+    static final String KEYS_PREFIX = "archived/";
+
+    private final LsmStore store;
+    private final Map<CompactId, Integer> sizes; // archived item -> bytes of its stored value
+    private final Map<CompactId, Set<CompactId>> bySeller;
+    private final Map<CompactId, Set<CompactId>> byBuyer;
+    private long archivedBytes;
+
+    /**
+     * Creates the archive of the given store. Call open() before use.
+     */
+    public LsmItemArchive(LsmStore store) {
+        this.store = store;
+        this.sizes = new HashMap<>();
+        this.bySeller = new HashMap<>();
+        this.byBuyer = new HashMap<>();
+        this.archivedBytes = 0;
+    }
+
+    /**
+     * Indexes the archived items from their keys.
+     */
+    @Override
+    public synchronized void open() throws IOException {
+        sizes.clear();
+        bySeller.clear();
+        byBuyer.clear();
+        archivedBytes = 0;
+        for (Map.Entry<String, String> entry : store.scan(KEYS_PREFIX).entrySet()) {
+            String[] keys = LsmDatabase.decodeFields(entry.getValue(), 3);
+            if (keys == null) {
+                System.err.println("Skipping unreadable archive key " + entry.getKey());
+                continue;
+            }
+            try {
+                index(CompactId.of(entry.getKey().substring(KEYS_PREFIX.length())), keys[0], keys[1],
+                        Integer.parseInt(keys[2]));
+            } catch (NumberFormatException e) {
+                System.err.println("Skipping unreadable archive key " + entry.getKey());
+            }
+        }
+    }
+
+    // Caller holds this
+    private void index(CompactId itemId, String sellerId, String buyerId, int size) {
+        Integer previous = sizes.put(itemId, size);
+        archivedBytes += size - (previous == null ? 0 : previous);
+        bySeller.computeIfAbsent(CompactId.of(sellerId), id -> new LinkedHashSet<>()).add(itemId);
+        if (!buyerId.isEmpty()) {
+            byBuyer.computeIfAbsent(CompactId.of(buyerId), id -> new LinkedHashSet<>()).add(itemId);
+        }
+    }
+
+    /**
+     * Moves items into the archive and forces the store's log to disk before
+     * returning, so the items can then be dropped from memory. An item
+     * archived again replaces its earlier state.
+     */
+    @Override
+    public synchronized void append(Collection<Item> items) throws IOException {
+        for (Item item : items) {
+            String value = Base64.getEncoder().encodeToString(
+                    BinaryItemFile.encodeItems(Collections.singletonList(item)));
+            String buyerId = item.getBuyerId() == null ? "" : item.getBuyerId();
+            // The item/ key goes last, so a crash in between leaves a copy in both places, never in neither
+            store.put(ARCHIVE_PREFIX + item.getItemId(), value);
+            store.put(KEYS_PREFIX + item.getItemId(),
+                    LsmDatabase.encodeFields(item.getSellerId(), buyerId, String.valueOf(value.length())));
+            store.delete(LsmDatabase.ITEM_PREFIX + item.getItemId());
+            index(item.getItemKey(), item.getSellerId(), buyerId, value.length());
+        }
+        store.sync();
+    }
+
+    /**
+     * Checks whether an item is archived.
+     */
+    @Override
+    public synchronized boolean contains(CompactId itemId) {
+        return sizes.containsKey(itemId);
+    }
+
+    /**
+     * Reads an archived item from the store, or returns null if it is not archived.
+     */
+    @Override
+    public synchronized Item get(CompactId itemId) {
+        if (!sizes.containsKey(itemId)) {
+            return null;
+        }
+        try {
+            String value = store.get(ARCHIVE_PREFIX + itemId);
+            if (value == null) {
+                return null;
+            }
+            return BinaryItemFile.decode(ByteBuffer.wrap(Base64.getDecoder().decode(value)), ARCHIVE_PREFIX + itemId)
+                    .get(0);
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Error reading archived item " + itemId + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Reads the archived items a seller sold, oldest archived first.
+     */
+    @Override
+    public synchronized List<Item> getBySeller(CompactId sellerId) {
+        return read(bySeller.get(sellerId));
+    }
+
+    /**
+     * Reads the archived items a user bought, oldest archived first.
+     */
+    @Override
+    public synchronized List<Item> getByBuyer(CompactId buyerId) {
+        return read(byBuyer.get(buyerId));
+    }
+
+    private List<Item> read(Set<CompactId> itemIds) {
+        if (itemIds == null) {
+            return Collections.emptyList();
+        }
+        List<Item> result = new ArrayList<>(itemIds.size());
+        for (CompactId itemId : itemIds) {
+            Item item = get(itemId);
+            if (item != null) {
+                result.add(item);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Gets the number of archived items.
+     */
+    @Override
+    public synchronized int size() {
+        return sizes.size();
+    }
+
+    /**
+     * Gets the bytes of the archived items' stored values.
+     */
+    @Override
+    public synchronized long getArchivedBytes() {
+        return archivedBytes;
+    }
+}
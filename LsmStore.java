@@ -0,0 +1,960 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Log-structured merge store of string keys and values. A write is appended
+ * to a write-ahead log and put in a concurrent sorted memtable, so it costs
+ * no random I/O. A full memtable is frozen and written by a background
+ * thread as an immutable sorted run; once maxRuns runs exist they are merged
+ * into one, dropping overwritten values and deletions.
+ *
+ * The log is forced to disk by a background thread every
+ * syncIntervalMillis when it has unforced writes, so a crash of the machine
+ * loses at most that much; with an interval of 0 every write is forced
+ * before it returns. A frozen memtable's log is forced before it is closed.
+ *
+ * A point lookup reads the memtables, then the runs from newest to oldest.
+ * Each run keeps a Bloom filter and a sparse key index in memory, so a run
+ * that lacks the key is skipped without I/O and one that has it costs a
+ * single block read. Reads never take the write lock.
+ *
+ * Run layout (big-endian): magic, entries of flag, key length, key, value
+ * length, value, then the sparse index, the Bloom filter and a trailer of
+ * dataEnd, indexOffset, bloomOffset, entryCount and magic. Log records are
+ * flag, key length, key, value length, value.
+ */
+public class LsmStore implements LsmStoreInterface {
+    public static final int DEFAULT_MEMTABLE_BYTES = 4 * 1024 * 1024;
+    public static final int DEFAULT_MAX_RUNS = 4;
+    public static final long DEFAULT_SYNC_INTERVAL_MILLIS = 1000;
+    static final int RUN_MAGIC = 0x4C534D52; // "LSMR"
+    private static final int TRAILER_SIZE = 32;
+    private static final int INDEX_INTERVAL = 16; // entries per sparse index block
+    private static final int MAX_FROZEN_MEMTABLES = 2; // writers wait beyond this
+    private static final byte PUT = 0;
+    private static final byte DELETE = 1;
+    private static final String RUN_PREFIX = "run-";
+    private static final String RUN_SUFFIX = ".sst";
+    private static final String LOG_PREFIX = "wal-";
+    private static final String LOG_SUFFIX = ".log";
+
+    // Marks a deleted key in memtables and merges; compared by identity
+    private static final String TOMBSTONE = new String("");
+
+    private final File directory;
+    private final int memtableBytes;
+    private final int maxRuns;
+    private final long syncIntervalMillis; // 0 forces the log on every write
+    private final Object writeLock = new Object();
+    private final ExecutorService background; // flushes and compactions, one at a time
+    private final ScheduledExecutorService syncer; // forces the log on a schedule, null when every write is forced
+    private final AtomicLong bloomSkips;
+    private volatile View view;
+    private long nextFileNumber;
+    private boolean closed;
+
+    /**
+     * Opens a store in the given directory with the default memtable size and run limit.
+     */
+    public LsmStore(String directory) throws IOException {
+        this(directory, DEFAULT_MEMTABLE_BYTES, DEFAULT_MAX_RUNS);
+    }
+
+    /**
+     * Opens a store in the given directory that forces its log every
+     * DEFAULT_SYNC_INTERVAL_MILLIS, recovering runs and replaying any
+     * write-ahead logs left by an earlier process.
+     */
+    public LsmStore(String directory, int memtableBytes, int maxRuns) throws IOException {
+        this(directory, memtableBytes, maxRuns, DEFAULT_SYNC_INTERVAL_MILLIS);
+    }
+
+    /**
+     * Opens a store that forces its log every syncIntervalMillis, or after
+     * every write if it is 0, recovering runs and replaying any write-ahead
+     * logs left by an earlier process.
+     */
+    public LsmStore(String directory, int memtableBytes, int maxRuns, long syncIntervalMillis) throws IOException {
+        this.directory = new File(directory);
+        this.memtableBytes = Math.max(1, memtableBytes);
+        this.maxRuns = Math.max(2, maxRuns);
+        this.syncIntervalMillis = Math.max(0, syncIntervalMillis);
+        this.bloomSkips = new AtomicLong();
+        this.closed = false;
+        if (!this.directory.isDirectory() && !this.directory.mkdirs()) {
+            throw new IOException("Cannot create store directory " + directory);
+        }
+        this.background = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "lsm-compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        recover();
+        if (this.syncIntervalMillis > 0) {
+            this.syncer = Executors.newSingleThreadScheduledExecutor(task -> {
+                Thread thread = new Thread(task, "lsm-sync");
+                thread.setDaemon(true);
+                return thread;
+            });
+            syncer.scheduleWithFixedDelay(this::syncQuietly, this.syncIntervalMillis, this.syncIntervalMillis,
+                    TimeUnit.MILLISECONDS);
+        } else {
+            this.syncer = null;
+        }
+    }
+
+    private void syncQuietly() {
+        try {
+            sync();
+        } catch (IOException e) {
+            System.err.println("Error syncing write-ahead log: " + e.getMessage());
+        }
+    }
+
+    private void recover() throws IOException {
+        List<Long> runNumbers = listFiles(RUN_PREFIX, RUN_SUFFIX);
+        List<Long> logNumbers = listFiles(LOG_PREFIX, LOG_SUFFIX);
+        for (File leftover : directory.listFiles((dir, name) -> name.endsWith(".tmp"))) {
+            leftover.delete();
+        }
+        long highest = 0;
+        for (long number : runNumbers) {
+            highest = Math.max(highest, number);
+        }
+        for (long number : logNumbers) {
+            highest = Math.max(highest, number);
+        }
+        nextFileNumber = highest + 1;
+
+        List<Run> runs = new ArrayList<>();
+        for (long number : runNumbers) {
+            runs.add(0, Run.open(runFile(number)));
+        }
+
+        // Writes that never reached a run are replayed into one run
+        ConcurrentSkipListMap<String, String> replayed = new ConcurrentSkipListMap<>();
+        for (long number : logNumbers) {
+            replayLog(logFile(number), replayed);
+        }
+        if (!replayed.isEmpty()) {
+            runs.add(0, writeRun(nextFileNumber++, replayed.entrySet().iterator(), replayed.size(), false));
+        }
+        for (long number : logNumbers) {
+            logFile(number).delete();
+        }
+        view = new View(new Memtable(logFile(nextFileNumber++)), Collections.emptyList(), runs);
+    }
+
+    /**
+     * Stores a value under a key, replacing any earlier value.
+     */
+    @Override
+    public void put(String key, String value) throws IOException {
+        if (key == null || value == null) {
+            throw new IllegalArgumentException("Key and value must not be null");
+        }
+        write(key, value);
+    }
+
+    /**
+     * Deletes a key. The deletion is kept until a compaction reaches the oldest run.
+     */
+    @Override
+    public void delete(String key) throws IOException {
+        write(key, TOMBSTONE);
+    }
+
+    private void write(String key, String value) throws IOException {
+        synchronized (writeLock) {
+            while (!closed && view.frozen.size() >= MAX_FROZEN_MEMTABLES) {
+                try {
+                    writeLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted waiting for a memtable flush");
+                }
+            }
+            if (closed) {
+                throw new IOException("Store is closed");
+            }
+            Memtable memtable = view.memtable;
+            memtable.log(key, value);
+            if (syncIntervalMillis == 0) {
+                memtable.sync();
+            }
+            memtable.entries.put(key, value);
+            memtable.bytes += 2L * (key.length() + value.length()) + 64;
+            if (memtable.bytes >= memtableBytes) {
+                freeze();
+            }
+        }
+    }
+
+    // Caller holds writeLock
+    private void freeze() throws IOException {
+        Memtable full = view.memtable;
+        full.sync(); // its log is the only copy until the run is written
+        full.closeLog();
+        List<Memtable> frozen = new ArrayList<>();
+        frozen.add(full);
+        frozen.addAll(view.frozen);
+        view = new View(new Memtable(logFile(nextFileNumber++)), frozen, view.runs);
+        background.execute(this::flushOldest);
+    }
+
+    /**
+     * Gets the value stored under a key, or null if there is none.
+     */
+    @Override
+    public String get(String key) throws IOException {
+        while (true) {
+            View current = view;
+            try {
+                String value = lookup(current, key);
+                return value == TOMBSTONE ? null : value;
+            } catch (ClosedChannelException e) {
+                // A compaction retired a run under us; retry on the new view
+                if (current == view) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private String lookup(View current, String key) throws IOException {
+        String value = current.memtable.entries.get(key);
+        if (value != null) {
+            return value;
+        }
+        for (Memtable memtable : current.frozen) {
+            value = memtable.entries.get(key);
+            if (value != null) {
+                return value;
+            }
+        }
+        for (Run run : current.runs) {
+            if (!run.bloom.mightContain(key)) {
+                bloomSkips.incrementAndGet();
+                continue;
+            }
+            value = run.find(key);
+            if (value != null) {
+                return value;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Gets every live key starting with prefix and its value, in key order.
+     */
+    @Override
+    public SortedMap<String, String> scan(String prefix) throws IOException {
+        while (true) {
+            View current = view;
+            try {
+                return scan(current, prefix);
+            } catch (IOException e) {
+                if (current == view) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private SortedMap<String, String> scan(View current, String prefix) throws IOException {
+        List<Iterator<Map.Entry<String, String>>> sources = new ArrayList<>();
+        List<RunReader> readers = new ArrayList<>();
+        sources.add(current.memtable.entries.tailMap(prefix).entrySet().iterator());
+        for (Memtable memtable : current.frozen) {
+            sources.add(memtable.entries.tailMap(prefix).entrySet().iterator());
+        }
+        TreeMap<String, String> result = new TreeMap<>();
+        try {
+            for (Run run : current.runs) {
+                RunReader reader = run.reader(prefix);
+                readers.add(reader);
+                sources.add(reader);
+            }
+            Iterator<Map.Entry<String, String>> merged = merge(sources);
+            while (merged.hasNext()) {
+                Map.Entry<String, String> entry = merged.next();
+                if (!entry.getKey().startsWith(prefix)) {
+                    break;
+                }
+                if (entry.getValue() != TOMBSTONE) {
+                    result.put(entry.getKey(), entry.getValue());
+                }
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            for (RunReader reader : readers) {
+                reader.close();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Writes the current memtable as a run and waits for every pending flush
+     * and compaction to finish.
+     */
+    @Override
+    public void flush() throws IOException {
+        synchronized (writeLock) {
+            if (closed) {
+                return;
+            }
+            if (!view.memtable.entries.isEmpty()) {
+                freeze();
+            }
+        }
+        await(() -> { });
+    }
+
+    /**
+     * Merges every run into one, whatever the run count.
+     */
+    @Override
+    public void compact() throws IOException {
+        await(() -> compactRuns(2));
+    }
+
+    /**
+     * Forces the write-ahead log to disk.
+     */
+    @Override
+    public void sync() throws IOException {
+        synchronized (writeLock) {
+            if (!closed) {
+                view.memtable.sync();
+            }
+        }
+    }
+
+    /**
+     * Checks whether the current log has writes not yet forced to disk.
+     */
+    boolean hasUnsyncedWrites() {
+        synchronized (writeLock) {
+            return view.memtable.unsynced;
+        }
+    }
+
+    /**
+     * Gets the number of sorted runs on disk.
+     */
+    @Override
+    public int getRunCount() {
+        return view.runs.size();
+    }
+
+    /**
+     * Gets how many run reads point lookups avoided thanks to the Bloom filters.
+     */
+    @Override
+    public long getBloomSkips() {
+        return bloomSkips.get();
+    }
+
+    /**
+     * Finishes pending flushes and closes every file. Unflushed writes stay
+     * in the write-ahead log and are replayed on the next open.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (writeLock) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            writeLock.notifyAll();
+        }
+        if (syncer != null) {
+            syncer.shutdown();
+        }
+        background.shutdown();
+        try {
+            background.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        View last = view;
+        last.memtable.sync();
+        last.memtable.closeLog();
+        for (Run run : last.runs) {
+            run.close();
+        }
+    }
+
+    private void await(Runnable task) throws IOException {
+        try {
+            background.submit(task).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for the store");
+        } catch (ExecutionException e) {
+            throw new IOException("Store task failed", e.getCause());
+        } catch (RejectedExecutionException e) {
+            throw new IOException("Store is closed");
+        }
+    }
+
+    /**
+     * Writes the oldest frozen memtable as a run. Runs on the background thread.
+     */
+    private void flushOldest() {
+        Memtable oldest;
+        long number;
+        synchronized (writeLock) {
+            if (view.frozen.isEmpty()) {
+                return;
+            }
+            oldest = view.frozen.get(view.frozen.size() - 1);
+            number = nextFileNumber++;
+        }
+        try {
+            Run run = writeRun(number, oldest.entries.entrySet().iterator(), oldest.entries.size(), false);
+            synchronized (writeLock) {
+                List<Memtable> frozen = new ArrayList<>(view.frozen);
+                frozen.remove(oldest);
+                List<Run> runs = new ArrayList<>();
+                runs.add(run);
+                runs.addAll(view.runs);
+                view = new View(view.memtable, frozen, runs);
+                writeLock.notifyAll();
+            }
+            oldest.deleteLog();
+        } catch (IOException e) {
+            // The memtable stays readable and its log is replayed on the next open
+            System.err.println("Error flushing memtable: " + e.getMessage());
+            return;
+        }
+        compactRuns(maxRuns);
+    }
+
+    /**
+     * Merges every run into one once there are at least minRuns. Runs on the
+     * background thread, the only thread that changes the run list.
+     */
+    private void compactRuns(int minRuns) {
+        List<Run> inputs = view.runs;
+        if (inputs.size() < minRuns) {
+            return;
+        }
+        long number;
+        synchronized (writeLock) {
+            number = nextFileNumber++;
+        }
+        List<RunReader> readers = new ArrayList<>();
+        Run merged;
+        try {
+            List<Iterator<Map.Entry<String, String>>> sources = new ArrayList<>();
+            long entries = 0;
+            for (Run run : inputs) {
+                RunReader reader = run.reader("");
+                readers.add(reader);
+                sources.add(reader);
+                entries += run.entryCount;
+            }
+            // The oldest run is an input, so deletions have nothing left to hide
+            merged = writeRun(number, merge(sources), (int) Math.min(Integer.MAX_VALUE, entries), true);
+        } catch (IOException | UncheckedIOException e) {
+            System.err.println("Error compacting runs: " + e.getMessage());
+            return;
+        } finally {
+            for (RunReader reader : readers) {
+                reader.close();
+            }
+        }
+
+        synchronized (writeLock) {
+            List<Run> runs = new ArrayList<>(view.runs);
+            runs.removeAll(inputs);
+            runs.add(merged);
+            view = new View(view.memtable, view.frozen, runs);
+        }
+        for (Run run : inputs) {
+            run.close();
+            run.file.delete();
+        }
+    }
+
+    /**
+     * Writes sorted entries as a run file and opens it.
+     */
+    private Run writeRun(long number, Iterator<Map.Entry<String, String>> entries, int expectedEntries,
+                         boolean dropTombstones) throws IOException {
+        File target = runFile(number);
+        File temp = new File(target.getPath() + ".tmp");
+        BloomFilter bloom = new BloomFilter(expectedEntries, BloomFilter.DEFAULT_BITS_PER_KEY);
+        List<String> indexKeys = new ArrayList<>();
+        List<Long> indexOffsets = new ArrayList<>();
+        int count = 0;
+
+        try (FileOutputStream file = new FileOutputStream(temp);
+             CountingStream counter = new CountingStream(new BufferedOutputStream(file, 64 * 1024));
+             DataOutputStream out = new DataOutputStream(counter)) {
+            out.writeInt(RUN_MAGIC);
+            while (entries.hasNext()) {
+                Map.Entry<String, String> entry = entries.next();
+                boolean deleted = entry.getValue() == TOMBSTONE;
+                if (deleted && dropTombstones) {
+                    continue;
+                }
+                if (count % INDEX_INTERVAL == 0) {
+                    indexKeys.add(entry.getKey());
+                    indexOffsets.add(counter.written);
+                }
+                writeRecord(out, entry.getKey(), entry.getValue());
+                bloom.add(entry.getKey());
+                count++;
+            }
+            long dataEnd = counter.written;
+            out.writeInt(indexKeys.size());
+            for (int i = 0; i < indexKeys.size(); i++) {
+                writeString(out, indexKeys.get(i));
+                out.writeLong(indexOffsets.get(i));
+            }
+            long bloomOffset = counter.written;
+            byte[] bloomBytes = bloom.toBytes();
+            out.writeInt(bloomBytes.length);
+            out.write(bloomBytes);
+            out.writeLong(dataEnd);
+            out.writeLong(dataEnd);
+            out.writeLong(bloomOffset);
+            out.writeInt(count);
+            out.writeInt(RUN_MAGIC);
+            out.flush();
+            file.getChannel().force(true);
+        }
+        if (!temp.renameTo(target)) {
+            temp.delete();
+            throw new IOException("Cannot install run " + target);
+        }
+        return Run.open(target);
+    }
+
+    private static void writeRecord(DataOutputStream out, String key, String value) throws IOException {
+        boolean deleted = value == TOMBSTONE;
+        out.writeByte(deleted ? DELETE : PUT);
+        writeString(out, key);
+        writeString(out, deleted ? "" : value);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void replayLog(File log, Map<String, String> into) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(log)))) {
+            while (true) {
+                byte flag = in.readByte();
+                String key = readString(in);
+                String value = readString(in);
+                into.put(key, flag == DELETE ? TOMBSTONE : value);
+            }
+        } catch (EOFException e) {
+            // End of the log, or a record cut short by a crash
+        }
+    }
+
+    /**
+     * Merges sorted sources given newest first. For a key found in several
+     * sources the newest value wins; tombstones are passed through.
+     */
+    private static Iterator<Map.Entry<String, String>> merge(List<Iterator<Map.Entry<String, String>>> sources) {
+        PriorityQueue<Cursor> queue = new PriorityQueue<>(
+                Comparator.comparing((Cursor cursor) -> cursor.entry.getKey()).thenComparingInt(cursor -> cursor.rank));
+        for (int rank = 0; rank < sources.size(); rank++) {
+            Cursor cursor = new Cursor(sources.get(rank), rank);
+            if (cursor.advance()) {
+                queue.add(cursor);
+            }
+        }
+        return new Iterator<Map.Entry<String, String>>() {
+            @Override
+            public boolean hasNext() {
+                return !queue.isEmpty();
+            }
+
+            @Override
+            public Map.Entry<String, String> next() {
+                if (queue.isEmpty()) {
+                    throw new NoSuchElementException();
+                }
+                Cursor newest = queue.poll();
+                Map.Entry<String, String> entry = newest.entry;
+                if (newest.advance()) {
+                    queue.add(newest);
+                }
+                // Skip older versions of the same key
+                while (!queue.isEmpty() && queue.peek().entry.getKey().equals(entry.getKey())) {
+                    Cursor older = queue.poll();
+                    if (older.advance()) {
+                        queue.add(older);
+                    }
+                }
+                return entry;
+            }
+        };
+    }
+
+    private List<Long> listFiles(String prefix, String suffix) {
+        List<Long> numbers = new ArrayList<>();
+        String[] names = directory.list();
+        if (names == null) {
+            return numbers;
+        }
+        for (String name : names) {
+            if (name.startsWith(prefix) && name.endsWith(suffix)) {
+                try {
+                    numbers.add(Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length())));
+                } catch (NumberFormatException e) {
+                    // Not one of ours
+                }
+            }
+        }
+        Collections.sort(numbers);
+        return numbers;
+    }
+
+    private File runFile(long number) {
+        return new File(directory, String.format("%s%06d%s", RUN_PREFIX, number, RUN_SUFFIX));
+    }
+
+    private File logFile(long number) {
+        return new File(directory, String.format("%s%06d%s", LOG_PREFIX, number, LOG_SUFFIX));
+    }
+
+    /**
+     * The memtables and runs a reader sees; replaced, never changed.
+     */
+    private static class View {
+        final Memtable memtable;
+        final List<Memtable> frozen; // newest first
+        final List<Run> runs;        // newest first
+
+        View(Memtable memtable, List<Memtable> frozen, List<Run> runs) {
+            this.memtable = memtable;
+            this.frozen = Collections.unmodifiableList(new ArrayList<>(frozen));
+            this.runs = Collections.unmodifiableList(new ArrayList<>(runs));
+        }
+    }
+
+    /**
+     * Sorted in-memory writes and the log that makes them durable.
+     */
+    private static class Memtable {
+        final ConcurrentSkipListMap<String, String> entries = new ConcurrentSkipListMap<>();
+        final File logFile;
+        private FileOutputStream logStream;
+        private DataOutputStream log;
+        private boolean unsynced; // written since the last force; guarded by the store's writeLock
+        long bytes;
+
+        Memtable(File logFile) throws IOException {
+            this.logFile = logFile;
+            this.logStream = new FileOutputStream(logFile, true);
+            this.log = new DataOutputStream(new BufferedOutputStream(logStream));
+        }
+
+        void log(String key, String value) throws IOException {
+            writeRecord(log, key, value);
+            // Hand the record to the OS so it survives a process crash
+            log.flush();
+            unsynced = true;
+        }
+
+        void sync() throws IOException {
+            if (log != null && unsynced) {
+                log.flush();
+                logStream.getChannel().force(false);
+                unsynced = false;
+            }
+        }
+
+        void closeLog() throws IOException {
+            if (log != null) {
+                log.close();
+                log = null;
+                logStream = null;
+            }
+        }
+
+        void deleteLog() {
+            logFile.delete();
+        }
+    }
+
+    /**
+     * An immutable sorted run on disk with its Bloom filter and sparse index in memory.
+     */
+    private static class Run {
+        final File file;
+        final FileChannel channel;
+        final BloomFilter bloom;
+        final String[] indexKeys;
+        final long[] indexOffsets;
+        final long dataEnd;
+        final int entryCount;
+
+        private Run(File file, FileChannel channel, BloomFilter bloom, String[] indexKeys, long[] indexOffsets,
+                    long dataEnd, int entryCount) {
+            this.file = file;
+            this.channel = channel;
+            this.bloom = bloom;
+            this.indexKeys = indexKeys;
+            this.indexOffsets = indexOffsets;
+            this.dataEnd = dataEnd;
+            this.entryCount = entryCount;
+        }
+
+        static Run open(File file) throws IOException {
+            FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            try {
+                long size = channel.size();
+                if (size < 4 + TRAILER_SIZE) {
+                    throw new IOException("Run file is truncated: " + file);
+                }
+                ByteBuffer trailer = read(channel, size - TRAILER_SIZE, TRAILER_SIZE);
+                long dataEnd = trailer.getLong();
+                long indexOffset = trailer.getLong();
+                long bloomOffset = trailer.getLong();
+                int entryCount = trailer.getInt();
+                if (trailer.getInt() != RUN_MAGIC) {
+                    throw new IOException("Not a run file: " + file);
+                }
+
+                ByteBuffer footer = read(channel, indexOffset, (int) (size - TRAILER_SIZE - indexOffset));
+                String[] keys = new String[footer.getInt()];
+                long[] offsets = new long[keys.length];
+                for (int i = 0; i < keys.length; i++) {
+                    keys[i] = readString(footer);
+                    offsets[i] = footer.getLong();
+                }
+                footer.position((int) (bloomOffset - indexOffset));
+                byte[] bloomBytes = new byte[footer.getInt()];
+                footer.get(bloomBytes);
+                return new Run(file, channel, BloomFilter.fromBytes(bloomBytes), keys, offsets, dataEnd, entryCount);
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        /**
+         * Finds a key with one block read. Returns null if the run does not
+         * hold it and TOMBSTONE if it holds its deletion.
+         */
+        String find(String key) throws IOException {
+            int block = floorBlock(key);
+            if (block < 0) {
+                return null;
+            }
+            long start = indexOffsets[block];
+            long end = block + 1 < indexOffsets.length ? indexOffsets[block + 1] : dataEnd;
+            ByteBuffer buffer = read(channel, start, (int) (end - start));
+            while (buffer.hasRemaining()) {
+                byte flag = buffer.get();
+                String entryKey = readString(buffer);
+                int compare = entryKey.compareTo(key);
+                if (compare == 0) {
+                    return flag == DELETE ? TOMBSTONE : readString(buffer);
+                }
+                if (compare > 0) {
+                    return null;
+                }
+                int valueLength = buffer.getInt();
+                buffer.position(buffer.position() + valueLength);
+            }
+            return null;
+        }
+
+        /**
+         * Opens a sequential reader positioned at the first key not below from.
+         */
+        RunReader reader(String from) throws IOException {
+            int block = Math.max(0, floorBlock(from));
+            long start = indexOffsets.length == 0 ? dataEnd : indexOffsets[block];
+            return new RunReader(file, start, dataEnd, from);
+        }
+
+        // Index of the last block whose first key is not above key, or -1
+        private int floorBlock(String key) {
+            int found = Arrays.binarySearch(indexKeys, key);
+            return found >= 0 ? found : -found - 2;
+        }
+
+        void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                System.err.println("Error closing run " + file + ": " + e.getMessage());
+            }
+        }
+
+        private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(length);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0) {
+                    throw new EOFException("Unexpected end of run file");
+                }
+            }
+            buffer.flip();
+            return buffer;
+        }
+    }
+
+    /**
+     * Reads a run's entries in key order through its own file handle.
+     */
+    private static class RunReader implements Iterator<Map.Entry<String, String>> {
+        private final DataInputStream in;
+        private final String from;
+        private long position;
+        private final long dataEnd;
+        private Map.Entry<String, String> next;
+
+        RunReader(File file, long start, long dataEnd, String from) throws IOException {
+            FileInputStream stream = new FileInputStream(file);
+            this.in = new DataInputStream(new BufferedInputStream(stream, 64 * 1024));
+            this.position = start;
+            this.dataEnd = dataEnd;
+            this.from = from;
+            stream.getChannel().position(start);
+        }
+
+        @Override
+        public boolean hasNext() {
+            try {
+                while (next == null && position < dataEnd) {
+                    byte flag = in.readByte();
+                    String key = readString(in);
+                    String value = readString(in);
+                    position += 9 + key.getBytes(StandardCharsets.UTF_8).length
+                            + value.getBytes(StandardCharsets.UTF_8).length;
+                    if (key.compareTo(from) >= 0) {
+                        next = new AbstractMap.SimpleImmutableEntry<>(key, flag == DELETE ? TOMBSTONE : value);
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return next != null;
+        }
+
+        @Override
+        public Map.Entry<String, String> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Map.Entry<String, String> entry = next;
+            next = null;
+            return entry;
+        }
+
+        void close() {
+            try {
+                in.close();
+            } catch (IOException e) {
+                System.err.println("Error closing run reader: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * The next entry of one merge source; rank 0 is the newest source.
+     */
+    private static class Cursor {
+        final Iterator<Map.Entry<String, String>> source;
+        final int rank;
+        Map.Entry<String, String> entry;
+
+        Cursor(Iterator<Map.Entry<String, String>> source, int rank) {
+            this.source = source;
+            this.rank = rank;
+        }
+
+        boolean advance() {
+            if (!source.hasNext()) {
+                return false;
+            }
+            entry = source.next();
+            return true;
+        }
+    }
+
+    /**
+     * Output stream that counts the bytes written through it, as a long.
+     */
+    private static class CountingStream extends FilterOutputStream {
+        long written;
+
+        CountingStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            written++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            written += len;
+        }
+    }
+}
@@ -0,0 +1,18 @@
+import java.io.IOException;
+import java.util.SortedMap;
+
+/**
+ * Interface for the LsmStore class
+ */
+public interface LsmStoreInterface {
+    void put(String key, String value) throws IOException;
+    void delete(String key) throws IOException;
+    String get(String key) throws IOException;
+    SortedMap<String, String> scan(String prefix) throws IOException;
+    void flush() throws IOException;
+    void compact() throws IOException;
+    void sync() throws IOException;
+    int getRunCount();
+    long getBloomSkips();
+    void close() throws IOException;
+}
@@ -0,0 +1,116 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.SortedMap;
+
+/**
+ * Tests for the log-structured merge store
+ */
+public class LsmStoreTest {
+
+	private String tempDirectory() throws Exception {
+		File dir = Files.createTempDirectory("lsm").toFile();
+		dir.deleteOnExit();
+		return dir.getPath();
+	}
+
+	/** Tests that values are found in the memtable and after being flushed to runs. */
+	@Test
+	public void testPutGetDeleteAcrossRuns() throws Exception {
+		LsmStore store = new LsmStore(tempDirectory(), 1 << 20, 10);
+		store.put("item/1", "lamp");
+		store.put("item/2", "rug");
+		assertEquals("lamp", store.get("item/1"));
+		store.flush();
+		assertEquals(1, store.getRunCount());
+
+		store.put("item/1", "desk lamp");
+		store.delete("item/2");
+		store.flush();
+		assertEquals(2, store.getRunCount());
+		assertEquals("desk lamp", store.get("item/1"));
+		assertNull(store.get("item/2"));
+		assertNull(store.get("item/3"));
+		store.close();
+	}
+
+	/** Tests that writes survive a reopen through the runs and the write-ahead log. */
+	@Test
+	public void testReopenReplaysLog() throws Exception {
+		String directory = tempDirectory();
+		LsmStore store = new LsmStore(directory, 1 << 20, 10);
+		store.put("user/1", "alice");
+		store.flush();
+		store.put("user/2", "bob");
+		store.delete("user/1");
+		store.close();
+
+		LsmStore reopened = new LsmStore(directory, 1 << 20, 10);
+		assertNull(reopened.get("user/1"));
+		assertEquals("bob", reopened.get("user/2"));
+		assertEquals(2, reopened.getRunCount());
+		reopened.close();
+	}
+
+	/** Tests that small memtables roll into runs that are compacted in the background. */
+	@Test
+	public void testCompactionBoundsRunsAndUsesBloomFilters() throws Exception {
+		LsmStore store = new LsmStore(tempDirectory(), 2048, 3);
+		for (int i = 0; i < 500; i++) {
+			store.put(String.format("item/%04d", i), "value " + i);
+		}
+		for (int i = 0; i < 500; i += 2) {
+			store.delete(String.format("item/%04d", i));
+		}
+		store.flush();
+		assertTrue(store.getRunCount() < 3);
+
+		store.compact();
+		assertEquals(1, store.getRunCount());
+		assertEquals("value 7", store.get("item/0007"));
+		assertNull(store.get("item/0008"));
+		long skipsBefore = store.getBloomSkips();
+		for (int i = 0; i < 100; i++) {
+			assertNull(store.get("user/" + i));
+		}
+		assertTrue(store.getBloomSkips() - skipsBefore > 80);
+		store.close();
+	}
+
+	/** Tests that a prefix scan merges the memtable and runs, newest value first. */
+	@Test
+	public void testScanMergesSources() throws Exception {
+		LsmStore store = new LsmStore(tempDirectory(), 1 << 20, 10);
+		store.put("item/1", "old");
+		store.put("item/2", "gone");
+		store.put("user/1", "alice");
+		store.flush();
+		store.put("item/1", "new");
+		store.delete("item/2");
+		store.put("item/3", "fresh");
+
+		SortedMap<String, String> items = store.scan("item/");
+		assertEquals("{item/1=new, item/3=fresh}", items.toString());
+		assertEquals(1, store.scan("user/").size());
+		store.close();
+	}
+
+	/** Tests that the write-ahead log is forced on schedule, or on every write with an interval of 0. */
+	@Test
+	public void testLogIsForcedOnSchedule() throws Exception {
+		LsmStore batched = new LsmStore(tempDirectory(), 1 << 20, 10, 20);
+		batched.put("item/1", "lamp");
+		long deadline = System.currentTimeMillis() + 5000;
+		while (batched.hasUnsyncedWrites() && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertFalse(batched.hasUnsyncedWrites());
+		batched.close();
+
+		LsmStore always = new LsmStore(tempDirectory(), 1 << 20, 10, 0);
+		always.put("item/1", "lamp");
+		assertFalse(always.hasUnsyncedWrites());
+		always.close();
+	}
+}
@@ -0,0 +1,203 @@
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.function.Consumer;
+
+/**
+ * The users of an LsmDatabase in its store, read one at a time when the
+ * user cache is enabled instead of every user being kept in memory.
+ *
+ * Each user is stored under "user/" + userId, and its ID under
+ * "username/" + username, so a lookup by either is a point lookup: the
+ * store's Bloom filters answer for an unknown user (a REGISTER of a new
+ * name) without reading a run, and its sparse indexes find a known one
+ * with one block read per run that may hold it.
+ *
+ * Deleted users are remembered until their keys are deleted.
+ */
+public class LsmUserFile implements UserFileInterface {
+    static final String USER_PREFIX = "user/";
+    static final String USERNAME_PREFIX = "username/";
+
+    private final LsmStore store;
+    private final Set<CompactId> deleted; // guarded by this
+    private int count;                    // -1 until opened
+    private long diskReads;
+
+    /**
+     * Creates the users of the given store. Call open() before reading them.
+     */
+    public LsmUserFile(LsmStore store) {
+        this.store = store;
+        this.deleted = new HashSet<>();
+        this.count = -1;
+    }
+
+    /**
+     * Counts the stored users and adds the username key of any user stored
+     * before usernames were keyed.
+     */
+    @Override
+    public synchronized void open() throws IOException {
+        SortedMap<String, String> usernames = store.scan(USERNAME_PREFIX);
+        int users = 0;
+        for (Map.Entry<String, String> entry : store.scan(USER_PREFIX).entrySet()) {
+            String[] fields = LsmDatabase.decodeUser(entry.getValue());
+            String userId = entry.getKey().substring(USER_PREFIX.length());
+            if (fields != null && !usernames.containsKey(USERNAME_PREFIX + fields[0])) {
+                store.put(USERNAME_PREFIX + fields[0], userId);
+            }
+            users++;
+        }
+        count = users;
+    }
+
+    /**
+     * Reads the stored value of the user with this ID, or returns null if there is none.
+     */
+    @Override
+    public synchronized String findById(CompactId userId) {
+        if (userId == null || deleted.contains(userId)) {
+            return null;
+        }
+        return read(USER_PREFIX + userId);
+    }
+
+    /**
+     * Reads the stored value of the user with this username, or returns null if there is none.
+     */
+    @Override
+    public synchronized String findByUsername(String username) {
+        if (username == null) {
+            return null;
+        }
+        String userId = read(USERNAME_PREFIX + username);
+        if (userId == null || deleted.contains(CompactId.of(userId))) {
+            return null;
+        }
+        return read(USER_PREFIX + userId);
+    }
+
+    // Caller holds this
+    private String read(String key) {
+        diskReads++;
+        try {
+            return store.get(key);
+        } catch (IOException e) {
+            System.err.println("Error reading " + key + " from store: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Passes every stored user, except deleted ones, to action.
+     */
+    @Override
+    public void forEachLine(Consumer<String> action) throws IOException {
+        Set<CompactId> gone;
+        synchronized (this) {
+            gone = new HashSet<>(deleted);
+        }
+        for (Map.Entry<String, String> entry : store.scan(USER_PREFIX).entrySet()) {
+            if (!gone.contains(CompactId.of(entry.getKey().substring(USER_PREFIX.length())))) {
+                action.accept(entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Remembers that a user was deleted, so it is no longer found before its keys are deleted.
+     */
+    @Override
+    public synchronized void markDeleted(CompactId userId) {
+        deleted.add(userId);
+    }
+
+    /**
+     * Checks whether a user was deleted and its keys are not deleted yet.
+     */
+    @Override
+    public synchronized boolean isDeleted(CompactId userId) {
+        return deleted.contains(userId);
+    }
+
+    /**
+     * Puts each of the given users; every other stored user is kept.
+     */
+    @Override
+    public void rewrite(List<String> lines) throws IOException {
+        for (String line : lines) {
+            put(line);
+        }
+    }
+
+    /**
+     * Puts one user's value, as LsmDatabase encodes it, and its username key.
+     */
+    void put(String value) throws IOException {
+        String[] fields = LsmDatabase.decodeUser(value);
+        if (fields == null) {
+            throw new IOException("Not an encoded user: " + value);
+        }
+        String key = USER_PREFIX + fields[4];
+        synchronized (this) {
+            if (count >= 0 && store.get(key) == null) {
+                count++;
+            }
+        }
+        store.put(key, value);
+        store.put(USERNAME_PREFIX + fields[0], fields[4]);
+    }
+
+    /**
+     * Deletes a user's keys.
+     */
+    void remove(User user) throws IOException {
+        String key = USER_PREFIX + user.getUserId();
+        synchronized (this) {
+            if (count > 0 && store.get(key) != null) {
+                count--;
+            }
+        }
+        store.delete(key);
+        store.delete(USERNAME_PREFIX + user.getUsername());
+        synchronized (this) {
+            deleted.remove(user.getUserKey());
+        }
+    }
+
+    /**
+     * Gets the number of stored users, or 0 before open().
+     */
+    @Override
+    public synchronized int size() {
+        return Math.max(count, 0);
+    }
+
+    /**
+     * Gets the number of point lookups made in the store.
+     */
+    @Override
+    public synchronized long getDiskReads() {
+        return diskReads;
+    }
+
+    /**
+     * Gets how many run reads the store's Bloom filters have avoided, for
+     * these lookups and any other.
+     */
+    @Override
+    public long getFilterSkips() {
+        return store.getBloomSkips();
+    }
+
+    /**
+     * Does nothing; the store is closed by its database.
+     */
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,105 @@
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Item backed by a record in a mapped BinaryItemFile. Title, description,
+ * category and tags are decoded from the buffer the first time they are read,
+ * so loading a large catalog only decodes the item ID of each record.
+ */
+public class MappedItem extends Item {
+    private final ByteBuffer buffer;
+    private final int recordOffset;
+    private String sellerId;
+    private String storedBuyerId;
+    private String title;
+    private String description;
+    private String category;
+    private List<String> tags;
+
+    /**
+     * Creates a view of the record at recordOffset.
+     */
+    public MappedItem(ByteBuffer buffer, int recordOffset) {
+        super(BinaryItemFile.readField(buffer, recordOffset, BinaryItemFile.FIELD_ITEM_ID),
+                null,
+                buffer.getDouble(recordOffset + BinaryItemFile.REC_PRICE),
+                BinaryItemFile.isSold(buffer, recordOffset),
+                null,
+                buffer.getDouble(recordOffset + BinaryItemFile.REC_RATING),
+                buffer.getInt(recordOffset + BinaryItemFile.REC_RATING_COUNT));
+        this.buffer = buffer;
+        this.recordOffset = recordOffset;
+    }
+
+    /**
+     * Gets the seller ID, decoding it on first access.
+     */
+    @Override
+    public String getSellerId() {
+        if (sellerId == null) {
+            sellerId = BinaryItemFile.readField(buffer, recordOffset, BinaryItemFile.FIELD_SELLER_ID);
+        }
+        return sellerId;
+    }
+
+    /**
+     * Gets the buyer ID. A buyer set after loading wins over the stored one.
+     */
+    @Override
+    public String getBuyerId() {
+        String buyerId = super.getBuyerId();
+        if (buyerId != null || !isSold()) {
+            return buyerId;
+        }
+        if (storedBuyerId == null) {
+            storedBuyerId = BinaryItemFile.readField(buffer, recordOffset, BinaryItemFile.FIELD_BUYER_ID);
+        }
+        return storedBuyerId;
+    }
+
+    /**
+     * Gets the title, decoding it on first access.
+     */
+    @Override
+    public String getTitle() {
+        if (title == null) {
+            title = BinaryItemFile.readField(buffer, recordOffset, BinaryItemFile.FIELD_TITLE);
+        }
+        return title;
+    }
+
+    /**
+     * Gets the description, decoding it on first access.
+     */
+    @Override
+    public String getDescription() {
+        if (description == null) {
+            String decoded = BinaryItemFile.readField(buffer, recordOffset, BinaryItemFile.FIELD_DESCRIPTION);
+            description = decoded == null ? "" : decoded;
+        }
+        return description;
+    }
+
+    /**
+     * Gets the category, decoding it on first access.
+     */
+    @Override
+    public String getCategory() {
+        if (category == null) {
+            category = BinaryItemFile.readField(buffer, recordOffset, BinaryItemFile.FIELD_CATEGORY);
+        }
+        return category;
+    }
+
+    /**
+     * Gets the tags, extracting them from the description on first access.
+     */
+    @Override
+    public List<String> getTags() {
+        if (tags == null) {
+            getSpecialCharacters();
+            tags = extractTags(stopwordSet());
+        }
+        return tags;
+    }
+}
@@ -0,0 +1,212 @@
+import java.nio.ByteBuffer;
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Items of a mapped BinaryItemFile keyed by ID, built from the file's
+ * fixed-width index alone. Opening the file only fills an open-addressing
+ * table of ID bits and record offsets, with no object per item; a record
+ * becomes a MappedItem when it is first looked up, and every record does
+ * once the map is iterated. Items put or removed later are held in an
+ * ordinary map in front of the table.
+ *
+ * Like HashMap, it is not thread-safe; lookups change it too.
+ */
+public class MappedItemMap extends AbstractMap<CompactId, Item> {
+    private static final int EMPTY = -1; // slot never used
+    private static final int TAKEN = -2; // record already read or removed; probes continue past it
+
+    private final ByteBuffer buffer;
+    private final long[] ids;     // high and low bits of the ID in each slot
+    private final int[] offsets;  // record offset in each slot, or EMPTY or TAKEN
+    private final int mask;
+    private final Map<CompactId, Integer> textIds; // unread records whose IDs are not UUIDs -> offset
+    private final Map<CompactId, Item> loaded;     // items read from records or put since
+    private int unread;
+
+    /**
+     * Creates an empty map over the records in buffer, sized for count of them.
+     */
+    MappedItemMap(ByteBuffer buffer, int count) {
+        int slots = Integer.highestOneBit(Math.max(2, count) * 2 - 1) << 1;
+        this.buffer = buffer;
+        this.ids = new long[2 * slots];
+        this.offsets = new int[slots];
+        Arrays.fill(offsets, EMPTY);
+        this.mask = slots - 1;
+        this.textIds = new HashMap<>();
+        this.loaded = new HashMap<>();
+        this.unread = 0;
+    }
+
+    /**
+     * Adds the record of a UUID item ID, given as its two longs. A later
+     * record with the same ID replaces the earlier one.
+     */
+    void addRecord(long high, long low, int recordOffset) {
+        int slot = slot(high, low);
+        if (offsets[slot] < 0) {
+            ids[2 * slot] = high;
+            ids[2 * slot + 1] = low;
+            unread++;
+        }
+        offsets[slot] = recordOffset;
+    }
+
+    /**
+     * Adds the record of any item ID.
+     */
+    void addRecord(CompactId itemId, int recordOffset) {
+        if (itemId.isCompact()) {
+            addRecord(itemId.getMostSignificantBits(), itemId.getLeastSignificantBits(), recordOffset);
+        } else if (textIds.put(itemId, recordOffset) == null) {
+            unread++;
+        }
+    }
+
+    // The slot holding the ID, or the empty slot where it would go; the table is never full
+    private int slot(long high, long low) {
+        long mixed = (high ^ Long.rotateLeft(low, 32)) * 0x9E3779B97F4A7C15L;
+        int slot = (int) (mixed >>> 32) & mask;
+        while (offsets[slot] != EMPTY && (ids[2 * slot] != high || ids[2 * slot + 1] != low)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    // Gets the offset of an unread record and marks it read, or returns -1 if there is none
+    private int take(CompactId itemId) {
+        if (unread == 0) {
+            return -1;
+        }
+        if (!itemId.isCompact()) {
+            Integer offset = textIds.remove(itemId);
+            if (offset == null) {
+                return -1;
+            }
+            unread--;
+            return offset;
+        }
+        int slot = slot(itemId.getMostSignificantBits(), itemId.getLeastSignificantBits());
+        int offset = offsets[slot];
+        if (offset < 0) {
+            return -1;
+        }
+        offsets[slot] = TAKEN;
+        unread--;
+        return offset;
+    }
+
+    /**
+     * Gets an item, reading its record the first time.
+     */
+    @Override
+    public Item get(Object key) {
+        if (!(key instanceof CompactId)) {
+            return null;
+        }
+        Item item = loaded.get(key);
+        if (item != null) {
+            return item;
+        }
+        int offset = take((CompactId) key);
+        if (offset < 0) {
+            return null;
+        }
+        item = new MappedItem(buffer, offset);
+        loaded.put((CompactId) key, item);
+        return item;
+    }
+
+    /**
+     * Checks for an item without reading its record.
+     */
+    @Override
+    public boolean containsKey(Object key) {
+        if (!(key instanceof CompactId)) {
+            return false;
+        }
+        CompactId itemId = (CompactId) key;
+        if (loaded.containsKey(itemId)) {
+            return true;
+        }
+        if (unread == 0) {
+            return false;
+        }
+        if (!itemId.isCompact()) {
+            return textIds.containsKey(itemId);
+        }
+        return offsets[slot(itemId.getMostSignificantBits(), itemId.getLeastSignificantBits())] >= 0;
+    }
+
+    @Override
+    public Item put(CompactId key, Item value) {
+        Item previous = get(key);
+        loaded.put(key, value);
+        return previous;
+    }
+
+    @Override
+    public Item remove(Object key) {
+        Item previous = get(key);
+        if (previous != null) {
+            loaded.remove(key);
+        }
+        return previous;
+    }
+
+    @Override
+    public int size() {
+        return loaded.size() + unread;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    @Override
+    public void clear() {
+        loaded.clear();
+        textIds.clear();
+        Arrays.fill(offsets, EMPTY);
+        unread = 0;
+    }
+
+    /**
+     * Gets every entry, first reading every record not read yet.
+     */
+    @Override
+    public Set<Map.Entry<CompactId, Item>> entrySet() {
+        readAll();
+        return loaded.entrySet();
+    }
+
+    /**
+     * Gets the number of records not read yet.
+     */
+    int getUnreadCount() {
+        return unread;
+    }
+
+    private void readAll() {
+        if (unread == 0) {
+            return;
+        }
+        for (int slot = 0; slot < offsets.length; slot++) {
+            if (offsets[slot] >= 0) {
+                Item item = new MappedItem(buffer, offsets[slot]);
+                offsets[slot] = TAKEN;
+                loaded.put(item.getItemKey(), item);
+            }
+        }
+        for (Map.Entry<CompactId, Integer> entry : textIds.entrySet()) {
+            loaded.put(entry.getKey(), new MappedItem(buffer, entry.getValue()));
+        }
+        textIds.clear();
+        unread = 0;
+    }
+}
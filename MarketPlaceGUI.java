@@ -47,6 +47,10 @@ public class MarketPlaceGUI extends JFrame {
     // Formatters
     private NumberFormat currencyFormat = NumberFormat.getCurrencyInstance();
 
+    // Chat paging: only the newest page is loaded, older pages on request
+    private static final int MESSAGE_PAGE_SIZE = 50;
+    private long oldestLoadedMessageTimestamp;
+
     /**
      * Constructor for the MarketPlaceGUI.
      */
@@ -431,12 +435,23 @@ public class MarketPlaceGUI extends JFrame {
         JComboBox<String> categoryComboBox = new JComboBox<>(new String[] {
                 "", "Electronics", "Clothing", "Books", "Home", "Food", "Other"
         });
+        JLabel priceLabel = new JLabel("Price:");
+        JTextField minPriceField = new JTextField(5);
+        JTextField maxPriceField = new JTextField(5);
+        JComboBox<String> sortComboBox = new JComboBox<>(new String[] {
+                "Relevance", "Price: low to high", "Price: high to low"
+        });
         JButton searchButton = new JButton("Search");
 
         searchPanel.add(searchLabel);
         searchPanel.add(searchField);
         searchPanel.add(categoryLabel);
         searchPanel.add(categoryComboBox);
+        searchPanel.add(priceLabel);
+        searchPanel.add(minPriceField);
+        searchPanel.add(new JLabel("to"));
+        searchPanel.add(maxPriceField);
+        searchPanel.add(sortComboBox);
         searchPanel.add(searchButton);
 
         // Results panel in center
@@ -480,6 +495,17 @@ public class MarketPlaceGUI extends JFrame {
         searchButton.addActionListener(e -> {
             String query = searchField.getText();
             String category = (String) categoryComboBox.getSelectedItem();
+            double minPrice;
+            double maxPrice;
+            try {
+                minPrice = minPriceField.getText().trim().isEmpty() ? 0 : Double.parseDouble(minPriceField.getText().trim());
+                maxPrice = maxPriceField.getText().trim().isEmpty() ? 0 : Double.parseDouble(maxPriceField.getText().trim());
+            } catch (NumberFormatException ex) {
+                statusLabel.setText("Please enter valid prices.");
+                return;
+            }
+            String[] sorts = {"relevance", "price_asc", "price_desc"};
+            String sort = sorts[sortComboBox.getSelectedIndex()];
 
             // Clear the table
             while (itemsTableModel.getRowCount() > 0) {
@@ -487,7 +513,7 @@ public class MarketPlaceGUI extends JFrame {
             }
 
             // Search for items
-            String response = client.searchItems(query, category, 100);
+            String response = client.searchItems(query, category, 100, minPrice, maxPrice, sort);
             String[] parts = response.split(",");
 
             if (parts.length >= 3 && parts[1].equals("SUCCESS")) {
@@ -966,6 +992,10 @@ public class MarketPlaceGUI extends JFrame {
         sendPanel.add(messageField, BorderLayout.CENTER);
         sendPanel.add(sendButton, BorderLayout.EAST);
 
+        JButton olderMessagesButton = new JButton("Load older messages");
+        olderMessagesButton.setEnabled(false);
+
+        messagesContentPanel.add(olderMessagesButton, BorderLayout.NORTH);
         messagesContentPanel.add(messagesScrollPane, BorderLayout.CENTER);
         messagesContentPanel.add(sendPanel, BorderLayout.SOUTH);
 
@@ -1066,12 +1096,15 @@ public class MarketPlaceGUI extends JFrame {
             if (!e.getValueIsAdjusting()) {
                 ConversationInfo selected = conversationsList.getSelectedValue();
                 if (selected != null) {
-                    // Load messages between users
-                    String response = client.getMessages(client.getCurrentUserId(), selected.getUserId());
+                    // Load the newest page of messages between users
+                    String response = client.getMessages(client.getCurrentUserId(), selected.getUserId(),
+                            0, 0, MESSAGE_PAGE_SIZE);
                     System.out.println("Messages response: " + response);
 
                     // Clear message area
                     messagesArea.setText("");
+                    olderMessagesButton.setEnabled(false);
+                    oldestLoadedMessageTimestamp = 0;
 
                     // Parse the response
                     String[] parts = response.split(",");
@@ -1142,23 +1175,9 @@ public class MarketPlaceGUI extends JFrame {
                             // Handle standard format with message count
                             try {
                                 int messageCount = Integer.parseInt(parts[2]);
-
-                                for (int i = 0; i < messageCount; i++) {
-                                    int baseIndex = 3 + (i * 5); // Each message has 5 parts
-
-                                    if (baseIndex + 4 < parts.length) {
-                                        String messageId = parts[baseIndex];
-                                        String senderId = parts[baseIndex + 1];
-                                        String receiverId = parts[baseIndex + 2];
-                                        String timestamp = parts[baseIndex + 3];
-                                        String content = parts[baseIndex + 4];
-
-                                        boolean isSentByMe = senderId.equals(client.getCurrentUserId());
-                                        String prefix = isSentByMe ? "Me: " : selected.getUsername() + ": ";
-
-                                        messagesArea.append(prefix + content + "\n\n");
-                                    }
-                                }
+                                messagesArea.append(formatMessagePage(parts, messageCount, selected.getUsername()));
+                                // A full page means there may be older messages
+                                olderMessagesButton.setEnabled(messageCount == MESSAGE_PAGE_SIZE);
                             } catch (NumberFormatException ex) {
                                 messagesArea.append("Error parsing messages. Please try again.");
                                 System.out.println("Error parsing message count: " + ex.getMessage());
@@ -1174,6 +1193,28 @@ public class MarketPlaceGUI extends JFrame {
             }
         });
 
+        olderMessagesButton.addActionListener(e -> {
+            ConversationInfo selected = conversationsList.getSelectedValue();
+            if (selected == null || oldestLoadedMessageTimestamp <= 0) {
+                return;
+            }
+
+            String response = client.getMessages(client.getCurrentUserId(), selected.getUserId(),
+                    0, oldestLoadedMessageTimestamp, MESSAGE_PAGE_SIZE);
+            String[] parts = response.split(",");
+            if (parts.length >= 3 && parts[1].equals("SUCCESS")) {
+                try {
+                    int messageCount = Integer.parseInt(parts[2]);
+                    // Prepend the older page and keep the view where the reader was
+                    messagesArea.insert(formatMessagePage(parts, messageCount, selected.getUsername()), 0);
+                    messagesArea.setCaretPosition(0);
+                    olderMessagesButton.setEnabled(messageCount == MESSAGE_PAGE_SIZE);
+                } catch (NumberFormatException ex) {
+                    System.out.println("Error parsing message count: " + ex.getMessage());
+                }
+            }
+        });
+
         sendButton.addActionListener(e -> {
             ConversationInfo selected = conversationsList.getSelectedValue();
             String message = messageField.getText().trim();
@@ -1627,6 +1668,35 @@ public class MarketPlaceGUI extends JFrame {
         }
     }
 
+    /**
+     * Formats one page of a GET_MESSAGES response for the messages area and
+     * remembers its oldest timestamp, so the next older page can be requested.
+     */
+    private String formatMessagePage(String[] parts, int messageCount, String partnerName) {
+        StringBuilder page = new StringBuilder();
+        for (int i = 0; i < messageCount; i++) {
+            int baseIndex = 3 + (i * 5); // Each message has 5 parts
+
+            if (baseIndex + 4 < parts.length) {
+                String senderId = parts[baseIndex + 1];
+                String content = parts[baseIndex + 4];
+                try {
+                    long timestamp = Long.parseLong(parts[baseIndex + 3]);
+                    if (oldestLoadedMessageTimestamp <= 0 || timestamp < oldestLoadedMessageTimestamp) {
+                        oldestLoadedMessageTimestamp = timestamp;
+                    }
+                } catch (NumberFormatException ex) {
+                    System.out.println("Error parsing message timestamp: " + ex.getMessage());
+                }
+
+                boolean isSentByMe = senderId.equals(client.getCurrentUserId());
+                String prefix = isSentByMe ? "Me: " : partnerName + ": ";
+                page.append(prefix).append(content).append("\n\n");
+            }
+        }
+        return page.toString();
+    }
+
     private void debugLoadMessages(String user1Id, String user2Id) {
         String response = client.getMessages(user1Id, user2Id);
         System.out.println("DEBUG - Message loading response: " + response);
@@ -1843,85 +1913,66 @@ public class MarketPlaceGUI extends JFrame {
 
             System.out.println("Refreshing purchase history for user: " + client.getCurrentUserId());
 
-            // Request all items from the server
-            String response = client.searchItems("", "", 100);
+            // Request the user's purchases from the server
+            String response = client.getPurchaseHistory(client.getCurrentUserId());
             String[] parts = response.split(",");
 
             if (parts.length >= 3 && parts[1].equals("SUCCESS")) {
                 int count = Integer.parseInt(parts[2]);
-                System.out.println("Found " + count + " items to check for purchase history");
                 int purchaseCount = 0;
 
-                for (int i = 0; i < count; i++) {
-                    String itemId = parts[3 + 2*i];
+                // Look up seller usernames once for the whole table
+                Map<String, String> usernames = new HashMap<>();
+                String usersResponse = client.getAllUsers();
+                String[] userParts = usersResponse.split(",");
 
-                    // Get details for each item
-                    String itemResponse = client.getItem(itemId);
-                    String[] itemParts = itemResponse.split(",");
-
-                    System.out.println("Checking item: " + itemId + ", response length: " + itemParts.length);
-
-                    if (itemParts.length >= 9 && itemParts[1].equals("SUCCESS")) {
-                        String sellerId = itemParts[3];
-                        String itemTitle = itemParts[4];
-                        String category = itemParts[6];
-                        double price = Double.parseDouble(itemParts[7]);
-                        boolean sold = Boolean.parseBoolean(itemParts[8]);
-
-                        // Check for buyer ID - this is the critical part for purchase history
-                        String buyerId = "";
-                        if (itemParts.length > 9) {
-                            buyerId = itemParts[9];
-                            System.out.println("Item " + itemId + " has buyerId: " + buyerId);
-                        }
-
-                        // Add to purchase history if this user bought it
-                        if (sold && buyerId.equals(client.getCurrentUserId())) {
-                            // Get seller username instead of ID if possible
-                            String sellerName = sellerId;
-                            String usersResponse = client.getAllUsers();
-                            String[] userParts = usersResponse.split(",");
+                if (userParts.length >= 3 && userParts[1].equals("SUCCESS")) {
+                    int userCount = Integer.parseInt(userParts[2]);
 
-                            if (userParts.length >= 3 && userParts[1].equals("SUCCESS")) {
-                                int userCount = Integer.parseInt(userParts[2]);
+                    for (int j = 0; j < userCount; j++) {
+                        usernames.put(userParts[3 + 2*j], userParts[4 + 2*j]);
+                    }
+                }
 
-                                for (int j = 0; j < userCount; j++) {
-                                    String userId = userParts[3 + 2*j];
-                                    String username = userParts[4 + 2*j];
+                for (int i = 0; i < count; i++) {
+                    int offset = 3 + 5*i;
+                    if (offset + 4 >= parts.length) {
+                        break;
+                    }
 
-                                    if (userId.equals(sellerId)) {
-                                        sellerName = username;
-                                        break;
-                                    }
-                                }
-                            }
+                    String itemId = parts[offset];
+                    String itemTitle = parts[offset + 1];
+                    String category = parts[offset + 2];
+                    double price = Double.parseDouble(parts[offset + 3]);
+                    String sellerId = parts[offset + 4];
 
-                            // Get seller rating
-                            String sellerRatingResponse = client.getRating(sellerId);
-                            String[] sellerRatingParts = sellerRatingResponse.split(",");
-                            String ratingDisplay = "";
-
-                            if (sellerRatingParts.length >= 3 && sellerRatingParts[1].equals("SUCCESS")) {
-                                double sellerRating = Double.parseDouble(sellerRatingParts[2]);
-                                if (sellerRating > 0) {
-                                    ratingDisplay = String.format(" (%.1f★)", sellerRating);
-                                }
-                            }
+                    // Get seller username instead of ID if possible
+                    String sellerName = usernames.getOrDefault(sellerId, sellerId);
 
-                            sellerName += ratingDisplay;
+                    // Get seller rating
+                    String sellerRatingResponse = client.getRating(sellerId);
+                    String[] sellerRatingParts = sellerRatingResponse.split(",");
+                    String ratingDisplay = "";
 
-                            model.addRow(new Object[] {
-                                    itemId,
-                                    itemTitle,
-                                    category,
-                                    currencyFormat.format(price),
-                                    sellerName,
-                                    "Rate"
-                            });
-                            purchaseCount++;
-                            System.out.println("Added item to purchase history: " + itemTitle);
+                    if (sellerRatingParts.length >= 3 && sellerRatingParts[1].equals("SUCCESS")) {
+                        double sellerRating = Double.parseDouble(sellerRatingParts[2]);
+                        if (sellerRating > 0) {
+                            ratingDisplay = String.format(" (%.1f★)", sellerRating);
                         }
                     }
+
+                    sellerName += ratingDisplay;
+
+                    model.addRow(new Object[] {
+                            itemId,
+                            itemTitle,
+                            category,
+                            currencyFormat.format(price),
+                            sellerName,
+                            "Rate"
+                    });
+                    purchaseCount++;
+                    System.out.println("Added item to purchase history: " + itemTitle);
                 }
 
                 statusLabel.setText("Showing " + purchaseCount + " purchased items.");
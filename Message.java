@@ -1,10 +1,9 @@
 import java.time.Instant;
-import java.util.UUID;
 
 public class Message implements MessageInterface {
-    private String messageId;
-    private String senderId;
-    private String receiverId;
+    private CompactId messageId; // IDs are kept compact; the getters make the strings
+    private CompactId senderId;
+    private CompactId receiverId;
     private String content;
     private long timestamp;
     private boolean read;
@@ -12,22 +11,35 @@ public class Message implements MessageInterface {
      * Creates a new message with time stamps.
      */
     public Message(String senderId, String receiverId, String content) {
-        this.messageId = UUID.randomUUID().toString();
-        this.senderId = senderId;
-        this.receiverId = receiverId;
+        this.messageId = IdGenerator.DEFAULT.next();
+        this.senderId = CompactId.of(senderId);
+        this.receiverId = CompactId.of(receiverId);
         this.content = content;
         this.timestamp = System.currentTimeMillis();
         this.read = false;
     }
 
+    /**
+     * Recreates a stored message with its original ID, timestamp and read status.
+     */
+    public Message(String messageId, String senderId, String receiverId, String content,
+                   long timestamp, boolean read) {
+        this.messageId = CompactId.of(messageId);
+        this.senderId = CompactId.of(senderId);
+        this.receiverId = CompactId.of(receiverId);
+        this.content = content;
+        this.timestamp = timestamp;
+        this.read = read;
+    }
+
     /**
      * Creates a message with specified timestamp and read status.
      */
     public Message(String senderId, String receiverId, String content,
                    long timestamp, boolean read) {
-        this.messageId = UUID.randomUUID().toString();
-        this.senderId = senderId;
-        this.receiverId = receiverId;
+        this.messageId = IdGenerator.DEFAULT.next();
+        this.senderId = CompactId.of(senderId);
+        this.receiverId = CompactId.of(receiverId);
         this.content = content;
         this.timestamp = timestamp;
         this.read = read;
@@ -39,7 +51,7 @@ public class Message implements MessageInterface {
     @Override
     public String getMessageId() {
         // TODO Return messageId
-        return messageId;
+        return messageId == null ? null : messageId.toString();
     }
     
     /**
@@ -48,6 +60,14 @@ public class Message implements MessageInterface {
     @Override
     public String getSenderId() {
         // TODO Return senderId
+        return senderId == null ? null : senderId.toString();
+    }
+
+    /**
+     * Gets the sender's identifier in its compact form.
+     */
+    @Override
+    public CompactId getSenderKey() {
         return senderId;
     }
     
@@ -57,6 +77,14 @@ public class Message implements MessageInterface {
     @Override
     public String getReceiverId() {
         // TODO: Return receiverId
+        return receiverId == null ? null : receiverId.toString();
+    }
+
+    /**
+     * Gets the receiver's identifier in its compact form.
+     */
+    @Override
+    public CompactId getReceiverKey() {
         return receiverId;
     }
     
@@ -3,8 +3,12 @@ public interface MessageInterface {
 
     String getSenderId();
 
+    CompactId getSenderKey();
+
     String getReceiverId();
 
+    CompactId getReceiverKey();
+
     String getContent();
 
     long getTimestamp();
@@ -0,0 +1,925 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.function.Predicate;
+
+/**
+ * Append-only message log shared by all conversations. Messages are appended
+ * to the active segment file; once it reaches maxSegmentBytes it is sealed,
+ * its conversation index is written next to it and a new segment is started.
+ *
+ * Segment layout (big-endian): magic, version, then records of
+ * length, version, buyerId, sellerId, senderId, timestamp, messageId, content.
+ *
+ * A conversation's record positions, sorted by timestamp, are its seek
+ * index: reading a history touches only its own records and a time window
+ * is found by binary search without reading any record outside it. Seek
+ * indexes are built from the segment index files when a conversation is
+ * first read and kept for the most recently read conversations only, so
+ * idle conversations take no heap. A Bloom filter per sealed segment skips
+ * the index files that cannot hold the conversation. Index entries and
+ * keys hold user IDs as CompactIds, not strings. Deleted users are
+ * tombstoned in deleted-users.txt and their records are dropped by compact().
+ */
+public class MessageLog implements MessageLogInterface {
+    public static final int MAGIC = 0x4D4C4F47; // "MLOG"
+    public static final int VERSION = 2; // version 2 added the message ID
+    static final int SEGMENT_HEADER_SIZE = 8;
+    private static final int INDEX_MAGIC = 0x4D4C4932; // "MLI2", entries carry timestamps
+    private static final String TOMBSTONE_FILE = "deleted-users.txt";
+    public static final int DEFAULT_MAX_RESIDENT_CONVERSATIONS = 256;
+
+    private final File directory;
+    private final FileHandlePool handles;
+    private int maxSegmentBytes;
+
+    private boolean open;
+    private final LinkedHashMap<ConversationKey, Positions> resident; // seek indexes, least recently used first
+    private int maxResident;
+    private final TreeMap<Integer, SegmentStats> segments; // segment id -> record counts
+    private final Map<Integer, BloomFilter> filters; // sealed segment id -> conversations it holds
+    private final Set<CompactId> deletedUsers;
+    private int activeSegment;
+    private long activeSize;
+    private List<IndexEntry> activeEntries; // index of the active segment, written when it is sealed
+
+    /**
+     * Creates a log stored in the given directory with its own small handle
+     * pool. Nothing is read until the log is first used.
+     */
+    public MessageLog(String directory, int maxSegmentBytes) {
+        this(directory, maxSegmentBytes, new FileHandlePool(8, 0, FileHandlePool.Durability.NONE, 0));
+    }
+
+    /**
+     * Creates a log stored in the given directory whose segment files are
+     * opened through the given pool.
+     */
+    public MessageLog(String directory, int maxSegmentBytes, FileHandlePool handles) {
+        if (maxSegmentBytes <= SEGMENT_HEADER_SIZE) {
+            throw new IllegalArgumentException("maxSegmentBytes must be larger than the segment header");
+        }
+        this.directory = new File(directory);
+        this.handles = handles;
+        this.maxSegmentBytes = maxSegmentBytes;
+        this.open = false;
+        this.maxResident = DEFAULT_MAX_RESIDENT_CONVERSATIONS;
+        this.resident = new LinkedHashMap<ConversationKey, Positions>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ConversationKey, Positions> eldest) {
+                return size() > maxResident;
+            }
+        };
+        this.segments = new TreeMap<>();
+        this.filters = new HashMap<>();
+        this.deletedUsers = new HashSet<>();
+        this.activeEntries = new ArrayList<>();
+    }
+
+    /**
+     * Opens the log: loads tombstones, counts the records of every segment
+     * and builds its conversation filter, and truncates a partially written
+     * record at the end of the active segment. No seek index is built yet.
+     */
+    @Override
+    public synchronized void open() throws IOException {
+        if (open) {
+            return;
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create message log directory " + directory);
+        }
+
+        resident.clear();
+        segments.clear();
+        filters.clear();
+        deletedUsers.clear();
+        activeEntries = new ArrayList<>();
+        loadTombstones();
+
+        List<Integer> ids = listSegmentIds();
+        for (int i = 0; i < ids.size() - 1; i++) {
+            int id = ids.get(i);
+            List<IndexEntry> entries = readIndexFile(id);
+            if (entries == null) {
+                entries = scanSegment(id);
+                writeIndexFile(id, entries);
+            }
+            for (IndexEntry entry : entries) {
+                count(id, entry);
+            }
+            filters.put(id, filterOf(entries));
+        }
+
+        // The last segment stays active; it has no index file and is always scanned
+        activeSegment = ids.isEmpty() ? 1 : ids.get(ids.size() - 1);
+        openActiveSegment();
+        for (IndexEntry entry : activeEntries) {
+            count(activeSegment, entry);
+        }
+        open = true;
+    }
+
+    /**
+     * Checks whether the log has been opened.
+     */
+    @Override
+    public synchronized boolean isOpen() {
+        return open;
+    }
+
+    /**
+     * Appends one message of a buyer/seller conversation, sealing the active
+     * segment first if the record would not fit.
+     */
+    @Override
+    public synchronized void append(String buyerId, String sellerId, Message message) throws IOException {
+        open();
+        byte[] record = encode(buyerId, sellerId, message);
+        if (activeSize > SEGMENT_HEADER_SIZE && activeSize + record.length > maxSegmentBytes) {
+            roll();
+        }
+
+        int offset = (int) activeSize;
+        handles.write(segmentFile(activeSegment), ByteBuffer.wrap(record), activeSize);
+        activeSize += record.length;
+
+        IndexEntry entry = new IndexEntry(CompactId.of(buyerId), CompactId.of(sellerId), offset,
+                message.getTimestamp());
+        activeEntries.add(entry);
+        if (count(activeSegment, entry)) {
+            // Only a resident seek index is kept up to date; any other is rebuilt when read
+            Positions positions = resident.get(keyOf(entry));
+            if (positions != null) {
+                positions.add(pack(activeSegment, offset), entry.timestamp);
+            }
+        }
+    }
+
+    /**
+     * Forces appended records to the storage device.
+     */
+    @Override
+    public synchronized void sync() throws IOException {
+        if (open) {
+            handles.sync(segmentFile(activeSegment));
+        }
+    }
+
+    /**
+     * Reads every message between two users, in timestamp order.
+     */
+    @Override
+    public synchronized List<Message> read(ConversationKey key) throws IOException {
+        return read(key, null, null);
+    }
+
+    /**
+     * Reads the messages of one buyer/seller conversation, in timestamp order.
+     */
+    @Override
+    public synchronized List<Message> read(String buyerId, String sellerId) throws IOException {
+        return read(new ConversationKey(buyerId, sellerId), buyerId, sellerId);
+    }
+
+    /**
+     * Reads one page of the messages between two users, in timestamp order.
+     * See MessageWindow for how since, before and limit select the page.
+     */
+    @Override
+    public synchronized List<Message> read(ConversationKey key, long since, long before, int limit) throws IOException {
+        open();
+        List<Message> result = new ArrayList<>();
+        Positions positions = seekIndex(key);
+        if (positions == null) {
+            return result;
+        }
+        int[] bounds = MessageWindow.bounds(positions.size, i -> positions.timestamps[i], since, before, limit);
+        for (int i = bounds[0]; i < bounds[1]; i++) {
+            result.add(readRecord(positions.values[i]).toMessage());
+        }
+        return result;
+    }
+
+    /**
+     * Tombstones a user and drops their conversations from the log. Their
+     * records stay in the segments until the next compact(). Every segment
+     * index is read to find the user's conversations.
+     */
+    @Override
+    public synchronized void removeUser(String userId) throws IOException {
+        open();
+        CompactId id = CompactId.of(userId);
+        Map<ConversationKey, Positions> conversations = load(key -> key.involves(id), null);
+        tombstone(userId);
+        for (Positions positions : conversations.values()) {
+            markDead(positions);
+        }
+        resident.keySet().removeIf(key -> key.involves(id));
+    }
+
+    /**
+     * Tombstones a user like removeUser(userId), but visits only the given
+     * conversations, such as the ones the conversation catalog lists for
+     * the user, instead of every conversation in the log.
+     */
+    @Override
+    public synchronized void removeUser(String userId, Collection<ConversationKey> conversations) throws IOException {
+        open();
+        CompactId id = CompactId.of(userId);
+        List<Positions> removed = new ArrayList<>();
+        for (ConversationKey key : conversations) {
+            if (key.involves(id)) {
+                Positions positions = resident.remove(key);
+                if (positions == null) {
+                    positions = load(key::equals, key).get(key);
+                }
+                if (positions != null) {
+                    removed.add(positions);
+                }
+            }
+        }
+        tombstone(userId);
+        for (Positions positions : removed) {
+            markDead(positions);
+        }
+    }
+
+    private void tombstone(String userId) throws IOException {
+        open();
+        try (PrintWriter writer = new PrintWriter(new FileWriter(new File(directory, TOMBSTONE_FILE), true))) {
+            writer.println(userId);
+        }
+        deletedUsers.add(CompactId.of(userId));
+    }
+
+    private void markDead(Positions positions) {
+        for (int i = 0; i < positions.size; i++) {
+            SegmentStats stats = segments.get(segmentOf(positions.values[i]));
+            stats.live--;
+            stats.dead++;
+        }
+    }
+
+    /**
+     * Checks whether at least a quarter of the stored records belong to deleted users.
+     */
+    @Override
+    public synchronized boolean needsCompaction() {
+        long live = 0;
+        long dead = 0;
+        for (SegmentStats stats : segments.values()) {
+            live += stats.live;
+            dead += stats.dead;
+        }
+        return dead > 0 && dead * 4 >= live + dead;
+    }
+
+    /**
+     * Rewrites every segment that holds records of deleted users without
+     * them, deletes segments left empty and clears the tombstones.
+     */
+    @Override
+    public synchronized void compact() throws IOException {
+        open();
+        if (segments.get(activeSegment).dead > 0) {
+            roll();
+        }
+
+        for (Map.Entry<Integer, SegmentStats> segment : new ArrayList<>(segments.entrySet())) {
+            int id = segment.getKey();
+            if (id == activeSegment || segment.getValue().dead == 0) {
+                continue;
+            }
+            if (segment.getValue().live == 0) {
+                handles.release(segmentFile(id));
+                Files.deleteIfExists(segmentFile(id).toPath());
+                Files.deleteIfExists(indexFile(id).toPath());
+            } else {
+                rewriteSegment(id);
+            }
+        }
+
+        // Every tombstoned record is gone, so the tombstones are no longer needed
+        Files.deleteIfExists(new File(directory, TOMBSTONE_FILE).toPath());
+        close();
+        open();
+    }
+
+    /**
+     * Gets the number of segment files of the open log.
+     */
+    @Override
+    public synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * Gets the number of conversations with live records in the log. Every
+     * segment index is read, so this is meant for tools and tests.
+     */
+    @Override
+    public synchronized int getConversationCount() throws IOException {
+        open();
+        Set<ConversationKey> conversations = new HashSet<>();
+        forEachLiveEntry(null, (segmentId, entry) -> conversations.add(keyOf(entry)));
+        return conversations.size();
+    }
+
+    /**
+     * Gets the number of conversations whose seek index is in memory.
+     */
+    @Override
+    public synchronized int getResidentConversationCount() {
+        return resident.size();
+    }
+
+    /**
+     * Sets how many seek indexes stay in memory, dropping the least recently used ones beyond it.
+     */
+    @Override
+    public synchronized void setMaxResidentConversations(int maxConversations) {
+        if (maxConversations <= 0) {
+            throw new IllegalArgumentException("maxConversations must be positive");
+        }
+        this.maxResident = maxConversations;
+        while (resident.size() > maxConversations) {
+            resident.remove(resident.keySet().iterator().next());
+        }
+    }
+
+    /**
+     * Drops the seek index of a conversation, such as one whose history was
+     * evicted from a cache. It is rebuilt the next time the conversation is read.
+     */
+    @Override
+    public synchronized void evict(ConversationKey key) {
+        resident.remove(key);
+    }
+
+    /**
+     * Sets the size at which the active segment is sealed.
+     */
+    @Override
+    public synchronized void setMaxSegmentBytes(int maxSegmentBytes) {
+        if (maxSegmentBytes <= SEGMENT_HEADER_SIZE) {
+            throw new IllegalArgumentException("maxSegmentBytes must be larger than the segment header");
+        }
+        this.maxSegmentBytes = maxSegmentBytes;
+    }
+
+    /**
+     * Closes the segment files of the log. The log reopens on next use.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (!open) {
+            return;
+        }
+        open = false;
+        for (int id : segments.keySet()) {
+            handles.release(segmentFile(id));
+        }
+    }
+
+    /**
+     * Reads the records of a conversation, optionally only one buyer/seller direction.
+     */
+    private List<Message> read(ConversationKey key, String buyerId, String sellerId) throws IOException {
+        open();
+        List<Message> result = new ArrayList<>();
+        Positions positions = seekIndex(key);
+        if (positions == null) {
+            return result;
+        }
+
+        for (int i = 0; i < positions.size; i++) {
+            Record record = readRecord(positions.values[i]);
+            if (buyerId == null || (record.buyerId.equals(buyerId) && record.sellerId.equals(sellerId))) {
+                result.add(record.toMessage());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Seals the active segment by writing its index, then starts the next one.
+     */
+    private void roll() throws IOException {
+        handles.sync(segmentFile(activeSegment));
+        writeIndexFile(activeSegment, activeEntries);
+        filters.put(activeSegment, filterOf(activeEntries));
+        activeSegment++;
+        activeEntries = new ArrayList<>();
+        openActiveSegment();
+    }
+
+    /**
+     * Opens or creates the active segment and positions it after its last complete record.
+     */
+    private void openActiveSegment() throws IOException {
+        File file = segmentFile(activeSegment);
+        if (handles.size(file) < SEGMENT_HEADER_SIZE) {
+            handles.truncate(file, 0);
+            handles.write(file, segmentHeader(), 0);
+            activeSize = SEGMENT_HEADER_SIZE;
+        } else {
+            activeSize = validLength(file, activeEntries);
+            // Drop a record that was only partly written before a crash
+            handles.truncate(file, activeSize);
+        }
+        segments.putIfAbsent(activeSegment, new SegmentStats());
+    }
+
+    /**
+     * Copies the live records of a sealed segment into a new file and swaps it in.
+     */
+    private void rewriteSegment(int id) throws IOException {
+        File source = segmentFile(id);
+        File temp = new File(directory, source.getName() + ".tmp");
+        List<IndexEntry> kept = new ArrayList<>();
+
+        // The copy is written once, so it bypasses the pool
+        try (FileChannel out = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE,
+                     StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            writeFully(out, segmentHeader(), 0);
+            long written = SEGMENT_HEADER_SIZE;
+
+            long position = SEGMENT_HEADER_SIZE;
+            long size = handles.size(source);
+            while (position < size) {
+                byte[] bytes = readRecordBytes(source, position);
+                if (bytes == null) {
+                    break;
+                }
+                Record record = decode(bytes);
+                IndexEntry entry = new IndexEntry(CompactId.of(record.buyerId), CompactId.of(record.sellerId),
+                        (int) written, record.timestamp);
+                if (!isDead(entry)) {
+                    ByteBuffer copy = ByteBuffer.allocate(4 + bytes.length);
+                    copy.putInt(bytes.length).put(bytes).flip();
+                    writeFully(out, copy, written);
+                    kept.add(entry);
+                    written += 4 + bytes.length;
+                }
+                position += 4 + bytes.length;
+            }
+            out.force(false);
+        }
+
+        handles.release(source);
+        try {
+            Files.move(temp.toPath(), source.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Files.move(temp.toPath(), source.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        writeIndexFile(id, kept);
+    }
+
+    /**
+     * Scans a segment and returns the position of every complete record.
+     */
+    private List<IndexEntry> scanSegment(int id) throws IOException {
+        List<IndexEntry> entries = new ArrayList<>();
+        File file = segmentFile(id);
+        if (handles.size(file) >= SEGMENT_HEADER_SIZE) {
+            validLength(file, entries);
+        }
+        return entries;
+    }
+
+    /**
+     * Walks the records of a segment, adding each to entries, and returns the
+     * length up to the end of the last complete record.
+     */
+    private long validLength(File file, List<IndexEntry> entries) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(SEGMENT_HEADER_SIZE);
+        handles.read(file, header, 0);
+        if (header.getInt(0) != MAGIC) {
+            throw new IOException("Not a message log segment in " + directory);
+        }
+
+        entries.clear();
+        long position = SEGMENT_HEADER_SIZE;
+        long size = handles.size(file);
+        while (position < size) {
+            byte[] bytes = readRecordBytes(file, position);
+            if (bytes == null) {
+                break;
+            }
+            Record record;
+            try {
+                record = decode(bytes);
+            } catch (IOException e) {
+                break;
+            }
+            entries.add(new IndexEntry(CompactId.of(record.buyerId), CompactId.of(record.sellerId),
+                    (int) position, record.timestamp));
+            position += 4 + bytes.length;
+        }
+        return position;
+    }
+
+    /**
+     * Counts a record as live, or as dead if it belongs to a deleted user,
+     * and returns whether it is live.
+     */
+    private boolean count(int segmentId, IndexEntry entry) {
+        SegmentStats stats = segments.computeIfAbsent(segmentId, id -> new SegmentStats());
+        if (isDead(entry)) {
+            stats.dead++;
+            return false;
+        }
+        stats.live++;
+        return true;
+    }
+
+    private boolean isDead(IndexEntry entry) {
+        return deletedUsers.contains(entry.buyerId) || deletedUsers.contains(entry.sellerId);
+    }
+
+    /**
+     * Gets the seek index of a conversation, building it from the segment
+     * indexes if it is not resident. Returns null for an empty conversation.
+     */
+    private Positions seekIndex(ConversationKey key) throws IOException {
+        Positions positions = resident.get(key);
+        if (positions == null) {
+            positions = load(key::equals, key).get(key);
+            if (positions != null) {
+                resident.put(key, positions);
+            }
+        }
+        return positions;
+    }
+
+    /**
+     * Builds the seek indexes of the conversations that match wanted from the
+     * segment indexes. With a single key, sealed segments whose filter rules
+     * it out are skipped.
+     */
+    private Map<ConversationKey, Positions> load(Predicate<ConversationKey> wanted, ConversationKey key)
+            throws IOException {
+        Map<ConversationKey, Positions> loaded = new HashMap<>();
+        forEachLiveEntry(key, (segmentId, entry) -> {
+            ConversationKey entryKey = keyOf(entry);
+            if (wanted.test(entryKey)) {
+                loaded.computeIfAbsent(entryKey, k -> new Positions())
+                        .add(pack(segmentId, entry.offset), entry.timestamp);
+            }
+        });
+        return loaded;
+    }
+
+    /**
+     * Visits the live index entries of every segment, oldest first, skipping
+     * sealed segments whose filter rules out key when key is given.
+     */
+    private void forEachLiveEntry(ConversationKey key, EntryVisitor visitor) throws IOException {
+        for (int id : segments.keySet()) {
+            List<IndexEntry> entries;
+            if (id == activeSegment) {
+                entries = activeEntries;
+            } else {
+                BloomFilter filter = filters.get(id);
+                if (key != null && filter != null && !filter.mightContain(key.toString())) {
+                    continue;
+                }
+                entries = readIndexFile(id);
+                if (entries == null) {
+                    entries = scanSegment(id);
+                    writeIndexFile(id, entries);
+                }
+            }
+            for (IndexEntry entry : entries) {
+                if (!isDead(entry)) {
+                    visitor.visit(id, entry);
+                }
+            }
+        }
+    }
+
+    /**
+     * Builds the filter of the conversations in a sealed segment.
+     */
+    private static BloomFilter filterOf(List<IndexEntry> entries) {
+        Set<ConversationKey> conversations = new HashSet<>();
+        for (IndexEntry entry : entries) {
+            conversations.add(keyOf(entry));
+        }
+        BloomFilter filter = new BloomFilter(conversations.size(), BloomFilter.DEFAULT_BITS_PER_KEY);
+        for (ConversationKey conversation : conversations) {
+            filter.add(conversation.toString());
+        }
+        return filter;
+    }
+
+    private static ConversationKey keyOf(IndexEntry entry) {
+        return new ConversationKey(entry.buyerId, entry.sellerId);
+    }
+
+    /**
+     * Reads the index file of a sealed segment, or returns null if it is missing or unreadable.
+     */
+    private List<IndexEntry> readIndexFile(int id) {
+        File file = indexFile(id);
+        if (!file.exists()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(Files.readAllBytes(file.toPath())))) {
+            if (in.readInt() != INDEX_MAGIC) {
+                return null;
+            }
+            int count = in.readInt();
+            List<IndexEntry> entries = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                entries.add(new IndexEntry(CompactId.of(in.readUTF()), CompactId.of(in.readUTF()),
+                        in.readInt(), in.readLong()));
+            }
+            return entries;
+        } catch (IOException e) {
+            System.err.println("Error reading message log index, rescanning segment: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Writes the index file of a sealed segment.
+     */
+    private void writeIndexFile(int id, List<IndexEntry> entries) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(16 + entries.size() * 80);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(INDEX_MAGIC);
+        out.writeInt(entries.size());
+        for (IndexEntry entry : entries) {
+            out.writeUTF(entry.buyerId.toString());
+            out.writeUTF(entry.sellerId.toString());
+            out.writeInt(entry.offset);
+            out.writeLong(entry.timestamp);
+        }
+        out.flush();
+        Files.write(indexFile(id).toPath(), bytes.toByteArray());
+    }
+
+    /**
+     * Loads the IDs of users whose records are waiting to be compacted away.
+     */
+    private void loadTombstones() throws IOException {
+        File file = new File(directory, TOMBSTONE_FILE);
+        if (file.exists()) {
+            for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+                if (!line.trim().isEmpty()) {
+                    deletedUsers.add(CompactId.of(line.trim()));
+                }
+            }
+        }
+    }
+
+    /**
+     * Lists the IDs of the segment files in ascending order.
+     */
+    private List<Integer> listSegmentIds() {
+        List<Integer> ids = new ArrayList<>();
+        String[] names = directory.list();
+        if (names == null) {
+            return ids;
+        }
+        for (String name : names) {
+            if (name.startsWith("segment-") && name.endsWith(".log")) {
+                try {
+                    ids.add(Integer.parseInt(name.substring("segment-".length(), name.length() - ".log".length())));
+                } catch (NumberFormatException e) {
+                    // Not one of ours
+                }
+            }
+        }
+        ids.sort(null);
+        return ids;
+    }
+
+    private File segmentFile(int id) {
+        return new File(directory, String.format("segment-%06d.log", id));
+    }
+
+    private File indexFile(int id) {
+        return new File(directory, String.format("segment-%06d.idx", id));
+    }
+
+    private static long pack(int segmentId, int offset) {
+        return ((long) segmentId << 32) | (offset & 0xFFFFFFFFL);
+    }
+
+    private static int segmentOf(long position) {
+        return (int) (position >>> 32);
+    }
+
+    private static long offsetOf(long position) {
+        return position & 0xFFFFFFFFL;
+    }
+
+    /**
+     * Encodes a length-prefixed record.
+     */
+    private static byte[] encode(String buyerId, String sellerId, Message message) throws IOException {
+        byte[] content = message.getContent().getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + content.length);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(0); // length, filled in below
+        out.writeByte(VERSION);
+        out.writeUTF(buyerId);
+        out.writeUTF(sellerId);
+        out.writeUTF(message.getSenderId());
+        out.writeLong(message.getTimestamp());
+        out.writeUTF(message.getMessageId());
+        out.writeInt(content.length);
+        out.write(content);
+        out.flush();
+
+        byte[] record = bytes.toByteArray();
+        ByteBuffer.wrap(record).putInt(0, record.length - 4);
+        return record;
+    }
+
+    /**
+     * Decodes the body of a record (everything after the length prefix).
+     */
+    private static Record decode(byte[] bytes) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        try {
+            int version = in.readUnsignedByte();
+            if (version > VERSION) {
+                throw new IOException("Unsupported message record version " + version);
+            }
+            String buyerId = in.readUTF();
+            String sellerId = in.readUTF();
+            String senderId = in.readUTF();
+            long timestamp = in.readLong();
+            String messageId = version >= 2 ? in.readUTF() : null;
+            byte[] content = new byte[in.readInt()];
+            in.readFully(content);
+            if (messageId == null) {
+                // Version 1 records had no ID; derive a stable one from the record itself
+                messageId = UUID.nameUUIDFromBytes((buyerId + sellerId + senderId + timestamp)
+                        .getBytes(StandardCharsets.UTF_8)).toString();
+            }
+            return new Record(messageId, buyerId, sellerId, senderId, timestamp,
+                    new String(content, StandardCharsets.UTF_8));
+        } catch (EOFException e) {
+            throw new IOException("Truncated message record", e);
+        }
+    }
+
+    /**
+     * Reads the record at a packed (segment id, offset) position.
+     */
+    private Record readRecord(long packed) throws IOException {
+        File segment = segmentFile(segmentOf(packed));
+        long position = offsetOf(packed);
+        byte[] bytes = readRecordBytes(segment, position);
+        if (bytes == null) {
+            throw new IOException("Missing message record at offset " + position);
+        }
+        return decode(bytes);
+    }
+
+    /**
+     * Reads the body of the record at position, or returns null if it is incomplete.
+     */
+    private byte[] readRecordBytes(File segment, long position) throws IOException {
+        long size = handles.size(segment);
+        if (position + 4 > size) {
+            return null;
+        }
+        ByteBuffer length = ByteBuffer.allocate(4);
+        handles.read(segment, length, position);
+        int bodyLength = length.getInt(0);
+        if (bodyLength <= 0 || position + 4 + bodyLength > size) {
+            return null;
+        }
+        ByteBuffer body = ByteBuffer.allocate(bodyLength);
+        handles.read(segment, body, position + 4);
+        return body.array();
+    }
+
+    private static ByteBuffer segmentHeader() {
+        ByteBuffer header = ByteBuffer.allocate(SEGMENT_HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).flip();
+        return header;
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        long start = position - buffer.position();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, start + buffer.position());
+        }
+    }
+
+    /**
+     * Position of one record in a segment.
+     */
+    private static class IndexEntry {
+        final CompactId buyerId;
+        final CompactId sellerId;
+        final int offset;
+        final long timestamp;
+
+        IndexEntry(CompactId buyerId, CompactId sellerId, int offset, long timestamp) {
+            this.buyerId = buyerId;
+            this.sellerId = sellerId;
+            this.offset = offset;
+            this.timestamp = timestamp;
+        }
+    }
+
+    /**
+     * Receives the index entries of a segment.
+     */
+    private interface EntryVisitor {
+        void visit(int segmentId, IndexEntry entry) throws IOException;
+    }
+
+    /**
+     * Live and dead record counts of one segment.
+     */
+    private static class SegmentStats {
+        int live;
+        int dead;
+    }
+
+    /**
+     * Growable arrays of packed (segment id, offset) positions and their
+     * timestamps, kept in timestamp order.
+     */
+    private static class Positions {
+        long[] values = new long[4];
+        long[] timestamps = new long[4];
+        int size;
+
+        void add(long position, long timestamp) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+                timestamps = Arrays.copyOf(timestamps, size * 2);
+            }
+            // Records are appended almost in time order; walk back only past later ones
+            int index = size;
+            while (index > 0 && timestamps[index - 1] > timestamp) {
+                index--;
+            }
+            System.arraycopy(values, index, values, index + 1, size - index);
+            System.arraycopy(timestamps, index, timestamps, index + 1, size - index);
+            values[index] = position;
+            timestamps[index] = timestamp;
+            size++;
+        }
+    }
+
+    /**
+     * One decoded record.
+     */
+    private static class Record {
+        final String messageId;
+        final String buyerId;
+        final String sellerId;
+        final String senderId;
+        final long timestamp;
+        final String content;
+
+        Record(String messageId, String buyerId, String sellerId, String senderId, long timestamp, String content) {
+            this.messageId = messageId;
+            this.buyerId = buyerId;
+            this.sellerId = sellerId;
+            this.senderId = senderId;
+            this.timestamp = timestamp;
+            this.content = content;
+        }
+
+        Message toMessage() {
+            String receiverId = senderId.equals(buyerId) ? sellerId : buyerId;
+            return new Message(messageId, senderId, receiverId, content, timestamp, false);
+        }
+    }
+}
@@ -0,0 +1,27 @@
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Interface for the MessageLog class
+ */
+public interface MessageLogInterface {
+    void open() throws IOException;
+    boolean isOpen();
+    void append(String buyerId, String sellerId, Message message) throws IOException;
+    void sync() throws IOException;
+    List<Message> read(ConversationKey key) throws IOException;
+    List<Message> read(String buyerId, String sellerId) throws IOException;
+    List<Message> read(ConversationKey key, long since, long before, int limit) throws IOException;
+    void removeUser(String userId) throws IOException;
+    void removeUser(String userId, Collection<ConversationKey> conversations) throws IOException;
+    boolean needsCompaction();
+    void compact() throws IOException;
+    int getSegmentCount();
+    int getConversationCount() throws IOException;
+    int getResidentConversationCount();
+    void setMaxResidentConversations(int maxConversations);
+    void evict(ConversationKey key);
+    void setMaxSegmentBytes(int maxSegmentBytes);
+    void close() throws IOException;
+}
@@ -0,0 +1,194 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests for the segmented message log
+ */
+public class MessageLogTest {
+
+	private String tempDirectory() throws Exception {
+		File dir = Files.createTempDirectory("messages").toFile();
+		dir.deleteOnExit();
+		return dir.getPath();
+	}
+
+	private int segmentFiles(String directory) {
+		String[] names = new File(directory).list((dir, name) -> name.endsWith(".log"));
+		return names == null ? 0 : names.length;
+	}
+
+	/** Tests that conversations survive rolling segments and reopening the log. */
+	@Test
+	public void testAppendRollAndReopen() throws Exception {
+		String directory = tempDirectory();
+		MessageLog log = new MessageLog(directory, 200);
+		for (int i = 0; i < 20; i++) {
+			log.append("buyer", "seller", new Message("buyer", "seller", "question " + i, 1000 + i, false));
+			log.append("other", "seller", new Message("seller", "other", "reply, " + i, 2000 + i, false));
+		}
+		assertTrue(log.getSegmentCount() > 1);
+		assertTrue(new File(directory, "segment-000001.idx").exists());
+
+		List<Message> history = log.read(new ConversationKey("seller", "buyer"));
+		assertEquals(20, history.size());
+		assertEquals("question 0", history.get(0).getContent());
+		assertEquals(1019, history.get(19).getTimestamp());
+		log.close();
+
+		MessageLog reopened = new MessageLog(directory, 200);
+		List<Message> replies = reopened.read("other", "seller");
+		assertEquals(20, replies.size());
+		assertEquals("reply, 5", replies.get(5).getContent());
+		assertEquals("other", replies.get(5).getReceiverId());
+		assertTrue(reopened.read("seller", "other").isEmpty());
+		assertEquals(2, reopened.getConversationCount());
+		reopened.close();
+	}
+
+	/** Tests that a partly written record at the end of the log is discarded. */
+	@Test
+	public void testTornTailIsTruncated() throws Exception {
+		String directory = tempDirectory();
+		MessageLog log = new MessageLog(directory, 1 << 20);
+		log.append("buyer", "seller", new Message("buyer", "seller", "first", 1, false));
+		log.close();
+
+		File segment = new File(directory, "segment-000001.log");
+		long validLength = segment.length();
+		try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+			file.seek(validLength);
+			file.writeInt(500);
+			file.writeByte(1);
+		}
+
+		MessageLog reopened = new MessageLog(directory, 1 << 20);
+		reopened.append("buyer", "seller", new Message("seller", "buyer", "second", 2, false));
+		List<Message> history = reopened.read("buyer", "seller");
+		assertEquals(2, history.size());
+		assertEquals("second", history.get(1).getContent());
+		reopened.close();
+	}
+
+	/** Tests that removing a user through their listed conversations leaves other conversations alone. */
+	@Test
+	public void testRemoveUserFromListedConversations() throws Exception {
+		MessageLog log = new MessageLog(tempDirectory(), 1 << 20);
+		log.append("gone", "seller", new Message("gone", "seller", "hello", 1, false));
+		log.append("buyer", "gone", new Message("buyer", "gone", "hi", 2, false));
+		log.append("kept", "seller", new Message("kept", "seller", "still here", 3, false));
+
+		log.removeUser("gone", Arrays.asList(new ConversationKey("gone", "seller"),
+				new ConversationKey("gone", "buyer"), new ConversationKey("kept", "seller")));
+		assertTrue(log.read("gone", "seller").isEmpty());
+		assertTrue(log.read("buyer", "gone").isEmpty());
+		assertEquals(1, log.read("kept", "seller").size());
+		assertEquals(1, log.getConversationCount());
+		assertTrue(log.needsCompaction());
+		log.close();
+	}
+
+	/** Tests that compaction drops deleted users' records and empty segments. */
+	@Test
+	public void testCompactionRemovesDeletedUsers() throws Exception {
+		String directory = tempDirectory();
+		MessageLog log = new MessageLog(directory, 200);
+		for (int i = 0; i < 10; i++) {
+			log.append("gone", "seller", new Message("gone", "seller", "hello " + i, i, false));
+		}
+		log.append("kept", "seller", new Message("kept", "seller", "still here", 100, false));
+		int segmentsBefore = segmentFiles(directory);
+
+		log.removeUser("gone");
+		assertTrue(log.read("gone", "seller").isEmpty());
+		assertTrue(log.needsCompaction());
+
+		log.compact();
+		assertFalse(log.needsCompaction());
+		assertTrue(segmentFiles(directory) < segmentsBefore);
+		assertFalse(new File(directory, "deleted-users.txt").exists());
+		assertEquals(1, log.read("kept", "seller").size());
+		log.close();
+
+		MessageLog reopened = new MessageLog(directory, 200);
+		reopened.open();
+		assertEquals(1, reopened.getConversationCount());
+		assertEquals("still here", reopened.read("kept", "seller").get(0).getContent());
+		reopened.close();
+	}
+
+	/** Tests that IDs and timestamps persist and pages are selected by time. */
+	@Test
+	public void testPagesByTimeKeepIdsAndTimestamps() throws Exception {
+		String directory = tempDirectory();
+		MessageLog log = new MessageLog(directory, 300);
+		String firstId = null;
+		for (int i = 1; i <= 10; i++) {
+			Message message = new Message("buyer", "seller", "message " + i, i * 100, false);
+			if (i == 1) {
+				firstId = message.getMessageId();
+			}
+			log.append("buyer", "seller", message);
+		}
+		// A late arrival with an earlier timestamp still lands in time order
+		log.append("buyer", "seller", new Message("seller", "buyer", "late", 150, false));
+		log.close();
+
+		MessageLog reopened = new MessageLog(directory, 300);
+		ConversationKey key = new ConversationKey("seller", "buyer");
+		List<Message> all = reopened.read(key);
+		assertEquals(11, all.size());
+		assertEquals(firstId, all.get(0).getMessageId());
+		assertEquals("late", all.get(1).getContent());
+
+		List<Message> newest = reopened.read(key, 0, 0, 3);
+		assertEquals(3, newest.size());
+		assertEquals(800, newest.get(0).getTimestamp());
+		assertEquals(1000, newest.get(2).getTimestamp());
+
+		List<Message> older = reopened.read(key, 0, 800, 3);
+		assertEquals(3, older.size());
+		assertEquals(500, older.get(0).getTimestamp());
+		assertEquals(700, older.get(2).getTimestamp());
+
+		List<Message> newer = reopened.read(key, 150, 0, 2);
+		assertEquals(2, newer.size());
+		assertEquals(200, newer.get(0).getTimestamp());
+		assertEquals(300, newer.get(1).getTimestamp());
+		reopened.close();
+	}
+
+	/** Tests that seek indexes are built on first read, kept up to date while resident, and dropped on eviction. */
+	@Test
+	public void testSeekIndexesAreBuiltOnDemand() throws Exception {
+		String directory = tempDirectory();
+		MessageLog log = new MessageLog(directory, 200);
+		for (int i = 0; i < 10; i++) {
+			log.append("buyer" + i, "seller", new Message("buyer" + i, "seller", "hello " + i, i, false));
+		}
+		log.close();
+
+		MessageLog reopened = new MessageLog(directory, 200);
+		reopened.setMaxResidentConversations(2);
+		reopened.open();
+		assertEquals(0, reopened.getResidentConversationCount());
+		assertEquals("hello 3", reopened.read("buyer3", "seller").get(0).getContent());
+		assertEquals(1, reopened.getResidentConversationCount());
+
+		reopened.append("buyer3", "seller", new Message("seller", "buyer3", "reply", 20, false));
+		assertEquals(2, reopened.read("buyer3", "seller").size());
+		reopened.read("buyer4", "seller");
+		reopened.read("buyer5", "seller");
+		assertEquals(2, reopened.getResidentConversationCount());
+		reopened.evict(new ConversationKey("seller", "buyer5"));
+		assertEquals(1, reopened.getResidentConversationCount());
+
+		assertEquals(2, reopened.read("buyer3", "seller").size());
+		assertEquals(10, reopened.getConversationCount());
+		reopened.close();
+	}
+}
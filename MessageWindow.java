@@ -0,0 +1,50 @@
+import java.util.function.IntToLongFunction;
+
+/**
+ * Selects a page of a conversation that is sorted by timestamp. A page holds
+ * the messages with since < timestamp < before; a bound of 0 or less is
+ * open. When the page has more than limit messages, it keeps the oldest ones
+ * if only since is given (reading forward from a cursor), and the newest
+ * ones otherwise (the latest page, or older pages before a cursor).
+ */
+public final class MessageWindow {
+
+    private MessageWindow() {
+    }
+
+    /**
+     * Gets the {from, to} index range of the page, with to exclusive.
+     */
+    public static int[] bounds(int size, IntToLongFunction timestampAt, long since, long before, int limit) {
+        int from = since > 0 ? firstAfter(size, timestampAt, since) : 0;
+        int to = before > 0 ? firstAfter(size, timestampAt, before - 1) : size;
+        if (to < from) {
+            to = from;
+        }
+        if (limit > 0 && to - from > limit) {
+            if (since > 0 && before <= 0) {
+                to = from + limit;
+            } else {
+                from = to - limit;
+            }
+        }
+        return new int[] {from, to};
+    }
+
+    /**
+     * Binary search for the first index whose timestamp is greater than time.
+     */
+    private static int firstAfter(int size, IntToLongFunction timestampAt, long time) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (timestampAt.applyAsLong(middle) <= time) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+}
@@ -0,0 +1,160 @@
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares the heap cost of a large item catalog kept as ordinary Item
+ * objects with the same catalog kept in an OffHeapItemStore. For each it
+ * reports the heap retained by the catalog, the length of a full collection
+ * with the catalog live, and the collections run during a fixed allocation
+ * workload.
+ *
+ * Usage: java -Xms1g -Xmx1g OffHeapBenchmark [items] [churnRounds]
+ *
+ * Give it a fixed heap size so both layouts run against the same heap, and
+ * run it from a directory holding stopword.txt and special_characters.txt.
+ */
+public class OffHeapBenchmark {
+    private final int itemCount;
+    private final int churnRounds;
+
+    /**
+     * Creates a benchmark of the given size.
+     */
+    public OffHeapBenchmark(int itemCount, int churnRounds) {
+        this.itemCount = itemCount;
+        this.churnRounds = churnRounds;
+    }
+
+    /**
+     * Measurements of one catalog layout.
+     */
+    public static class Result {
+        long retainedBytes;
+        long offHeapBytes;
+        long fullGcMillis;
+        long churnCollections;
+        long churnGcMillis;
+    }
+
+    /**
+     * Builds the catalog as ordinary Item objects and measures it.
+     */
+    public Result runOnHeap() {
+        long before = usedHeapAfterGc();
+        List<Item> catalog = new ArrayList<>(itemCount);
+        for (int i = 0; i < itemCount; i++) {
+            catalog.add(createItem(i));
+        }
+        Result result = measure(before);
+        keepAlive(catalog);
+        return result;
+    }
+
+    /**
+     * Builds the catalog in an OffHeapItemStore and measures it.
+     */
+    public Result runOffHeap() {
+        long before = usedHeapAfterGc();
+        OffHeapItemStore store = new OffHeapItemStore();
+        List<Item> catalog = new ArrayList<>(itemCount);
+        for (int i = 0; i < itemCount; i++) {
+            catalog.add(store.add(createItem(i)));
+        }
+        Result result = measure(before);
+        result.offHeapBytes = store.getOffHeapBytes();
+        keepAlive(catalog);
+        return result;
+    }
+
+    private Item createItem(int i) {
+        return new Item("item-" + i, "seller-" + (i % 1000), "Listing number " + i,
+                "A well kept item in good condition, number " + i + ", ships in two days",
+                "Category " + (i % 20), 1 + (i % 500));
+    }
+
+    private Result measure(long heapBefore) {
+        Result result = new Result();
+        result.retainedBytes = usedHeapAfterGc() - heapBefore;
+
+        long start = System.nanoTime();
+        System.gc();
+        result.fullGcMillis = (System.nanoTime() - start) / 1_000_000;
+
+        long collections = collectionCount();
+        long gcMillis = collectionMillis();
+        churn();
+        result.churnCollections = collectionCount() - collections;
+        result.churnGcMillis = collectionMillis() - gcMillis;
+        return result;
+    }
+
+    // Short-lived garbage plus a ring of medium-lived buffers that get promoted
+    private void churn() {
+        byte[][] ring = new byte[256][];
+        long checksum = 0;
+        for (int round = 0; round < churnRounds; round++) {
+            for (int i = 0; i < 1000; i++) {
+                byte[] garbage = new byte[512];
+                checksum += garbage.length;
+            }
+            ring[round % ring.length] = new byte[64 * 1024];
+        }
+        if (checksum == 42) {
+            System.out.println(ring.length);
+        }
+    }
+
+    private static volatile Object sink;
+
+    private static void keepAlive(Object catalog) {
+        sink = catalog;
+        sink = null;
+    }
+
+    private static long usedHeapAfterGc() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static long collectionCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, bean.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static long collectionMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(0, bean.getCollectionTime());
+        }
+        return millis;
+    }
+
+    /**
+     * Runs both layouts and prints a comparison table.
+     */
+    public static void main(String[] args) {
+        int items = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+        OffHeapBenchmark benchmark = new OffHeapBenchmark(items, rounds);
+
+        Result onHeap = benchmark.runOnHeap();
+        Result offHeap = benchmark.runOffHeap();
+
+        System.out.printf("%-22s %14s %14s%n", items + " items", "on heap", "off heap");
+        System.out.printf("%-22s %14.1f %14.1f%n", "retained heap (MB)",
+                onHeap.retainedBytes / 1048576.0, offHeap.retainedBytes / 1048576.0);
+        System.out.printf("%-22s %14.1f %14.1f%n", "direct memory (MB)",
+                onHeap.offHeapBytes / 1048576.0, offHeap.offHeapBytes / 1048576.0);
+        System.out.printf("%-22s %14d %14d%n", "full GC (ms)", onHeap.fullGcMillis, offHeap.fullGcMillis);
+        System.out.printf("%-22s %14d %14d%n", "churn collections", onHeap.churnCollections, offHeap.churnCollections);
+        System.out.printf("%-22s %14d %14d%n", "churn GC time (ms)", onHeap.churnGcMillis, offHeap.churnGcMillis);
+    }
+}
@@ -0,0 +1,99 @@
+import java.util.List;
+
+/**
+ * Flyweight Item whose text fields live in an OffHeapItemStore. Only the
+ * item ID, the store slot and the mutable sale and rating state are kept on
+ * the heap; seller, title, description, category and tags are decoded from
+ * the store on every access and never cached.
+ */
+public class OffHeapItem extends Item {
+    private final OffHeapItemStore store;
+    private final int slot;
+
+    /**
+     * Creates a view of the record in the given slot.
+     */
+    OffHeapItem(OffHeapItemStore store, int slot, String itemId) {
+        super(itemId, null, store.getPrice(slot), store.isSold(slot), null,
+                store.getRating(slot), store.getRatingCount(slot));
+        this.store = store;
+        this.slot = slot;
+    }
+
+    /**
+     * Gets the slot of this item's record in the store.
+     */
+    int getSlot() {
+        return slot;
+    }
+
+    /**
+     * Gets the seller ID from the store.
+     */
+    @Override
+    public String getSellerId() {
+        return store.readField(slot, OffHeapItemStore.FIELD_SELLER_ID);
+    }
+
+    /**
+     * Gets the seller ID from the store in its compact form.
+     */
+    @Override
+    public CompactId getSellerKey() {
+        return CompactId.of(getSellerId());
+    }
+
+    /**
+     * Gets the buyer ID. A buyer set after the item was stored wins over the stored one.
+     */
+    @Override
+    public String getBuyerId() {
+        String buyerId = super.getBuyerId();
+        if (buyerId != null || !isSold()) {
+            return buyerId;
+        }
+        return store.readField(slot, OffHeapItemStore.FIELD_BUYER_ID);
+    }
+
+    /**
+     * Gets the buyer ID in its compact form, or null if unsold.
+     */
+    @Override
+    public CompactId getBuyerKey() {
+        CompactId buyerId = super.getBuyerKey();
+        return buyerId != null || !isSold() ? buyerId : CompactId.of(getBuyerId());
+    }
+
+    /**
+     * Gets the title from the store.
+     */
+    @Override
+    public String getTitle() {
+        return store.readField(slot, OffHeapItemStore.FIELD_TITLE);
+    }
+
+    /**
+     * Gets the description from the store.
+     */
+    @Override
+    public String getDescription() {
+        String description = store.readField(slot, OffHeapItemStore.FIELD_DESCRIPTION);
+        return description == null ? "" : description;
+    }
+
+    /**
+     * Gets the category from the store.
+     */
+    @Override
+    public String getCategory() {
+        return store.readField(slot, OffHeapItemStore.FIELD_CATEGORY);
+    }
+
+    /**
+     * Gets the tags stored with the record.
+     */
+    @Override
+    public List<String> getTags() {
+        return store.readTags(slot);
+    }
+}
@@ -0,0 +1,273 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Item records kept outside the Java heap, in large direct buffers ("slabs").
+ * The only per-item state on the heap is one long in a primitive array that
+ * locates the record, so a catalog of millions of items adds almost nothing
+ * for the garbage collector to trace. Items read from the store are
+ * OffHeapItem flyweights that decode each field when it is asked for.
+ *
+ * Records are only appended. A removed item's record stays readable, since
+ * snapshots and callers may still hold its flyweight, and its bytes are
+ * counted as garbage until clear().
+ *
+ * Record layout: length, price, flags, rating, ratingCount, then itemId,
+ * sellerId, buyerId, title, description, category and the newline-joined
+ * tags, each as a length (-1 for null) and UTF-8 bytes.
+ */
+public class OffHeapItemStore implements OffHeapItemStoreInterface {
+    public static final int DEFAULT_SLAB_BYTES = 64 * 1024 * 1024;
+
+    static final int FIELD_ITEM_ID = 0;
+    static final int FIELD_SELLER_ID = 1;
+    static final int FIELD_BUYER_ID = 2;
+    static final int FIELD_TITLE = 3;
+    static final int FIELD_DESCRIPTION = 4;
+    static final int FIELD_CATEGORY = 5;
+    static final int FIELD_TAGS = 6;
+    private static final int FIELD_COUNT = 7;
+
+    private static final int REC_PRICE = 4;
+    private static final int REC_FLAGS = 12;
+    private static final int REC_RATING = 13;
+    private static final int REC_RATING_COUNT = 21;
+    private static final int RECORD_HEADER_SIZE = 25;
+    private static final int FLAG_SOLD = 1;
+
+    private final int slabBytes;
+    private volatile ByteBuffer[] slabs;   // grown under the lock, read without it
+    private volatile long[] locations;     // slot -> slab << 32 | offset
+    private int slotCount;
+    private int writeOffset;               // next free byte in the last slab
+    private long usedBytes;
+    private long garbageBytes;
+
+    /**
+     * Creates an empty store with the default slab size.
+     */
+    public OffHeapItemStore() {
+        this(DEFAULT_SLAB_BYTES);
+    }
+
+    /**
+     * Creates an empty store that allocates direct buffers of slabBytes each.
+     */
+    public OffHeapItemStore(int slabBytes) {
+        this.slabBytes = slabBytes;
+        this.slabs = new ByteBuffer[0];
+        this.locations = new long[1024];
+        this.slotCount = 0;
+        this.writeOffset = 0;
+    }
+
+    /**
+     * Copies an item into the store and returns a flyweight view of the copy.
+     * Sold state and rating are carried over into the flyweight.
+     */
+    @Override
+    public OffHeapItem add(Item item) {
+        byte[] record = encode(item);
+        int slot;
+        synchronized (this) {
+            slot = append(record);
+        }
+        return new OffHeapItem(this, slot, item.getItemId());
+    }
+
+    /**
+     * Counts a removed item's record as garbage.
+     */
+    @Override
+    public synchronized void remove(OffHeapItem item) {
+        garbageBytes += recordLength(item.getSlot());
+    }
+
+    /**
+     * Gets the number of records stored, including removed ones.
+     */
+    @Override
+    public synchronized int size() {
+        return slotCount;
+    }
+
+    /**
+     * Gets the bytes of direct memory allocated.
+     */
+    @Override
+    public synchronized long getOffHeapBytes() {
+        return (long) slabs.length * slabBytes;
+    }
+
+    /**
+     * Gets the bytes taken by records, including removed ones.
+     */
+    @Override
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    /**
+     * Gets the bytes taken by the records of removed items.
+     */
+    @Override
+    public synchronized long getGarbageBytes() {
+        return garbageBytes;
+    }
+
+    /**
+     * Drops every record and slab. Flyweights handed out before must not be read afterwards.
+     */
+    @Override
+    public synchronized void clear() {
+        slabs = new ByteBuffer[0];
+        locations = new long[1024];
+        slotCount = 0;
+        writeOffset = 0;
+        usedBytes = 0;
+        garbageBytes = 0;
+    }
+
+    // Caller holds this
+    private int append(byte[] record) {
+        ByteBuffer[] current = slabs;
+        if (current.length == 0 || writeOffset + record.length > current[current.length - 1].capacity()) {
+            // A record larger than a slab gets a slab of its own
+            ByteBuffer slab = ByteBuffer.allocateDirect(Math.max(slabBytes, record.length));
+            current = Arrays.copyOf(current, current.length + 1);
+            current[current.length - 1] = slab;
+            writeOffset = 0;
+        }
+        int slabIndex = current.length - 1;
+        ByteBuffer target = current[slabIndex].duplicate();
+        target.position(writeOffset);
+        target.put(record);
+
+        long[] index = locations;
+        if (slotCount == index.length) {
+            index = Arrays.copyOf(index, index.length * 2);
+        }
+        index[slotCount] = ((long) slabIndex << 32) | writeOffset;
+        writeOffset += record.length;
+        usedBytes += record.length;
+        // Publish the slab list and index after the record is written
+        slabs = current;
+        locations = index;
+        return slotCount++;
+    }
+
+    private static byte[] encode(Item item) {
+        byte[][] fields = new byte[FIELD_COUNT][];
+        fields[FIELD_ITEM_ID] = utf8(item.getItemId());
+        fields[FIELD_SELLER_ID] = utf8(item.getSellerId());
+        fields[FIELD_BUYER_ID] = item.isSold() ? utf8(item.getBuyerId()) : null;
+        fields[FIELD_TITLE] = utf8(item.getTitle());
+        fields[FIELD_DESCRIPTION] = utf8(item.getDescription());
+        fields[FIELD_CATEGORY] = utf8(item.getCategory());
+        List<String> tags = item.getTags();
+        fields[FIELD_TAGS] = tags == null ? null : utf8(String.join("\n", tags));
+
+        int length = RECORD_HEADER_SIZE;
+        for (byte[] field : fields) {
+            length += 4 + (field == null ? 0 : field.length);
+        }
+        ByteBuffer record = ByteBuffer.allocate(length);
+        record.putInt(length);
+        record.putDouble(item.getPrice());
+        record.put((byte) (item.isSold() ? FLAG_SOLD : 0));
+        record.putDouble(item.getRating());
+        record.putInt(item.getRatingCount());
+        for (byte[] field : fields) {
+            if (field == null) {
+                record.putInt(-1);
+            } else {
+                record.putInt(field.length);
+                record.put(field);
+            }
+        }
+        return record.array();
+    }
+
+    private static byte[] utf8(String value) {
+        return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private ByteBuffer slabOf(long location) {
+        return slabs[(int) (location >>> 32)];
+    }
+
+    private int recordLength(int slot) {
+        long location = locations[slot];
+        return slabOf(location).getInt((int) location);
+    }
+
+    /**
+     * Decodes the price of a record.
+     */
+    double getPrice(int slot) {
+        long location = locations[slot];
+        return slabOf(location).getDouble((int) location + REC_PRICE);
+    }
+
+    /**
+     * Decodes the sold flag of a record.
+     */
+    boolean isSold(int slot) {
+        long location = locations[slot];
+        return (slabOf(location).get((int) location + REC_FLAGS) & FLAG_SOLD) != 0;
+    }
+
+    /**
+     * Decodes the rating of a record.
+     */
+    double getRating(int slot) {
+        long location = locations[slot];
+        return slabOf(location).getDouble((int) location + REC_RATING);
+    }
+
+    /**
+     * Decodes the rating count of a record.
+     */
+    int getRatingCount(int slot) {
+        long location = locations[slot];
+        return slabOf(location).getInt((int) location + REC_RATING_COUNT);
+    }
+
+    /**
+     * Decodes one string field of a record, or null if it is unset.
+     */
+    String readField(int slot, int field) {
+        long location = locations[slot];
+        ByteBuffer slab = slabOf(location);
+        int position = (int) location + RECORD_HEADER_SIZE;
+        for (int f = 0; f < field; f++) {
+            position += 4 + Math.max(0, slab.getInt(position));
+        }
+        int length = slab.getInt(position);
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        ByteBuffer view = slab.duplicate();
+        view.position(position + 4);
+        view.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Decodes the tags of a record.
+     */
+    List<String> readTags(int slot) {
+        String joined = readField(slot, FIELD_TAGS);
+        if (joined == null || joined.isEmpty()) {
+            return joined == null ? null : new ArrayList<>();
+        }
+        List<String> tags = new ArrayList<>();
+        Collections.addAll(tags, joined.split("\n", -1));
+        return tags;
+    }
+}
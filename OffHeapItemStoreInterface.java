@@ -0,0 +1,12 @@
+/**
+ * Interface for the OffHeapItemStore class
+ */
+public interface OffHeapItemStoreInterface {
+    OffHeapItem add(Item item);
+    void remove(OffHeapItem item);
+    int size();
+    long getOffHeapBytes();
+    long getUsedBytes();
+    long getGarbageBytes();
+    void clear();
+}
@@ -0,0 +1,87 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Tests for the off-heap item store and its flyweight items
+ */
+public class OffHeapItemStoreTest {
+
+	/** Tests that a stored item reads back with the same fields and tags. */
+	@Test
+	public void testRoundTrip() {
+		OffHeapItemStore store = new OffHeapItemStore(4096);
+		Item lamp = new Item("item1", "seller1", "Lamp", "Brass desk lamp with dimmer", "Home", 20.5);
+		lamp.updateRating(4.0);
+
+		OffHeapItem stored = store.add(lamp);
+		assertEquals("item1", stored.getItemId());
+		assertEquals("seller1", stored.getSellerId());
+		assertEquals("Lamp", stored.getTitle());
+		assertEquals("Brass desk lamp with dimmer", stored.getDescription());
+		assertEquals("Home", stored.getCategory());
+		assertEquals(20.5, stored.getPrice(), 0.001);
+		assertEquals(lamp.getTags(), stored.getTags());
+		assertEquals(4.0, stored.getRating(), 0.001);
+		assertEquals(1, stored.getRatingCount());
+		assertFalse(stored.isSold());
+		assertNull(stored.getBuyerId());
+	}
+
+	/** Tests that a flyweight can be sold after it was stored. */
+	@Test
+	public void testSoldAfterStoring() {
+		OffHeapItemStore store = new OffHeapItemStore(4096);
+		Item sold = new Item("item1", "seller1", "Rug", "Wool rug", "Home", 45.0);
+		sold.markAsSold("buyer1");
+		OffHeapItem storedSold = store.add(sold);
+		assertTrue(storedSold.isSold());
+		assertEquals("buyer1", storedSold.getBuyerId());
+
+		OffHeapItem chair = store.add(new Item("item2", "seller1", "Chair", "Office chair", "Home", 60.0));
+		assertTrue(chair.markAsSold("buyer2"));
+		assertTrue(chair.isSold());
+		assertEquals("buyer2", chair.getBuyerId());
+		assertFalse(chair.markAsSold("buyer3"));
+	}
+
+	/** Tests that records spill into new slabs and stay readable. */
+	@Test
+	public void testSlabRollover() {
+		OffHeapItemStore store = new OffHeapItemStore(256);
+		OffHeapItem[] items = new OffHeapItem[20];
+		for (int i = 0; i < items.length; i++) {
+			items[i] = store.add(new Item("item" + i, "seller" + i, "Title " + i, "Description " + i, "Other", i));
+		}
+		assertEquals(20, store.size());
+		assertTrue(store.getOffHeapBytes() > 256);
+		for (int i = 0; i < items.length; i++) {
+			assertEquals("Title " + i, items[i].getTitle());
+			assertEquals("seller" + i, items[i].getSellerId());
+			assertEquals(i, items[i].getPrice(), 0.001);
+		}
+
+		String longDescription = new String(new char[1000]).replace('\0', 'x');
+		OffHeapItem large = store.add(new Item("big", "seller1", "Big", longDescription, "Other", 1.0));
+		assertEquals(longDescription, large.getDescription());
+	}
+
+	/** Tests that removed records are counted as garbage until the store is cleared. */
+	@Test
+	public void testRemoveAndClear() {
+		OffHeapItemStore store = new OffHeapItemStore(4096);
+		OffHeapItem lamp = store.add(new Item("item1", "seller1", "Lamp", "Desk lamp", "Home", 20.0));
+		store.add(new Item("item2", "seller1", "Rug", "Wool rug", "Home", 45.0));
+		assertEquals(0, store.getGarbageBytes());
+
+		store.remove(lamp);
+		assertTrue(store.getGarbageBytes() > 0);
+		assertTrue(store.getGarbageBytes() < store.getUsedBytes());
+		assertEquals("Lamp", lamp.getTitle());
+
+		store.clear();
+		assertEquals(0, store.size());
+		assertEquals(0, store.getUsedBytes());
+		assertEquals(0, store.getGarbageBytes());
+		assertEquals(0, store.getOffHeapBytes());
+	}
+}
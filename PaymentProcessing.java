@@ -80,10 +80,8 @@ public class PaymentProcessing implements PaymentProcessingInterface {
             if (balance >= price) {
                 buyer.withdrawFunds(price);
                 seller.depositFunds(price);
+                // The sale moves the item to the seller's sold items and the buyer's purchases
                 item.markAsSold(buyerId);
-                //TODO avoid casting, change return types to interface
-                seller.recordItemSold((Item) item);
-                buyer.addToPurchaseHistory((Item) item);
                 return true;
             }
         } catch (Exception e) {
@@ -0,0 +1,107 @@
+import java.util.Collection;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Ordered index of items by price, backed by a concurrent skip list keyed by
+ * price and then itemId. A price band is found in O(log n) and walked in
+ * price order, so price-sorted browsing never sorts the whole catalog.
+ *
+ * Ranges are live views of the skip list: they can be read while items are
+ * added or removed, and a reader that stops early never copies the rest.
+ */
+public class PriceIndex implements PriceIndexInterface {
+    private final ConcurrentSkipListMap<Key, Item> items;
+
+    /**
+     * Creates an empty index.
+     */
+    public PriceIndex() {
+        this.items = new ConcurrentSkipListMap<>();
+    }
+
+    /**
+     * Adds an item at its price.
+     */
+    @Override
+    public void add(Item item) {
+        items.put(new Key(item.getPrice(), item.getItemKey()), item);
+    }
+
+    /**
+     * Removes an item.
+     */
+    @Override
+    public void remove(Item item) {
+        items.remove(new Key(item.getPrice(), item.getItemKey()));
+    }
+
+    /**
+     * Gets a live view of the items priced from minPrice to maxPrice,
+     * inclusive, cheapest first or most expensive first.
+     */
+    @Override
+    public Collection<Item> range(double minPrice, double maxPrice, boolean descending) {
+        if (minPrice > maxPrice) {
+            return new ConcurrentSkipListMap<Key, Item>().values();
+        }
+        ConcurrentNavigableMap<Key, Item> band = items.subMap(Key.lowest(minPrice), true, Key.highest(maxPrice), true);
+        return descending ? band.descendingMap().values() : band.values();
+    }
+
+    /**
+     * Gets the number of indexed items.
+     */
+    @Override
+    public int size() {
+        return items.size();
+    }
+
+    /**
+     * Empties the index.
+     */
+    @Override
+    public void clear() {
+        items.clear();
+    }
+
+    /**
+     * Skip list key: price, then itemId. Bound keys sort before or after
+     * every item of the same price so a range includes both ends.
+     */
+    private static final class Key implements Comparable<Key> {
+        private final double price;
+        private final int bound; // -1 below every item at this price, 1 above, 0 for an item
+        private final CompactId itemId;
+
+        Key(double price, CompactId itemId) {
+            this(price, 0, itemId);
+        }
+
+        private Key(double price, int bound, CompactId itemId) {
+            this.price = price;
+            this.bound = bound;
+            this.itemId = itemId;
+        }
+
+        static Key lowest(double price) {
+            return new Key(price, -1, null);
+        }
+
+        static Key highest(double price) {
+            return new Key(price, 1, null);
+        }
+
+        @Override
+        public int compareTo(Key other) {
+            int byPrice = Double.compare(price, other.price);
+            if (byPrice != 0) {
+                return byPrice;
+            }
+            if (bound != 0 || other.bound != 0) {
+                return Integer.compare(bound, other.bound);
+            }
+            return itemId.compareTo(other.itemId);
+        }
+    }
+}
@@ -0,0 +1,12 @@
+import java.util.Collection;
+
+/**
+ * Interface for the PriceIndex class
+ */
+public interface PriceIndexInterface {
+    void add(Item item);
+    void remove(Item item);
+    Collection<Item> range(double minPrice, double maxPrice, boolean descending);
+    int size();
+    void clear();
+}
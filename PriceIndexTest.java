@@ -0,0 +1,60 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Tests for the ordered price index
+ */
+public class PriceIndexTest {
+
+	private List<String> titles(Collection<Item> items) {
+		List<String> titles = new ArrayList<>();
+		for (Item item : items) {
+			titles.add(item.getTitle());
+		}
+		return titles;
+	}
+
+	/** Tests that a range is returned in price order in both directions. */
+	@Test
+	public void testRangeInPriceOrder() {
+		PriceIndex index = new PriceIndex();
+		index.add(new Item("item1", "seller1", "Mug", "Coffee mug", "Home", 8.0));
+		index.add(new Item("item2", "seller1", "Lamp", "Desk lamp", "Home", 25.0));
+		index.add(new Item("item3", "seller2", "Chair", "Office chair", "Home", 60.0));
+		index.add(new Item("item4", "seller2", "Rug", "Wool rug", "Home", 25.0));
+
+		assertEquals("[Lamp, Rug, Chair]", titles(index.range(25.0, 60.0, false)).toString());
+		assertEquals("[Chair, Rug, Lamp, Mug]",
+				titles(index.range(Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, true)).toString());
+		assertTrue(index.range(30.0, 20.0, false).isEmpty());
+	}
+
+	/** Tests that a removed item leaves the index and ties on price are kept apart. */
+	@Test
+	public void testRemoveKeepsSamePricedItems() {
+		PriceIndex index = new PriceIndex();
+		Item lamp = new Item("item1", "seller1", "Lamp", "Desk lamp", "Home", 25.0);
+		Item rug = new Item("item2", "seller1", "Rug", "Wool rug", "Home", 25.0);
+		index.add(lamp);
+		index.add(rug);
+		assertEquals(2, index.size());
+
+		index.remove(lamp);
+		assertEquals("[Rug]", titles(index.range(25.0, 25.0, false)).toString());
+	}
+
+	/** Tests that a range view can be read while the index changes. */
+	@Test
+	public void testRangeViewIsLive() {
+		PriceIndex index = new PriceIndex();
+		Collection<Item> band = index.range(10.0, 20.0, false);
+		index.add(new Item("item1", "seller1", "Lamp", "Desk lamp", "Home", 15.0));
+		for (Item item : band) {
+			index.add(new Item("item2", "seller1", "Rug", "Wool rug", "Home", 18.0));
+		}
+		assertEquals(2, band.size());
+	}
+}
@@ -39,50 +39,109 @@ public class SearchService {
         return search(query, null, maxResults);
     }
 
+    /**
+     * Order of search results.
+     */
+    public enum Sort {
+        /** Best keyword score first. */
+        RELEVANCE,
+        /** Cheapest first. */
+        PRICE_ASC,
+        /** Most expensive first. */
+        PRICE_DESC;
+
+        /**
+         * Parses a SEARCH_ITEMS sort name such as "price_asc"; empty means relevance.
+         */
+        public static Sort parse(String name) {
+            if (name == null || name.isEmpty()) {
+                return RELEVANCE;
+            }
+            return valueOf(name.toUpperCase());
+        }
+    }
+
     /**
      * Searches for items matching the given query and category, returning up to maxResults items.
+     * The scan reads a catalog snapshot, so it takes no lock and sees every
+     * item as of one moment even while other threads list, sell or remove
+     * items; each result carries its sold state as of that moment.
      */
     public List<Item> search(String query, String category, int maxResults) {
-        List<Item> allItems = db.getAllItems();
-        List<Item> matchedItems = new ArrayList<Item>();
-        List<Integer> scores = new ArrayList<Integer>();
+        return search(query, category, maxResults, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, Sort.RELEVANCE);
+    }
 
+    /**
+     * Searches for items matching the query and category that are priced from
+     * minPrice to maxPrice, inclusive, in the given order. Like the other
+     * searches it reads one catalog snapshot, so items removed or sold after
+     * the search started still appear as they were, and items listed after
+     * it do not. The snapshot's price index is walked over the band only, so
+     * items outside it are never visited; with a price sort the walk already
+     * yields results in order and stops after maxResults matches.
+     */
+    public List<Item> search(String query, String category, int maxResults,
+                             double minPrice, double maxPrice, Sort sort) {
         String[] keywords = query.toLowerCase().split("\\s+");
+        List<Item> matchedItems = new ArrayList<Item>();
+        List<Integer> scores = new ArrayList<Integer>();
 
-        for (int i = 0; i < allItems.size(); i++) {
-            Item item = allItems.get(i);
-            if (category != null && category.length() > 0) {
-                if (!item.getCategory().equalsIgnoreCase(category)) {
-                    continue;
-                }
-            }
-            int score = 0;
-            String title = item.getTitle().toLowerCase();
-            String description = item.getDescription().toLowerCase();
-            for (int j = 0; j < keywords.length; j++) {
-                String kw = keywords[j];
-                if (title.indexOf(kw) != -1) {
-                    score += 3;
+        try (ItemCatalog.Snapshot snapshot = db.getCatalogSnapshot()) {
+            for (ItemCatalog.ItemVersion version : snapshot.byPrice(minPrice, maxPrice, sort == Sort.PRICE_DESC)) {
+                if (sort != Sort.RELEVANCE && matchedItems.size() >= maxResults) {
+                    break;
                 }
-                if (description.indexOf(kw) != -1) {
-                    score += 1;
+                int score = score(version.getItem(), keywords, category);
+                if (score > 0) {
+                    matchedItems.add(version.toItem());
+                    scores.add(score);
                 }
-                List<String> tags = item.getTags();
-                if (tags != null) {
-                    for (int k = 0; k < tags.size(); k++) {
-                        String tag = tags.get(k).toLowerCase();
-                        if (tag.indexOf(kw) != -1) {
-                            score += 2;
-                        }
+            }
+        }
+
+        if (sort == Sort.RELEVANCE) {
+            return rank(matchedItems, scores, maxResults);
+        }
+        return matchedItems;
+    }
+
+    /**
+     * Scores an item against the keywords, or returns 0 if it is outside the category.
+     */
+    private int score(Item item, String[] keywords, String category) {
+        if (category != null && category.length() > 0) {
+            if (!item.getCategory().equalsIgnoreCase(category)) {
+                return 0;
+            }
+        }
+        int score = 0;
+        String title = item.getTitle().toLowerCase();
+        String description = item.getDescription().toLowerCase();
+        for (int j = 0; j < keywords.length; j++) {
+            String kw = keywords[j];
+            if (title.indexOf(kw) != -1) {
+                score += 3;
+            }
+            if (description.indexOf(kw) != -1) {
+                score += 1;
+            }
+            List<String> tags = item.getTags();
+            if (tags != null) {
+                for (int k = 0; k < tags.size(); k++) {
+                    String tag = tags.get(k).toLowerCase();
+                    if (tag.indexOf(kw) != -1) {
+                        score += 2;
                     }
                 }
             }
-            if (score > 0) {
-                matchedItems.add(item);
-                scores.add(score);
-            }
         }
+        return score;
+    }
 
+    /**
+     * Orders matched items by descending score and keeps the first maxResults.
+     */
+    private List<Item> rank(List<Item> matchedItems, List<Integer> scores, int maxResults) {
         // Bubble sort matchedItems in descending order by using the score.
         for (int i = 0; i < matchedItems.size() - 1; i++) {
             for (int j = i + 1; j < matchedItems.size(); j++) {
@@ -104,6 +163,4 @@ public class SearchService {
         }
         return result;
     }
-
-    
 }
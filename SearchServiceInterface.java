@@ -8,4 +8,6 @@ public interface SearchServiceInterface {
     List<Item> search(String query, String category, int maxResults);
     List<Item> search(String query, String category);
     List<Item> search(String query, int maxResults);
+    List<Item> search(String query, String category, int maxResults,
+                      double minPrice, double maxPrice, SearchService.Sort sort);
 }
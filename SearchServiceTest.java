@@ -122,4 +122,53 @@ public class SearchServiceTest {
 
 		assertTrue("Should return empty list for nonexistent keyword", results.isEmpty());
 	}
+
+	/**  search within a price band, sorted by price. */
+	@Test
+	public void testSearchPriceRangeSorted() {
+		List<Item> results = searchService.search("denim", "", 10, 0, 60.0, SearchService.Sort.PRICE_DESC);
+		assertEquals("Should find 2 denim items up to $60", 2, results.size());
+		assertEquals("Most expensive should be first", item1, results.get(0));
+		assertEquals(item4, results.get(1));
+
+		results = searchService.search("jacket", "", 1, 40.0, 100.0, SearchService.Sort.PRICE_ASC);
+		assertEquals("Should stop at the limit", 1, results.size());
+		assertEquals("Cheapest jacket in the band should be first", item1, results.get(0));
+	}
+
+	/** Tests that a price search scores only the items in the band and a price sort stops after maxResults. */
+	@Test
+	public void testPriceSearchVisitsOnlyTheBand() {
+		int[] scored = new int[1];
+		String sellerId = db.getUserByUsername("seller5").getUserId();
+		for (int i = 0; i < 20; i++) {
+			db.addItem(new Item(sellerId, "Lamp " + i, "Desk lamp", "Home", 1000.0 + i) {
+				@Override
+				public String getTitle() {
+					scored[0]++;
+					return super.getTitle();
+				}
+			});
+		}
+
+		scored[0] = 0;
+		assertTrue(searchService.search("lamp", "", 10, 0, 100.0, SearchService.Sort.RELEVANCE).isEmpty());
+		assertEquals(0, scored[0]);
+
+		List<Item> cheapest = searchService.search("lamp", "", 3, 1000.0, 2000.0, SearchService.Sort.PRICE_ASC);
+		assertEquals(3, cheapest.size());
+		assertEquals(1000.0, cheapest.get(0).getPrice(), 0.001);
+		assertEquals(1002.0, cheapest.get(2).getPrice(), 0.001);
+		assertEquals(3, scored[0]);
+	}
+
+	/**  search within a price band that includes its bounds. */
+	@Test
+	public void testSearchPriceRangeInclusive() {
+		List<Item> results = searchService.search("jacket", "Clothing", 10, 50.0, 80.0, SearchService.Sort.RELEVANCE);
+		assertEquals("Both bounds should be included", 2, results.size());
+
+		results = searchService.search("jacket", "Clothing", 10, 50.01, 79.99, SearchService.Sort.RELEVANCE);
+		assertTrue("Nothing should be strictly between the jackets", results.isEmpty());
+	}
 }
@@ -287,40 +287,35 @@ public class SellerInfoDialog extends JDialog {
      * @param model The table model to populate
      */
     private void loadSellerItems(DefaultTableModel model) {
-        // Search for all items
-        String response = client.searchItems("", "", 100);
+        // Get all of this seller's listings, sold or not
+        String response = client.getUserListings(sellerId, false);
         String[] parts = response.split(",");
 
         if (parts.length >= 3 && parts[1].equals("SUCCESS")) {
             int count = Integer.parseInt(parts[2]);
 
             for (int i = 0; i < count; i++) {
-                String itemId = parts[3 + 2*i];
+                String itemId = parts[3 + 4*i];
 
                 // Get more details about the item
                 String itemResponse = client.getItem(itemId);
                 String[] itemParts = itemResponse.split(",");
 
-                if (itemParts.length >= 7 && itemParts[1].equals("SUCCESS")) {
-                    String itemSellerId = itemParts[3];
-
-                    // Only include items from this seller
-                    if (itemSellerId.equals(sellerId)) {
-                        String title = itemParts[4];
-                        String category = itemParts[6];
-                        double price = Double.parseDouble(itemParts[7]);
-                        boolean sold = Boolean.parseBoolean(itemParts[8]);
-
-                        // Add row to table
-                        model.addRow(new Object[] {
-                                itemId,
-                                title,
-                                category,
-                                currencyFormat.format(price),
-                                sold ? "Sold" : "Available",
-                                "View"
-                        });
-                    }
+                if (itemParts.length >= 9 && itemParts[1].equals("SUCCESS")) {
+                    String title = itemParts[4];
+                    String category = itemParts[6];
+                    double price = Double.parseDouble(itemParts[7]);
+                    boolean sold = Boolean.parseBoolean(itemParts[8]);
+
+                    // Add row to table
+                    model.addRow(new Object[] {
+                            itemId,
+                            title,
+                            category,
+                            currencyFormat.format(price),
+                            sold ? "Sold" : "Available",
+                            "View"
+                    });
                 }
             }
         }
@@ -0,0 +1,323 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Running rating aggregates per seller: the number of ratings, their sum and
+ * a histogram of stars. Adding a rating and reading an average are O(1), and
+ * a seller takes the same memory no matter how often they are rated.
+ *
+ * The ratings file is an append-only log. A "+,sellerId,rating" line adds a
+ * rating, a "-,sellerId" line drops a seller and a "=,sellerId,count,sum,
+ * one,two,three,four,five" line sets a seller's aggregate. Compaction
+ * rewrites the file with one "=" line per seller. A file without the header
+ * line is in the old "sellerId,rating,rating,..." format and is converted the
+ * first time it is loaded. The file is loaded on first use if load() has
+ * not been called, so a rating is never appended to an unread file.
+ */
+public class SellerRatings implements SellerRatingsInterface {
+    private static final String HEADER = "#seller-ratings,v2";
+
+    private final String ratingsFile;
+    private final FileHandlePool handles;
+    private final Map<String, Aggregate> bySeller;
+    private int logLines;
+    private boolean loaded;
+
+    /**
+     * Creates empty aggregates backed by the given file.
+     */
+    public SellerRatings(String ratingsFile) {
+        this(ratingsFile, new FileHandlePool(1, 0, FileHandlePool.Durability.NONE, 0));
+    }
+
+    /**
+     * Creates empty aggregates backed by the given file, appending through the given pool.
+     */
+    public SellerRatings(String ratingsFile, FileHandlePool handles) {
+        this.ratingsFile = ratingsFile;
+        this.handles = handles;
+        this.bySeller = new HashMap<>();
+        this.logLines = 0;
+        this.loaded = false;
+    }
+
+    /**
+     * Reads the ratings file, converting the old format and dropping
+     * superseded lines when needed.
+     */
+    @Override
+    public synchronized void load() {
+        bySeller.clear();
+        logLines = 0;
+        loaded = true;
+
+        File file = new File(ratingsFile);
+        if (!file.exists()) {
+            return;
+        }
+
+        boolean legacy = true;
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line = reader.readLine();
+            if (line != null && line.equals(HEADER)) {
+                legacy = false;
+                line = reader.readLine();
+            }
+            for (; line != null; line = reader.readLine()) {
+                String[] parts = line.split(",");
+                try {
+                    if (legacy) {
+                        applyLegacy(parts);
+                    } else {
+                        apply(parts);
+                    }
+                    logLines++;
+                } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                    // Skip lines with an invalid rating
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Error reading ratings file: " + e.getMessage());
+            return;
+        }
+
+        if (legacy || logLines > 2 * bySeller.size() + 64) {
+            compact();
+        }
+    }
+
+    /**
+     * Adds a rating from 1 to 5 to a seller's aggregate and appends it to the file.
+     */
+    @Override
+    public synchronized void add(String sellerId, double rating) {
+        ensureLoaded();
+        bySeller.computeIfAbsent(sellerId, id -> new Aggregate()).add(rating);
+        append("+," + sellerId + "," + rating);
+    }
+
+    /**
+     * Drops a seller's ratings.
+     */
+    @Override
+    public synchronized void remove(String sellerId) {
+        ensureLoaded();
+        if (bySeller.remove(sellerId) != null) {
+            append("-," + sellerId);
+        }
+    }
+
+    /**
+     * Gets a copy of a seller's aggregate; it is empty for an unrated seller.
+     */
+    @Override
+    public synchronized Aggregate get(String sellerId) {
+        ensureLoaded();
+        Aggregate aggregate = bySeller.get(sellerId);
+        return aggregate == null ? new Aggregate() : aggregate.copy();
+    }
+
+    /**
+     * Gets a seller's average rating, or 0.0 if they have none.
+     */
+    @Override
+    public synchronized double getAverage(String sellerId) {
+        ensureLoaded();
+        Aggregate aggregate = bySeller.get(sellerId);
+        return aggregate == null ? 0.0 : aggregate.getAverage();
+    }
+
+    /**
+     * Gets the number of ratings a seller has received.
+     */
+    @Override
+    public synchronized int getCount(String sellerId) {
+        ensureLoaded();
+        Aggregate aggregate = bySeller.get(sellerId);
+        return aggregate == null ? 0 : aggregate.getCount();
+    }
+
+    /**
+     * Rewrites the ratings file with one line per seller.
+     */
+    @Override
+    public synchronized void compact() {
+        ensureLoaded();
+        File temp = new File(ratingsFile + ".tmp");
+        try (PrintWriter writer = new PrintWriter(new FileWriter(temp))) {
+            writer.println(HEADER);
+            for (Map.Entry<String, Aggregate> entry : bySeller.entrySet()) {
+                Aggregate aggregate = entry.getValue();
+                StringBuilder line = new StringBuilder("=,").append(entry.getKey())
+                        .append(",").append(aggregate.count)
+                        .append(",").append(aggregate.sum);
+                for (int stars : aggregate.histogram) {
+                    line.append(",").append(stars);
+                }
+                writer.println(line);
+            }
+        } catch (IOException e) {
+            System.err.println("Error compacting ratings file: " + e.getMessage());
+            return;
+        }
+
+        File target = new File(ratingsFile);
+        try {
+            handles.release(target);
+        } catch (IOException e) {
+            System.err.println("Error closing ratings file: " + e.getMessage());
+        }
+        if (target.exists() && !target.delete()) {
+            System.err.println("Error replacing ratings file " + ratingsFile);
+            return;
+        }
+        if (!temp.renameTo(target)) {
+            System.err.println("Error replacing ratings file " + ratingsFile);
+            return;
+        }
+        logLines = bySeller.size();
+    }
+
+    /**
+     * Gets the number of rated sellers.
+     */
+    @Override
+    public synchronized int size() {
+        ensureLoaded();
+        return bySeller.size();
+    }
+
+    private void ensureLoaded() {
+        if (!loaded) {
+            load();
+        }
+    }
+
+    private void append(String line) {
+        File file = new File(ratingsFile);
+        try {
+            if (handles.size(file) == 0) {
+                // A new file gets the header so it is never mistaken for the old format
+                line = HEADER + System.lineSeparator() + line;
+            }
+            handles.append(file, ByteBuffer.wrap((line + System.lineSeparator()).getBytes(StandardCharsets.UTF_8)));
+            logLines++;
+        } catch (IOException e) {
+            System.err.println("Error writing ratings file: " + e.getMessage());
+        }
+    }
+
+    private void apply(String[] parts) {
+        switch (parts[0]) {
+            case "+":
+                bySeller.computeIfAbsent(parts[1], id -> new Aggregate()).add(Double.parseDouble(parts[2]));
+                break;
+            case "-":
+                bySeller.remove(parts[1]);
+                break;
+            case "=":
+                Aggregate aggregate = new Aggregate();
+                aggregate.count = Integer.parseInt(parts[2]);
+                aggregate.sum = Double.parseDouble(parts[3]);
+                for (int i = 0; i < aggregate.histogram.length; i++) {
+                    aggregate.histogram[i] = Integer.parseInt(parts[4 + i]);
+                }
+                bySeller.put(parts[1], aggregate);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void applyLegacy(String[] parts) {
+        if (parts.length < 2) {
+            return;
+        }
+        Aggregate aggregate = new Aggregate();
+        for (int i = 1; i < parts.length; i++) {
+            try {
+                aggregate.add(Double.parseDouble(parts[i]));
+            } catch (NumberFormatException e) {
+                // Skip invalid ratings
+            }
+        }
+        bySeller.put(parts[0], aggregate);
+    }
+
+    /**
+     * The running totals of one seller's ratings.
+     */
+    public static class Aggregate {
+        private int count;
+        private double sum;
+        private final int[] histogram = new int[5]; // ratings rounded to 1..5 stars
+
+        void add(double rating) {
+            count++;
+            sum += rating;
+            histogram[starsOf(rating) - 1]++;
+        }
+
+        /**
+         * Gets the histogram bucket of a rating: rounded, from 1 to 5 stars.
+         */
+        static int starsOf(double rating) {
+            return Math.max(1, Math.min(5, (int) Math.round(rating)));
+        }
+
+        /**
+         * Creates an aggregate from stored totals; histogram holds the 1 to 5 star counts.
+         */
+        static Aggregate of(int count, double sum, int[] histogram) {
+            Aggregate aggregate = new Aggregate();
+            aggregate.count = count;
+            aggregate.sum = sum;
+            System.arraycopy(histogram, 0, aggregate.histogram, 0, aggregate.histogram.length);
+            return aggregate;
+        }
+
+        Aggregate copy() {
+            Aggregate copy = new Aggregate();
+            copy.count = count;
+            copy.sum = sum;
+            System.arraycopy(histogram, 0, copy.histogram, 0, histogram.length);
+            return copy;
+        }
+
+        /**
+         * Gets the number of ratings.
+         */
+        public int getCount() {
+            return count;
+        }
+
+        /**
+         * Gets the sum of all ratings.
+         */
+        public double getSum() {
+            return sum;
+        }
+
+        /**
+         * Gets the average rating, or 0.0 if there are none.
+         */
+        public double getAverage() {
+            return count == 0 ? 0.0 : sum / count;
+        }
+
+        /**
+         * Gets how many ratings rounded to the given number of stars, from 1 to 5.
+         */
+        public int getStars(int stars) {
+            return histogram[stars - 1];
+        }
+    }
+}
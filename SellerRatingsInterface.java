@@ -0,0 +1,13 @@
+/**
+ * Interface for the SellerRatings class
+ */
+public interface SellerRatingsInterface {
+    void load();
+    void add(String sellerId, double rating);
+    void remove(String sellerId);
+    SellerRatings.Aggregate get(String sellerId);
+    double getAverage(String sellerId);
+    int getCount(String sellerId);
+    void compact();
+    int size();
+}
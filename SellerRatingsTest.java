@@ -0,0 +1,76 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+import java.io.File;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.List;
+
+/**
+ * Tests for the per-seller rating aggregates
+ */
+public class SellerRatingsTest {
+
+	private File tempFile() throws Exception {
+		File file = File.createTempFile("ratings", ".txt");
+		file.delete();
+		file.deleteOnExit();
+		return file;
+	}
+
+	/** Tests that count, average and histogram follow each rating. */
+	@Test
+	public void testAddUpdatesAggregate() throws Exception {
+		SellerRatings ratings = new SellerRatings(tempFile().getPath());
+		ratings.add("seller1", 5.0);
+		ratings.add("seller1", 4.0);
+		ratings.add("seller1", 4.2);
+
+		assertEquals(3, ratings.getCount("seller1"));
+		assertEquals(13.2 / 3, ratings.getAverage("seller1"), 0.0001);
+		SellerRatings.Aggregate aggregate = ratings.get("seller1");
+		assertEquals(2, aggregate.getStars(4));
+		assertEquals(1, aggregate.getStars(5));
+		assertEquals(0.0, ratings.getAverage("nobody"), 0.0);
+	}
+
+	/** Tests that appended ratings and removals survive a reload. */
+	@Test
+	public void testReloadReplaysLog() throws Exception {
+		File file = tempFile();
+		SellerRatings ratings = new SellerRatings(file.getPath());
+		ratings.add("seller1", 3.0);
+		ratings.add("seller2", 5.0);
+		ratings.add("seller1", 5.0);
+		ratings.remove("seller2");
+
+		SellerRatings reloaded = new SellerRatings(file.getPath());
+		reloaded.load();
+		assertEquals(1, reloaded.size());
+		assertEquals(2, reloaded.getCount("seller1"));
+		assertEquals(4.0, reloaded.getAverage("seller1"), 0.0001);
+		assertEquals(0, reloaded.getCount("seller2"));
+	}
+
+	/** Tests that the old one-line-per-seller format is converted on load. */
+	@Test
+	public void testLoadConvertsOldFormat() throws Exception {
+		File file = tempFile();
+		try (PrintWriter writer = new PrintWriter(file)) {
+			writer.println("seller1,4.0,5.0,3.0");
+			writer.println("seller2,2.0");
+		}
+
+		SellerRatings ratings = new SellerRatings(file.getPath());
+		ratings.load();
+		assertEquals(3, ratings.getCount("seller1"));
+		assertEquals(4.0, ratings.getAverage("seller1"), 0.0001);
+
+		List<String> lines = Files.readAllLines(file.toPath());
+		assertEquals("#seller-ratings,v2", lines.get(0));
+		assertEquals(3, lines.size());
+
+		ratings.add("seller2", 4.0);
+		SellerRatings reloaded = new SellerRatings(file.getPath());
+		assertEquals(3.0, reloaded.getAverage("seller2"), 0.0001);
+	}
+}
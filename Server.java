@@ -10,6 +10,47 @@ import java.util.*;
 public class Server {
     private ServerSocket serverSocket;
     private final int PORT = 1234;
+    // Longest time a committed change may wait in memory before reaching disk; 0 writes through
+    private static final long WRITE_BEHIND_MILLIS = Long.getLong("marketplace.writeBehindMillis", 1000);
+    private static final int WRITE_BEHIND_MAX_PENDING = Integer.getInteger("marketplace.writeBehindMaxPending", 500);
+    // "binary" keeps the catalog in the memory-mapped items.bin instead of items.txt;
+    // "offheap" keeps loaded items' fields in direct buffers outside the heap
+    private static final String ITEM_STORE = System.getProperty("marketplace.itemStore", "csv");
+    // Number of conversation histories kept in memory; the rest are read from disk on demand
+    private static final int CONVERSATION_CACHE_SIZE = Integer.getInteger("marketplace.conversationCacheSize", 256);
+    // Size at which the active message log segment is sealed
+    private static final int MESSAGE_SEGMENT_BYTES = Integer.getInteger("marketplace.messageSegmentBytes", 8 * 1024 * 1024);
+    // Open file handles kept for message writes, how long an unused one stays open, and when writes are forced
+    private static final int FILE_HANDLES = Integer.getInteger("marketplace.fileHandles", 64);
+    private static final long FILE_IDLE_MILLIS = Long.getLong("marketplace.fileIdleMillis", 30000);
+    private static final String MESSAGE_DURABILITY = System.getProperty("marketplace.messageDurability", "batched");
+    private static final long MESSAGE_SYNC_MILLIS = Long.getLong("marketplace.messageSyncMillis", 1000);
+    // Heap budget for users kept in memory; the rest are read from users.txt on demand. 0 keeps all (files only)
+    private static final long USER_CACHE_BYTES = Long.getLong("marketplace.userCacheBytes", 0);
+    // Sold items listed more than this many days ago move to the compressed archive; 0 keeps them all (files only)
+    private static final long ARCHIVE_AFTER_DAYS = Long.getLong("marketplace.archiveAfterDays", 0);
+    private static final long ARCHIVE_INTERVAL_MILLIS = Long.getLong("marketplace.archiveIntervalMillis", 3600000);
+    // Unsold listings end this many days after they were listed; 0 keeps them. "archive" keeps them in the archive (files only)
+    private static final long LISTING_TTL_DAYS = Long.getLong("marketplace.listingTtlDays", 0);
+    private static final long LISTING_EXPIRY_TICK_MILLIS = Long.getLong("marketplace.listingExpiryTickMillis",
+            ListingExpiry.DEFAULT_TICK_MILLIS);
+    private static final String LISTING_EXPIRY = System.getProperty("marketplace.listingExpiry", "remove");
+    // "sql" stores everything through JDBC in an embedded database instead of the data files
+    private static final String STORAGE = System.getProperty("marketplace.storage", "files");
+    private static final String JDBC_URL = System.getProperty("marketplace.jdbcUrl", "jdbc:h2:./marketplace");
+    private static final int JDBC_POOL_SIZE = Integer.getInteger("marketplace.jdbcPoolSize", 8);
+    private static final long JDBC_WAIT_MILLIS = Long.getLong("marketplace.jdbcWaitMillis", 5000);
+    // With "lsm", users and items live in a log-structured store in this directory
+    private static final String LSM_DIR = System.getProperty("marketplace.lsmDir", "lsm");
+    private static final int LSM_MEMTABLE_BYTES = Integer.getInteger("marketplace.lsmMemtableBytes", LsmStore.DEFAULT_MEMTABLE_BYTES);
+    private static final int LSM_MAX_RUNS = Integer.getInteger("marketplace.lsmMaxRuns", LsmStore.DEFAULT_MAX_RUNS);
+    // Longest an acknowledged write waits to be forced to disk; 0 forces every write
+    private static final long LSM_SYNC_MILLIS = Long.getLong("marketplace.lsmSyncMillis", LsmStore.DEFAULT_SYNC_INTERVAL_MILLIS);
+    // Newest changes kept for CHANGES_SINCE; a consumer further behind must reload
+    private static final int CHANGE_FEED_SIZE = Integer.getInteger("marketplace.changeFeedSize", ChangeFeed.DEFAULT_CAPACITY);
+    // Most changes one CHANGES_SINCE returns, and longest it waits for a first change
+    private static final int CHANGES_MAX_LIMIT = 10000;
+    private static final long CHANGES_MAX_WAIT_MILLIS = 30000;
     private boolean running;
     private List<ClientHandler> clientHandlers;
     private Database database;
@@ -28,11 +69,56 @@ public class Server {
      */
     public void startServer() {
         try {
-            this.database = new Database();
-            database.readUserFile();
-            database.readItemFile();
-            database.readMessageFiles();
-            database.readRatingsFile();
+            if ("sql".equalsIgnoreCase(STORAGE)) {
+                // Rows are written through, so the file backend's loader and write-behind do not apply
+                this.database = new SqlDatabase(new ConnectionPool(JDBC_URL, JDBC_POOL_SIZE, JDBC_WAIT_MILLIS));
+                database.setConversationCacheSize(CONVERSATION_CACHE_SIZE);
+                database.readItemFile();
+                database.readUserFile();
+            } else if ("lsm".equalsIgnoreCase(STORAGE)) {
+                // Users and items are appended to the store as they change; messages and ratings stay in files
+                this.database = new LsmDatabase(new LsmStore(LSM_DIR, LSM_MEMTABLE_BYTES, LSM_MAX_RUNS, LSM_SYNC_MILLIS));
+                database.useOffHeapItems("offheap".equalsIgnoreCase(ITEM_STORE));
+                database.useUserCache(USER_CACHE_BYTES);
+                database.useItemArchive(ARCHIVE_AFTER_DAYS > 0
+                        || (LISTING_TTL_DAYS > 0 && "archive".equalsIgnoreCase(LISTING_EXPIRY)));
+                database.setConversationCacheSize(CONVERSATION_CACHE_SIZE);
+                database.setFileHandlePool(new FileHandlePool(FILE_HANDLES, FILE_IDLE_MILLIS,
+                        FileHandlePool.Durability.valueOf(MESSAGE_DURABILITY.toUpperCase()), MESSAGE_SYNC_MILLIS));
+                database.setMessageSegmentBytes(MESSAGE_SEGMENT_BYTES);
+                database.readItemFile();
+                database.readItemArchive();
+                database.readUserFile();
+                database.readRatingsFile();
+                database.readMessageFiles();
+                if (ARCHIVE_AFTER_DAYS > 0) {
+                    database.startArchiver(ARCHIVE_AFTER_DAYS * 24 * 60 * 60 * 1000, ARCHIVE_INTERVAL_MILLIS);
+                }
+            } else {
+                this.database = new Database();
+                database.useBinaryItemStore("binary".equalsIgnoreCase(ITEM_STORE));
+                database.useOffHeapItems("offheap".equalsIgnoreCase(ITEM_STORE));
+                database.useUserCache(USER_CACHE_BYTES);
+                database.useItemArchive(ARCHIVE_AFTER_DAYS > 0
+                        || (LISTING_TTL_DAYS > 0 && "archive".equalsIgnoreCase(LISTING_EXPIRY)));
+                database.setConversationCacheSize(CONVERSATION_CACHE_SIZE);
+                database.setFileHandlePool(new FileHandlePool(FILE_HANDLES, FILE_IDLE_MILLIS,
+                        FileHandlePool.Durability.valueOf(MESSAGE_DURABILITY.toUpperCase()), MESSAGE_SYNC_MILLIS));
+                database.setMessageSegmentBytes(MESSAGE_SEGMENT_BYTES);
+                new DatabaseLoader(database).load();
+                if (WRITE_BEHIND_MILLIS > 0) {
+                    database.enableWriteBehind(WRITE_BEHIND_MILLIS, WRITE_BEHIND_MAX_PENDING);
+                }
+                if (ARCHIVE_AFTER_DAYS > 0) {
+                    database.startArchiver(ARCHIVE_AFTER_DAYS * 24 * 60 * 60 * 1000, ARCHIVE_INTERVAL_MILLIS);
+                }
+            }
+            database.setChangeFeedCapacity(CHANGE_FEED_SIZE);
+            database.resumeAccountDeletions();
+            if (LISTING_TTL_DAYS > 0) {
+                database.startListingExpiry(LISTING_TTL_DAYS * 24 * 60 * 60 * 1000, LISTING_EXPIRY_TICK_MILLIS,
+                        ListingExpiry.Action.valueOf(LISTING_EXPIRY.toUpperCase()));
+            }
             serverSocket = new ServerSocket(PORT);
             running = true;
             System.out.println("Server started on port " + PORT);
@@ -84,6 +170,11 @@ public class Server {
             }
         }
 
+        // Persist anything still waiting for the write-behind flusher
+        if (database != null) {
+            database.close();
+        }
+
         System.out.println("Server shutdown complete");
     }
 
@@ -199,13 +290,73 @@ public class Server {
                     return handleGetActiveSellers();
                 case "GET_USER_LISTINGS":
                     return handleGetUserListings(parts);
+                case "GET_PURCHASE_HISTORY":
+                    return handleGetPurchaseHistory(parts);
                 case "GET_MY_RATING":
                     return handleGetMyRating(parts);
+                case "CHANGES_SINCE":
+                    return handleChangesSince(parts);
+                case "DELETION_STATUS":
+                    return handleDeletionStatus(parts);
                 default:
                     return "ERROR,Unknown command: " + command;
             }
         }
 
+        private String handleDeletionStatus(String[] parts) {
+            if (parts.length < 2) {
+                return "DELETION_STATUS,FAILURE,Invalid parameters";
+            }
+
+            AccountDeleter.Progress progress = database.getDeletionProgress(parts[1]);
+            if (progress == null) {
+                return "DELETION_STATUS,FAILURE,No deletion found";
+            }
+            return "DELETION_STATUS,SUCCESS," + progress.getPhase() + "," + progress.getListingsRemoved();
+        }
+
+        private String handleChangesSince(String[] parts) {
+            if (parts.length < 2) {
+                return "CHANGES_SINCE,FAILURE,Invalid parameters";
+            }
+
+            long afterVersion;
+            int limit = 1000;
+            long waitMillis = 0;
+            try {
+                afterVersion = Long.parseLong(parts[1]);
+                if (parts.length > 2 && !parts[2].isEmpty()) {
+                    limit = Math.min(Integer.parseInt(parts[2]), CHANGES_MAX_LIMIT);
+                }
+                if (parts.length > 3 && !parts[3].isEmpty()) {
+                    waitMillis = Math.min(Long.parseLong(parts[3]), CHANGES_MAX_WAIT_MILLIS);
+                }
+            } catch (NumberFormatException e) {
+                return "CHANGES_SINCE,FAILURE,Invalid parameters";
+            }
+
+            // Long poll: this handler's thread waits on the feed, not on the database lock
+            ChangeFeed feed = database.getChangeFeed();
+            List<ChangeFeed.Change> changes;
+            try {
+                changes = feed.poll(afterVersion, limit, waitMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return "CHANGES_SINCE,FAILURE,Interrupted";
+            }
+            if (changes == null) {
+                // Too far behind: reload, then resume from this version
+                return "CHANGES_SINCE,RESYNC," + feed.getVersion();
+            }
+
+            long version = changes.isEmpty() ? afterVersion : changes.get(changes.size() - 1).getVersion();
+            StringBuilder response = new StringBuilder("CHANGES_SINCE,SUCCESS," + version + "," + changes.size());
+            for (ChangeFeed.Change change : changes) {
+                response.append(",").append(change);
+            }
+            return response.toString();
+        }
+
         private String handleGetMyRating(String[] parts) {
             if (parts.length < 2) {
                 return "GET_MY_RATING,FAILURE,Invalid parameters";
@@ -218,24 +369,10 @@ public class Server {
                 return "GET_MY_RATING,FAILURE,User not found";
             }
 
-            // Get the user's ratings as a seller
-            List<Item> soldItems = user.getSoldItems();
-            if (soldItems.isEmpty()) {
-                return "GET_MY_RATING,SUCCESS,0.0,0";
-            }
-
-            double totalRating = 0.0;
-            int ratingCount = 0;
-
-            for (Item item : soldItems) {
-                double itemRating = item.getRating();
-                if (itemRating > 0.0) {
-                    totalRating += itemRating;
-                    ratingCount++;
-                }
-            }
-
-            double averageRating = ratingCount > 0 ? totalRating / ratingCount : 0.0;
+            // The user's ratings as a seller, kept as a running aggregate
+            SellerRatings.Aggregate ratings = database.getSellerRatingAggregate(userId);
+            double averageRating = ratings.getAverage();
+            int ratingCount = ratings.getCount();
 
             return String.format("GET_MY_RATING,SUCCESS,%.1f,%d", averageRating, ratingCount);
         }
@@ -253,17 +390,18 @@ public class Server {
                 return "GET_USER_LISTINGS,FAILURE,User not found";
             }
 
-            List<Item> listings;
-            if (activeOnly) {
-                listings = user.getActiveListings();
-            } else {
-                // Combine active listings and sold items
-                listings = new ArrayList<>(user.getActiveListings());
-                listings.addAll(user.getSoldItems());
-            }
+            // Snapshot views are streamed as they are; nothing is copied or locked
+            List<Item> active = user.viewActiveListings();
+            List<Item> sold = activeOnly ? Collections.emptyList() : user.viewSoldItems();
 
-            StringBuilder response = new StringBuilder("GET_USER_LISTINGS,SUCCESS," + listings.size());
+            StringBuilder response = new StringBuilder("GET_USER_LISTINGS,SUCCESS," + (active.size() + sold.size()));
+            appendListings(response, active);
+            appendListings(response, sold);
+
+            return response.toString();
+        }
 
+        private void appendListings(StringBuilder response, List<Item> listings) {
             for (Item item : listings) {
                 response.append(",")
                         .append(item.getItemId())
@@ -274,6 +412,33 @@ public class Server {
                         .append(",")
                         .append(item.isSold());
             }
+        }
+
+        private String handleGetPurchaseHistory(String[] parts) {
+            if (parts.length < 2) {
+                return "GET_PURCHASE_HISTORY,FAILURE,Invalid parameters";
+            }
+
+            String userId = parts[1];
+            if (database.getUserById(userId) == null) {
+                return "GET_PURCHASE_HISTORY,FAILURE,User not found";
+            }
+
+            List<Item> purchases = database.getItemsByBuyer(userId);
+            StringBuilder response = new StringBuilder("GET_PURCHASE_HISTORY,SUCCESS," + purchases.size());
+
+            for (Item item : purchases) {
+                response.append(",")
+                        .append(item.getItemId())
+                        .append(",")
+                        .append(item.getTitle())
+                        .append(",")
+                        .append(item.getCategory())
+                        .append(",")
+                        .append(item.getPrice())
+                        .append(",")
+                        .append(item.getSellerId());
+            }
 
             return response.toString();
         }
@@ -315,8 +480,8 @@ public class Server {
 
             // Find users who have sold at least one item
             for (User user : allUsers) {
-                List<Item> soldItems = user.getSoldItems();
-                if (soldItems != null && !soldItems.isEmpty()) {
+                List<Item> soldItems = user.viewSoldItems();
+                if (!soldItems.isEmpty()) {
                     activeSellers.add(user);
                     System.out.println("Found seller with sold items: " + user.getUsername() +
                             " (" + user.getUserId() + ") - " + soldItems.size() + " sold items");
@@ -392,19 +557,7 @@ public class Server {
                 return "DELETE_ACCOUNT,FAILURE,User not found";
             }
 
-            // Check if user has active listings
-            List<Item> activeListings = user.getActiveListings();
-            if (!activeListings.isEmpty()) {
-                // Option 1: Prevent deletion if user has active listings
-                // return "DELETE_ACCOUNT,FAILURE,User has active listings";
-
-                // Option 2: Automatically remove all active listings
-                for (Item item : new ArrayList<>(activeListings)) {
-                    database.removeItem(item.getItemId(), userId);
-                }
-            }
-
-            // Delete the user account
+            // The account is tombstoned now; its listings, conversations and ratings are removed in the background
             boolean success = database.deleteUser(user.getUsername());
 
             return "DELETE_ACCOUNT," + (success ? "SUCCESS" : "FAILURE");
@@ -502,14 +655,32 @@ public class Server {
                     }
                 }
 
-                System.out.println("Processing search: " + query + ", category: " + category);
+                // Optional price band and sort order
+                double minPrice = Double.NEGATIVE_INFINITY;
+                double maxPrice = Double.POSITIVE_INFINITY;
+                SearchService.Sort sort = SearchService.Sort.RELEVANCE;
+                try {
+                    if (parts.length > 4 && !parts[4].isEmpty()) {
+                        minPrice = Double.parseDouble(parts[4]);
+                    }
+                    if (parts.length > 5 && !parts[5].isEmpty()) {
+                        maxPrice = Double.parseDouble(parts[5]);
+                    }
+                    if (parts.length > 6) {
+                        sort = SearchService.Sort.parse(parts[6]);
+                    }
+                } catch (IllegalArgumentException e) {
+                    return "SEARCH_ITEMS,FAILURE,Invalid price range or sort";
+                }
+                boolean priceSearch = parts.length > 4;
 
-                // Debug statement to check database state
-                System.out.println("Database has " + database.getAllItems().size() + " total items");
+                System.out.println("Processing search: " + query + ", category: " + category);
 
                 try {
                     SearchService searchService = new SearchService(database);
-                    List<Item> results = searchService.search(query, category, maxResults);
+                    List<Item> results = priceSearch
+                            ? searchService.search(query, category, maxResults, minPrice, maxPrice, sort)
+                            : searchService.search(query, category, maxResults);
 
                     System.out.println("Search returned " + results.size() + " items");
 
@@ -555,9 +726,8 @@ public class Server {
             }
             boolean success = item.markAsSold(buyerId); // Determines success of request
 
-            // neccessary?
             if (success) {
-                database.writeItemFile();
+                database.markItemSold(item);
             }
 
             return "MARK_SOLD," + (success ? "SUCCESS" : "FAILURE");
@@ -578,10 +748,6 @@ public class Server {
             // Simulate removing item (this would actually call database methods)
             boolean success = database.removeItem(itemId, sellerId); // Determines success of request
 
-            if (success) {
-                database.writeItemFile();
-            }
-
             return "REMOVE_ITEM," + (success ? "SUCCESS" : "FAILURE");
         }
 
@@ -631,10 +797,27 @@ public class Server {
             String user1Id = parts[1];
             String user2Id = parts[2];
 
+            // Optional page: since, before (timestamps, exclusive) and limit; empty or 0 means unbounded
+            long since;
+            long before;
+            int limit;
+            try {
+                since = parts.length > 3 && !parts[3].isEmpty() ? Long.parseLong(parts[3]) : 0;
+                before = parts.length > 4 && !parts[4].isEmpty() ? Long.parseLong(parts[4]) : 0;
+                limit = parts.length > 5 && !parts[5].isEmpty() ? Integer.parseInt(parts[5]) : 0;
+            } catch (NumberFormatException e) {
+                return "GET_MESSAGES,FAILURE,Invalid parameters";
+            }
+
             System.out.println("Processing get messages between " + user1Id + " and " + user2Id);
 
             // Get messages between the two users
-            List<Message> messages = database.getMessagesBetweenUsers(user1Id, user2Id);
+            List<Message> messages;
+            if (since <= 0 && before <= 0 && limit <= 0) {
+                messages = database.getMessagesBetweenUsers(user1Id, user2Id);
+            } else {
+                messages = database.getMessagesBetweenUsers(user1Id, user2Id, since, before, limit);
+            }
 
             if (messages == null || messages.isEmpty()) {
                 return "GET_MESSAGES,SUCCESS,0";
@@ -670,39 +853,8 @@ public class Server {
             String userId = parts[1];
             System.out.println("Processing get conversations for user " + userId);
 
-            // Get all conversation files from the directory
-            File directory = new File(".");
-            File[] files = directory.listFiles((dir, name) ->
-                    (name.startsWith("buyer_" + userId + "_seller_") ||
-                            name.contains("_seller_" + userId + ".txt")) &&
-                            name.endsWith(".txt"));
-
-            Set<String> partnerIds = new HashSet<>();
-
-            // Extract partner IDs from filenames
-            if (files != null) {
-                for (File file : files) {
-                    String filename = file.getName();
-                    String partnerId;
-
-                    if (filename.startsWith("buyer_" + userId + "_seller_")) {
-                        // User is the buyer, extract seller ID
-                        partnerId = filename.substring(
-                                ("buyer_" + userId + "_seller_").length(),
-                                filename.length() - 4  // Remove .txt
-                        );
-                    } else {
-                        // User is the seller, extract buyer ID
-                        partnerId = filename.substring(
-                                "buyer_".length(),
-                                filename.indexOf("_seller_")
-                        );
-                    }
-
-                    partnerIds.add(partnerId);
-                    System.out.println("Found conversation partner: " + partnerId);
-                }
-            }
+            // Partners come from the conversation catalog, most recently active first
+            List<String> partnerIds = database.getAllConversationPartners(userId);
 
             // Build response with partner IDs and usernames
             StringBuilder response = new StringBuilder("GET_CONVERSATIONS,SUCCESS," + partnerIds.size());
@@ -744,8 +896,7 @@ public class Server {
             }
 
             if (success) {
-                //database.writeItemFile();
-                database.writeUserFile();   // ← write *users.txt*, not items.txt
+                database.markUserDirty(currentUser);
             }
 
 
@@ -777,7 +928,7 @@ public class Server {
             boolean success = currentUser != null && currentUser.withdrawFunds(amount);
             if (success) {
                 // Persist the updated balance
-                database.writeUserFile();
+                database.markUserDirty(currentUser);
             }
             return "WITHDRAW_FUNDS," + (success ? "SUCCESS" : "FAILURE");
         }
@@ -821,9 +972,10 @@ public class Server {
             seller.depositFunds(cost);
 
             // persist both user balances and item status
-            database.writeUserFile();
             item.markAsSold(buyerId);
-            database.writeItemFile();
+            database.markUserDirty(buyer);
+            database.markUserDirty(seller);
+            database.markItemSold(item);
 
             System.out.println("   -> SUCCESS: purchase complete");
             return "PROCESS_PURCHASE,SUCCESS";
@@ -856,7 +1008,7 @@ public class Server {
             }
 
             // Check if the seller has sold items
-            List<Item> soldItems = seller.getSoldItems();
+            List<Item> soldItems = seller.viewSoldItems();
             System.out.println("Seller has " + (soldItems == null ? "null" : soldItems.size()) + " sold items");
 
             if (soldItems != null) {
@@ -894,13 +1046,10 @@ public class Server {
                     if (targetItem != null) {
                         targetItem.updateRating(rating);
                         System.out.println("Updated rating for item: " + targetItem.getItemId() + " to " + rating);
-                        database.writeItemFile(); // Persist changes to item file
+                        database.markItemDirty(targetItem); // Persist changes to item file
                     }
                 }
 
-                // Ensure the rating is written to the ratings file
-                database.writeRatingsFile();
-
                 return "RATE_SELLER,SUCCESS";
             }
 
@@ -918,29 +1067,13 @@ public class Server {
 
             System.out.println("Processing get rating for seller " + sellerId);
 
-            // Simulate getting rating (this would actually call database methods)
             User seller = database.getUserById(sellerId);
-            List<Item> soldItems = seller.getSoldItems();
-            double sellerRating = 0.0;
-
             if (seller == null) {
                 return "GET_RATING,FAILURE,Seller not found";
             }
 
-            if (soldItems == null || soldItems.isEmpty()) {
-                return "GET_RATING,SUCCESS," + sellerRating;
-            }
-
-            int numOfRating = 0;
-            for (Item item : soldItems) {
-                double itemRating = item.getRating();
-                if (itemRating > 0.0) {
-                    sellerRating += itemRating;
-                    numOfRating++;
-                }
-            }
-
-            double averageRating = numOfRating > 0 ? sellerRating / numOfRating : 0.0;
+            // O(1): the average comes from the seller's running aggregate
+            double averageRating = database.getSellerRating(sellerId);
             return "GET_RATING,SUCCESS," + averageRating;
         }
 
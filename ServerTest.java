@@ -182,6 +182,27 @@ public class ServerTest {
         assertTrue(total >= threadCount);
     }
 
+    @Test
+    public void changesSinceFollowsTheFeed() throws Exception {
+        String resync = tx("CHANGES_SINCE,0");
+        assertTrue(resync.startsWith("CHANGES_SINCE,RESYNC,"));
+        long version = Long.parseLong(resync.split(",")[2]);
+
+        String sellerId = makeUser("feed");
+        String itemId = tx("ADD_ITEM," + sellerId + ",Lamp,Desk lamp,Home,15").split(",")[2];
+        String[] changes = tx("CHANGES_SINCE," + version + ",100").split(",");
+        assertEquals("SUCCESS", changes[1]);
+        int count = Integer.parseInt(changes[3]);
+        assertTrue(count >= 2);
+        assertEquals(version + count, Long.parseLong(changes[2]));
+        String feed = String.join(",", changes);
+        assertTrue(feed.contains(",USER_UPDATED," + sellerId + ","));
+        assertTrue(feed.contains(",ITEM_ADDED," + itemId + "," + sellerId));
+
+        assertEquals("CHANGES_SINCE,SUCCESS," + changes[2] + ",0", tx("CHANGES_SINCE," + changes[2] + ",100,0"));
+        assertTrue(tx("CHANGES_SINCE,x").startsWith("CHANGES_SINCE,FAILURE"));
+    }
+
     @Test
     public void deleteAccountRemovesListings() throws Exception {
         String uid = makeUser("temp");
@@ -0,0 +1,686 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Database backed by an embedded, file-based SQL engine reached through JDBC,
+ * such as H2 (jdbc:h2:./marketplace). Users and items stay in memory as in
+ * the file backend, but every change is written through as a single-row
+ * statement instead of a rewrite of users.txt or items.txt. Messages,
+ * conversations and ratings live only in SQL and are read on demand.
+ *
+ * Every statement is prepared and runs on a connection borrowed from a
+ * ConnectionPool. Multi-row changes run in one transaction. Rating and
+ * conversation lookups do not take the database lock, so they run in
+ * parallel on separate connections.
+ */
+public class SqlDatabase extends Database implements SqlDatabaseInterface {
+    private static final String[] SCHEMA = {
+        "CREATE TABLE IF NOT EXISTS users (user_id VARCHAR(64) PRIMARY KEY, username VARCHAR(255) NOT NULL,"
+                + " password VARCHAR(255), bio VARCHAR(65535), balance DOUBLE)",
+        "CREATE UNIQUE INDEX IF NOT EXISTS idx_users_username ON users (username)",
+        "CREATE TABLE IF NOT EXISTS items (item_id VARCHAR(64) PRIMARY KEY, seller_id VARCHAR(64) NOT NULL,"
+                + " title VARCHAR(255), description VARCHAR(65535), category VARCHAR(255), price DOUBLE,"
+                + " sold BOOLEAN, buyer_id VARCHAR(64))",
+        "CREATE INDEX IF NOT EXISTS idx_items_seller ON items (seller_id, sold)",
+        "CREATE INDEX IF NOT EXISTS idx_items_buyer ON items (buyer_id)",
+        "CREATE INDEX IF NOT EXISTS idx_items_category ON items (category)",
+        "CREATE INDEX IF NOT EXISTS idx_items_price ON items (price)",
+        "CREATE TABLE IF NOT EXISTS messages (message_id VARCHAR(64) PRIMARY KEY, seq BIGINT NOT NULL,"
+                + " user_low VARCHAR(64) NOT NULL, user_high VARCHAR(64) NOT NULL, buyer_id VARCHAR(64),"
+                + " seller_id VARCHAR(64), sender_id VARCHAR(64), receiver_id VARCHAR(64),"
+                + " content VARCHAR(65535), created BIGINT, is_read BOOLEAN)",
+        "CREATE INDEX IF NOT EXISTS idx_messages_pair ON messages (user_low, user_high, created, seq)",
+        "CREATE TABLE IF NOT EXISTS conversations (buyer_id VARCHAR(64) NOT NULL, seller_id VARCHAR(64) NOT NULL,"
+                + " last_activity BIGINT, PRIMARY KEY (buyer_id, seller_id))",
+        "CREATE INDEX IF NOT EXISTS idx_conversations_seller ON conversations (seller_id)",
+        "CREATE TABLE IF NOT EXISTS ratings (seller_id VARCHAR(64) NOT NULL, rating DOUBLE, created BIGINT)",
+        "CREATE INDEX IF NOT EXISTS idx_ratings_seller ON ratings (seller_id)",
+        "CREATE TABLE IF NOT EXISTS seller_ratings (seller_id VARCHAR(64) PRIMARY KEY, rating_count INT,"
+                + " rating_sum DOUBLE, stars_1 INT, stars_2 INT, stars_3 INT, stars_4 INT, stars_5 INT)"
+    };
+
+    private static final String UPDATE_USER =
+            "UPDATE users SET username = ?, password = ?, bio = ?, balance = ? WHERE user_id = ?";
+    private static final String INSERT_USER =
+            "INSERT INTO users (username, password, bio, balance, user_id) VALUES (?, ?, ?, ?, ?)";
+    private static final String UPDATE_ITEM = "UPDATE items SET seller_id = ?, title = ?, description = ?,"
+            + " category = ?, price = ?, sold = ?, buyer_id = ? WHERE item_id = ?";
+    private static final String INSERT_ITEM = "INSERT INTO items (seller_id, title, description, category,"
+            + " price, sold, buyer_id, item_id) VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+    private static final String INSERT_MESSAGE = "INSERT INTO messages (message_id, seq, user_low, user_high,"
+            + " buyer_id, seller_id, sender_id, receiver_id, content, created, is_read)"
+            + " VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+    private static final String MESSAGE_COLUMNS = "SELECT message_id, sender_id, receiver_id, content, created,"
+            + " is_read FROM messages";
+    private static final String TOUCH_CONVERSATION = "UPDATE conversations SET last_activity ="
+            + " CASE WHEN last_activity < ? THEN ? ELSE last_activity END WHERE buyer_id = ? AND seller_id = ?";
+    private static final String INSERT_CONVERSATION =
+            "INSERT INTO conversations (buyer_id, seller_id, last_activity) VALUES (?, ?, ?)";
+    private static final String SELECT_RATING = "SELECT rating_count, rating_sum, stars_1, stars_2, stars_3,"
+            + " stars_4, stars_5 FROM seller_ratings WHERE seller_id = ?";
+
+    private final ConnectionPool pool;
+    private final AtomicLong messageSeq; // insertion order of messages with equal timestamps
+
+    /**
+     * Unit of work run on a pooled connection.
+     */
+    private interface SqlWork<T> {
+        T run(Connection connection) throws SQLException;
+    }
+
+    /**
+     * Creates a database on the given pool and creates any missing tables and indexes.
+     */
+    public SqlDatabase(ConnectionPool pool) {
+        super();
+        this.pool = pool;
+        this.messageSeq = new AtomicLong();
+        createSchema();
+        Long lastSeq = query(connection -> {
+            try (Statement statement = connection.createStatement();
+                 ResultSet rows = statement.executeQuery("SELECT MAX(seq) FROM messages")) {
+                return rows.next() ? rows.getLong(1) : 0L;
+            }
+        }, 0L, "reading message sequence");
+        messageSeq.set(lastSeq);
+    }
+
+    /**
+     * Creates any missing tables and indexes.
+     */
+    @Override
+    public void createSchema() {
+        query(connection -> {
+            try (Statement statement = connection.createStatement()) {
+                for (String ddl : SCHEMA) {
+                    statement.execute(ddl);
+                }
+            }
+            return null;
+        }, null, "creating schema");
+    }
+
+    /**
+     * Gets the pool the database runs its statements on.
+     */
+    @Override
+    public ConnectionPool getConnectionPool() {
+        return pool;
+    }
+
+    /**
+     * Loads every user into memory. Items must be read first.
+     */
+    @Override
+    public synchronized void readUserFile() {
+        List<User> users = query(connection -> {
+            List<User> loaded = new ArrayList<>();
+            try (PreparedStatement statement = connection.prepareStatement(
+                    "SELECT user_id, username, password, bio, balance FROM users");
+                 ResultSet rows = statement.executeQuery()) {
+                while (rows.next()) {
+                    loaded.add(new User(rows.getString(2), rows.getString(3), rows.getString(4),
+                            rows.getDouble(5), rows.getString(1), this));
+                }
+            }
+            return loaded;
+        }, new ArrayList<>(), "reading users");
+        installUsers(users);
+    }
+
+    /**
+     * Loads every item into memory.
+     */
+    @Override
+    public synchronized void readItemFile() {
+        List<Item> items = query(connection -> {
+            List<Item> loaded = new ArrayList<>();
+            try (PreparedStatement statement = connection.prepareStatement("SELECT item_id, seller_id, title,"
+                    + " description, category, price, sold, buyer_id FROM items");
+                 ResultSet rows = statement.executeQuery()) {
+                while (rows.next()) {
+                    Item item = new Item(rows.getString(1), rows.getString(2), rows.getString(3),
+                            rows.getString(4), rows.getString(5), rows.getDouble(6));
+                    if (rows.getBoolean(7) && rows.getString(8) != null) {
+                        item.markAsSold(rows.getString(8));
+                    }
+                    loaded.add(item);
+                }
+            }
+            return loaded;
+        }, new ArrayList<>(), "reading items");
+        installItems(items);
+    }
+
+    /**
+     * Nothing to load: conversations and ratings are queried on demand.
+     */
+    @Override
+    public synchronized void readMessageFiles() {
+    }
+
+    /**
+     * Nothing to load: ratings are queried on demand.
+     */
+    @Override
+    public synchronized void readRatingsFile() {
+    }
+
+    /**
+     * Writes every user in one transaction.
+     */
+    @Override
+    public synchronized void writeUserFile() {
+        List<User> users = getAllUsers();
+        transaction(connection -> {
+            for (User user : users) {
+                upsertUser(connection, user);
+            }
+            return null;
+        }, "writing users");
+    }
+
+    /**
+     * Writes every item in one transaction.
+     */
+    @Override
+    public synchronized void writeItemFile() {
+        List<Item> items = getAllItems();
+        transaction(connection -> {
+            for (Item item : items) {
+                upsertItem(connection, item);
+            }
+            return null;
+        }, "writing items");
+    }
+
+    /**
+     * Writes the users of a batch in one transaction.
+     */
+    @Override
+    void persistAddedUsers(List<User> added) {
+        transaction(connection -> {
+            for (User user : added) {
+                upsertUser(connection, user);
+            }
+            return null;
+        }, "writing users");
+    }
+
+    /**
+     * Writes the items of a batch, or deletes the removed ones, in one transaction.
+     */
+    @Override
+    void persistItems(List<Item> batch) {
+        transaction(connection -> {
+            for (Item item : batch) {
+                if (hasItem(item.getItemKey())) {
+                    upsertItem(connection, item);
+                } else {
+                    delete(connection, "DELETE FROM items WHERE item_id = ?", item.getItemId());
+                }
+            }
+            return null;
+        }, "writing items");
+    }
+
+    /**
+     * Nothing to write: every rating updates its seller's row as it is added.
+     */
+    @Override
+    public synchronized void writeRatingsFile() {
+    }
+
+    /**
+     * Rows are written through as they change, so write-behind does not apply.
+     */
+    @Override
+    public synchronized void enableWriteBehind(long maxStalenessMillis, int maxPendingWrites) {
+    }
+
+    /**
+     * Writes one user's row, or deletes it if the user was removed.
+     */
+    @Override
+    void persistUser(User user) {
+        boolean exists = hasUser(user.getUserKey());
+        query(connection -> {
+            if (exists) {
+                upsertUser(connection, user);
+            } else {
+                delete(connection, "DELETE FROM users WHERE user_id = ?", user.getUserId());
+            }
+            return null;
+        }, null, "writing user");
+    }
+
+    /**
+     * Writes one item's row, or deletes it if the item was removed.
+     */
+    @Override
+    void persistItem(Item item) {
+        boolean exists = hasItem(item.getItemKey());
+        query(connection -> {
+            if (exists) {
+                upsertItem(connection, item);
+            } else {
+                delete(connection, "DELETE FROM items WHERE item_id = ?", item.getItemId());
+            }
+            return null;
+        }, null, "writing item");
+    }
+
+    /**
+     * Inserts a message and records the conversation's latest activity in one transaction.
+     */
+    @Override
+    boolean persistMessage(String buyerId, String sellerId, Message message) {
+        ConversationKey key = new ConversationKey(buyerId, sellerId);
+        Boolean stored = transaction(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(INSERT_MESSAGE)) {
+                statement.setString(1, message.getMessageId());
+                statement.setLong(2, messageSeq.incrementAndGet());
+                statement.setString(3, key.getFirst());
+                statement.setString(4, key.getSecond());
+                statement.setString(5, buyerId);
+                statement.setString(6, sellerId);
+                statement.setString(7, message.getSenderId());
+                statement.setString(8, message.getReceiverId());
+                statement.setString(9, message.getContent());
+                statement.setLong(10, message.getTimestamp());
+                statement.setBoolean(11, message.isRead());
+                statement.executeUpdate();
+            }
+            int touched;
+            try (PreparedStatement statement = connection.prepareStatement(TOUCH_CONVERSATION)) {
+                statement.setLong(1, message.getTimestamp());
+                statement.setLong(2, message.getTimestamp());
+                statement.setString(3, buyerId);
+                statement.setString(4, sellerId);
+                touched = statement.executeUpdate();
+            }
+            if (touched == 0) {
+                try (PreparedStatement statement = connection.prepareStatement(INSERT_CONVERSATION)) {
+                    statement.setString(1, buyerId);
+                    statement.setString(2, sellerId);
+                    statement.setLong(3, message.getTimestamp());
+                    statement.executeUpdate();
+                }
+            }
+            return true;
+        }, "storing message");
+        return stored != null;
+    }
+
+    /**
+     * Reads every message between two users through the pair index.
+     */
+    @Override
+    List<Message> loadConversation(ConversationKey key) {
+        return query(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(MESSAGE_COLUMNS
+                    + " WHERE user_low = ? AND user_high = ? ORDER BY created, seq")) {
+                statement.setString(1, key.getFirst());
+                statement.setString(2, key.getSecond());
+                return readMessages(statement);
+            }
+        }, new ArrayList<>(), "reading messages");
+    }
+
+    /**
+     * Reads one page of a conversation with a range scan of the pair index.
+     */
+    @Override
+    List<Message> readMessagePage(ConversationKey key, long since, long before, int limit) {
+        // With a limit the newest messages are kept, unless only since is given
+        boolean newest = limit > 0 && !(since > 0 && before <= 0);
+        StringBuilder sql = new StringBuilder(MESSAGE_COLUMNS).append(" WHERE user_low = ? AND user_high = ?");
+        if (since > 0) {
+            sql.append(" AND created > ?");
+        }
+        if (before > 0) {
+            sql.append(" AND created < ?");
+        }
+        sql.append(newest ? " ORDER BY created DESC, seq DESC" : " ORDER BY created, seq");
+
+        return query(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(sql.toString())) {
+                int index = 1;
+                statement.setString(index++, key.getFirst());
+                statement.setString(index++, key.getSecond());
+                if (since > 0) {
+                    statement.setLong(index++, since);
+                }
+                if (before > 0) {
+                    statement.setLong(index, before);
+                }
+                if (limit > 0) {
+                    statement.setMaxRows(limit);
+                }
+                List<Message> page = readMessages(statement);
+                if (newest) {
+                    Collections.reverse(page);
+                }
+                return page;
+            }
+        }, new ArrayList<>(), "reading messages");
+    }
+
+    /**
+     * Gets messages sent in one buyer/seller conversation.
+     */
+    @Override
+    public List<Message> getMessagesBetweenBuyerAndSeller(String buyerId, String sellerId) {
+        return query(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(MESSAGE_COLUMNS
+                    + " WHERE user_low = ? AND user_high = ? AND buyer_id = ? AND seller_id = ?"
+                    + " ORDER BY created, seq")) {
+                ConversationKey key = new ConversationKey(buyerId, sellerId);
+                statement.setString(1, key.getFirst());
+                statement.setString(2, key.getSecond());
+                statement.setString(3, buyerId);
+                statement.setString(4, sellerId);
+                return readMessages(statement);
+            }
+        }, new ArrayList<>(), "reading messages");
+    }
+
+    /**
+     * Gets all users a person is buying from and selling to, most recently active first.
+     */
+    @Override
+    public Map<String, List<String>> getUserRoleBasedConversations(String userId) {
+        Map<String, List<String>> result = new HashMap<>();
+        result.put("buyingFrom", partners("SELECT seller_id FROM conversations WHERE buyer_id = ?"
+                + " ORDER BY last_activity DESC", userId));
+        result.put("sellingTo", partners("SELECT buyer_id FROM conversations WHERE seller_id = ?"
+                + " ORDER BY last_activity DESC", userId));
+        return result;
+    }
+
+    /**
+     * Gets all conversation partners regardless of role, most recently active first.
+     */
+    @Override
+    public List<String> getAllConversationPartners(String userId) {
+        List<String> partners = partners("SELECT seller_id, last_activity FROM conversations WHERE buyer_id = ?"
+                + " UNION ALL SELECT buyer_id, last_activity FROM conversations WHERE seller_id = ?"
+                + " ORDER BY 2 DESC", userId, userId);
+        return new ArrayList<>(new LinkedHashSet<>(partners));
+    }
+
+    /**
+     * Gets the number of conversations.
+     */
+    @Override
+    public int getConversationCount() {
+        return count("SELECT COUNT(*) FROM conversations");
+    }
+
+    /**
+     * Deletes a removed user's conversations, messages and ratings in one
+     * transaction. The user's own row is deleted by persistUser.
+     */
+    @Override
+    void removeStoredUserData(String userId) {
+        transaction(connection -> {
+            List<ConversationKey> pairs = new ArrayList<>();
+            try (PreparedStatement statement = connection.prepareStatement(
+                    "SELECT buyer_id, seller_id FROM conversations WHERE buyer_id = ? OR seller_id = ?")) {
+                statement.setString(1, userId);
+                statement.setString(2, userId);
+                try (ResultSet rows = statement.executeQuery()) {
+                    while (rows.next()) {
+                        pairs.add(new ConversationKey(rows.getString(1), rows.getString(2)));
+                    }
+                }
+            }
+            try (PreparedStatement statement = connection.prepareStatement(
+                    "DELETE FROM messages WHERE user_low = ? AND user_high = ?")) {
+                for (ConversationKey pair : pairs) {
+                    statement.setString(1, pair.getFirst());
+                    statement.setString(2, pair.getSecond());
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+            }
+            try (PreparedStatement statement = connection.prepareStatement(
+                    "DELETE FROM conversations WHERE buyer_id = ? OR seller_id = ?")) {
+                statement.setString(1, userId);
+                statement.setString(2, userId);
+                statement.executeUpdate();
+            }
+            delete(connection, "DELETE FROM ratings WHERE seller_id = ?", userId);
+            delete(connection, "DELETE FROM seller_ratings WHERE seller_id = ?", userId);
+            return null;
+        }, "deleting user data");
+    }
+
+    /**
+     * Records a rating and updates the seller's aggregate row in one transaction.
+     */
+    @Override
+    boolean persistRating(String sellerId, double rating) {
+        int stars = SellerRatings.Aggregate.starsOf(rating);
+        String starsColumn = "stars_" + stars;
+        Boolean added = transaction(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(
+                    "INSERT INTO ratings (seller_id, rating, created) VALUES (?, ?, ?)")) {
+                statement.setString(1, sellerId);
+                statement.setDouble(2, rating);
+                statement.setLong(3, System.currentTimeMillis());
+                statement.executeUpdate();
+            }
+            int updated;
+            try (PreparedStatement statement = connection.prepareStatement("UPDATE seller_ratings SET"
+                    + " rating_count = rating_count + 1, rating_sum = rating_sum + ?, "
+                    + starsColumn + " = " + starsColumn + " + 1 WHERE seller_id = ?")) {
+                statement.setDouble(1, rating);
+                statement.setString(2, sellerId);
+                updated = statement.executeUpdate();
+            }
+            if (updated == 0) {
+                try (PreparedStatement statement = connection.prepareStatement("INSERT INTO seller_ratings"
+                        + " (seller_id, rating_count, rating_sum, stars_1, stars_2, stars_3, stars_4, stars_5)"
+                        + " VALUES (?, 1, ?, ?, ?, ?, ?, ?)")) {
+                    statement.setString(1, sellerId);
+                    statement.setDouble(2, rating);
+                    for (int i = 1; i <= 5; i++) {
+                        statement.setInt(2 + i, i == stars ? 1 : 0);
+                    }
+                    statement.executeUpdate();
+                }
+            }
+            return true;
+        }, "adding rating");
+        return added != null;
+    }
+
+    /**
+     * Gets a seller's average rating from their aggregate row.
+     */
+    @Override
+    public double getSellerRating(String sellerId) {
+        return getSellerRatingAggregate(sellerId).getAverage();
+    }
+
+    /**
+     * Gets the number of ratings a seller has received.
+     */
+    @Override
+    public int getSellerRatingCount(String sellerId) {
+        return getSellerRatingAggregate(sellerId).getCount();
+    }
+
+    /**
+     * Gets a seller's rating count, sum and star histogram with one primary key lookup.
+     */
+    @Override
+    public SellerRatings.Aggregate getSellerRatingAggregate(String sellerId) {
+        SellerRatings.Aggregate empty = SellerRatings.Aggregate.of(0, 0.0, new int[5]);
+        return query(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(SELECT_RATING)) {
+                statement.setString(1, sellerId);
+                try (ResultSet rows = statement.executeQuery()) {
+                    if (!rows.next()) {
+                        return empty;
+                    }
+                    int[] histogram = new int[5];
+                    for (int i = 0; i < histogram.length; i++) {
+                        histogram[i] = rows.getInt(3 + i);
+                    }
+                    return SellerRatings.Aggregate.of(rows.getInt(1), rows.getDouble(2), histogram);
+                }
+            }
+        }, empty, "reading rating");
+    }
+
+    /**
+     * Gets the number of sellers with ratings.
+     */
+    @Override
+    public int getRatedSellerCount() {
+        return count("SELECT COUNT(*) FROM seller_ratings");
+    }
+
+    /**
+     * Closes the file resources of the base class and every pooled connection.
+     */
+    @Override
+    public void close() {
+        super.close();
+        pool.close();
+    }
+
+    private void upsertUser(Connection connection, User user) throws SQLException {
+        if (!upsert(connection, UPDATE_USER, INSERT_USER, user.getUsername(), user.getPassword(), user.getBio(),
+                user.getBalance(), user.getUserId())) {
+            throw new SQLException("User row not written: " + user.getUserId());
+        }
+    }
+
+    private void upsertItem(Connection connection, Item item) throws SQLException {
+        if (!upsert(connection, UPDATE_ITEM, INSERT_ITEM, item.getSellerId(), item.getTitle(), item.getDescription(),
+                item.getCategory(), item.getPrice(), item.isSold(), item.isSold() ? item.getBuyerId() : null,
+                item.getItemId())) {
+            throw new SQLException("Item row not written: " + item.getItemId());
+        }
+    }
+
+    /**
+     * Updates a row, inserting it when the update matched nothing. Both
+     * statements take the same parameters, with the key last.
+     */
+    private static boolean upsert(Connection connection, String update, String insert, Object... values)
+            throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(update)) {
+            bind(statement, values);
+            if (statement.executeUpdate() > 0) {
+                return true;
+            }
+        }
+        try (PreparedStatement statement = connection.prepareStatement(insert)) {
+            bind(statement, values);
+            return statement.executeUpdate() > 0;
+        }
+    }
+
+    private static void bind(PreparedStatement statement, Object... values) throws SQLException {
+        for (int i = 0; i < values.length; i++) {
+            statement.setObject(i + 1, values[i]);
+        }
+    }
+
+    private static void delete(Connection connection, String sql, String key) throws SQLException {
+        try (PreparedStatement statement = connection.prepareStatement(sql)) {
+            statement.setString(1, key);
+            statement.executeUpdate();
+        }
+    }
+
+    private static List<Message> readMessages(PreparedStatement statement) throws SQLException {
+        List<Message> messages = new ArrayList<>();
+        try (ResultSet rows = statement.executeQuery()) {
+            while (rows.next()) {
+                messages.add(new Message(rows.getString(1), rows.getString(2), rows.getString(3),
+                        rows.getString(4), rows.getLong(5), rows.getBoolean(6)));
+            }
+        }
+        return messages;
+    }
+
+    private List<String> partners(String sql, String... keys) {
+        return query(connection -> {
+            List<String> partners = new ArrayList<>();
+            try (PreparedStatement statement = connection.prepareStatement(sql)) {
+                for (int i = 0; i < keys.length; i++) {
+                    statement.setString(i + 1, keys[i]);
+                }
+                try (ResultSet rows = statement.executeQuery()) {
+                    while (rows.next()) {
+                        partners.add(rows.getString(1));
+                    }
+                }
+            }
+            return partners;
+        }, new ArrayList<>(), "reading conversations");
+    }
+
+    private int count(String sql) {
+        return query(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(sql);
+                 ResultSet rows = statement.executeQuery()) {
+                return rows.next() ? rows.getInt(1) : 0;
+            }
+        }, 0, "counting rows");
+    }
+
+    /**
+     * Runs work on a pooled connection in auto-commit mode, returning
+     * fallback if it fails.
+     */
+    private <T> T query(SqlWork<T> work, T fallback, String action) {
+        Connection connection = null;
+        try {
+            connection = pool.acquire();
+            return work.run(connection);
+        } catch (SQLException e) {
+            System.err.println("Database error " + action + ": " + e.getMessage());
+            return fallback;
+        } finally {
+            pool.release(connection);
+        }
+    }
+
+    /**
+     * Runs work in one transaction on a pooled connection. Returns null if
+     * it failed and was rolled back.
+     */
+    private <T> T transaction(SqlWork<T> work, String action) {
+        Connection connection = null;
+        try {
+            connection = pool.acquire();
+            connection.setAutoCommit(false);
+            T result = work.run(connection);
+            connection.commit();
+            return result;
+        } catch (SQLException e) {
+            System.err.println("Database error " + action + ": " + e.getMessage());
+            return null;
+        } finally {
+            // The pool rolls back a connection released inside an unfinished transaction
+            pool.release(connection);
+        }
+    }
+}
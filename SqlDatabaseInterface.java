@@ -0,0 +1,7 @@
+/**
+ * Interface for the SqlDatabase class
+ */
+public interface SqlDatabaseInterface extends DatabaseInterface {
+    void createSchema();
+    ConnectionPool getConnectionPool();
+}
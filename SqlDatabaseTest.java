@@ -0,0 +1,113 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.List;
+
+/**
+ * Tests for the SQL storage backend, run against an in-memory H2 database.
+ * They are skipped when the H2 driver is not on the classpath.
+ */
+public class SqlDatabaseTest {
+	private static int databases = 0;
+
+	private String url() {
+		try {
+			DriverManager.getDriver("jdbc:h2:mem:");
+		} catch (SQLException e) {
+			return null;
+		}
+		// DB_CLOSE_DELAY keeps the database alive between pooled connections
+		return "jdbc:h2:mem:sqldatabasetest" + (databases++) + ";DB_CLOSE_DELAY=-1";
+	}
+
+	/** Tests that users, items and sales survive a reload from SQL. */
+	@Test
+	public void testUsersAndItemsReload() {
+		String url = url();
+		if (url == null) {
+			return;
+		}
+		SqlDatabase database = new SqlDatabase(new ConnectionPool(url, 2, 1000));
+		database.addUser("sqlseller", "sellerPass", "Sells lamps.");
+		database.addUser("sqlbuyer", "buyerPass", "Buys lamps.");
+		String sellerId = database.getUserByUsername("sqlseller").getUserId();
+		String buyerId = database.getUserByUsername("sqlbuyer").getUserId();
+		Item lamp = new Item(sellerId, "Lamp", "Desk lamp", "Home", 20.0);
+		Item rug = new Item(sellerId, "Rug", "Wool rug", "Home", 45.0);
+		database.addItem(lamp);
+		database.addItem(rug);
+		lamp.markAsSold(buyerId);
+		database.markItemDirty(lamp);
+		database.removeItem(rug.getItemId(), sellerId);
+
+		SqlDatabase reloaded = new SqlDatabase(new ConnectionPool(url, 2, 1000));
+		reloaded.readItemFile();
+		reloaded.readUserFile();
+		assertEquals(2, reloaded.getAllUsers().size());
+		assertEquals(1, reloaded.getAllItems().size());
+		assertEquals(buyerId, reloaded.getItemById(lamp.getItemId()).getBuyerId());
+		assertEquals(1, reloaded.getItemsByBuyer(buyerId).size());
+		database.close();
+		reloaded.close();
+	}
+
+	/** Tests that messages are paged by time and conversations are listed by role. */
+	@Test
+	public void testMessagesAndConversations() {
+		String url = url();
+		if (url == null) {
+			return;
+		}
+		SqlDatabase database = new SqlDatabase(new ConnectionPool(url, 2, 1000));
+		database.addUser("sqlalice", "alicePass", "Buys.");
+		database.addUser("sqlbob", "bobPass", "Sells.");
+		String alice = database.getUserByUsername("sqlalice").getUserId();
+		String bob = database.getUserByUsername("sqlbob").getUserId();
+		for (int i = 1; i <= 6; i++) {
+			database.addMessage(new Message(alice, bob, "offer " + i, i * 1000, false));
+		}
+
+		SqlDatabase reloaded = new SqlDatabase(new ConnectionPool(url, 2, 1000));
+		List<Message> page = reloaded.getMessagesBetweenUsers(bob, alice, 0, 5000, 2);
+		assertEquals(2, page.size());
+		assertEquals("offer 3", page.get(0).getContent());
+		assertEquals("offer 4", page.get(1).getContent());
+		assertEquals(6, reloaded.getMessagesBetweenUsers(alice, bob).size());
+		assertEquals(bob, reloaded.getUserRoleBasedConversations(alice).get("buyingFrom").get(0));
+		assertEquals(alice, reloaded.getAllConversationPartners(bob).get(0));
+		assertEquals(1, reloaded.getConversationCount());
+		database.close();
+		reloaded.close();
+	}
+
+	/** Tests that ratings are aggregated and removed with their seller. */
+	@Test
+	public void testRatingsAndDeleteUser() throws InterruptedException {
+		String url = url();
+		if (url == null) {
+			return;
+		}
+		SqlDatabase database = new SqlDatabase(new ConnectionPool(url, 2, 1000));
+		database.addUser("sqlrated", "ratedPass", "Gets rated.");
+		database.addUser("sqlrater", "raterPass", "Rates.");
+		String sellerId = database.getUserByUsername("sqlrated").getUserId();
+		String raterId = database.getUserByUsername("sqlrater").getUserId();
+		assertTrue(database.addSellerRating(sellerId, 5.0));
+		assertTrue(database.addSellerRating(sellerId, 4.0));
+		assertFalse(database.addSellerRating(sellerId, 7.0));
+		assertEquals(4.5, database.getSellerRating(sellerId), 0.0001);
+		assertEquals(1, database.getSellerRatingAggregate(sellerId).getStars(4));
+		database.addMessage(new Message(raterId, sellerId, "thanks", 1000, false));
+
+		assertTrue(database.deleteUser("sqlrated"));
+		assertTrue(database.awaitAccountDeletions(10000));
+		assertEquals(0, database.getSellerRatingCount(sellerId));
+		assertEquals(0, database.getConversationCount());
+		SqlDatabase reloaded = new SqlDatabase(new ConnectionPool(url, 2, 1000));
+		reloaded.readUserFile();
+		assertEquals(1, reloaded.getAllUsers().size());
+		database.close();
+		reloaded.close();
+	}
+}
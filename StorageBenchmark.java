@@ -0,0 +1,180 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Runs the same marketplace workload against the file backend, the LSM
+ * backend and the SQL backend and prints the throughput of each phase side
+ * by side.
+ *
+ * Usage: java StorageBenchmark [users] [itemsPerUser] [messages] [jdbcUrl]
+ *
+ * The file backend writes its data files into the working directory, so run
+ * this from an empty directory holding only copies of stopword.txt and
+ * special_characters.txt; it refuses to start next to existing data.
+ * The SQL backend needs the JDBC driver for jdbcUrl on the classpath.
+ */
+public class StorageBenchmark {
+    private static final String LSM_DIR = "benchmark-lsm";
+    private static final String[] DATA_FILES = {
+        Database.USER_FILE, Database.ITEM_FILE, "ratings.txt", "conversations.idx", Database.MESSAGE_LOG_DIR, LSM_DIR
+    };
+
+    private final int users;
+    private final int itemsPerUser;
+    private final int messages;
+
+    /**
+     * Creates a benchmark of the given size.
+     */
+    public StorageBenchmark(int users, int itemsPerUser, int messages) {
+        this.users = users;
+        this.itemsPerUser = itemsPerUser;
+        this.messages = messages;
+    }
+
+    /**
+     * Runs the workload and returns operations per second for each phase, in order.
+     */
+    public Map<String, Double> run(DatabaseInterface database) {
+        Map<String, Double> results = new LinkedHashMap<>();
+        Random random = new Random(42);
+
+        long start = System.nanoTime();
+        List<String> userIds = new ArrayList<>();
+        for (int i = 0; i < users; i++) {
+            database.addUser("user" + i, "password" + i, "Benchmark user " + i);
+            userIds.add(database.getUserByUsername("user" + i).getUserId());
+        }
+        results.put("addUser", rate(users, start));
+
+        start = System.nanoTime();
+        List<Item> items = new ArrayList<>();
+        for (String sellerId : userIds) {
+            for (int i = 0; i < itemsPerUser; i++) {
+                Item item = new Item(sellerId, "Item " + i, "Benchmark item " + i, "Other", 1 + random.nextInt(500));
+                database.addItem(item);
+                items.add(item);
+            }
+        }
+        results.put("addItem", rate(items.size(), start));
+
+        start = System.nanoTime();
+        int purchases = items.size() / 4;
+        for (int i = 0; i < purchases; i++) {
+            Item item = items.get(i * 4);
+            String buyerId = userIds.get(random.nextInt(userIds.size()));
+            User buyer = database.getUserById(buyerId);
+            item.markAsSold(buyerId);
+            database.markItemSold(item);
+            database.markUserDirty(buyer);
+        }
+        results.put("purchase", rate(purchases, start));
+
+        start = System.nanoTime();
+        for (int i = 0; i < messages; i++) {
+            String sender = userIds.get(random.nextInt(userIds.size()));
+            String receiver = userIds.get(random.nextInt(userIds.size()));
+            database.addMessage(new Message(sender, receiver, "Message " + i, i + 1, false));
+        }
+        results.put("sendMessage", rate(messages, start));
+
+        start = System.nanoTime();
+        int pages = Math.max(1, messages / 10);
+        for (int i = 0; i < pages; i++) {
+            String first = userIds.get(random.nextInt(userIds.size()));
+            String second = userIds.get(random.nextInt(userIds.size()));
+            database.getMessagesBetweenUsers(first, second, 0, 0, 50);
+        }
+        results.put("messagePage", rate(pages, start));
+
+        start = System.nanoTime();
+        for (int i = 0; i < users; i++) {
+            database.addSellerRating(userIds.get(random.nextInt(userIds.size())), 1 + random.nextInt(5));
+        }
+        results.put("addRating", rate(users, start));
+
+        start = System.nanoTime();
+        for (int i = 0; i < users * 10; i++) {
+            database.getSellerRating(userIds.get(random.nextInt(userIds.size())));
+        }
+        results.put("getRating", rate(users * 10, start));
+
+        database.flush();
+        return results;
+    }
+
+    private static double rate(int operations, long startNanos) {
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        return seconds > 0 ? operations / seconds : 0;
+    }
+
+    /**
+     * Deletes the data files a run left behind; main checked they did not exist before.
+     */
+    private static void deleteData() {
+        for (String name : DATA_FILES) {
+            delete(new File(name));
+        }
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    /**
+     * Runs every backend and prints a comparison table.
+     */
+    public static void main(String[] args) {
+        int users = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int itemsPerUser = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        int messages = args.length > 2 ? Integer.parseInt(args[2]) : 5000;
+        String jdbcUrl = args.length > 3 ? args[3] : "jdbc:h2:./benchmark";
+
+        for (String name : DATA_FILES) {
+            if (new File(name).exists()) {
+                System.err.println("Refusing to run next to existing data (" + name + "); use an empty directory.");
+                return;
+            }
+        }
+
+        StorageBenchmark benchmark = new StorageBenchmark(users, itemsPerUser, messages);
+
+        Database files = new Database();
+        files.enableWriteBehind(1000, 500);
+        Map<String, Double> fileResults = benchmark.run(files);
+        files.close();
+        deleteData(); // the LSM backend shares the message and rating files
+
+        LsmDatabase lsm;
+        try {
+            lsm = new LsmDatabase(new LsmStore(LSM_DIR));
+        } catch (IOException e) {
+            System.err.println("Error opening LSM store: " + e.getMessage());
+            return;
+        }
+        Map<String, Double> lsmResults = benchmark.run(lsm);
+        lsm.close();
+        deleteData();
+
+        SqlDatabase sql = new SqlDatabase(new ConnectionPool(jdbcUrl, 8, 5000));
+        Map<String, Double> sqlResults = benchmark.run(sql);
+        sql.close();
+
+        System.out.printf("%-12s %14s %14s %14s%n", "phase", "files ops/s", "lsm ops/s", "sql ops/s");
+        for (String phase : fileResults.keySet()) {
+            System.out.printf("%-12s %14.0f %14.0f %14.0f%n", phase, fileResults.get(phase),
+                    lsmResults.get(phase), sqlResults.get(phase));
+        }
+    }
+}
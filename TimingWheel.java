@@ -0,0 +1,160 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hierarchical hashed timing wheel. Time is cut into ticks of tickMillis,
+ * and each of the six levels has 64 slots: a slot on level 0 holds the
+ * values due in one tick, a slot on level 1 those due in a span of 64
+ * ticks, and so on, so every deadline up to 64^6 ticks ahead has a slot.
+ *
+ * Scheduling puts a value in one slot in O(1). As time advances, the level
+ * 0 slot of each tick is emptied, and when a tick starts a new span on a
+ * higher level, that span's slot is spread over the levels below it. A
+ * value therefore moves at most five times before it is due, and no pass
+ * ever looks at values that are not due yet.
+ *
+ * There is no cancel: callers check whether a due value still applies.
+ */
+public class TimingWheel<T> implements TimingWheelInterface<T> {
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int LEVELS = 6;
+
+    private final long tickMillis;
+    private final List<Entry<T>>[][] wheels;
+    private List<Entry<T>> due;   // scheduled at or before the current tick
+    private long tick;            // every value due by this tick has been returned
+    private int size;
+
+    /**
+     * Creates an empty wheel of ticks of tickMillis, starting at nowMillis.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public TimingWheel(long tickMillis, long nowMillis) {
+        if (tickMillis <= 0) {
+            throw new IllegalArgumentException("tickMillis must be positive");
+        }
+        this.tickMillis = tickMillis;
+        this.wheels = new List[LEVELS][SLOTS];
+        this.due = new ArrayList<>();
+        this.tick = Math.floorDiv(nowMillis, tickMillis);
+        this.size = 0;
+    }
+
+    /**
+     * Schedules a value to be returned by the first advance to a time at or
+     * after deadlineMillis, rounded up to a whole tick.
+     */
+    @Override
+    public synchronized void schedule(T value, long deadlineMillis) {
+        long deadlineTick = -Math.floorDiv(-deadlineMillis, tickMillis);
+        place(new Entry<>(value, deadlineTick));
+        size++;
+    }
+
+    /**
+     * Advances the wheel to nowMillis and returns every value due by then,
+     * in deadline order apart from values that were already overdue.
+     */
+    @Override
+    public synchronized List<T> advance(long nowMillis) {
+        long target = Math.floorDiv(nowMillis, tickMillis);
+        List<T> result = new ArrayList<>();
+        collect(due, result);
+        due = new ArrayList<>();
+        while (tick < target) {
+            if (size == result.size()) {
+                tick = target; // nothing left on the wheel
+                break;
+            }
+            tick++;
+            // Spread the spans starting at this tick over the levels below, highest first
+            for (int level = LEVELS - 1; level > 0; level--) {
+                if ((tick & ((1L << (SLOT_BITS * level)) - 1)) == 0) {
+                    List<Entry<T>> span = take(level, slotOf(tick, level));
+                    if (span != null) {
+                        for (Entry<T> entry : span) {
+                            place(entry);
+                        }
+                    }
+                }
+            }
+            collect(take(0, slotOf(tick, 0)), result);
+            collect(due, result);
+            due.clear();
+        }
+        size -= result.size();
+        return result;
+    }
+
+    // Puts an entry in the slot for its deadline relative to the current tick
+    private void place(Entry<T> entry) {
+        long delta = entry.deadlineTick - tick;
+        if (delta <= 0) {
+            due.add(entry);
+            return;
+        }
+        int level = 0;
+        while (level < LEVELS - 1 && delta >= 1L << (SLOT_BITS * (level + 1))) {
+            level++;
+        }
+        int slot;
+        if (delta >= 1L << (SLOT_BITS * LEVELS)) {
+            // Beyond the top level: park in its farthest slot and place again when it comes round
+            slot = (slotOf(tick, LEVELS - 1) + SLOTS - 1) & (SLOTS - 1);
+        } else {
+            slot = slotOf(entry.deadlineTick, level);
+        }
+        List<Entry<T>> entries = wheels[level][slot];
+        if (entries == null) {
+            entries = new ArrayList<>();
+            wheels[level][slot] = entries;
+        }
+        entries.add(entry);
+    }
+
+    private List<Entry<T>> take(int level, int slot) {
+        List<Entry<T>> entries = wheels[level][slot];
+        wheels[level][slot] = null;
+        return entries;
+    }
+
+    private static int slotOf(long tick, int level) {
+        return (int) ((tick >>> (SLOT_BITS * level)) & (SLOTS - 1));
+    }
+
+    private static <T> void collect(List<Entry<T>> entries, List<T> result) {
+        if (entries != null) {
+            for (Entry<T> entry : entries) {
+                result.add(entry.value);
+            }
+        }
+    }
+
+    /**
+     * Gets the number of values scheduled and not yet returned.
+     */
+    @Override
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Gets the length of a tick.
+     */
+    @Override
+    public long getTickMillis() {
+        return tickMillis;
+    }
+
+    // A scheduled value and the tick it is due at
+    private static class Entry<T> {
+        final T value;
+        final long deadlineTick;
+
+        Entry(T value, long deadlineTick) {
+            this.value = value;
+            this.deadlineTick = deadlineTick;
+        }
+    }
+}
@@ -0,0 +1,11 @@
+import java.util.List;
+
+/**
+ * Interface for the TimingWheel class
+ */
+public interface TimingWheelInterface<T> {
+    void schedule(T value, long deadlineMillis);
+    List<T> advance(long nowMillis);
+    int size();
+    long getTickMillis();
+}
@@ -0,0 +1,60 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests for the hierarchical timing wheel
+ */
+public class TimingWheelTest {
+
+	/** Tests that values come out once, at the first advance past their deadline, in deadline order. */
+	@Test
+	public void testReturnsValuesWhenDue() {
+		TimingWheel<String> wheel = new TimingWheel<>(10, 1000);
+		wheel.schedule("late", 1000 + 10 * 64 * 64 + 5);
+		wheel.schedule("soon", 1025);
+		wheel.schedule("middle", 1000 + 10 * 100);
+		wheel.schedule("overdue", 500);
+		assertEquals(4, wheel.size());
+
+		assertEquals(Arrays.asList("overdue"), wheel.advance(1000));
+		assertTrue(wheel.advance(1020).isEmpty());
+		assertEquals(Arrays.asList("soon"), wheel.advance(1030));
+		assertEquals(Arrays.asList("middle"), wheel.advance(1000 + 10 * 64 * 64));
+		assertEquals(1, wheel.size());
+		assertTrue(wheel.advance(1000 + 10 * 64 * 64 + 9).isEmpty());
+		assertEquals(Arrays.asList("late"), wheel.advance(1000 + 10 * 64 * 64 + 10));
+		assertEquals(0, wheel.size());
+	}
+
+	/** Tests that every deadline across the levels is met exactly, whatever the step size. */
+	@Test
+	public void testCascadesAcrossLevels() {
+		TimingWheel<Long> wheel = new TimingWheel<>(1, 0);
+		List<Long> deadlines = new ArrayList<>();
+		for (long deadline = 1; deadline < 64L * 64 * 64 * 2; deadline = deadline * 3 + 1) {
+			deadlines.add(deadline);
+			wheel.schedule(deadline, deadline);
+		}
+		List<Long> seen = new ArrayList<>();
+		for (long now = 0; wheel.size() > 0; now += 7) {
+			for (Long due : wheel.advance(now)) {
+				assertTrue(due <= now && due > now - 7);
+				seen.add(due);
+			}
+		}
+		assertEquals(deadlines, seen);
+	}
+
+	/** Tests that an empty wheel jumps straight to the new time. */
+	@Test
+	public void testIdleWheelSkipsAhead() {
+		TimingWheel<String> wheel = new TimingWheel<>(1, 0);
+		assertTrue(wheel.advance(1L << 40).isEmpty());
+		wheel.schedule("next", (1L << 40) + 100);
+		assertTrue(wheel.advance((1L << 40) + 99).isEmpty());
+		assertEquals(Arrays.asList("next"), wheel.advance((1L << 40) + 100));
+	}
+}
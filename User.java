@@ -1,21 +1,20 @@
 import javax.xml.crypto.Data;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.stream.Collectors;
 /**
  * User class for creating user instances.
+ * A user's listings, purchases and sales are read from the database's item
+ * indexes rather than kept here, so they cannot drift from the items, and
+ * the view methods return snapshots that never change underneath a reader.
  * @author Rayaan Grewal
  * @version April 6th, 2024
  */
 public class User implements UserInterface {
-    private String userId;
+    private CompactId userId; // kept compact; getUserId() makes the string
     private String username;
     private String password;
     private String bio;
     private double balance;
-    private ArrayList<Item> activeListings;
-    private ArrayList<Item> purchaseHistory;
-    private ArrayList<Item> soldItems;
     private Database database;
 
 
@@ -25,30 +24,23 @@ public class User implements UserInterface {
     public User(String username, String password, String bio, Database database) {
         // Initialize user with username, password, bio
         // Set initial balance to zero
-        // Create empty lists for listings, purchases, and sales
         this.username = username;
         this.password = password;
         this.bio = bio;
         this.balance = 0;
-        this.soldItems = new ArrayList<Item>();
-        this.purchaseHistory = new ArrayList<Item>();
-        this.activeListings = new ArrayList<Item>();
-        this.userId = java.util.UUID.randomUUID().toString();
+        this.userId = IdGenerator.DEFAULT.next();
         this.database = database;
 
     }
 
 
     //Another Constructor to fill the user information.
-    public User(String username, String password, String bio, double balance, ArrayList<Item> activeListings, ArrayList<Item> purchaseHistory, ArrayList<Item> soldItems, String existingUserId, Database database) {
+    public User(String username, String password, String bio, double balance, String existingUserId, Database database) {
         this.username = username;
         this.password = password;
         this.bio = bio;
         this.balance = balance;
-        this.activeListings = activeListings !=null ? activeListings : new ArrayList<>();
-        this.purchaseHistory = purchaseHistory != null ? purchaseHistory : new ArrayList<>();
-        this.soldItems = soldItems != null ? soldItems : new ArrayList<>();
-        this.userId = existingUserId !=null ? existingUserId : java.util.UUID.randomUUID().toString();
+        this.userId = existingUserId !=null ? CompactId.of(existingUserId) : IdGenerator.DEFAULT.next();
         this.database = database;
 
     }
@@ -67,6 +59,14 @@ public class User implements UserInterface {
      */
     @Override
     public String getUserId() {
+        return userId.toString();
+    }
+
+    /**
+     * Gets the user's identifier in its compact form, as used for map keys.
+     */
+    @Override
+    public CompactId getUserKey() {
         return userId;
     }
 
@@ -118,64 +118,13 @@ public class User implements UserInterface {
         return this.balance;
     }
 
-    /**
-     * Adds a new item to the user's active listings.
-     */
-    @Override
-    public void addListing(Item item) {
-        if (item.getSellerId().equals(this.userId)) {
-            this.activeListings.add(item);
-        }
-    }
-
-    /**
-     * Removes an item from the user's active listings.
-     */
-    @Override
-    public boolean removeListing(String itemId) {
-        // Find and remove item with matching ID
-        // Return success/failure
-        for (int i = 0; i < this.activeListings.size(); ++i) {
-            if (this.activeListings.get(i).getItemId().equals(itemId)){
-                this.activeListings.remove(i);
-                return true;
-            }
-        }
-        return false;
-    }
-
-    /**
-     * Records a purchased item in the user's purchase history.
-     */
-    @Override
-    public void addToPurchaseHistory(Item item) {
-        this.purchaseHistory.add(item);
-    }
-
-    /**
-     * Records a sold item in the user's sold items history.
-     */
-    @Override
-    public void recordItemSold(Item item) {
-        // Remove item from activeListings
-        // Add item to soldItems
-        if (this.activeListings.contains(item)) {
-            int index = this.activeListings.indexOf(item);
-            Item temp = this.activeListings.get(index);
-            this.activeListings.remove(index);
-            this.soldItems.add(temp);
-        }
-    }
-
     /**
      * Dynamically calculates active listings.
      */
     @Override
     public ArrayList<Item> getActiveListings() {
         // Filter items that belong to this user and are not sold
-        return database.getAllItems().stream()
-                .filter(item -> item.getSellerId().equals(this.userId) && !item.isSold())
-                .collect(Collectors.toCollection(ArrayList::new));
+        return new ArrayList<>(database.getActiveListingsBySeller(this.userId));
     }
 
     /**
@@ -184,9 +133,7 @@ public class User implements UserInterface {
     @Override
     public ArrayList<Item> getPurchaseHistory() {
         // Filter items purchased by this user
-        return database.getAllItems().stream()
-                .filter(item -> item.isSold() && item.getBuyerId().equals(this.userId))
-                .collect(Collectors.toCollection(ArrayList::new));
+        return new ArrayList<>(database.getItemsByBuyer(this.userId));
     }
 
     /**
@@ -195,9 +142,7 @@ public class User implements UserInterface {
     @Override
     public ArrayList<Item> getSoldItems() {
         // Get all items from the database that were sold by this user
-        ArrayList<Item> soldItemsList = database.getAllItems().stream()
-                .filter(item -> item.getSellerId().equals(this.userId) && item.isSold())
-                .collect(Collectors.toCollection(ArrayList::new));
+        ArrayList<Item> soldItemsList = new ArrayList<>(database.getSoldItemsBySeller(this.userId));
 
         // Debug information
         System.out.println("User " + this.userId + " (" + this.username + ") has " + soldItemsList.size() + " sold items");
@@ -212,6 +157,31 @@ public class User implements UserInterface {
         return soldItemsList;
     }
 
+    /**
+     * Gets an unmodifiable snapshot of the active listings, without copying.
+     * It can be iterated while other threads list or sell items.
+     */
+    @Override
+    public List<Item> viewActiveListings() {
+        return database.getActiveListingsBySeller(this.userId);
+    }
+
+    /**
+     * Gets an unmodifiable snapshot of the purchase history, without copying.
+     */
+    @Override
+    public List<Item> viewPurchaseHistory() {
+        return database.getItemsByBuyer(this.userId);
+    }
+
+    /**
+     * Gets an unmodifiable snapshot of the sold items, without copying.
+     */
+    @Override
+    public List<Item> viewSoldItems() {
+        return database.getSoldItemsBySeller(this.userId);
+    }
+
     /**
      * Retrieves the user password
      * */
@@ -0,0 +1,196 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * The users a Database keeps in memory, by ID and by username, in least
+ * recently used order. Each user is charged an estimate of the heap it
+ * takes; once the total passes the budget the least recently used users
+ * are evicted, except pinned ones (users with changes not yet written).
+ * With an unlimited budget nothing is evicted and every user stays resident.
+ *
+ * Not thread-safe: the Database calls it under its own lock.
+ */
+public class UserCache implements UserCacheInterface {
+    public static final long UNLIMITED = Long.MAX_VALUE;
+
+    // Rough heap taken by a User apart from its strings: the object, its ID and its map entries
+    private static final int USER_OVERHEAD_BYTES = 160;
+
+    private final Map<CompactId, Entry> byId;        // access order, eldest first
+    private final Map<String, User> byUsername;
+    private final Predicate<CompactId> pinned;        // users the Database has not written yet; never evicted
+    private long budgetBytes;
+    private long residentBytes;
+    private long evictions;
+
+    /**
+     * Creates an empty cache that never evicts a user pinned accepts.
+     */
+    public UserCache(long budgetBytes, Predicate<CompactId> pinned) {
+        this.byId = new LinkedHashMap<>(16, 0.75f, true);
+        this.byUsername = new HashMap<>();
+        this.pinned = pinned;
+        this.budgetBytes = budgetBytes;
+        this.residentBytes = 0;
+        this.evictions = 0;
+    }
+
+    /**
+     * Gets a resident user by ID and marks it as recently used, or returns null.
+     */
+    @Override
+    public User get(CompactId userId) {
+        Entry entry = userId == null ? null : byId.get(userId);
+        return entry == null ? null : entry.user;
+    }
+
+    /**
+     * Gets a resident user by username and marks it as recently used, or returns null.
+     */
+    @Override
+    public User getByUsername(String username) {
+        User user = byUsername.get(username);
+        if (user != null) {
+            byId.get(user.getUserKey());
+        }
+        return user;
+    }
+
+    /**
+     * Checks whether a user with this ID is resident, without touching its order.
+     */
+    @Override
+    public boolean contains(CompactId userId) {
+        return byId.containsKey(userId);
+    }
+
+    /**
+     * Makes a user resident, replacing any resident user with the same ID,
+     * and evicts other users over the budget.
+     */
+    @Override
+    public void put(User user) {
+        Entry entry = new Entry(user, estimateBytes(user));
+        Entry previous = byId.put(user.getUserKey(), entry);
+        if (previous != null) {
+            byUsername.remove(previous.user.getUsername());
+            residentBytes -= previous.bytes;
+        }
+        byUsername.put(user.getUsername(), user);
+        residentBytes += entry.bytes;
+        evict(user);
+    }
+
+    /**
+     * Drops a user from memory.
+     */
+    @Override
+    public void remove(User user) {
+        Entry removed = byId.remove(user.getUserKey());
+        if (removed != null) {
+            byUsername.remove(removed.user.getUsername());
+            residentBytes -= removed.bytes;
+        }
+    }
+
+    /**
+     * Gets every resident user.
+     */
+    @Override
+    public Collection<User> values() {
+        return new ArrayList<>(byUsername.values());
+    }
+
+    /**
+     * Gets the number of resident users.
+     */
+    @Override
+    public int size() {
+        return byId.size();
+    }
+
+    /**
+     * Gets the estimated heap taken by resident users.
+     */
+    @Override
+    public long getResidentBytes() {
+        return residentBytes;
+    }
+
+    /**
+     * Gets the number of users evicted so far.
+     */
+    @Override
+    public long getEvictionCount() {
+        return evictions;
+    }
+
+    /**
+     * Changes the budget and evicts users over it.
+     */
+    @Override
+    public void setBudgetBytes(long budgetBytes) {
+        this.budgetBytes = budgetBytes;
+        evict();
+    }
+
+    /**
+     * Evicts least recently used users that are not pinned until the
+     * resident users fit the budget.
+     */
+    @Override
+    public void evict() {
+        evict(null);
+    }
+
+    // Evicts over the budget, never the user kept
+    private void evict(User kept) {
+        if (residentBytes <= budgetBytes) {
+            return;
+        }
+        List<User> evicted = new ArrayList<>();
+        Iterator<Entry> eldest = byId.values().iterator();
+        while (residentBytes > budgetBytes && eldest.hasNext()) {
+            Entry entry = eldest.next();
+            if (entry.user == kept || pinned.test(entry.user.getUserKey())) {
+                continue;
+            }
+            eldest.remove();
+            residentBytes -= entry.bytes;
+            evicted.add(entry.user);
+        }
+        for (User user : evicted) {
+            byUsername.remove(user.getUsername());
+        }
+        evictions += evicted.size();
+    }
+
+    /**
+     * Estimates the heap a user takes, from the lengths of its strings.
+     */
+    static long estimateBytes(User user) {
+        return USER_OVERHEAD_BYTES + 2L * (length(user.getUsername()) + length(user.getPassword())
+                + length(user.getBio()));
+    }
+
+    private static int length(String value) {
+        return value == null ? 0 : 40 + value.length();
+    }
+
+    // A resident user and the bytes it was charged when it was admitted
+    private static class Entry {
+        final User user;
+        final long bytes;
+
+        Entry(User user, long bytes) {
+            this.user = user;
+            this.bytes = bytes;
+        }
+    }
+}
@@ -0,0 +1,18 @@
+import java.util.Collection;
+
+/**
+ * Interface for the UserCache class
+ */
+public interface UserCacheInterface {
+    User get(CompactId userId);
+    User getByUsername(String username);
+    boolean contains(CompactId userId);
+    void put(User user);
+    void remove(User user);
+    Collection<User> values();
+    int size();
+    long getResidentBytes();
+    long getEvictionCount();
+    void setBudgetBytes(long budgetBytes);
+    void evict();
+}
@@ -0,0 +1,70 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Tests for the bounded user cache
+ */
+public class UserCacheTest {
+
+	/** Tests that the least recently used user is evicted once the budget is passed. */
+	@Test
+	public void testEvictsLeastRecentlyUsed() {
+		Database db = new Database();
+		User alice = new User("alice", "pass", "bio", db);
+		User bob = new User("bob", "pass", "bio", db);
+		User carol = new User("carol", "pass", "bio", db);
+		long oneUser = UserCache.estimateBytes(alice);
+		UserCache cache = new UserCache(2 * oneUser, id -> false);
+
+		cache.put(alice);
+		cache.put(bob);
+		assertSame(alice, cache.getByUsername("alice"));
+		cache.put(carol);
+
+		assertEquals(2, cache.size());
+		assertSame(alice, cache.get(alice.getUserKey()));
+		assertNull(cache.get(bob.getUserKey()));
+		assertNull(cache.getByUsername("bob"));
+		assertSame(carol, cache.getByUsername("carol"));
+		assertEquals(1, cache.getEvictionCount());
+		assertEquals(2 * oneUser, cache.getResidentBytes());
+	}
+
+	/** Tests that pinned users and the user just added are never evicted. */
+	@Test
+	public void testPinnedUsersStay() {
+		Database db = new Database();
+		User alice = new User("alice", "pass", "bio", db);
+		User bob = new User("bob", "pass", "bio", db);
+		Set<CompactId> pinned = new HashSet<>();
+		pinned.add(alice.getUserKey());
+		UserCache cache = new UserCache(1, pinned::contains);
+
+		cache.put(alice);
+		cache.put(bob);
+		assertEquals(2, cache.size());
+
+		pinned.clear();
+		cache.evict();
+		assertEquals(0, cache.size());
+		assertEquals(0, cache.getResidentBytes());
+	}
+
+	/** Tests that an unlimited cache keeps every user and a replaced user is charged once. */
+	@Test
+	public void testUnlimitedKeepsAll() {
+		Database db = new Database();
+		UserCache cache = new UserCache(UserCache.UNLIMITED, id -> false);
+		for (int i = 0; i < 100; i++) {
+			cache.put(new User("user" + i, "pass", "bio", db));
+		}
+		User first = cache.getByUsername("user0");
+		long bytes = cache.getResidentBytes();
+		cache.put(first);
+		assertEquals(100, cache.size());
+		assertEquals(bytes, cache.getResidentBytes());
+		assertEquals(0, cache.getEvictionCount());
+	}
+}
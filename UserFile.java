@@ -0,0 +1,455 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * users.txt with an index file, so single users can be read from disk
+ * instead of every user being kept in memory.
+ *
+ * The index (users.idx) is read through a MappedByteBuffer and holds two
+ * tables sorted by a 64-bit hash, one of user IDs and one of usernames,
+ * each entry pointing at the byte offset of the user's line. Two Bloom
+ * filters, one per table, are kept in memory, so a lookup of an unknown
+ * username or ID (a REGISTER of a new name, a request naming a user that
+ * does not exist) is answered without touching disk.
+ *
+ * Index layout (big-endian):
+ *   header  magic, version, count, unused, length of users.txt it indexes, bloom offset
+ *   tables  count (hash, offset) pairs by ID hash, then count by username hash
+ *   blooms  ID filter length and bytes, then username filter length and bytes
+ *
+ * An index that is missing, damaged or built for another users.txt is
+ * rebuilt from users.txt when the file is opened.
+ *
+ * Deleted users are remembered until the next rewrite drops their lines.
+ */
+public class UserFile implements UserFileInterface {
+    public static final int MAGIC = 0x4D4B5553; // "MKUS"
+    public static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final int ENTRY_SIZE = 16;
+    private static final int USERNAME_FIELD = 0;
+    private static final int USER_ID_FIELD = 4;
+
+    private final String dataFileName;
+    private final String indexFileName;
+    private final Set<CompactId> deleted;   // guarded by this
+    private FileChannel data;               // null until opened, or when users.txt is missing
+    private MappedByteBuffer index;
+    private int count;
+    private BloomFilter idFilter;
+    private BloomFilter usernameFilter;
+    private long diskReads;
+    private long filterSkips;
+
+    /**
+     * Creates a handle for the given data and index files. Call open() before use.
+     */
+    public UserFile(String dataFileName, String indexFileName) {
+        this.dataFileName = dataFileName;
+        this.indexFileName = indexFileName;
+        this.deleted = new HashSet<>();
+        this.count = 0;
+        this.idFilter = new BloomFilter(0, BloomFilter.DEFAULT_BITS_PER_KEY);
+        this.usernameFilter = new BloomFilter(0, BloomFilter.DEFAULT_BITS_PER_KEY);
+    }
+
+    /**
+     * Opens users.txt and its index, rebuilding the index if it does not match.
+     */
+    @Override
+    public synchronized void open() throws IOException {
+        File dataFile = new File(dataFileName);
+        if (!dataFile.exists()) {
+            install(null, null, 0, new BloomFilter(0, BloomFilter.DEFAULT_BITS_PER_KEY),
+                    new BloomFilter(0, BloomFilter.DEFAULT_BITS_PER_KEY));
+            return;
+        }
+        if (!loadIndex(dataFile.length())) {
+            System.err.println("Rebuilding user index " + indexFileName);
+            List<String> none = new ArrayList<>();
+            write(none, new HashSet<>(), dataFileName + ".tmp", indexFileName + ".tmp");
+            replace(dataFileName + ".tmp", dataFileName);
+            replace(indexFileName + ".tmp", indexFileName);
+            if (!loadIndex(dataFile.length())) {
+                throw new IOException("Could not build user index " + indexFileName);
+            }
+        }
+    }
+
+    // Maps the index and installs it if it matches a data file of dataLength bytes
+    private boolean loadIndex(long dataLength) throws IOException {
+        File indexFile = new File(indexFileName);
+        if (!indexFile.exists() || indexFile.length() < HEADER_SIZE) {
+            return false;
+        }
+        MappedByteBuffer mapped;
+        try (RandomAccessFile file = new RandomAccessFile(indexFile, "r");
+             FileChannel channel = file.getChannel()) {
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (mapped.getInt(0) != MAGIC || mapped.getInt(4) > VERSION || mapped.getLong(16) != dataLength) {
+            return false;
+        }
+        int entries = mapped.getInt(8);
+        long bloomOffset = mapped.getLong(24);
+        if (bloomOffset != HEADER_SIZE + 2L * entries * ENTRY_SIZE || bloomOffset > mapped.capacity()) {
+            return false;
+        }
+        ByteBuffer blooms = mapped.duplicate();
+        blooms.position((int) bloomOffset);
+        BloomFilter ids = BloomFilter.fromBytes(readBlock(blooms));
+        BloomFilter usernames = BloomFilter.fromBytes(readBlock(blooms));
+        FileChannel channel = new RandomAccessFile(dataFileName, "r").getChannel();
+        install(channel, mapped, entries, ids, usernames);
+        return true;
+    }
+
+    private static byte[] readBlock(ByteBuffer buffer) {
+        byte[] block = new byte[buffer.getInt()];
+        buffer.get(block);
+        return block;
+    }
+
+    // Caller holds this
+    private void install(FileChannel channel, MappedByteBuffer mapped, int entries, BloomFilter ids, BloomFilter usernames)
+            throws IOException {
+        if (data != null) {
+            data.close();
+        }
+        data = channel;
+        index = mapped;
+        count = entries;
+        idFilter = ids;
+        usernameFilter = usernames;
+    }
+
+    /**
+     * Reads the line of the user with this ID, or returns null if there is none.
+     */
+    @Override
+    public synchronized String findById(CompactId userId) {
+        if (userId == null || deleted.contains(userId)) {
+            return null;
+        }
+        String id = userId.toString();
+        if (!idFilter.mightContain(id)) {
+            filterSkips++;
+            return null;
+        }
+        return find(0, id, USER_ID_FIELD);
+    }
+
+    /**
+     * Reads the line of the user with this username, or returns null if there is none.
+     */
+    @Override
+    public synchronized String findByUsername(String username) {
+        if (username == null) {
+            return null;
+        }
+        if (!usernameFilter.mightContain(username)) {
+            filterSkips++;
+            return null;
+        }
+        String line = find(count, username, USERNAME_FIELD);
+        if (line != null && deleted.contains(CompactId.of(field(line, USER_ID_FIELD)))) {
+            return null;
+        }
+        return line;
+    }
+
+    // Binary search of the table starting at entry firstEntry, then a check of each line with the same hash
+    private String find(int firstEntry, String key, int field) {
+        if (index == null || count == 0) {
+            return null;
+        }
+        long hash = hash(key);
+        int low = 0;
+        int high = count - 1;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (hashAt(firstEntry + middle) < hash) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        for (int i = low; i < count && hashAt(firstEntry + i) == hash; i++) {
+            try {
+                String line = readLine(index.getLong(HEADER_SIZE + (firstEntry + i) * ENTRY_SIZE + 8));
+                if (key.equals(field(line, field))) {
+                    return line;
+                }
+            } catch (IOException e) {
+                System.err.println("Error reading " + dataFileName + ": " + e.getMessage());
+                return null;
+            }
+        }
+        return null;
+    }
+
+    private long hashAt(int entry) {
+        return index.getLong(HEADER_SIZE + entry * ENTRY_SIZE);
+    }
+
+    private String readLine(long offset) throws IOException {
+        diskReads++;
+        ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+        ByteBuffer chunk = ByteBuffer.allocate(256);
+        long position = offset;
+        while (true) {
+            chunk.clear();
+            int read = data.read(chunk, position);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                byte b = chunk.get(i);
+                if (b == '\n') {
+                    return decode(line);
+                }
+                line.write(b);
+            }
+            position += read;
+        }
+        return decode(line);
+    }
+
+    private static String decode(ByteArrayOutputStream line) {
+        String text = new String(line.toByteArray(), StandardCharsets.UTF_8);
+        return text.endsWith("\r") ? text.substring(0, text.length() - 1) : text;
+    }
+
+    /**
+     * Passes every stored line, except those of deleted users, to action.
+     */
+    @Override
+    public void forEachLine(Consumer<String> action) throws IOException {
+        Set<CompactId> gone;
+        synchronized (this) {
+            gone = new HashSet<>(deleted);
+        }
+        File dataFile = new File(dataFileName);
+        if (!dataFile.exists()) {
+            return;
+        }
+        for (String line : Files.readAllLines(dataFile.toPath(), StandardCharsets.UTF_8)) {
+            if (!line.isEmpty() && !gone.contains(CompactId.of(field(line, USER_ID_FIELD)))) {
+                action.accept(line);
+            }
+        }
+    }
+
+    /**
+     * Remembers that a user was deleted, so it is no longer found and its
+     * line is dropped by the next rewrite.
+     */
+    @Override
+    public synchronized void markDeleted(CompactId userId) {
+        deleted.add(userId);
+    }
+
+    /**
+     * Checks whether a user was deleted since the last rewrite.
+     */
+    @Override
+    public synchronized boolean isDeleted(CompactId userId) {
+        return deleted.contains(userId);
+    }
+
+    /**
+     * Rewrites users.txt and its index. The given lines replace the stored
+     * lines of the same users and new users are added; every other stored
+     * line is copied, except those of deleted users. The files are written
+     * to temporary files without holding this handle's lock, then renamed
+     * over the old ones, so lookups keep reading the old files until then.
+     * Calls must not overlap.
+     */
+    @Override
+    public void rewrite(List<String> lines) throws IOException {
+        Set<CompactId> gone;
+        synchronized (this) {
+            gone = new HashSet<>(deleted);
+        }
+        String dataTemp = dataFileName + ".tmp";
+        String indexTemp = indexFileName + ".tmp";
+        long length = write(lines, gone, dataTemp, indexTemp);
+        synchronized (this) {
+            replace(dataTemp, dataFileName);
+            replace(indexTemp, indexFileName);
+            if (!loadIndex(length)) {
+                throw new IOException("User index does not match " + dataFileName);
+            }
+            deleted.removeAll(gone);
+        }
+    }
+
+    // Writes the merged data file and its index; returns the data file's length
+    private long write(List<String> lines, Set<CompactId> gone, String dataTemp, String indexTemp) throws IOException {
+        Set<CompactId> replaced = new HashSet<>();
+        for (String line : lines) {
+            replaced.add(CompactId.of(field(line, USER_ID_FIELD)));
+        }
+        List<long[]> byId = new ArrayList<>();
+        List<long[]> byUsername = new ArrayList<>();
+        List<String> ids = new ArrayList<>();
+        List<String> usernames = new ArrayList<>();
+        long offset = 0;
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(dataTemp))) {
+            List<String> merged = new ArrayList<>(lines);
+            File dataFile = new File(dataFileName);
+            if (dataFile.exists()) {
+                try (InputStream in = new BufferedInputStream(new FileInputStream(dataFile))) {
+                    String line;
+                    while ((line = nextLine(in)) != null) {
+                        CompactId id = CompactId.of(field(line, USER_ID_FIELD));
+                        if (!line.isEmpty() && !replaced.contains(id) && !gone.contains(id)) {
+                            merged.add(line);
+                        }
+                    }
+                }
+            }
+            for (String line : merged) {
+                String id = field(line, USER_ID_FIELD);
+                String username = field(line, USERNAME_FIELD);
+                if (id == null || username == null) {
+                    continue;
+                }
+                byte[] bytes = (line + "\n").getBytes(StandardCharsets.UTF_8);
+                out.write(bytes);
+                byId.add(new long[] {hash(id), offset});
+                byUsername.add(new long[] {hash(username), offset});
+                ids.add(id);
+                usernames.add(username);
+                offset += bytes.length;
+            }
+        }
+
+        BloomFilter idBloom = new BloomFilter(ids.size(), BloomFilter.DEFAULT_BITS_PER_KEY);
+        BloomFilter usernameBloom = new BloomFilter(usernames.size(), BloomFilter.DEFAULT_BITS_PER_KEY);
+        ids.forEach(idBloom::add);
+        usernames.forEach(usernameBloom::add);
+        byId.sort((a, b) -> Long.compare(a[0], b[0]));
+        byUsername.sort((a, b) -> Long.compare(a[0], b[0]));
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexTemp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(byId.size());
+            out.writeInt(0);
+            out.writeLong(offset);
+            out.writeLong(HEADER_SIZE + 2L * byId.size() * ENTRY_SIZE);
+            for (List<long[]> table : Arrays.asList(byId, byUsername)) {
+                for (long[] entry : table) {
+                    out.writeLong(entry[0]);
+                    out.writeLong(entry[1]);
+                }
+            }
+            for (BloomFilter filter : Arrays.asList(idBloom, usernameBloom)) {
+                byte[] bytes = filter.toBytes();
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+        }
+        return offset;
+    }
+
+    // Reads one UTF-8 line without its terminator, or returns null at the end of the stream
+    private static String nextLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+        int b;
+        while ((b = in.read()) != -1 && b != '\n') {
+            line.write(b);
+        }
+        if (b == -1 && line.size() == 0) {
+            return null;
+        }
+        return decode(line);
+    }
+
+    private static void replace(String source, String target) throws IOException {
+        try {
+            Files.move(new File(source).toPath(), new File(target).toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Files.move(new File(source).toPath(), new File(target).toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    // Gets one comma-separated field of a users.txt line, or null if the line is too short
+    private static String field(String line, int field) {
+        int start = 0;
+        for (int i = 0; i < field; i++) {
+            start = line.indexOf(',', start) + 1;
+            if (start == 0) {
+                return null;
+            }
+        }
+        int end = line.indexOf(',', start);
+        return end < 0 ? line.substring(start) : line.substring(start, end);
+    }
+
+    // 64-bit FNV-1a over the key's characters
+    private static long hash(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    /**
+     * Gets the number of users in the file when it was last written.
+     */
+    @Override
+    public synchronized int size() {
+        return count;
+    }
+
+    /**
+     * Gets the number of lines read from disk for lookups.
+     */
+    @Override
+    public synchronized long getDiskReads() {
+        return diskReads;
+    }
+
+    /**
+     * Gets the number of lookups a Bloom filter answered without reading the index.
+     */
+    @Override
+    public synchronized long getFilterSkips() {
+        return filterSkips;
+    }
+
+    /**
+     * Closes users.txt. The handle can be opened again.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        install(null, null, 0, new BloomFilter(0, BloomFilter.DEFAULT_BITS_PER_KEY),
+                new BloomFilter(0, BloomFilter.DEFAULT_BITS_PER_KEY));
+    }
+}
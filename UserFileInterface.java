@@ -0,0 +1,20 @@
+import java.io.IOException;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Interface for the UserFile class
+ */
+public interface UserFileInterface {
+    void open() throws IOException;
+    String findById(CompactId userId);
+    String findByUsername(String username);
+    void forEachLine(Consumer<String> action) throws IOException;
+    void markDeleted(CompactId userId);
+    boolean isDeleted(CompactId userId);
+    void rewrite(List<String> lines) throws IOException;
+    int size();
+    long getDiskReads();
+    long getFilterSkips();
+    void close() throws IOException;
+}
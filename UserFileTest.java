@@ -0,0 +1,90 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests for the indexed user file
+ */
+public class UserFileTest {
+
+	private static final String ALICE_ID = "0190f2a1-0000-7000-8000-000000000001";
+	private static final String BOB_ID = "0190f2a1-0000-7000-8000-000000000002";
+	private static final String CAROL_ID = "0190f2a1-0000-7000-8000-000000000003";
+
+	private File tempDir() throws Exception {
+		File dir = Files.createTempDirectory("users").toFile();
+		dir.deleteOnExit();
+		return dir;
+	}
+
+	private static String line(String username, String userId) {
+		return username + ",pass,bio," + 10.0 + "," + userId + ",,,";
+	}
+
+	/** Tests that users are found by ID and username from an index built for an existing users.txt. */
+	@Test
+	public void testBuildsIndexAndFinds() throws Exception {
+		File dir = tempDir();
+		File data = new File(dir, "users.txt");
+		Files.write(data.toPath(), Arrays.asList(line("alice", ALICE_ID), line("bob", BOB_ID)), StandardCharsets.UTF_8);
+		UserFile file = new UserFile(data.getPath(), new File(dir, "users.idx").getPath());
+		file.open();
+
+		assertEquals(2, file.size());
+		assertEquals(line("bob", BOB_ID), file.findById(CompactId.of(BOB_ID)));
+		assertEquals(line("alice", ALICE_ID), file.findByUsername("alice"));
+		assertEquals(2, file.getDiskReads());
+
+		// Unknown keys are turned away by the Bloom filters without reading users.txt
+		for (int i = 0; i < 50; i++) {
+			assertNull(file.findByUsername("nobody" + i));
+		}
+		assertTrue(file.getFilterSkips() > 40);
+		file.close();
+
+		// A second open reuses the index, a changed users.txt rebuilds it
+		file.open();
+		assertEquals(line("alice", ALICE_ID), file.findById(CompactId.of(ALICE_ID)));
+		file.close();
+		Files.write(data.toPath(), Arrays.asList(line("carol", CAROL_ID)), StandardCharsets.UTF_8);
+		file.open();
+		assertNull(file.findByUsername("alice"));
+		assertEquals(line("carol", CAROL_ID), file.findByUsername("carol"));
+		file.close();
+	}
+
+	/** Tests that a rewrite replaces changed users, adds new ones, keeps the rest and drops deleted ones. */
+	@Test
+	public void testRewriteMerges() throws Exception {
+		File dir = tempDir();
+		UserFile file = new UserFile(new File(dir, "users.txt").getPath(), new File(dir, "users.idx").getPath());
+		file.open();
+		assertEquals(0, file.size());
+		assertNull(file.findByUsername("alice"));
+
+		file.rewrite(Arrays.asList(line("alice", ALICE_ID), line("bob", BOB_ID)));
+		assertEquals(2, file.size());
+
+		file.markDeleted(CompactId.of(BOB_ID));
+		assertNull(file.findById(CompactId.of(BOB_ID)));
+		assertNull(file.findByUsername("bob"));
+
+		String richAlice = "alice,pass,bio,99.0," + ALICE_ID + ",,,";
+		file.rewrite(Arrays.asList(richAlice, line("carol", CAROL_ID)));
+		assertEquals(2, file.size());
+		assertFalse(file.isDeleted(CompactId.of(BOB_ID)));
+		assertEquals(richAlice, file.findByUsername("alice"));
+		assertEquals(line("carol", CAROL_ID), file.findById(CompactId.of(CAROL_ID)));
+		assertNull(file.findById(CompactId.of(BOB_ID)));
+
+		List<String> lines = new ArrayList<>();
+		file.forEachLine(lines::add);
+		assertEquals(Arrays.asList(richAlice, line("carol", CAROL_ID)), lines);
+		file.close();
+	}
+}
@@ -1,18 +1,19 @@
 import java.util.ArrayList;
+import java.util.List;
 
 public interface UserInterface {
     String getBio();
     String getUserId();
+    CompactId getUserKey();
     String getUsername();
     boolean validatePassword(String password);
     void depositFunds(double amount);
     boolean withdrawFunds(double amount);
     double getBalance();
-    void addListing(Item item);
-    boolean removeListing(String itemId);
-    void addToPurchaseHistory(Item item);
-    void recordItemSold(Item item);
     ArrayList<Item> getActiveListings();
     ArrayList<Item> getPurchaseHistory();
     ArrayList<Item> getSoldItems();
+    List<Item> viewActiveListings();
+    List<Item> viewPurchaseHistory();
+    List<Item> viewSoldItems();
 }
@@ -98,7 +98,7 @@ public class UserTest {
 		assertTrue(purchaseHistory.contains(purchasedItem));
 	}
 
-	/** Tests recording an item as sold. */
+	/** Tests that selling an item moves it from the active listings to the sold items. */
 	@Test
 	public void testRecordItemSold() {
 		Database db = new Database();
@@ -110,7 +110,6 @@ public class UserTest {
 		db.addItem(itemForSale);
 		assertTrue(seller.getActiveListings().contains(itemForSale));
 		itemForSale.markAsSold(buyer.getUserId());
-		seller.recordItemSold(itemForSale);
 		assertFalse(seller.getActiveListings().contains(itemForSale));
 		assertTrue(seller.getSoldItems().contains(itemForSale));
 	}
@@ -166,4 +165,37 @@ public class UserTest {
 		ArrayList<Item> soldItems = seller.getSoldItems();
 		assertTrue(soldItems.contains(itemSold));
 	}
+
+	/** Tests that listing views can be iterated while other threads list and sell items. */
+	@Test
+	public void testListingViewsDuringConcurrentChanges() throws Exception {
+		Database db = new Database();
+		db.addUser("viewer", "viewerPass", "Lists a lot.");
+		User user = db.getUserByUsername("viewer");
+		for (int i = 0; i < 50; i++) {
+			db.addItem(new Item(user.getUserId(), "Item " + i, "Thing " + i, "Other", i + 1));
+		}
+		Thread writer = new Thread(() -> {
+			for (int i = 50; i < 250; i++) {
+				Item item = new Item(user.getUserId(), "Item " + i, "Thing " + i, "Other", i + 1);
+				db.addItem(item);
+				item.markAsSold("buyer");
+			}
+		});
+		writer.start();
+		int iterations = 0;
+		while (writer.isAlive()) {
+			for (Item item : user.viewActiveListings()) {
+				assertNotNull(item.getItemId());
+			}
+			for (Item item : user.viewSoldItems()) {
+				assertEquals("buyer", item.getBuyerId());
+			}
+			iterations++;
+		}
+		writer.join();
+		assertTrue(iterations > 0);
+		assertEquals(50, user.viewActiveListings().size());
+		assertEquals(200, user.viewSoldItems().size());
+	}
 }
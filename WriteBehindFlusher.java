@@ -0,0 +1,137 @@
+/**
+ * Background thread that persists dirty users and items for a Database
+ * running in write-behind mode. Every pass coalesces all mutations made
+ * since the previous pass into a single rewrite of each data file.
+ */
+public class WriteBehindFlusher implements WriteBehindFlusherInterface, Runnable {
+    private final Database database;
+    private final long maxStalenessMillis;
+    private final Object lock = new Object();
+    private boolean running;
+    private boolean flushRequested;
+    private Thread thread;
+    private Thread shutdownHook;
+
+    /**
+     * Creates a flusher that persists pending changes at least every maxStalenessMillis.
+     */
+    public WriteBehindFlusher(Database database, long maxStalenessMillis) {
+        if (maxStalenessMillis <= 0) {
+            throw new IllegalArgumentException("maxStalenessMillis must be positive");
+        }
+        this.database = database;
+        this.maxStalenessMillis = maxStalenessMillis;
+        this.running = false;
+        this.flushRequested = false;
+    }
+
+    /**
+     * Starts the flusher thread and registers a JVM shutdown hook so pending
+     * changes are written even if the server is not closed cleanly.
+     */
+    @Override
+    public void start() {
+        synchronized (lock) {
+            if (running) {
+                return;
+            }
+            running = true;
+        }
+
+        thread = new Thread(this, "write-behind-flusher");
+        thread.setDaemon(true);
+        thread.start();
+
+        shutdownHook = new Thread(database::flush, "write-behind-shutdown");
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+    }
+
+    /**
+     * Stops the flusher thread and performs a final flush on the calling thread.
+     */
+    @Override
+    public void stop() {
+        synchronized (lock) {
+            if (!running) {
+                return;
+            }
+            running = false;
+            lock.notifyAll();
+        }
+
+        try {
+            thread.join(maxStalenessMillis + 1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        try {
+            Runtime.getRuntime().removeShutdownHook(shutdownHook);
+        } catch (IllegalStateException e) {
+            // JVM is already shutting down; the hook will run anyway
+        }
+
+        database.flush();
+    }
+
+    /**
+     * Wakes the flusher so it persists pending changes without waiting for the next pass.
+     */
+    @Override
+    public void requestFlush() {
+        synchronized (lock) {
+            flushRequested = true;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Checks whether the flusher thread is running.
+     */
+    @Override
+    public boolean isRunning() {
+        synchronized (lock) {
+            return running;
+        }
+    }
+
+    /**
+     * Gets the longest time a change may stay in memory before it is persisted.
+     */
+    @Override
+    public long getMaxStalenessMillis() {
+        return maxStalenessMillis;
+    }
+
+    /**
+     * Flush loop: sleeps until the staleness bound expires or a flush is requested.
+     */
+    @Override
+    public void run() {
+        while (true) {
+            synchronized (lock) {
+                long deadline = System.currentTimeMillis() + maxStalenessMillis;
+                long remaining = maxStalenessMillis;
+                while (running && !flushRequested && remaining > 0) {
+                    try {
+                        lock.wait(remaining);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                    remaining = deadline - System.currentTimeMillis();
+                }
+                if (!running) {
+                    return;
+                }
+                flushRequested = false;
+            }
+
+            try {
+                database.flush();
+            } catch (RuntimeException e) {
+                System.err.println("Error in write-behind flush: " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,10 @@
+/**
+ * Interface for the WriteBehindFlusher class
+ */
+public interface WriteBehindFlusherInterface {
+    void start();
+    void stop();
+    void requestFlush();
+    boolean isRunning();
+    long getMaxStalenessMillis();
+}
@@ -0,0 +1,47 @@
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Tests for the write-behind flusher
+ */
+public class WriteBehindFlusherTest {
+
+	/** Tests that a full pending queue wakes the flusher before the staleness bound. */
+	@Test
+	public void testPendingLimitTriggersFlush() throws Exception {
+		Database db = new Database();
+		db.enableWriteBehind(60000, 1);
+		db.addUser("fayiz", "fayizPass", "Sells refurbished keyboards.");
+
+		long deadline = System.currentTimeMillis() + 2000;
+		while (db.getPendingWriteCount() > 0 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(10);
+		}
+		assertEquals(0, db.getPendingWriteCount());
+		db.close();
+	}
+
+	/** Tests that stopping the flusher persists outstanding changes. */
+	@Test
+	public void testStopFlushesPendingChanges() {
+		Database db = new Database();
+		WriteBehindFlusher flusher = new WriteBehindFlusher(db, 60000);
+		flusher.start();
+		assertTrue(flusher.isRunning());
+
+		flusher.stop();
+		assertFalse(flusher.isRunning());
+		assertEquals(0, db.getPendingWriteCount());
+	}
+
+	/** Tests that a non-positive staleness bound is rejected. */
+	@Test
+	public void testRejectsNonPositiveStaleness() {
+		try {
+			new WriteBehindFlusher(new Database(), 0);
+			fail("Expected IllegalArgumentException");
+		} catch (IllegalArgumentException e) {
+			assertNotNull(e.getMessage());
+		}
+	}
+}